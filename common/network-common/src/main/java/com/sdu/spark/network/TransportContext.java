@@ -81,7 +81,7 @@ public class TransportContext {
             TransportChannelHandler channelHandler = createChannelHandler(channel, channelRpcHandler);
             channel.pipeline()
                     .addLast("encoder", ENCODER)
-                    .addLast(TransportFrameDecoder.HANDLER_NAME, new TransportFrameDecoder())
+                    .addLast(TransportFrameDecoder.HANDLER_NAME, new TransportFrameDecoder(conf.frameCopyThreshold()))
                     .addLast("decoder", DECODER)
                     .addLast("idleStateHandler", new IdleStateHandler(0, 0, 120))
                     // NOTE: Chunks are currently guaranteed to be returned in the order of request, but this
@@ -6,6 +6,7 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.sdu.spark.network.buffer.NioManagerBuffer;
 import com.sdu.spark.network.protocol.*;
 import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +33,8 @@ public class TransportClient implements Closeable {
     private TransportResponseHandler responseHandler;
     private String clientId;
     private volatile boolean timeout;
+    /** 延迟flush已调度, 仅在EventLoop线程访问 */
+    private boolean flushScheduled = false;
 
     public TransportClient(Channel channel, TransportResponseHandler responseHandler) {
         this.channel = channel;
@@ -47,7 +50,56 @@ public class TransportClient implements Closeable {
      * 发送单向消息
      * */
     public void send(ByteBuffer message) {
-        channel.writeAndFlush(new OneWayMessage(new NioManagerBuffer(message)));
+        send(message, true);
+    }
+
+    /**
+     * 发送单向消息
+     *
+     * @param flush false时仅写入Channel缓冲区, 由调用方{@link #flush()}合并发送
+     * */
+    public void send(ByteBuffer message, boolean flush) {
+        OneWayMessage oneWayMessage = new OneWayMessage(new NioManagerBuffer(message));
+        if (flush) {
+            channel.writeAndFlush(oneWayMessage);
+        } else {
+            channel.write(oneWayMessage);
+        }
+    }
+
+    /**
+     * 发送Channel缓冲区中已写入的消息
+     * */
+    public void flush() {
+        channel.flush();
+    }
+
+    /**
+     * delayMicros微秒后发送Channel缓冲区中已写入的消息, 期间重复调用合并为一次flush
+     *
+     * Note:
+     *
+     *  非EventLoop线程的write以任务形式提交到EventLoop, 调度判断同样提交到EventLoop, 保证判断时此前的write已写入缓冲区:
+     *
+     *  若在调用线程判断, 已调度的flush可能先于write执行, 而调用线程认为flush已调度, 导致消息滞留在缓冲区
+     * */
+    public void flushLater(long delayMicros) {
+        EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            scheduleFlush(eventLoop, delayMicros);
+        } else {
+            eventLoop.execute(() -> scheduleFlush(eventLoop, delayMicros));
+        }
+    }
+
+    private void scheduleFlush(EventLoop eventLoop, long delayMicros) {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            eventLoop.schedule(() -> {
+                flushScheduled = false;
+                channel.flush();
+            }, delayMicros, TimeUnit.MICROSECONDS);
+        }
     }
 
     public ByteBuffer sendRpcSync(ByteBuffer message, long timeoutMs) {
@@ -82,13 +134,23 @@ public class TransportClient implements Closeable {
      * 发送双向消息
      * */
     public long sendRpc(ByteBuffer message, RpcResponseCallback callback) {
+        return sendRpc(message, callback, true);
+    }
+
+    /**
+     * 发送双向消息
+     *
+     * @param flush false时仅写入Channel缓冲区, 由调用方{@link #flush()}合并发送
+     * */
+    public long sendRpc(ByteBuffer message, RpcResponseCallback callback, boolean flush) {
         long startTime = System.currentTimeMillis();
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("Sending RPC to {}", getRemoteAddress(channel));
         }
         long requestId = Math.abs(UUID.randomUUID().getLeastSignificantBits());
         responseHandler.addRpcRequest(requestId, callback);
-        channel.writeAndFlush(new RpcRequest(requestId, new NioManagerBuffer(message)))
+        RpcRequest request = new RpcRequest(requestId, new NioManagerBuffer(message));
+        (flush ? channel.writeAndFlush(request) : channel.write(request))
                 .addListener(future -> {
                     if (future.isSuccess()) {
                         long timeTaken = System.currentTimeMillis() - startTime;
@@ -176,6 +238,20 @@ public class TransportClient implements Closeable {
         });
     }
 
+    /**
+     * 未完成请求数(Rpc、ChunkFetch、Stream), 用于连接池选择负载最低的连接
+     * */
+    public int numOutstandingRequests() {
+        return responseHandler.numOutstandingRequests();
+    }
+
+    /**
+     * 当前繁忙期内接收的ChunkFetch/Stream字节数, 连接空闲时为0
+     * */
+    public long bulkBytesReceived() {
+        return responseHandler.bulkBytesReceived();
+    }
+
     public void removeRpcRequest(long requestId) {
         responseHandler.removeRpcRequest(requestId);
     }
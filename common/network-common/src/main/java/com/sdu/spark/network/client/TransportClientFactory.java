@@ -1,10 +1,12 @@
 package com.sdu.spark.network.client;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.sdu.spark.network.TransportContext;
 import com.sdu.spark.network.server.TransportChannelHandler;
 import com.sdu.spark.network.utils.IOModel;
 import com.sdu.spark.network.utils.JavaUtils;
+import com.sdu.spark.network.utils.NettyMemoryMetrics;
 import com.sdu.spark.network.utils.NettyUtils;
 import com.sdu.spark.network.utils.TransportConf;
 import io.netty.bootstrap.Bootstrap;
@@ -39,7 +41,11 @@ public class TransportClientFactory implements Closeable {
      * */
     private final ConcurrentHashMap<SocketAddress, ClientPool> connectionPool;
     /**
-     * 负载均衡
+     * 数据块传输连接池[key = 服务端地址, value = 连接池], 仅在开启separateBulkConnections时使用
+     * */
+    private final ConcurrentHashMap<SocketAddress, ClientPool> bulkConnectionPool;
+    /**
+     * 负载相同时随机选择起始连接, 避免总是选中同一连接
      * */
     private Random random = new Random();
 
@@ -47,6 +53,8 @@ public class TransportClientFactory implements Closeable {
      * 多个客户端共用
      * */
     private EventLoopGroup workerGroup;
+    private PooledByteBufAllocator pooledAllocator;
+    private NettyMemoryMetrics metrics;
     private final Class<? extends Channel> socketChannelClass;
 
 
@@ -73,26 +81,38 @@ public class TransportClientFactory implements Closeable {
         this.conf = context.getConf();
         this.clientBootstraps = clientBootstraps;
         this.connectionPool = new ConcurrentHashMap<>();
+        this.bulkConnectionPool = new ConcurrentHashMap<>();
         this.socketChannelClass = NettyUtils.getClientChannelClass(IOModel.convert(conf.ioModel()));
         this.workerGroup = NettyUtils.createEventLoop(IOModel.convert(conf.ioModel()), conf.clientThreads(),
                 conf.getModuleName() + "-client");
+        this.pooledAllocator = NettyUtils.getPooledByteBufAllocator(conf, conf.clientThreads());
+        this.metrics = new NettyMemoryMetrics(pooledAllocator, conf.getModuleName() + "-client");
     }
 
     /**
      * 创建连接
      *
-     * 1: 先在连接池中取
+     * 1: 先在连接池中取负载最低(未完成请求数最少, 其次当前繁忙期内接收数据块字节数最少)的可用连接
      *
-     * 2: 连接池中不存在, 则创建连接
+     * 2: 连接池中不存在可用连接或已有连接均有未完成请求且连接池未满, 则创建连接
      * */
     public TransportClient createClient(String remoteHost, int remotePort) throws IOException, InterruptedException {
+        return createClient(remoteHost, remotePort, false);
+    }
+
+    /**
+     * @param bulk 是否用于数据块传输(ChunkFetch/Stream/Upload), 开启separateBulkConnections时使用独立连接池
+     * */
+    public TransportClient createClient(String remoteHost, int remotePort, boolean bulk) throws IOException, InterruptedException {
         final InetSocketAddress address = InetSocketAddress.createUnresolved(remoteHost, remotePort);
-        ClientPool clientPool = connectionPool.get(address);
+        ConcurrentHashMap<SocketAddress, ClientPool> pools = bulk && conf.separateBulkConnections() ? bulkConnectionPool
+                                                                                                    : connectionPool;
+        ClientPool clientPool = pools.get(address);
         if (clientPool == null) {
-            connectionPool.putIfAbsent(address, new ClientPool(conf.numConnectionsPerPeer()));
-            clientPool = connectionPool.get(address);
+            pools.putIfAbsent(address, new ClientPool(conf.numConnectionsPerPeer()));
+            clientPool = pools.get(address);
         }
-        int clientIndex = random.nextInt(conf.numConnectionsPerPeer());
+        int clientIndex = selectClient(clientPool.clients, random.nextInt(clientPool.clients.length));
         TransportClient client = clientPool.clients[clientIndex];
         if (client != null && client.isActive()) {
             return client;
@@ -117,6 +137,41 @@ public class TransportClientFactory implements Closeable {
         }
     }
 
+    /**
+     * 从start开始选择负载最低的可用连接, 若其仍有未完成请求且存在空闲槽位, 则返回空闲槽位以创建新连接
+     *
+     * 未完成请求数相同时, 选择当前繁忙期内接收ChunkFetch/Stream字节数最少的连接, 避免大数据块集中在同一连接
+     * */
+    @VisibleForTesting
+    static int selectClient(TransportClient[] clients, int start) {
+        int numClients = clients.length;
+        int best = -1;
+        int bestOutstanding = Integer.MAX_VALUE;
+        long bestBulkBytes = Long.MAX_VALUE;
+        int emptySlot = -1;
+        for (int i = 0; i < numClients; ++i) {
+            int index = (start + i) % numClients;
+            TransportClient client = clients[index];
+            if (client == null || !client.isActive()) {
+                if (emptySlot < 0) {
+                    emptySlot = index;
+                }
+                continue;
+            }
+            int outstanding = client.numOutstandingRequests();
+            long bulkBytes = client.bulkBytesReceived();
+            if (outstanding < bestOutstanding || (outstanding == bestOutstanding && bulkBytes < bestBulkBytes)) {
+                best = index;
+                bestOutstanding = outstanding;
+                bestBulkBytes = bulkBytes;
+            }
+        }
+        if (best >= 0 && (bestOutstanding == 0 || emptySlot < 0)) {
+            return best;
+        }
+        return emptySlot >= 0 ? emptySlot : best;
+    }
+
     /**
      * 不需要创建连接池
      * */
@@ -135,7 +190,7 @@ public class TransportClientFactory implements Closeable {
                 .option(ChannelOption.TCP_NODELAY, true)
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 120)
-                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+                .option(ChannelOption.ALLOCATOR, pooledAllocator);
 
         final AtomicReference<TransportClient> clientRef = new AtomicReference<>();
         final AtomicReference<Channel> channelRef = new AtomicReference<>();
@@ -185,9 +240,16 @@ public class TransportClientFactory implements Closeable {
         return client;
     }
 
-    @Override
-    public void close() throws IOException {
-        for (ClientPool clientPool : connectionPool.values()) {
+    public PooledByteBufAllocator getPooledAllocator() {
+        return pooledAllocator;
+    }
+
+    public NettyMemoryMetrics getAllocatorMetrics() {
+        return metrics;
+    }
+
+    private void closePool(ConcurrentHashMap<SocketAddress, ClientPool> pools) {
+        for (ClientPool clientPool : pools.values()) {
             for (int i = 0; i < clientPool.clients.length; i++) {
                 TransportClient client = clientPool.clients[i];
                 if (client != null) {
@@ -196,7 +258,13 @@ public class TransportClientFactory implements Closeable {
                 }
             }
         }
-        connectionPool.clear();
+        pools.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closePool(connectionPool);
+        closePool(bulkConnectionPool);
 
         if (workerGroup != null) {
             workerGroup.shutdownGracefully();
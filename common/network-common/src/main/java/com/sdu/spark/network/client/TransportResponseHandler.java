@@ -38,6 +38,11 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
     private final Queue<Pair<String, StreamCallback>> streamCallbacks;
     private volatile boolean streamActive;
 
+    /**
+     * 当前繁忙期(连接存在未完成请求)内接收的ChunkFetch/Stream字节数, 连接空闲时清零, 用于连接选择
+     * */
+    private final AtomicLong bulkBytesReceived;
+
     /** Records the time (in system nanoseconds) that the last fetch or RPC request was sent. */
     private final AtomicLong timeOfLastRequestNs;
 
@@ -47,6 +52,7 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
         this.outstandingFetches = Maps.newConcurrentMap();
         this.streamCallbacks = Queues.newLinkedBlockingDeque();
         this.timeOfLastRequestNs = new AtomicLong(0);
+        this.bulkBytesReceived = new AtomicLong(0);
     }
 
     public void addFetchRequest(StreamChunkId streamChunkId, ChunkReceivedCallback callback) {
@@ -88,6 +94,7 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
                 resp.body().release();
             } else {
                 outstandingFetches.remove(resp.streamChunkId);
+                updateBulkBytesReceived(resp.body().size());
                 listener.onSuccess(resp.streamChunkId.chunkIndex, resp.body());
                 resp.body().release();
             }
@@ -99,6 +106,7 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
                         resp.streamChunkId, getRemoteAddress(channel), resp.errorString);
             } else {
                 outstandingFetches.remove(resp.streamChunkId);
+                updateBulkBytesReceived(0);
                 listener.onFailure(resp.streamChunkId.chunkIndex, new ChunkFetchFailureException(
                         "Failure while fetching " + resp.streamChunkId + ": " + resp.errorString));
             }
@@ -107,6 +115,7 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
             RpcResponseCallback listener = outstandingRpcCalls.get(resp.requestId);
             if (listener != null) {
                 outstandingRpcCalls.remove(resp.requestId);
+                updateBulkBytesReceived(0);
                 try {
                     listener.onSuccess(message.body().nioByteBuffer());
                 } finally {
@@ -124,9 +133,11 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
                         resp.requestId, getRemoteAddress(channel), resp.errorString);
             } else {
                 outstandingRpcCalls.remove(resp.requestId);
+                updateBulkBytesReceived(0);
                 listener.onFailure(new RuntimeException(resp.errorString));
             }
         } else if (message instanceof StreamResponse) {
+            updateBulkBytesReceived(((StreamResponse) message).byteCount);
             // TODO: 17/9/23  
         } else if (message instanceof StreamFailure) {
             // TODO: 17/9/23  
@@ -166,6 +177,21 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
         return timeOfLastRequestNs.get();
     }
 
+    /**
+     * 连接空闲(无未完成请求)时清零, 否则累加本次接收的数据块字节数
+     * */
+    private void updateBulkBytesReceived(long bytes) {
+        if (numOutstandingRequests() == 0) {
+            bulkBytesReceived.set(0);
+        } else if (bytes > 0) {
+            bulkBytesReceived.addAndGet(bytes);
+        }
+    }
+
+    public long bulkBytesReceived() {
+        return bulkBytesReceived.get();
+    }
+
     public int numOutstandingRequests() {
         return outstandingFetches.size() + outstandingRpcCalls.size() + streamCallbacks.size() +
                 (streamActive ? 1 : 0);
@@ -198,5 +224,6 @@ public class TransportResponseHandler extends MessageHandler<ResponseMessage> {
         outstandingFetches.clear();
         outstandingRpcCalls.clear();
         streamCallbacks.clear();
+        bulkBytesReceived.set(0);
     }
 }
@@ -46,12 +46,24 @@ public interface Message extends Encodable {
         public static Type decode(ByteBuf buf) {
             byte id = buf.readByte();
             switch (id) {
+                case 0:
+                    return ChunkFetchRequest;
+                case 1:
+                    return ChunkFetchSuccess;
+                case 2:
+                    return ChunkFetchFailure;
                 case 3:
                     return RpcRequest;
                 case 4:
                     return RpcResponse;
                 case 5:
                     return RpcFailure;
+                case 6:
+                    return StreamRequest;
+                case 7:
+                    return StreamResponse;
+                case 8:
+                    return StreamFailure;
                 case 9:
                     return OneWayMessage;
                 default:
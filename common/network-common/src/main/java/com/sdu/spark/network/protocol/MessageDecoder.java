@@ -34,12 +34,24 @@ public class MessageDecoder extends MessageToMessageDecoder<ByteBuf> {
 
     private Message decode(Message.Type msgType, ByteBuf in) {
         switch (msgType) {
+            case ChunkFetchRequest:
+                return ChunkFetchRequest.decode(in);
+            case ChunkFetchSuccess:
+                return ChunkFetchSuccess.decode(in);
+            case ChunkFetchFailure:
+                return ChunkFetchFailure.decode(in);
             case RpcRequest:
                 return RpcRequest.decode(in);
             case RpcResponse:
                 return RpcResponse.decode(in);
             case RpcFailure:
                 return RpcFailure.decode(in);
+            case StreamRequest:
+                return StreamRequest.decode(in);
+            case StreamResponse:
+                return StreamResponse.decode(in);
+            case StreamFailure:
+                return StreamFailure.decode(in);
             case OneWayMessage:
                 return OneWayMessage.decode(in);
             default:
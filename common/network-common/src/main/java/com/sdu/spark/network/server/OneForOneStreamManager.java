@@ -81,8 +81,9 @@ public class OneForOneStreamManager extends StreamManager {
 
     @Override
     public void registerChannel(Channel channel, long streamId) {
-        if (!streams.containsKey(streamId)) {
-            streams.get(streamId).associatedChannel = channel;
+        StreamState state = streams.get(streamId);
+        if (state != null) {
+            state.associatedChannel = channel;
         }
     }
 
@@ -5,6 +5,7 @@ import com.google.common.collect.Lists;
 import com.sdu.spark.network.TransportContext;
 import com.sdu.spark.network.utils.IOModel;
 import com.sdu.spark.network.utils.JavaUtils;
+import com.sdu.spark.network.utils.NettyMemoryMetrics;
 import com.sdu.spark.network.utils.NettyUtils;
 import com.sdu.spark.network.utils.TransportConf;
 import io.netty.bootstrap.ServerBootstrap;
@@ -37,6 +38,9 @@ public class TransportServer implements Closeable {
     private RpcHandler appRpcHandler;
     private List<TransportServerBootstrap> bootstraps;
 
+    private PooledByteBufAllocator pooledAllocator;
+    private NettyMemoryMetrics metrics;
+
     private ServerBootstrap bootstrap;
     private ChannelFuture channelFuture;
     private int port = -1;
@@ -61,9 +65,13 @@ public class TransportServer implements Closeable {
                 NettyUtils.createEventLoop(ioModel, conf.serverThreads(), conf.getModuleName() + "-server");
         EventLoopGroup workerGroup = bossGroup;
 
+        pooledAllocator = NettyUtils.getPooledByteBufAllocator(conf, conf.serverThreads());
+        metrics = new NettyMemoryMetrics(pooledAllocator, conf.getModuleName() + "-server");
+
         bootstrap = new ServerBootstrap().group(bossGroup, workerGroup)
                 .channel(NettyUtils.getServerChannelClass(ioModel))
-                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+                .option(ChannelOption.ALLOCATOR, pooledAllocator)
+                .childOption(ChannelOption.ALLOCATOR, pooledAllocator);
 
         if (conf.backLog() > 0) {
             bootstrap.option(ChannelOption.SO_BACKLOG, conf.backLog());
@@ -104,6 +112,14 @@ public class TransportServer implements Closeable {
         return port;
     }
 
+    public PooledByteBufAllocator getPooledAllocator() {
+        return pooledAllocator;
+    }
+
+    public NettyMemoryMetrics getAllocatorMetrics() {
+        return metrics;
+    }
+
     @Override
     public void close() throws IOException {
         if (channelFuture != null) {
@@ -0,0 +1,76 @@
+package com.sdu.spark.network.utils;
+
+import com.google.common.collect.Maps;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link NettyMemoryMetrics}统计{@link PooledByteBufAllocator}内存使用:
+ *
+ * 1: numDirectArenas/numHeapArenas: Arena数
+ *
+ * 2: usedDirectMemory/usedHeapMemory: Arena已分配(未释放)字节数
+ *
+ * 3: numActiveDirectAllocations/numActiveHeapAllocations: 未释放的ByteBuf数
+ *
+ * 4: numThreadLocalCaches: 线程本地缓存数
+ *
+ * Note:
+ *
+ *  共享Allocator时Server与Client返回相同统计值
+ *
+ * @author hanhan.zhang
+ * */
+public class NettyMemoryMetrics {
+
+    private final PooledByteBufAllocator pooledAllocator;
+    private final String metricPrefix;
+
+    public NettyMemoryMetrics(PooledByteBufAllocator pooledAllocator, String metricPrefix) {
+        this.pooledAllocator = pooledAllocator;
+        this.metricPrefix = metricPrefix;
+    }
+
+    public long usedDirectMemory() {
+        return activeBytes(pooledAllocator.directArenas());
+    }
+
+    public long usedHeapMemory() {
+        return activeBytes(pooledAllocator.heapArenas());
+    }
+
+    public Map<String, Long> metrics() {
+        Map<String, Long> metrics = Maps.newLinkedHashMap();
+        metrics.put(metricName("numDirectArenas"), (long) pooledAllocator.numDirectArenas());
+        metrics.put(metricName("numHeapArenas"), (long) pooledAllocator.numHeapArenas());
+        metrics.put(metricName("usedDirectMemory"), usedDirectMemory());
+        metrics.put(metricName("usedHeapMemory"), usedHeapMemory());
+        metrics.put(metricName("numActiveDirectAllocations"), activeAllocations(pooledAllocator.directArenas()));
+        metrics.put(metricName("numActiveHeapAllocations"), activeAllocations(pooledAllocator.heapArenas()));
+        metrics.put(metricName("numThreadLocalCaches"), (long) pooledAllocator.numThreadLocalCaches());
+        return metrics;
+    }
+
+    private String metricName(String name) {
+        return metricPrefix + "." + name;
+    }
+
+    private static long activeBytes(List<PoolArenaMetric> arenas) {
+        long bytes = 0L;
+        for (PoolArenaMetric arena : arenas) {
+            bytes += arena.numActiveBytes();
+        }
+        return bytes;
+    }
+
+    private static long activeAllocations(List<PoolArenaMetric> arenas) {
+        long allocations = 0L;
+        for (PoolArenaMetric arena : arenas) {
+            allocations += arena.numActiveAllocations();
+        }
+        return allocations;
+    }
+}
@@ -1,5 +1,6 @@
 package com.sdu.spark.network.utils;
 
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
@@ -10,6 +11,7 @@ import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
 
 import java.net.InetAddress;
 import java.util.concurrent.ThreadFactory;
@@ -20,6 +22,11 @@ import java.util.concurrent.ThreadFactory;
  * */
 public class NettyUtils {
 
+    /**
+     * JVM内共享的PooledByteBufAllocator: [0]允许堆外内存, [1]仅堆内存
+     * */
+    private static final PooledByteBufAllocator[] sharedPooledByteBufAllocator = new PooledByteBufAllocator[2];
+
     public static String getIpV4() {
         try {
             return InetAddress.getLocalHost().getHostAddress();
@@ -74,4 +81,54 @@ public class NettyUtils {
         }
     }
 
+    /**
+     * 创建PooledByteBufAllocator
+     *
+     * 1: Arena数不超过numCores, 避免默认(2 * CPU核数)Arena在多个模块中成倍占用堆外内存
+     *
+     * 2: allowCache = false时关闭线程本地缓存, 适用于非Netty EventLoop线程分配/释放ByteBuf的场景
+     *
+     * @param numCores Arena数上限, 0表示CPU核数
+     * */
+    public static PooledByteBufAllocator createPooledByteBufAllocator(boolean allowDirectBufs,
+                                                                      boolean allowCache,
+                                                                      int numCores) {
+        if (numCores == 0) {
+            numCores = Runtime.getRuntime().availableProcessors();
+        }
+        return new PooledByteBufAllocator(
+                allowDirectBufs && PlatformDependent.directBufferPreferred(),
+                Math.min(PooledByteBufAllocator.defaultNumHeapArena(), numCores),
+                Math.min(PooledByteBufAllocator.defaultNumDirectArena(), allowDirectBufs ? numCores : 0),
+                PooledByteBufAllocator.defaultPageSize(),
+                PooledByteBufAllocator.defaultMaxOrder(),
+                allowCache ? PooledByteBufAllocator.defaultTinyCacheSize() : 0,
+                allowCache ? PooledByteBufAllocator.defaultSmallCacheSize() : 0,
+                allowCache ? PooledByteBufAllocator.defaultNormalCacheSize() : 0);
+    }
+
+    /**
+     * 返回JVM内共享的PooledByteBufAllocator, Server与Client共用同一组Arena
+     * */
+    public static synchronized PooledByteBufAllocator getSharedPooledByteBufAllocator(boolean allowDirectBufs,
+                                                                                      boolean allowCache) {
+        final int index = allowDirectBufs ? 0 : 1;
+        if (sharedPooledByteBufAllocator[index] == null) {
+            sharedPooledByteBufAllocator[index] = createPooledByteBufAllocator(allowDirectBufs, allowCache, 0);
+        }
+        return sharedPooledByteBufAllocator[index];
+    }
+
+    /**
+     * 根据TransportConf选择共享或模块独立的PooledByteBufAllocator
+     *
+     * @param numCores 模块独立Allocator的Arena数上限
+     * */
+    public static PooledByteBufAllocator getPooledByteBufAllocator(TransportConf conf, int numCores) {
+        if (conf.sharedByteBufAllocators()) {
+            return getSharedPooledByteBufAllocator(conf.preferDirectBufs(), true);
+        }
+        return createPooledByteBufAllocator(conf.preferDirectBufs(), true, numCores);
+    }
+
 }
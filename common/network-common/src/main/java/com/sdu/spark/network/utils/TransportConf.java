@@ -44,11 +44,40 @@ public class TransportConf {
      * 数据请求重试次数
      * */
     public static final String SPARK_NETWORK_IO_MAXRETRIES_KEY = "io.maxRetries";
+    /**
+     * 数据块传输(ChunkFetch/Stream/Upload)使用独立连接池, 避免控制类Rpc请求排队在大数据块之后
+     * */
+    public static final String SPARK_NETWORK_IO_SEPARATE_BULK_CONNECTIONS_KEY = "io.separateBulkConnections";
+    /**
+     * OneForOneBlockFetcher流水线请求Chunk: 同一Stream保持多个未完成ChunkFetchRequest, 窗口随RTT及Chunk大小调整
+     * */
+    public static final String SPARK_NETWORK_IO_PIPELINED_FETCH_KEY = "io.pipelinedFetch";
+    /**
+     * 流水线初始/最大窗口(未完成Chunk请求数)
+     * */
+    public static final String SPARK_NETWORK_IO_FETCH_WINDOW_INITIAL_KEY = "io.fetchWindow.initial";
+    public static final String SPARK_NETWORK_IO_FETCH_WINDOW_MAX_KEY = "io.fetchWindow.max";
+    /**
+     * 流水线在途Chunk字节数上限, 窗口不超过maxBytesInFlight / 平均Chunk大小
+     * */
+    public static final String SPARK_NETWORK_IO_FETCH_WINDOW_MAX_BYTES_KEY = "io.fetchWindow.maxBytesInFlight";
     /**
      * 数据请求重试等待时间
      * */
     public static final String SPARK_NETWORK_IO_RETRYWAIT_KEY = "io.retryWait";
     public static final String SPARK_NETWORK_IO_LAZYFD_KEY = "io.lazyFD";
+    /**
+     * 优先使用堆外内存(Direct ByteBuf)
+     * */
+    public static final String SPARK_NETWORK_IO_PREFER_DIRECT_BUFS_KEY = "io.preferDirectBufs";
+    /**
+     * 同一JVM内Server与Client共享PooledByteBufAllocator, 避免每个模块独立Arena导致堆外内存成倍增长
+     * */
+    public static final String SPARK_NETWORK_IO_SHARED_BYTEBUF_ALLOCATORS_KEY = "io.sharedByteBufAllocators";
+    /**
+     * Frame跨越多个ByteBuf时, 小于该阈值的Frame拷贝到一个池化ByteBuf, 否则组合为CompositeByteBuf(零拷贝)
+     * */
+    public static final String SPARK_NETWORK_IO_FRAME_COPY_THRESHOLD_KEY = "io.frameCopyThreshold";
 
     private String module;
 
@@ -87,6 +116,10 @@ public class TransportConf {
         return conf.getInt(SPARK_NETWORK_IO_NUM_CONNECTIONS_PER_PEER_KEY, 10);
     }
 
+    public boolean separateBulkConnections() {
+        return conf.getBoolean(SPARK_NETWORK_IO_SEPARATE_BULK_CONNECTIONS_KEY, false);
+    }
+
     public int clientThreads() {
         return conf.getInt(SPARK_NETWORK_IO_CLIENT_THREADS_KEY, 10);
     }
@@ -108,6 +141,35 @@ public class TransportConf {
                 conf.get("spark.storage.memoryMapThreshold", "2m")));
     }
 
+    public boolean pipelinedFetch() {
+        return conf.getBoolean(SPARK_NETWORK_IO_PIPELINED_FETCH_KEY, true);
+    }
+
+    public int fetchWindowInitial() {
+        return Math.max(1, conf.getInt(SPARK_NETWORK_IO_FETCH_WINDOW_INITIAL_KEY, 8));
+    }
+
+    public int fetchWindowMax() {
+        return Math.max(fetchWindowInitial(), conf.getInt(SPARK_NETWORK_IO_FETCH_WINDOW_MAX_KEY, 128));
+    }
+
+    public long fetchWindowMaxBytesInFlight() {
+        return JavaUtils.byteStringAsBytes(conf.get(SPARK_NETWORK_IO_FETCH_WINDOW_MAX_BYTES_KEY, "48m"));
+    }
+
+    public boolean preferDirectBufs() {
+        return conf.getBoolean(SPARK_NETWORK_IO_PREFER_DIRECT_BUFS_KEY, true);
+    }
+
+    public boolean sharedByteBufAllocators() {
+        return conf.getBoolean(SPARK_NETWORK_IO_SHARED_BYTEBUF_ALLOCATORS_KEY, true);
+    }
+
+    public int frameCopyThreshold() {
+        return Ints.checkedCast(JavaUtils.byteStringAsBytes(
+                conf.get(SPARK_NETWORK_IO_FRAME_COPY_THRESHOLD_KEY, "64k")));
+    }
+
     public boolean lazyFileDescriptor() {
         return conf.getBoolean(SPARK_NETWORK_IO_LAZYFD_KEY, true);
     }
@@ -1,6 +1,7 @@
 package com.sdu.spark.network.utils;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
@@ -17,6 +18,10 @@ import java.util.LinkedList;
  *
  * 3: 读取ByteBuf交给{@link com.sdu.spark.network.protocol.MessageDecoder}处理
  *
+ * 4: Frame位于同一ByteBuf时直接切片(零拷贝); Frame跨越多个ByteBuf时, 小于copyThreshold的Frame拷贝到一个池化ByteBuf
+ *
+ *    (避免小消息CompositeByteBuf的组件管理开销), 大Frame(如ChunkFetchSuccess数据块)组合切片为CompositeByteBuf, 不拷贝数据
+ *
  * Note:
  *
  *  线程不安全, Netty处理链对每个SocketChannel需重建(也就是说，每个SocketChannel有自己的TransportFrameDecoder, 这是由于
@@ -55,6 +60,18 @@ public class TransportFrameDecoder extends ChannelInboundHandlerAdapter {
     private long nextFrameSize = UNKNOWN_FRAME_SIZE;
     private volatile Interceptor interceptor;
 
+    /**
+     * 跨越多个ByteBuf的Frame小于该值时拷贝, 否则组合为CompositeByteBuf
+     * */
+    private final int copyThreshold;
+
+    public TransportFrameDecoder() {
+        this(64 * 1024);
+    }
+
+    public TransportFrameDecoder(int copyThreshold) {
+        this.copyThreshold = copyThreshold;
+    }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
@@ -68,7 +85,7 @@ public class TransportFrameDecoder extends ChannelInboundHandlerAdapter {
             if (interceptor != null) {
 
             } else {
-                ByteBuf frame = decodeNext();
+                ByteBuf frame = decodeNext(ctx.alloc());
                 if (frame == null) {
                     break;
                 }
@@ -80,7 +97,7 @@ public class TransportFrameDecoder extends ChannelInboundHandlerAdapter {
     /**
      * 读取FrameBody
      * */
-    private ByteBuf decodeNext() throws Exception {
+    private ByteBuf decodeNext(ByteBufAllocator alloc) throws Exception {
         long frameSize = decodeFrameSize();
         if (frameSize == UNKNOWN_FRAME_SIZE || totalSize < frameSize) {
             // FrameBody已读取结束
@@ -95,8 +112,20 @@ public class TransportFrameDecoder extends ChannelInboundHandlerAdapter {
             return nextBufferForFrame(remaining);
         }
 
-        // Otherwise, create a composite buffer.
-        CompositeByteBuf frame = buffers.getFirst().alloc().compositeBuffer(Integer.MAX_VALUE);
+        if (remaining < copyThreshold) {
+            // 小Frame: 拷贝到一个池化ByteBuf
+            ByteBuf frame = alloc.buffer(remaining, remaining);
+            while (remaining > 0) {
+                ByteBuf next = nextBufferForFrame(remaining);
+                remaining -= next.readableBytes();
+                frame.writeBytes(next);
+                next.release();
+            }
+            return frame;
+        }
+
+        // 大Frame: 组合各ByteBuf切片, 不拷贝数据
+        CompositeByteBuf frame = alloc.compositeBuffer(Integer.MAX_VALUE);
         while (remaining > 0) {
             ByteBuf next = nextBufferForFrame(remaining);
             remaining -= next.readableBytes();
@@ -109,7 +138,8 @@ public class TransportFrameDecoder extends ChannelInboundHandlerAdapter {
     private ByteBuf nextBufferForFrame(int byteToRead) {
         ByteBuf buf = buffers.getFirst();
         if (buf.readableBytes() > byteToRead) {
-            ByteBuf frame = buf.readSlice(byteToRead);
+            // 同一ByteBuf可能包含多个Frame(发送端合并flush), 每个Frame切片持有一次引用
+            ByteBuf frame = buf.retain().readSlice(byteToRead);
             totalSize -= byteToRead;
             return frame;
         }
@@ -147,13 +177,14 @@ public class TransportFrameDecoder extends ChannelInboundHandlerAdapter {
             ByteBuf next = buffers.getFirst();
             int toRead = Math.min(next.readableBytes(), LENGTH_SIZE - frameLenBuf.readableBytes());
             frameLenBuf.writeBytes(next, toRead);
+            totalSize -= toRead;
             if (!next.isReadable()) {
-                buffers.removeFirst().readableBytes();
+                buffers.removeFirst().release();
             }
         }
 
-        nextFrameSize = frameLenBuf.readableBytes() - LENGTH_SIZE;
-        totalSize -= nextFrameSize;
+        // FrameLength跨越多个ByteBuf
+        nextFrameSize = frameLenBuf.readLong() - LENGTH_SIZE;
         frameLenBuf.clear();
         return nextFrameSize;
     }
@@ -68,7 +68,7 @@ public class ExternalShuffleClient implements ShuffleClient {
             RetryingBlockFetcher.BlockFetchStarter blockFetchStarter = new RetryingBlockFetcher.BlockFetchStarter() {
                 @Override
                 public void createAndStart(String[] blockIds, BlockFetchingListener listener) throws IOException, InterruptedException {
-                    TransportClient client = clientFactory.createClient(host, port);
+                    TransportClient client = clientFactory.createClient(host, port, true);
                     new OneForOneBlockFetcher(client, appId, execId, blockIds, listener, conf, tempShuffleFileManager).start();
                 }
             };
@@ -1,5 +1,6 @@
 package com.sdu.spark.network.shuffle;
 
+import com.google.common.collect.Lists;
 import com.sdu.spark.network.buffer.FileSegmentManagedBuffer;
 import com.sdu.spark.network.buffer.ManagedBuffer;
 import com.sdu.spark.network.client.ChunkReceivedCallback;
@@ -19,10 +20,22 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
-import java.util.Arrays;
+import java.util.List;
 
 /**
+ * {@link OneForOneBlockFetcher}以OpenBlocks打开Stream后逐个Chunk(Block)请求数据:
  *
+ * 1: 流水线模式(io.pipelinedFetch)下同一Stream最多保持window个未完成Chunk请求, 每完成一个Chunk补发请求,
+ *
+ *    避免一次性发送全部请求导致服务端排队及在途数据过多, 也避免逐个等待响应时延迟主导拉取时间
+ *
+ * 2: 窗口调整: Chunk往返时间(RTT)接近最小RTT时窗口加1, 出现排队(RTT > 2 * 最小RTT)时窗口减1,
+ *
+ *    且窗口不超过maxBytesInFlight / 平均Chunk大小
+ *
+ * 3: 窗口内多个Chunk同时在途, 响应及失败可能乱序到达: 某个Chunk失败后不再发送新请求, 所有尚未回调的Block
+ *
+ *    (包括在途Chunk)从最小下标开始依次置为失败, 之后到达的Chunk响应直接丢弃, 保证每个Block恰好回调一次
  *
  * @author hanhan.zhang
  * */
@@ -40,6 +53,14 @@ public class OneForOneBlockFetcher {
 
     private StreamHandle streamHandle = null;
 
+    /** 下一个待请求的Chunk */
+    private int nextChunkIndex = 0;
+    private int numInFlight = 0;
+    private boolean failed = false;
+    /** 已回调(成功或失败)的Block, 下标为chunkIndex */
+    private final boolean[] reported;
+    private FetchWindow fetchWindow;
+
     public OneForOneBlockFetcher(
             TransportClient client,
             String appId,
@@ -61,6 +82,7 @@ public class OneForOneBlockFetcher {
         this.client = client;
         this.openMessage = new OpenBlocks(appId, execId, blockIds);
         this.blockIds = blockIds;
+        this.reported = new boolean[blockIds.length];
         this.listener = listener;
         this.chunkCallback = new ChunkCallback();
         this.transportConf = transportConf;
@@ -77,14 +99,12 @@ public class OneForOneBlockFetcher {
                 try {
                     streamHandle = (StreamHandle) BlockTransferMessage.Decoder.fromByteBuffer(response);
                     LOGGER.trace("Successfully opened blocks {}, preparing to fetch chunks.", streamHandle);
-                    // 逐个请求
-                    for (int i = 0; i < streamHandle.numChunks; ++i) {
-                        if (tempShuffleFileManager != null) {
-                            client.stream(genStreamChunkId(streamHandle.streamId, i), new DownloadCallback(i));
-                        } else {
-                            client.fetchChunk(streamHandle.streamId, i, new ChunkCallback());
-                        }
-                    }
+                    fetchWindow = transportConf.pipelinedFetch()
+                            ? new FetchWindow(streamHandle.numChunks, transportConf.fetchWindowInitial(),
+                                              transportConf.fetchWindowMax(), transportConf.fetchWindowMaxBytesInFlight())
+                            : new FetchWindow(streamHandle.numChunks, streamHandle.numChunks,
+                                              streamHandle.numChunks, Long.MAX_VALUE);
+                    fetchNextChunks();
                 } catch (Exception e) {
                     LOGGER.error("Failed while starting block fetches after success", e);
                     failRemainingBlocks(blockIds, e);
@@ -99,6 +119,70 @@ public class OneForOneBlockFetcher {
         });
     }
 
+    /**
+     * 在窗口允许范围内发送Chunk请求
+     * */
+    private synchronized void fetchNextChunks() throws IOException {
+        while (!failed && nextChunkIndex < streamHandle.numChunks && numInFlight < fetchWindow.window) {
+            int chunkIndex = nextChunkIndex;
+            DownloadCallback downloadCallback = tempShuffleFileManager != null ? new DownloadCallback(chunkIndex) : null;
+            nextChunkIndex++;
+            numInFlight++;
+            fetchWindow.onRequest(chunkIndex);
+            if (downloadCallback != null) {
+                client.stream(genStreamChunkId(streamHandle.streamId, chunkIndex), downloadCallback);
+            } else {
+                client.fetchChunk(streamHandle.streamId, chunkIndex, chunkCallback);
+            }
+        }
+    }
+
+    /**
+     * @return false表示该Block已因其他Chunk失败而回调失败, 忽略该Chunk
+     * */
+    private synchronized boolean onChunkSuccess(int chunkIndex, long chunkBytes) {
+        numInFlight--;
+        if (reported[chunkIndex]) {
+            return false;
+        }
+        reported[chunkIndex] = true;
+        fetchWindow.onResponse(chunkIndex, chunkBytes);
+        return true;
+    }
+
+    private void fetchNextChunksAfterSuccess() {
+        try {
+            fetchNextChunks();
+        } catch (Exception e) {
+            LOGGER.error("Failed while fetching chunk {}", nextChunkIndex, e);
+            failUnreportedBlocks(e);
+        }
+    }
+
+    private void onChunkFailure(int chunkIndex, Throwable e) {
+        synchronized (this) {
+            numInFlight--;
+        }
+        failUnreportedBlocks(e);
+    }
+
+    /**
+     * 所有尚未回调的Block(包括在途Chunk)从最小下标开始依次置为失败
+     * */
+    private void failUnreportedBlocks(Throwable e) {
+        List<String> failedBlockIds = Lists.newArrayList();
+        synchronized (this) {
+            failed = true;
+            for (int i = 0; i < blockIds.length; ++i) {
+                if (!reported[i]) {
+                    reported[i] = true;
+                    failedBlockIds.add(blockIds[i]);
+                }
+            }
+        }
+        failRemainingBlocks(failedBlockIds.toArray(new String[failedBlockIds.size()]), e);
+    }
+
     private void failRemainingBlocks(String[] failedBlockIds, Throwable e) {
         for (String blockId : failedBlockIds) {
             try {
@@ -134,6 +218,10 @@ public class OneForOneBlockFetcher {
         public void onComplete(String streamId) throws IOException {
             channel.close();
             channel.close();
+            if (!onChunkSuccess(chunkIndex, targetFile.length())) {
+                targetFile.delete();
+                return;
+            }
             // 缓解内存使用
             ManagedBuffer buffer = new FileSegmentManagedBuffer(transportConf, targetFile, 0, targetFile.length());
             listener.onBlockFetchSuccess(blockIds[chunkIndex], buffer);
@@ -141,14 +229,13 @@ public class OneForOneBlockFetcher {
                 // 使用方不处理Shuffle Block数据文件, 由自身对Shuffle Block文件做删除操作
                 targetFile.delete();
             }
+            fetchNextChunksAfterSuccess();
         }
 
         @Override
         public void onFailure(String streamId, Throwable cause) throws IOException {
             channel.close();
-            // On receipt of a failure, fail every block from chunkIndex onwards.
-            String[] remainingBlockIds = Arrays.copyOfRange(blockIds, chunkIndex, blockIds.length);
-            failRemainingBlocks(remainingBlockIds, cause);
+            onChunkFailure(chunkIndex, cause);
             targetFile.delete();
         }
 
@@ -157,13 +244,58 @@ public class OneForOneBlockFetcher {
     private class ChunkCallback implements ChunkReceivedCallback {
         @Override
         public void onSuccess(int chunkIndex, ManagedBuffer buffer) {
+            if (!onChunkSuccess(chunkIndex, buffer.size())) {
+                return;
+            }
             listener.onBlockFetchSuccess(blockIds[chunkIndex], buffer);
+            fetchNextChunksAfterSuccess();
         }
 
         @Override
         public void onFailure(int chunkIndex, Throwable e) {
-            String[] remainingBlockIds = Arrays.copyOfRange(blockIds, chunkIndex, blockIds.length);
-            failRemainingBlocks(remainingBlockIds, e);
+            onChunkFailure(chunkIndex, e);
+        }
+    }
+
+    /**
+     * Chunk请求窗口, 根据Chunk往返时间及大小调整
+     * */
+    private static class FetchWindow {
+
+        private final int maxWindow;
+        private final long maxBytesInFlight;
+        private final long[] requestNanos;
+
+        int window;
+        private long minRttNanos = Long.MAX_VALUE;
+        private long avgChunkBytes = 0L;
+
+        FetchWindow(int numChunks, int initialWindow, int maxWindow, long maxBytesInFlight) {
+            this.window = Math.max(1, initialWindow);
+            this.maxWindow = Math.max(this.window, maxWindow);
+            this.maxBytesInFlight = maxBytesInFlight;
+            this.requestNanos = new long[numChunks];
+        }
+
+        void onRequest(int chunkIndex) {
+            requestNanos[chunkIndex] = System.nanoTime();
+        }
+
+        void onResponse(int chunkIndex, long chunkBytes) {
+            long rttNanos = System.nanoTime() - requestNanos[chunkIndex];
+            minRttNanos = Math.min(minRttNanos, rttNanos);
+            avgChunkBytes = avgChunkBytes == 0L ? chunkBytes : (avgChunkBytes * 7 + chunkBytes) / 8;
+
+            if (rttNanos <= 2 * minRttNanos) {
+                // 未出现排队, 增大窗口以覆盖往返延迟
+                window = Math.min(maxWindow, window + 1);
+            } else {
+                window = Math.max(1, window - 1);
+            }
+            if (avgChunkBytes > 0) {
+                long bytesWindow = Math.max(1L, maxBytesInFlight / avgChunkBytes);
+                window = (int) Math.min(window, bytesWindow);
+            }
         }
     }
 }
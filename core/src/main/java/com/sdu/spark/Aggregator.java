@@ -19,18 +19,28 @@ public class Aggregator<K, V, C> implements Serializable {
     public CombinerCreator<V, C> combinerCreator;
     public CombinerAdd<V, C> combinerAdd;
     public CombinerMerge<C> combinerMerge;
+    /**
+     * Key类型(可为null), 声明为Long/Integer时聚合使用原始类型Key的集合(Key不允许为null), 减少Key装箱对象的内存占用
+     * */
+    public Class<K> keyClass;
 
     public Aggregator(CombinerCreator<V, C> combinerCreator, CombinerAdd<V, C> combinerAdd, CombinerMerge<C> combinerMerge) {
+        this(combinerCreator, combinerAdd, combinerMerge, null);
+    }
+
+    public Aggregator(CombinerCreator<V, C> combinerCreator, CombinerAdd<V, C> combinerAdd, CombinerMerge<C> combinerMerge,
+                      Class<K> keyClass) {
         this.combinerCreator = combinerCreator;
         this.combinerAdd = combinerAdd;
         this.combinerMerge = combinerMerge;
+        this.keyClass = keyClass;
     }
 
     /**
      * 聚合Key对应Value(单条记录)
      * */
     public Iterator<Tuple2<K, C>> combineValueByKey(Iterator<Product2<K, V>> iterator, TaskContext context) {
-        ExternalAppendOnlyMap<K, V, C> combiners = new ExternalAppendOnlyMap<>(combinerCreator, combinerAdd, combinerMerge);
+        ExternalAppendOnlyMap<K, V, C> combiners = new ExternalAppendOnlyMap<>(combinerCreator, combinerAdd, combinerMerge, keyClass);
         combiners.insertAll(iterator);
         updateMetrics(context, combiners);
         return combiners.iterator();
@@ -45,7 +55,7 @@ public class Aggregator<K, V, C> implements Serializable {
         CombinerCreator<C, C> identity = (val) -> val;
         CombinerAdd<C, C> merge = this.combinerMerge::mergeCombiners;
 
-        ExternalAppendOnlyMap<K, C, C> combiners = new ExternalAppendOnlyMap<>(identity, merge, combinerMerge);
+        ExternalAppendOnlyMap<K, C, C> combiners = new ExternalAppendOnlyMap<>(identity, merge, combinerMerge, keyClass);
         combiners.insertAll(iterator);
         updateMetrics(context, combiners);
         return combiners.iterator();
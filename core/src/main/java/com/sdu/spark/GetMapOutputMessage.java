@@ -13,8 +13,20 @@ public class GetMapOutputMessage implements Serializable {
 
     public RpcCallContext context;
 
+    /**
+     * 请求sinceVersion之后的Map输出变化({@link MapOutputTrackerMessage.GetMapOutputStatusesSince}),
+     *
+     * 为null时请求全部Map输出的序列化结果({@link MapOutputTrackerMessage.GetMapOutputStatuses})
+     * */
+    public Long sinceVersion;
+
     public GetMapOutputMessage(int shuffleId, RpcCallContext context) {
+        this(shuffleId, null, context);
+    }
+
+    public GetMapOutputMessage(int shuffleId, Long sinceVersion, RpcCallContext context) {
         this.shuffleId = shuffleId;
+        this.sinceVersion = sinceVersion;
         this.context = context;
     }
 
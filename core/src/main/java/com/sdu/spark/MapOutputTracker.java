@@ -1,15 +1,13 @@
 package com.sdu.spark;
 
-import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.sdu.spark.broadcast.Broadcast;
 import com.sdu.spark.broadcast.BroadcastManager;
 import com.sdu.spark.rpc.RpcEndpointRef;
 import com.sdu.spark.rpc.SparkConf;
 import com.sdu.spark.scheduler.MapStatus;
-import com.sdu.spark.shuffle.FetchFailedException.MetadataFetchFailedException;
+import com.sdu.spark.scheduler.MapStatusIndex.BlocksByAddress;
 import com.sdu.spark.storage.BlockId;
-import com.sdu.spark.storage.BlockId.ShuffleBlockId;
 import com.sdu.spark.storage.BlockManagerId;
 import com.sdu.spark.utils.scala.Tuple2;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -76,10 +74,30 @@ public abstract class MapOutputTracker {
         }
     }
 
+    /**
+     * @return Reduce分区[startPartition, endPartition)的Block, 按BlockManagerId(Shuffle数据存储Executor)分组
+     * */
+    public BlocksByAddress getMapSizesByRange(int shuffleId, int startPartition, int endPartition) {
+        return getMapSizesByRange(shuffleId, 0, Integer.MAX_VALUE, startPartition, endPartition);
+    }
+
+    /**
+     * @return Map输出[startMapIndex, endMapIndex)中Reduce分区[startPartition, endPartition)的Block, 按BlockManagerId分组
+     * */
+    public abstract BlocksByAddress getMapSizesByRange(int shuffleId, int startMapIndex, int endMapIndex,
+                                                       int startPartition, int endPartition);
+
     /**
      * @return key = BlockManagerId(Shuffle数据存储Executor) value = [key = BlockId, value = 数据块大小]
      * */
-    public abstract Multimap<BlockManagerId, Tuple2<BlockId, Long>> getMapSizesByExecutorId(int shuffleId, int startPartition, int endPartition);
+    public Multimap<BlockManagerId, Tuple2<BlockId, Long>> getMapSizesByExecutorId(int shuffleId, int startPartition, int endPartition) {
+        return getMapSizesByRange(shuffleId, startPartition, endPartition).toMultimap();
+    }
+
+    public Multimap<BlockManagerId, Tuple2<BlockId, Long>> getMapSizesByExecutorId(int shuffleId, int startMapIndex, int endMapIndex,
+                                                                                  int startPartition, int endPartition) {
+        return getMapSizesByRange(shuffleId, startMapIndex, endMapIndex, startPartition, endPartition).toMultimap();
+    }
 
     public abstract void unregisterShuffle(int shuffleId);
 
@@ -150,27 +168,4 @@ public abstract class MapOutputTracker {
             return null;
         }
     }
-
-    protected static Multimap<BlockManagerId, Tuple2<BlockId, Long>> convertMapStatuses(int shuffleId,
-                                                                                        int startPartition,
-                                                                                        int endPartition,
-                                                                                        MapStatus[] statuses) {
-        assert (statuses != null);
-        Multimap<BlockManagerId, Tuple2<BlockId, Long>> splitsByAddress = LinkedHashMultimap.create();
-        for (int i = 0; i < statuses.length; ++i) {
-            MapStatus status = statuses[i];
-            if (status == null) {
-                String errorMessage = String.format("Missing an combinerMerge location for shuffle %d", shuffleId);
-                LOGGER.error(errorMessage);
-                throw new MetadataFetchFailedException(shuffleId, startPartition, errorMessage);
-            }
-            for (int part = startPartition; part <= endPartition; ++part) {
-                ShuffleBlockId shuffleBlockId = new ShuffleBlockId(shuffleId, i, part);
-                Tuple2<BlockId, Long> blockIdInfo = new Tuple2<>(shuffleBlockId, status.getSizeForBlock(part));
-                splitsByAddress.put(status.location(), blockIdInfo);
-            }
-        }
-
-        return splitsByAddress;
-    }
 }
@@ -1,18 +1,15 @@
 package com.sdu.spark;
 
-import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.sdu.spark.broadcast.BroadcastManager;
 import com.sdu.spark.rpc.RpcCallContext;
 import com.sdu.spark.rpc.SparkConf;
 import com.sdu.spark.scheduler.MapStatus;
+import com.sdu.spark.scheduler.MapStatusIndex.BlocksByAddress;
 import com.sdu.spark.serializer.Serializer;
-import com.sdu.spark.storage.BlockId;
 import com.sdu.spark.storage.BlockManagerId;
 import com.sdu.spark.utils.ThreadUtils;
-import com.sdu.spark.utils.scala.Tuple2;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +20,8 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.sdu.spark.utils.RpcUtils.maxMessageSizeBytes;
 
@@ -31,7 +30,11 @@ import static com.sdu.spark.utils.RpcUtils.maxMessageSizeBytes;
  *
  *  1: {@link #shuffleStatuses} 维护ShuffleMapStage状态
  *
- *  2: {@link #mapOutputRequests}
+ *  2: {@link #mapOutputRequests} 按shuffleId分片的Map输出请求队列, 每个分片由一个常驻线程处理:
+ *
+ *     同一Shuffle请求由同一线程串行处理(首个请求序列化, 后续请求命中缓存), 不同Shuffle请求并行处理
+ *
+ *  3: 统计请求队列深度及序列化耗时({@link #mapOutputServingMetrics()})
  *
  * @author hanhan.zhang
  * */
@@ -60,11 +63,19 @@ public class MapOutputTrackerMaster extends MapOutputTracker {
 
     private long maxRpcMessageSize;
 
-    private LinkedBlockingQueue<GetMapOutputMessage> mapOutputRequests;
+    // 每个Shuffle保留最近Map输出变化数, 用于回复Worker增量请求
+    private int changeLogCapacity;
+
+    private LinkedBlockingQueue<GetMapOutputMessage>[] mapOutputRequests;
     // 标识退出消息处理线程
     private static final GetMapOutputMessage PoisonPill = new GetMapOutputMessage(-99, null);
     private ThreadPoolExecutor threadpool;
 
+    private final AtomicLong numServedRequests = new AtomicLong(0L);
+    private final AtomicLong numSerializations = new AtomicLong(0L);
+    private final AtomicLong totalSerializationTimeNanos = new AtomicLong(0L);
+    private final AtomicLong maxSerializationTimeNanos = new AtomicLong(0L);
+
     public MapOutputTrackerMaster(SparkConf conf, BroadcastManager broadcastManager, boolean isLocal) {
         super(conf);
         this.broadcastManager = broadcastManager;
@@ -75,6 +86,7 @@ public class MapOutputTrackerMaster extends MapOutputTracker {
 
         this.minSizeForBroadcast = conf.getSizeAsBytes("spark.shuffle.mapOutput.minSizeForBroadcast", "512K");
         this.maxRpcMessageSize = maxMessageSizeBytes(conf);
+        this.changeLogCapacity = conf.getInt("spark.shuffle.mapOutput.changeLogSize", 4096);
         if (minSizeForBroadcast > maxRpcMessageSize) {
             String msg = String.format("spark.shuffle.mapOutput.minSizeForBroadcast (%s bytes) must " +
                     "be <= spark.rpc.message.maxSize (%s bytes) to prevent sending an rpc " +
@@ -83,20 +95,59 @@ public class MapOutputTrackerMaster extends MapOutputTracker {
             throw new IllegalArgumentException(msg);
         }
 
-        this.mapOutputRequests = new LinkedBlockingQueue<>();
-        int numThreads = conf.getInt("spark.shuffle.mapOutput.dispatcher.numThreads", 8);
-        this.threadpool = ThreadUtils.newDaemonFixedThreadPool(numThreads, "map-combinerMerge-dispatcher");
+        int numThreads = Math.max(1, conf.getInt("spark.shuffle.mapOutput.dispatcher.numThreads", 8));
+        this.mapOutputRequests = newRequestQueues(numThreads);
+        this.threadpool = ThreadUtils.newDaemonFixedThreadPool(numThreads, "map-output-dispatcher-%d");
         for (int i = 0; i < numThreads; ++i) {
-            this.threadpool.execute(new MessageLoop());
+            this.threadpool.execute(new MessageLoop(mapOutputRequests[i]));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LinkedBlockingQueue<GetMapOutputMessage>[] newRequestQueues(int numShards) {
+        LinkedBlockingQueue<GetMapOutputMessage>[] queues = new LinkedBlockingQueue[numShards];
+        for (int i = 0; i < numShards; ++i) {
+            queues[i] = new LinkedBlockingQueue<>();
         }
+        return queues;
     }
 
     public void post(GetMapOutputMessage msg) {
-        mapOutputRequests.offer(msg);
+        mapOutputRequests[Math.floorMod(msg.shuffleId, mapOutputRequests.length)].offer(msg);
+    }
+
+    /** 待处理的Map输出请求数 */
+    public int mapOutputRequestQueueDepth() {
+        int depth = 0;
+        for (LinkedBlockingQueue<GetMapOutputMessage> queue : mapOutputRequests) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public Map<String, Long> mapOutputServingMetrics() {
+        Map<String, Long> metrics = Maps.newLinkedHashMap();
+        long maxShardDepth = 0L;
+        for (LinkedBlockingQueue<GetMapOutputMessage> queue : mapOutputRequests) {
+            maxShardDepth = Math.max(maxShardDepth, queue.size());
+        }
+        metrics.put("queueDepth", (long) mapOutputRequestQueueDepth());
+        metrics.put("maxShardQueueDepth", maxShardDepth);
+        metrics.put("numServedRequests", numServedRequests.get());
+        metrics.put("numSerializations", numSerializations.get());
+        metrics.put("totalSerializationTimeMs", TimeUnit.NANOSECONDS.toMillis(totalSerializationTimeNanos.get()));
+        metrics.put("maxSerializationTimeMs", TimeUnit.NANOSECONDS.toMillis(maxSerializationTimeNanos.get()));
+        return metrics;
+    }
+
+    private void recordSerializationTime(long nanos) {
+        numSerializations.incrementAndGet();
+        totalSerializationTimeNanos.addAndGet(nanos);
+        maxSerializationTimeNanos.accumulateAndGet(nanos, Math::max);
     }
 
     public void registerShuffle(int shuffleId, int numMaps) {
-        if (shuffleStatuses.putIfAbsent(shuffleId, new ShuffleStatus(numMaps)) == null) {
+        if (shuffleStatuses.putIfAbsent(shuffleId, new ShuffleStatus(numMaps, changeLogCapacity)) != null) {
             throw new IllegalArgumentException("Shuffle ID " + shuffleId + " registered twice");
         }
     }
@@ -116,14 +167,26 @@ public class MapOutputTrackerMaster extends MapOutputTracker {
     }
 
     @Override
-    public Multimap<BlockManagerId, Tuple2<BlockId, Long>> getMapSizesByExecutorId(int shuffleId, int startPartition, int endPartition) {
-        LOGGER.info("Fetching outputs for shuffle $shuffleId, partitions {}-{}", startPartition, endPartition);
+    public BlocksByAddress getMapSizesByRange(int shuffleId, int startMapIndex, int endMapIndex,
+                                              int startPartition, int endPartition) {
+        LOGGER.info("Fetching outputs for shuffle {}, maps {}-{}, partitions {}-{}", shuffleId, startMapIndex,
+                    endMapIndex, startPartition, endPartition);
+        ShuffleStatus status = shuffleStatuses.get(shuffleId);
+        if (status == null) {
+            return BlocksByAddress.empty(shuffleId);
+        }
+        return status.mapStatusIndex().query(shuffleId, startMapIndex, endMapIndex, startPartition, endPartition);
+    }
+
+    /**
+     * @return Reduce分区reduceId在各Map输出的数据量, 下标为mapId(用于拆分倾斜的Reduce分区)
+     * */
+    public long[] getMapSizesOfPartition(int shuffleId, int reduceId) {
         ShuffleStatus status = shuffleStatuses.get(shuffleId);
         if (status == null) {
-            return LinkedHashMultimap.create();
+            throw new IllegalArgumentException("shuffleId " + shuffleId + " not exist");
         }
-        return status.withMapStatuses(mapStatuses ->
-                MapOutputTracker.convertMapStatuses(shuffleId, startPartition, endPartition, mapStatuses));
+        return status.mapStatusIndex().mapSizesOfPartition(shuffleId, reduceId);
     }
 
     public void unregisterMapOutput(int shuffleId, int mapId, BlockManagerId bmAddress) throws SparkException {
@@ -181,9 +244,9 @@ public class MapOutputTrackerMaster extends MapOutputTracker {
 
         return status.withMapStatuses(mapStatuses -> {
             long[] totalSizes = new long[dep.partitioner.numPartitions()];
-            for (int j = 0; j < mapStatuses.length; ++j) {
-                for (int i = 0; i < totalSizes.length; ++i) {
-                    totalSizes[i] += mapStatuses[i].getSizeForBlock(j);
+            for (MapStatus mapStatus : mapStatuses) {
+                for (int reduceId = 0; reduceId < totalSizes.length; ++reduceId) {
+                    totalSizes[reduceId] += mapStatus.getSizeForBlock(reduceId);
                 }
             }
             return new MapOutputStatistics(dep.shuffleId(), totalSizes);
@@ -251,7 +314,9 @@ public class MapOutputTrackerMaster extends MapOutputTracker {
     @Override
     public void stop() {
         try {
-            mapOutputRequests.offer(PoisonPill);
+            for (LinkedBlockingQueue<GetMapOutputMessage> queue : mapOutputRequests) {
+                queue.offer(PoisonPill);
+            }
             threadpool.shutdown();
             sendTracker(new MapOutputTrackerMessage.StopMapOutputTracker());
             trackerEndpoint = null;
@@ -275,25 +340,51 @@ public class MapOutputTrackerMaster extends MapOutputTracker {
     }
 
     private class MessageLoop implements Runnable {
+
+        private final LinkedBlockingQueue<GetMapOutputMessage> requests;
+
+        MessageLoop(LinkedBlockingQueue<GetMapOutputMessage> requests) {
+            this.requests = requests;
+        }
+
         @Override
         public void run() {
             try {
-                GetMapOutputMessage message = mapOutputRequests.take();
-                if (message.equals(PoisonPill)) {
-                    // Put PoisonPill back so that other MessageLoops can see it.
-                    mapOutputRequests.offer(PoisonPill);
-                    return;
+                while (true) {
+                    GetMapOutputMessage message = requests.take();
+                    if (message == PoisonPill) {
+                        return;
+                    }
+                    handle(message);
                 }
+            } catch (InterruptedException e) {
+                // exit
+            }
+        }
 
-                RpcCallContext context = message.context;
-                int shuffleId = message.shuffleId;
+        private void handle(GetMapOutputMessage message) {
+            RpcCallContext context = message.context;
+            int shuffleId = message.shuffleId;
+            try {
                 String hostPort = context.senderAddress().hostPort();
-                LOGGER.debug("Handling request to send map combinerMerge locations for shuffle {} to {} ", shuffleId, hostPort);
+                LOGGER.debug("Handling request to send map output locations for shuffle {} to {} ", shuffleId, hostPort);
                 ShuffleStatus shuffleStatus = shuffleStatuses.get(shuffleId);
-                context.reply(
-                        shuffleStatus.serializedMapStatus(broadcastManager, isLocal, (int) minSizeForBroadcast));
-            } catch (InterruptedException e) {
-                // exit
+                if (shuffleStatus == null) {
+                    context.sendFailure(new SparkException("Shuffle ID " + shuffleId + " not registered"));
+                    return;
+                }
+                if (message.sinceVersion == null) {
+                    context.reply(shuffleStatus.serializedMapStatus(broadcastManager, isLocal, (int) minSizeForBroadcast,
+                                                                    MapOutputTrackerMaster.this::recordSerializationTime));
+                } else {
+                    context.reply(shuffleStatus.mapStatusUpdate(message.sinceVersion, broadcastManager, isLocal,
+                                                                (int) minSizeForBroadcast,
+                                                                MapOutputTrackerMaster.this::recordSerializationTime));
+                }
+                numServedRequests.incrementAndGet();
+            } catch (Exception e) {
+                LOGGER.error("Failed to serve map output statuses for shuffle {}", shuffleId, e);
+                context.sendFailure(e);
             }
         }
     }
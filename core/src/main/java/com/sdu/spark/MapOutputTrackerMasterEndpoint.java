@@ -33,6 +33,11 @@ public class MapOutputTrackerMasterEndpoint extends RpcEndpoint {
             String hostPort = context.senderAddress().hostPort();
             LOGGER.info("Asked to send map combinerMerge locations for shuffle {} to {}", statuses.shuffleId, hostPort);
             tracker.post(new GetMapOutputMessage(statuses.shuffleId, context));
+        } else if (msg instanceof GetMapOutputStatusesSince) {
+            GetMapOutputStatusesSince statuses = (GetMapOutputStatusesSince) msg;
+            LOGGER.debug("Asked to send map output changes since version {} for shuffle {} to {}",
+                         statuses.sinceVersion, statuses.shuffleId, context.senderAddress().hostPort());
+            tracker.post(new GetMapOutputMessage(statuses.shuffleId, statuses.sinceVersion, context));
         } else if (msg instanceof StopMapOutputTracker) {
             LOGGER.info("MapOutputTrackerMasterEndpoint stopped!");
             context.reply(true);
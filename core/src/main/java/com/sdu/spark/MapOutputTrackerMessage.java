@@ -1,5 +1,7 @@
 package com.sdu.spark;
 
+import com.sdu.spark.scheduler.MapStatus;
+
 import java.io.Serializable;
 
 /**
@@ -8,13 +10,59 @@ import java.io.Serializable;
 public interface MapOutputTrackerMessage extends Serializable {
 
     class GetMapOutputStatuses implements MapOutputTrackerMessage {
-        int shuffleId;
+        public int shuffleId;
 
         public GetMapOutputStatuses(int shuffleId) {
             this.shuffleId = shuffleId;
         }
     }
 
+    /**
+     * 请求sinceVersion之后变化的Map输出, sinceVersion < 0时请求全部Map输出, 回复{@link MapOutputStatusesUpdate}
+     * */
+    class GetMapOutputStatusesSince implements MapOutputTrackerMessage {
+        public int shuffleId;
+        public long sinceVersion;
+
+        public GetMapOutputStatusesSince(int shuffleId, long sinceVersion) {
+            this.shuffleId = shuffleId;
+            this.sinceVersion = sinceVersion;
+        }
+    }
+
+    /**
+     * Map输出版本更新:
+     *
+     * 1: 全量: serializedStatuses为序列化的MapStatus[](格式同GetMapOutputStatuses回复)
+     *
+     * 2: 增量: mapIds[i]对应Map输出变为statuses[i](null表示Map输出已移除)
+     * */
+    class MapOutputStatusesUpdate implements MapOutputTrackerMessage {
+        public long version;
+        public byte[] serializedStatuses;
+        public int[] mapIds;
+        public MapStatus[] statuses;
+
+        private MapOutputStatusesUpdate(long version, byte[] serializedStatuses, int[] mapIds, MapStatus[] statuses) {
+            this.version = version;
+            this.serializedStatuses = serializedStatuses;
+            this.mapIds = mapIds;
+            this.statuses = statuses;
+        }
+
+        public static MapOutputStatusesUpdate full(long version, byte[] serializedStatuses) {
+            return new MapOutputStatusesUpdate(version, serializedStatuses, null, null);
+        }
+
+        public static MapOutputStatusesUpdate delta(long version, int[] mapIds, MapStatus[] statuses) {
+            return new MapOutputStatusesUpdate(version, null, mapIds, statuses);
+        }
+
+        public boolean isFull() {
+            return serializedStatuses != null;
+        }
+    }
+
     class StopMapOutputTracker implements MapOutputTrackerMessage {}
 
 }
@@ -1,15 +1,14 @@
 package com.sdu.spark;
 
-import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.sdu.spark.MapOutputTrackerMessage.GetMapOutputStatusesSince;
+import com.sdu.spark.MapOutputTrackerMessage.MapOutputStatusesUpdate;
 import com.sdu.spark.rpc.SparkConf;
 import com.sdu.spark.scheduler.MapStatus;
+import com.sdu.spark.scheduler.MapStatusIndex;
+import com.sdu.spark.scheduler.MapStatusIndex.BlocksByAddress;
 import com.sdu.spark.shuffle.FetchFailedException;
-import com.sdu.spark.storage.BlockId;
-import com.sdu.spark.storage.BlockManagerId;
-import com.sdu.spark.utils.scala.Tuple2;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,14 +19,22 @@ import java.util.Map;
 import java.util.Set;
 
 /**
+ * {@link MapOutputTrackerWorker}缓存Shuffle的Map输出及其版本:
+ *
+ * 1: epoch更新时不清空缓存, 仅将缓存标记为过期
+ *
+ * 2: 过期缓存携带其版本向MapOutputTrackerMaster请求变化的Map输出({@link GetMapOutputStatusesSince}),
+ *
+ *    Executor丢失只影响少量Map输出时无需重新拉取全部MapStatus[]
+ *
  * @author hanhan.zhang
  * */
 public class MapOutputTrackerWorker extends MapOutputTracker {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MapOutputTrackerWorker.class);
 
-    // 记录ShuffleId的对应Shuffle结果输出, key = shuffleId, value = Shuffle输出集合
-    private Map<Integer, MapStatus[]> mapStatuses = Maps.newConcurrentMap();
+    // 记录ShuffleId的对应Shuffle结果输出, key = shuffleId, value = Shuffle输出集合及版本
+    private Map<Integer, CachedMapStatuses> mapStatuses;
 
     // 记录正在请求ShuffleId对应Shuffle的输出集合(保证线程安全)
     private final Set<Integer> fetching;
@@ -42,22 +49,17 @@ public class MapOutputTrackerWorker extends MapOutputTracker {
     public void updateEpoch(long newEpoch) {
         synchronized (epochLock) {
             if (newEpoch > epoch) {
-                LOGGER.info("Updating epoch to " + newEpoch + " and clearing cache");
+                LOGGER.info("Updating epoch to " + newEpoch + " and marking cached map outputs stale");
                 epoch = newEpoch;
-                mapStatuses.clear();
+                mapStatuses.values().forEach(cached -> cached.stale = true);
             }
         }
     }
 
     @Override
-    public Multimap<BlockManagerId, Tuple2<BlockId, Long>> getMapSizesByExecutorId(int shuffleId,
-                                                                                         int startPartition,
-                                                                                         int endPartition) {
-        MapStatus[] statuses = getStatus(shuffleId);
-        if (statuses == null) {
-            return LinkedHashMultimap.create();
-        }
-        return convertMapStatuses(shuffleId, startPartition, endPartition, statuses);
+    public BlocksByAddress getMapSizesByRange(int shuffleId, int startMapIndex, int endMapIndex,
+                                              int startPartition, int endPartition) {
+        return getStatus(shuffleId).index().query(shuffleId, startMapIndex, endMapIndex, startPartition, endPartition);
     }
 
     @Override
@@ -70,57 +72,98 @@ public class MapOutputTrackerWorker extends MapOutputTracker {
 
     }
 
-    private MapStatus[] getStatus(int shuffleId) {
-        MapStatus[] statuses = mapStatuses.get(shuffleId);
-        if (statuses == null) {
-            LOGGER.info("Don't have map outputs for shuffle {}, fetching them", shuffleId);
-            long startTime = System.currentTimeMillis();
-            MapStatus[] fetchedStatuses;
+    private CachedMapStatuses getStatus(int shuffleId) {
+        CachedMapStatuses cached = mapStatuses.get(shuffleId);
+        if (cached != null && !cached.stale) {
+            return cached;
+        }
 
-            // shuffleId对应的Shuffle结果输出空, 则向MapOutputTrackerMaster请求ShuffleId对应的结果输出
-            // step1: 判断shuffleId是否已被其他线程请求
-            synchronized (fetching) {
-                if (fetching.contains(shuffleId)) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        // ignore
-                    }
-                }
+        LOGGER.info("Don't have up-to-date map outputs for shuffle {}, fetching them", shuffleId);
+        long startTime = System.currentTimeMillis();
 
-                fetchedStatuses = mapStatuses.get(shuffleId);
-                if (fetchedStatuses == null) {
-                    fetching.add(shuffleId);
+        // step1: 判断shuffleId是否已被其他线程请求
+        synchronized (fetching) {
+            try {
+                while (fetching.contains(shuffleId)) {
+                    fetching.wait();
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FetchFailedException.MetadataFetchFailedException(shuffleId, -1,
+                        "Interrupted while fetching map output locations for shuffle " + shuffleId);
             }
 
-            // step2: 向MapOutputTrackerMaster请求ShuffleId对应的结果输出
-            if (fetchedStatuses == null) {
-                LOGGER.info("Doing the fetch; tracker endpoint = {}", trackerEndpoint);
-                try {
-                    byte[] fetchedBytes = (byte[]) askTracker(new MapOutputTrackerMessage.GetMapOutputStatuses(shuffleId));
-                    fetchedStatuses = MapOutputTracker.deserializeMapStatuses(fetchedBytes);
-                    LOGGER.info("Got the combinerMerge locations");
-                    mapStatuses.put(shuffleId, fetchedStatuses);
-                } catch (SparkException e) {
-                    // ignore
-                } finally {
-                    synchronized (fetching) {
-                        fetching.remove(shuffleId);
-                        fetching.notifyAll();
-                    }
-                }
+            cached = mapStatuses.get(shuffleId);
+            if (cached != null && !cached.stale) {
+                return cached;
             }
+            fetching.add(shuffleId);
+        }
 
-            LOGGER.debug("Fetching map combinerMerge statuses for shuffle {} took {} ms", shuffleId, System.currentTimeMillis() - startTime);
-
+        // step2: 向MapOutputTrackerMaster请求ShuffleId对应的结果输出(缓存过期时只请求变化部分)
+        CachedMapStatuses fetched = null;
+        try {
+            long sinceVersion = cached != null ? cached.version : -1L;
+            LOGGER.info("Doing the fetch since version {}; tracker endpoint = {}", sinceVersion, trackerEndpoint);
+            MapOutputStatusesUpdate update =
+                    (MapOutputStatusesUpdate) askTracker(new GetMapOutputStatusesSince(shuffleId, sinceVersion));
+            MapStatus[] fetchedStatuses;
+            if (update.isFull()) {
+                fetchedStatuses = MapOutputTracker.deserializeMapStatuses(update.serializedStatuses);
+            } else {
+                fetchedStatuses = cached.statuses.clone();
+                for (int i = 0; i < update.mapIds.length; ++i) {
+                    fetchedStatuses[update.mapIds[i]] = update.statuses[i];
+                }
+                LOGGER.info("Got {} changed map output locations", update.mapIds.length);
+            }
             if (fetchedStatuses != null) {
-                return fetchedStatuses;
+                fetched = new CachedMapStatuses(fetchedStatuses, update.version);
+                mapStatuses.put(shuffleId, fetched);
             }
+        } catch (SparkException e) {
+            // ignore
+        } finally {
+            synchronized (fetching) {
+                fetching.remove(shuffleId);
+                fetching.notifyAll();
+            }
+        }
+
+        LOGGER.debug("Fetching map output statuses for shuffle {} took {} ms", shuffleId, System.currentTimeMillis() - startTime);
+
+        if (fetched != null) {
+            return fetched;
+        }
+
+        LOGGER.error("Missing all output locations for shuffle {}", shuffleId);
+        throw new FetchFailedException.MetadataFetchFailedException(shuffleId, -1, "Missing all output locations for shuffle " + shuffleId);
+    }
 
-            LOGGER.error("Missing all combinerMerge locations for shuffle {}", shuffleId);
-            throw new FetchFailedException.MetadataFetchFailedException(shuffleId, -1, "Missing all combinerMerge locations for shuffle " + shuffleId);
+    private static class CachedMapStatuses {
+        final MapStatus[] statuses;
+        final long version;
+        volatile boolean stale = false;
+        // 首次查询时构建, 同一版本的Reduce任务共享
+        private volatile MapStatusIndex index;
+
+        CachedMapStatuses(MapStatus[] statuses, long version) {
+            this.statuses = statuses;
+            this.version = version;
+        }
+
+        MapStatusIndex index() {
+            MapStatusIndex current = index;
+            if (current == null) {
+                synchronized (this) {
+                    current = index;
+                    if (current == null) {
+                        current = MapStatusIndex.build(statuses);
+                        index = current;
+                    }
+                }
+            }
+            return current;
         }
-        return statuses;
     }
 }
@@ -18,6 +18,8 @@ public class ShuffleDependency<K, V, C> extends Dependency<Product2<K, V>> {
     public Comparator<K> keyOrdering;
     public Aggregator<K, V, C> aggregator;
     public boolean mapSideCombine;
+    /** Key类型(可为null), 默认取自{@link Aggregator#keyClass}, 声明为Long/Integer时Map端聚合使用原始类型Key的集合 */
+    public Class<K> keyClass;
     private int shuffleId;
 
     public ShuffleDependency(RDD<Product2<K, V>> rdd, Partitioner partitioner) {
@@ -26,12 +28,20 @@ public class ShuffleDependency<K, V, C> extends Dependency<Product2<K, V>> {
 
     public ShuffleDependency(RDD<Product2<K, V>> rdd, Partitioner partitioner, Serializer serializer,
                              Comparator<K> keyOrdering, Aggregator<K, V, C> aggregator, boolean mapSideCombine) {
+        this(rdd, partitioner, serializer, keyOrdering, aggregator, mapSideCombine,
+             aggregator == null ? null : aggregator.keyClass);
+    }
+
+    public ShuffleDependency(RDD<Product2<K, V>> rdd, Partitioner partitioner, Serializer serializer,
+                             Comparator<K> keyOrdering, Aggregator<K, V, C> aggregator, boolean mapSideCombine,
+                             Class<K> keyClass) {
         this.rdd = rdd;
         this.partitioner = partitioner;
         this.serializer = serializer;
         this.keyOrdering = keyOrdering;
         this.aggregator = aggregator;
         this.mapSideCombine = mapSideCombine;
+        this.keyClass = keyClass;
 
         this.shuffleId = rdd.context().newShuffleId();
 
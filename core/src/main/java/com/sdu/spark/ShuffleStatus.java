@@ -2,17 +2,40 @@ package com.sdu.spark;
 
 import com.google.common.collect.Lists;
 import com.sdu.spark.broadcast.Broadcast;
+import com.sdu.spark.MapOutputTrackerMessage.MapOutputStatusesUpdate;
 import com.sdu.spark.broadcast.BroadcastManager;
 import com.sdu.spark.scheduler.MapStatus;
+import com.sdu.spark.scheduler.MapStatusIndex;
 import com.sdu.spark.storage.BlockManagerId;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.LongConsumer;
 
 /**
  * {@link MapOutputTrackerMaster}辅助类, 记录ShuffleMapStage运行状态(每个ShuffleMapStage对应一个ShuffleStatus)
  *
+ * Note:
+ *
+ *  {@link #serializedMapStatus(BroadcastManager, boolean, int, LongConsumer)}在锁外序列化{@link #mapStatuses}快照,
+ *
+ *  序列化期间不阻塞Map输出注册; {@link MapOutputTrackerMaster}按shuffleId分片, 同一Shuffle的请求由同一线程串行处理,
+ *
+ *  后续请求直接复用缓存的序列化结果
+ *
+ * Map输出版本:
+ *
+ *  1: 每次Map输出变化(注册、替换、移除){@link #version}加1, {@link #mapVersions}记录各Map输出最近变化的版本
+ *
+ *  2: {@link #changeLog}环形记录最近changeLogCapacity次变化的mapId, 用于计算增量
+ *
+ *  3: Worker携带已缓存版本请求变化({@link #mapStatusUpdate}), 变化数较少时只回复变化的Map输出, 否则回复全量序列化结果
+ *
+ *  4: {@link #mapStatusIndex()}缓存Map输出的列式索引, Map输出变化时失效
+ *
  * @author hanhan.zhang 
  * */
 public class ShuffleStatus {
@@ -27,31 +50,64 @@ public class ShuffleStatus {
 
     private Broadcast<byte[]> cachedSerializedBroadcast;
 
+    // 缓存序列化结果对应的版本
+    private long cachedSerializedVersion;
+
+    // 序列化期间缓存失效, 其Broadcast可能已发送给Reduce, 下次缓存失效时销毁
+    private List<Broadcast<byte[]>> staleBroadcasts = Lists.newLinkedList();
+
     private int numAvailableOutputs;
 
+    // Map输出版本
+    private long version = 0L;
+    private final long[] mapVersions;
+    // changeLog[(v - 1) % changeLog.length]为版本v变化的mapId
+    private final int[] changeLog;
+
+    // Map输出列式索引(只读), 查询在锁外进行
+    private MapStatusIndex mapStatusIndex;
+
     public ShuffleStatus(int numPartitions) {
+        this(numPartitions, 4096);
+    }
+
+    public ShuffleStatus(int numPartitions, int changeLogCapacity) {
         this.numPartitions = numPartitions;
 
         this.mapStatuses = new MapStatus[this.numPartitions];
         this.numAvailableOutputs = 0;
+        this.mapVersions = new long[this.numPartitions];
+        this.changeLog = new int[Math.max(1, changeLogCapacity)];
     }
 
     public synchronized void addMapOutput(int mapId, MapStatus status) {
         if (mapStatuses[mapId] == null) {
             numAvailableOutputs++;
-            invalidateSerializedMapOutputStatusCache();
         }
         mapStatuses[mapId] = status;
+        recordChange(mapId);
     }
 
     public synchronized void removeMapOutput(int mapId, BlockManagerId blockManagerId) {
         if (mapStatuses[mapId] != null && mapStatuses[mapId].location().equals(blockManagerId)) {
             mapStatuses[mapId] = null;
             numAvailableOutputs--;
-            invalidateSerializedMapOutputStatusCache();
+            recordChange(mapId);
         }
     }
 
+    private void recordChange(int mapId) {
+        version++;
+        mapVersions[mapId] = version;
+        changeLog[(int) ((version - 1) % changeLog.length)] = mapId;
+        mapStatusIndex = null;
+        invalidateSerializedMapOutputStatusCache();
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
     public synchronized void removeOutputsOnHost(String host) {
         removeOutputsByFilter(x -> x.host.equals(host));
     }
@@ -65,7 +121,7 @@ public class ShuffleStatus {
             if (mapStatuses[i] != null && removeFilter.filter(mapStatuses[i].location())) {
                 mapStatuses[i] = null;
                 --numAvailableOutputs;
-                invalidateSerializedMapOutputStatusCache();
+                recordChange(i);
             }
         }
     }
@@ -92,18 +148,107 @@ public class ShuffleStatus {
      * {@link #mapStatuses}序列化, 发送到Reduce端
      *
      * */
-    public synchronized byte[] serializedMapStatus(BroadcastManager broadcastManager,
-                                                   boolean isLocal, int minBroadcastSize) {
+    public byte[] serializedMapStatus(BroadcastManager broadcastManager, boolean isLocal, int minBroadcastSize) {
+        return serializedMapStatus(broadcastManager, isLocal, minBroadcastSize, null);
+    }
+
+    /**
+     * @param serializationTimeListener 本次调用执行序列化时回调序列化耗时(纳秒)
+     * */
+    public byte[] serializedMapStatus(BroadcastManager broadcastManager, boolean isLocal,
+                                      int minBroadcastSize, LongConsumer serializationTimeListener) {
+        return versionedSerializedMapStatus(broadcastManager, isLocal, minBroadcastSize, serializationTimeListener).getRight();
+    }
+
+    /**
+     * 返回sinceVersion之后的Map输出变化:
+     *
+     * 1: sinceVersion在{@link #changeLog}范围内时由changeLog计算变化的mapId, 否则扫描{@link #mapVersions}
+     *
+     * 2: sinceVersion < 0、大于当前版本(Shuffle重新注册)或变化数超过Map数一半时回复全量序列化结果
+     * */
+    public MapOutputStatusesUpdate mapStatusUpdate(long sinceVersion, BroadcastManager broadcastManager, boolean isLocal,
+                                                   int minBroadcastSize, LongConsumer serializationTimeListener) {
+        synchronized (this) {
+            if (sinceVersion >= 0 && sinceVersion <= version) {
+                int[] changedMapIds = changedMapIds(sinceVersion);
+                if (changedMapIds != null) {
+                    MapStatus[] changedStatuses = new MapStatus[changedMapIds.length];
+                    for (int i = 0; i < changedMapIds.length; ++i) {
+                        changedStatuses[i] = mapStatuses[changedMapIds[i]];
+                    }
+                    return MapOutputStatusesUpdate.delta(version, changedMapIds, changedStatuses);
+                }
+            }
+        }
+        Pair<Long, byte[]> serialized = versionedSerializedMapStatus(broadcastManager, isLocal,
+                                                                     minBroadcastSize, serializationTimeListener);
+        return MapOutputStatusesUpdate.full(serialized.getLeft(), serialized.getRight());
+    }
+
+    /**
+     * @return sinceVersion之后变化的mapId, 变化数超过Map数一半时返回null
+     * */
+    private int[] changedMapIds(long sinceVersion) {
+        long numChanges = version - sinceVersion;
+        int maxChanges = Math.max(1, numPartitions / 2);
+        int[] changed = new int[(int) Math.min(numChanges, maxChanges + 1)];
+        int size = 0;
+        if (numChanges <= Math.min(version, changeLog.length)) {
+            for (long v = sinceVersion + 1; v <= version && size <= maxChanges; ++v) {
+                int mapId = changeLog[(int) ((v - 1) % changeLog.length)];
+                // 同一Map多次变化时只取最近一次
+                if (mapVersions[mapId] == v) {
+                    changed[size++] = mapId;
+                }
+            }
+        } else {
+            for (int mapId = 0; mapId < mapVersions.length && size <= maxChanges; ++mapId) {
+                if (mapVersions[mapId] > sinceVersion) {
+                    if (size == changed.length) {
+                        changed = Arrays.copyOf(changed, Math.min(changed.length * 2, maxChanges + 1));
+                    }
+                    changed[size++] = mapId;
+                }
+            }
+        }
+        return size > maxChanges ? null : Arrays.copyOf(changed, size);
+    }
+
+    private Pair<Long, byte[]> versionedSerializedMapStatus(BroadcastManager broadcastManager, boolean isLocal,
+                                                            int minBroadcastSize, LongConsumer serializationTimeListener) {
+        MapStatus[] snapshot;
+        long snapshotVersion;
+        synchronized (this) {
+            if (cachedSerializedMapStatus != null) {
+                return ImmutablePair.of(cachedSerializedVersion, cachedSerializedMapStatus);
+            }
+            snapshot = mapStatuses.clone();
+            snapshotVersion = version;
+        }
+
+        long startTime = System.nanoTime();
+        Pair<byte[], Broadcast<byte[]>> serResult;
         try {
-            if (cachedSerializedMapStatus == null) {
-                Pair<byte[], Broadcast<byte[]>> serResult = MapOutputTracker.serializeMapStatuses(mapStatuses, broadcastManager, isLocal, minBroadcastSize);
+            serResult = MapOutputTracker.serializeMapStatuses(snapshot, broadcastManager, isLocal, minBroadcastSize);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (serializationTimeListener != null) {
+            serializationTimeListener.accept(System.nanoTime() - startTime);
+        }
+
+        synchronized (this) {
+            if (version == snapshotVersion && cachedSerializedMapStatus == null) {
                 cachedSerializedMapStatus = serResult.getLeft();
                 cachedSerializedBroadcast = serResult.getRight();
+                cachedSerializedVersion = snapshotVersion;
+            } else if (serResult.getRight() != null) {
+                // 序列化期间Map输出发生变化
+                staleBroadcasts.add(serResult.getRight());
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
-        return cachedSerializedMapStatus;
+        return ImmutablePair.of(snapshotVersion, serResult.getLeft());
     }
 
     // Used in testing.
@@ -118,9 +263,20 @@ public class ShuffleStatus {
             cachedSerializedBroadcast.destroy(false);
             cachedSerializedBroadcast = null;
         }
+        for (Broadcast<byte[]> broadcast : staleBroadcasts) {
+            broadcast.destroy(false);
+        }
+        staleBroadcasts.clear();
         cachedSerializedMapStatus = null;
     }
 
+    public synchronized MapStatusIndex mapStatusIndex() {
+        if (mapStatusIndex == null) {
+            mapStatusIndex = MapStatusIndex.build(mapStatuses);
+        }
+        return mapStatusIndex;
+    }
+
     public synchronized <T> T withMapStatuses(ShuffleStatusMap<T> shuffleStatusMap) {
         return shuffleStatusMap.map(mapStatuses);
     }
@@ -4,14 +4,17 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.sdu.spark.broadcast.Broadcast;
 import com.sdu.spark.rdd.RDD;
+import com.sdu.spark.rdd.ShuffledRDD;
 import com.sdu.spark.rpc.RpcEndpointRef;
 import com.sdu.spark.rpc.SparkConf;
 import com.sdu.spark.scheduler.*;
+import com.sdu.spark.scheduler.ReducePartitionCoalescer.PartitionSpec;
 import com.sdu.spark.scheduler.action.PartitionFunction;
 import com.sdu.spark.scheduler.action.PartitionResultHandler;
 import com.sdu.spark.scheduler.cluster.StandaloneSchedulerBackend;
 import com.sdu.spark.utils.CallSite;
 import com.sdu.spark.utils.Utils;
+import com.sdu.spark.utils.scala.Product2;
 import com.sdu.spark.utils.scala.Tuple2;
 import org.apache.commons.lang3.SerializationUtils;
 import org.slf4j.Logger;
@@ -281,6 +284,63 @@ public class SparkContext {
         }
     }
 
+    /**
+     * 运行ShuffleDependency的Map端(ShuffleMapStage), 返回各Reduce分区的数据量
+     * */
+    public <K, V, C> MapOutputStatistics submitMapStage(ShuffleDependency<K, V, C> dependency) {
+        if (stopped.get()) {
+            throw new IllegalStateException("SparkContext has been shutdown");
+        }
+
+        MapOutputStatistics[] stats = new MapOutputStatistics[1];
+        JobWaiter<MapOutputStatistics> waiter = dagScheduler.submitMapStage(dependency,
+                                                                            (index, result) -> stats[0] = result,
+                                                                            getCallSite(),
+                                                                            new Properties());
+        try {
+            waiter.completionFuture().get();
+        } catch (Exception e) {
+            throw new SparkException("Spark run map stage failure", e);
+        }
+        return stats[0];
+    }
+
+    /**
+     * 读取ShuffleDependency的RDD:
+     *
+     * spark.shuffle.adaptive.enabled = true时先运行Map端, 根据各Reduce分区数据量合并相邻Reduce分区,
+     *
+     * 下游每个Task读取连续的Reduce分区, 倾斜的Reduce分区按Map输出范围拆分为多个Task(参见{@link ReducePartitionCoalescer})
+     *
+     * Note:
+     *
+     *  1: 定义Aggregator时拆分Task只聚合部分Map输出, 由{@link ReducePartitionCoalescer#mergeSplitPartitions}对拆分Task的输出
+     *
+     *     再次Shuffle合并聚合值
+     *
+     *  2: 定义keyOrdering时不拆分倾斜分区(无论是否定义Aggregator): 拆分后Reduce分区内数据无序, 且合并Shuffle按Key哈希划分,
+     *
+     *     同一Reduce分区的Key散落在多个合并分区, 无法保持分区间的Key顺序
+     * */
+    public <K, V, C> RDD<Product2<K, C>> shuffledRDD(ShuffleDependency<K, V, C> dependency) {
+        ReducePartitionCoalescer coalescer = new ReducePartitionCoalescer(conf);
+        if (!coalescer.isEnabled()) {
+            return new ShuffledRDD<>(dependency);
+        }
+        MapOutputStatistics stats = submitMapStage(dependency);
+
+        MapOutputTrackerMaster tracker = (MapOutputTrackerMaster) env.mapOutputTracker;
+        boolean splittable = dependency.keyOrdering == null;
+        PartitionSpec[] specs = coalescer.planPartitions(stats, splittable
+                ? reduceId -> tracker.getMapSizesOfPartition(dependency.shuffleId(), reduceId)
+                : null);
+        ShuffledRDD<K, V, C> rdd = new ShuffledRDD<>(dependency, specs);
+        if (dependency.aggregator == null || !ReducePartitionCoalescer.hasSplitPartitions(specs)) {
+            return rdd;
+        }
+        return ReducePartitionCoalescer.mergeSplitPartitions(rdd, dependency, specs);
+    }
+
     public CallSite getCallSite() {
         CallSite callSite = Utils.getCallSite();
         String shortForm = getLocalProperty(CallSite.SHORT_FORM);
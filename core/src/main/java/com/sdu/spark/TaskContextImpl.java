@@ -30,6 +30,8 @@ public class TaskContextImpl extends TaskContext {
     public int attemptNumber;
     public TaskMemoryManager taskMemoryManager;
     public Properties localProperties;
+    /** Task运行期间各组件共享同一TaskMetrics, 否则指标更新丢失 */
+    private final TaskMetrics taskMetrics;
 
     /**
      * Task运行回调函数(无需序列化)
@@ -58,6 +60,7 @@ public class TaskContextImpl extends TaskContext {
         this.attemptNumber = attemptNumber;
         this.taskMemoryManager = taskMemoryManager;
         this.localProperties = localProperties;
+        this.taskMetrics = new TaskMetrics();
     }
 
     @Override
@@ -124,8 +127,7 @@ public class TaskContextImpl extends TaskContext {
 
     @Override
     public TaskMetrics taskMetrics() {
-        // TODO: 待实现
-        return new TaskMetrics();
+        return taskMetrics;
     }
 
     @Override
@@ -274,7 +274,7 @@ public class TorrentBroadcast<T> extends Broadcast<T> {
             throw new SparkException("Broadcast data convert block to data failure", e);        }
     }
 
-    private static void unpersist(long id, boolean removeFromDriver, boolean blocking) {
+    static void unpersist(long id, boolean removeFromDriver, boolean blocking) {
         LOGGER.debug("Unpersisting TorrentBroadcast: {}", id);
         SparkEnv.env.blockManager.master.removeBroadcast(id, removeFromDriver, blocking);
     }
@@ -128,6 +128,12 @@ public class Master extends ThreadSafeRpcEndpoint {
         REAPER_ITERATIONS = conf.getInt("spark.dead.worker.persistence", 15);
     }
 
+    @Override
+    public ExecutionMode executionMode() {
+        // Master状态持久化较慢, 独占线程处理
+        return ExecutionMode.DEDICATED;
+    }
+
     @Override
     public void onStart() {
         LOGGER.info("master starting on address {}", address.toSparkURL());
@@ -655,7 +661,6 @@ public class Master extends ThreadSafeRpcEndpoint {
         args = new String[]{ip, "6712"};
 
         SparkConf conf = new SparkConf();
-        conf.set("spark.rpc.deliver.message.threads", "32");
         conf.set("spark.rpc.netty.dispatcher.numThreads", "32");
         conf.set("spark.rpc.connect.threads", "32");
         conf.set("spark.worker.timeout", "10");
@@ -331,7 +331,6 @@ public class Worker extends ThreadSafeRpcEndpoint {
         args = new String[] {ip, "0"};
 
         SparkConf conf = new SparkConf();
-        conf.set("spark.rpc.deliver.message.threads", "32");
         conf.set("spark.rpc.netty.dispatcher.numThreads", "32");
         conf.set("spark.rpc.connect.threads", "32");
         conf.set("spark.worker.timeout", "1");
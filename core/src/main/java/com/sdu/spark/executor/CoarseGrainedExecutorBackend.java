@@ -43,11 +43,11 @@ import static java.lang.String.format;
  *        |
  *        +---> CoarseGrainedSchedulerBackend.DriverEndpoint.launchTasks()[Driver]
  *                |
- *                +---> CoarseGrainedExecutorBackend.LaunchTask()[Executor]
+ *                +---> CoarseGrainedExecutorBackend.LaunchTasks()[Executor, 同一Executor的Task批量下发]
  *                         |
  *                         +---> Executor.launchTask()
  *
- *    2': StatusUpdate: 作业运行状态上报Driver, 其调用链:
+ *    2': StatusUpdate: 作业运行状态上报Driver(StatusUpdateBatcher合并为StatusUpdates), 其调用链:
  *
  *      Executor.TaskRunner.run()[Executor]
  *        |
@@ -74,6 +74,8 @@ public class CoarseGrainedExecutorBackend extends ThreadSafeRpcEndpoint implemen
     private Executor executor;
     private volatile RpcEndpointRef driver;
     private SerializerInstance ser;
+    // Task状态合并上报
+    private StatusUpdateBatcher statusUpdateBatcher;
 
     public CoarseGrainedExecutorBackend(RpcEnv rpcEnv,
                                         String driverUrl,
@@ -90,6 +92,7 @@ public class CoarseGrainedExecutorBackend extends ThreadSafeRpcEndpoint implemen
         this.userClassPath = userClassPath;
         this.env = env;
         this.ser = this.env.closureSerializer.newInstance();
+        this.statusUpdateBatcher = new StatusUpdateBatcher(env.conf, executorId, this::sendToDriver);
     }
 
     @Override
@@ -134,6 +137,16 @@ public class CoarseGrainedExecutorBackend extends ThreadSafeRpcEndpoint implemen
                 LOGGER.info("Got assigned task {}", taskDesc.taskId);
                 executor.launchTask(this, taskDesc);
             }
+        } else if (msg instanceof LaunchTasks) {
+            if (executor == null) {
+                exitExecutor(1, "Received LaunchTasks command but executor was null", null);
+            } else {
+                LaunchTasks tasks = (LaunchTasks) msg;
+                for (TaskDescription taskDesc : TaskDescription.decodeBatch(tasks.taskData.buffer)) {
+                    LOGGER.info("Got assigned task {}", taskDesc.taskId);
+                    executor.launchTask(this, taskDesc);
+                }
+            }
         } else if (msg instanceof KillTask) {
             if (executor == null) {
                 exitExecutor(1, "Received KillTask command but executor was null", null);
@@ -155,6 +168,7 @@ public class CoarseGrainedExecutorBackend extends ThreadSafeRpcEndpoint implemen
                     // stop until `executor.stop()` returns, which becomes a dead-lock (See SPARK-14180).
                     // Therefore, we put this line in a new thread.
                     executor.stop();
+                    statusUpdateBatcher.stop();
                 }
             }.start();
         }
@@ -173,12 +187,21 @@ public class CoarseGrainedExecutorBackend extends ThreadSafeRpcEndpoint implemen
 
     @Override
     public void statusUpdate(long taskId, TaskState state, ByteBuffer data) {
-        StatusUpdate msg = new StatusUpdate(executorId, taskId, state, data);
         if (driver == null) {
+            LOGGER.info("Drop {} because has not yet connected to driver",
+                        new StatusUpdate(executorId, taskId, state, data));
+            return;
+        }
+        statusUpdateBatcher.statusUpdate(taskId, state, data);
+    }
+
+    private void sendToDriver(Object msg) {
+        RpcEndpointRef driverRef = driver;
+        if (driverRef == null) {
             LOGGER.info("Drop {} because has not yet connected to driver", msg);
             return;
         }
-        driver.send(msg);
+        driverRef.send(msg);
     }
 
     private void exitExecutor(int code, String reason, Throwable throwable) {
@@ -0,0 +1,112 @@
+package com.sdu.spark.executor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A collection of accumulators that represent metrics about reading shuffle data.
+ * Operations are not thread-safe.
+ *
+ * 每个Shuffle读(即{@link com.sdu.spark.shuffle.ShuffleBlockFetcherIterator})使用独立的临时Metric,
+ *
+ * 读取结束后由{@link TaskMetrics#mergeShuffleReadMetrics()}合并到Task级Metric
+ *
+ * @author hanhan.zhang
+ * */
+public class ShuffleReadMetrics implements Serializable {
+
+    /** Number of remote blocks fetched in this shuffle by this task. */
+    private long remoteBlocksFetched = 0L;
+    /** Number of local blocks fetched in this shuffle by this task. */
+    private long localBlocksFetched = 0L;
+    /** Total number of remote bytes read from the shuffle by this task. */
+    private long remoteBytesRead = 0L;
+    /** Shuffle data that was read from the local disk (as opposed to from a remote executor). */
+    private long localBytesRead = 0L;
+    /**
+     * Time the task spent waiting for remote shuffle blocks. This only includes the time
+     * blocking on shuffle input data. For instance if block B is being fetched while the task is
+     * still not finished processing block A, it is not considered to be blocking on block B.
+     */
+    private long fetchWaitTime = 0L;
+    /** Total number of records read from the shuffle by this task. */
+    private long recordsRead = 0L;
+
+    public long remoteBlocksFetched() {
+        return remoteBlocksFetched;
+    }
+
+    public long localBlocksFetched() {
+        return localBlocksFetched;
+    }
+
+    public long remoteBytesRead() {
+        return remoteBytesRead;
+    }
+
+    public long localBytesRead() {
+        return localBytesRead;
+    }
+
+    public long fetchWaitTime() {
+        return fetchWaitTime;
+    }
+
+    public long recordsRead() {
+        return recordsRead;
+    }
+
+    /** Total bytes fetched in the shuffle by this task (both remote and local). */
+    public long totalBytesRead() {
+        return remoteBytesRead + localBytesRead;
+    }
+
+    /** Number of blocks fetched in this shuffle by this task (remote or local). */
+    public long totalBlocksFetched() {
+        return remoteBlocksFetched + localBlocksFetched;
+    }
+
+    public void incRemoteBlocksFetched(long v) {
+        remoteBlocksFetched += v;
+    }
+
+    public void incLocalBlocksFetched(long v) {
+        localBlocksFetched += v;
+    }
+
+    public void incRemoteBytesRead(long v) {
+        remoteBytesRead += v;
+    }
+
+    public void incLocalBytesRead(long v) {
+        localBytesRead += v;
+    }
+
+    public void incFetchWaitTime(long v) {
+        fetchWaitTime += v;
+    }
+
+    public void incRecordsRead(long v) {
+        recordsRead += v;
+    }
+
+    /**
+     * Resets the value of the current metrics to the sum of all temporary metrics
+     * */
+    void setMergeValues(List<ShuffleReadMetrics> metrics) {
+        remoteBlocksFetched = 0L;
+        localBlocksFetched = 0L;
+        remoteBytesRead = 0L;
+        localBytesRead = 0L;
+        fetchWaitTime = 0L;
+        recordsRead = 0L;
+        for (ShuffleReadMetrics metric : metrics) {
+            remoteBlocksFetched += metric.remoteBlocksFetched;
+            localBlocksFetched += metric.localBlocksFetched;
+            remoteBytesRead += metric.remoteBytesRead;
+            localBytesRead += metric.localBytesRead;
+            fetchWaitTime += metric.fetchWaitTime;
+            recordsRead += metric.recordsRead;
+        }
+    }
+}
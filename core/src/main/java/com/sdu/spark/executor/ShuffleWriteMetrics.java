@@ -10,5 +10,42 @@ import java.io.Serializable;
  * */
 public class ShuffleWriteMetrics implements Serializable {
 
+    /** Number of bytes written for the shuffle by this task. */
+    private long bytesWritten = 0L;
+    /** Total number of records written to the shuffle by this task. */
+    private long recordsWritten = 0L;
+    /** Time the task spent blocking on writes to disk or buffer cache, in nanoseconds. */
+    private long writeTime = 0L;
 
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public long recordsWritten() {
+        return recordsWritten;
+    }
+
+    public long writeTime() {
+        return writeTime;
+    }
+
+    public void incBytesWritten(long v) {
+        bytesWritten += v;
+    }
+
+    public void incRecordsWritten(long v) {
+        recordsWritten += v;
+    }
+
+    public void incWriteTime(long v) {
+        writeTime += v;
+    }
+
+    public void decBytesWritten(long v) {
+        bytesWritten -= v;
+    }
+
+    public void decRecordsWritten(long v) {
+        recordsWritten -= v;
+    }
 }
@@ -0,0 +1,123 @@
+package com.sdu.spark.executor;
+
+import com.sdu.spark.rpc.SparkConf;
+import com.sdu.spark.scheduler.TaskState;
+import com.sdu.spark.scheduler.cluster.CoarseGrainedClusterMessage.StatusUpdate;
+import com.sdu.spark.scheduler.cluster.CoarseGrainedClusterMessage.StatusUpdates;
+import com.sdu.spark.utils.ByteBufferOutputStream;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.sdu.spark.utils.ThreadUtils.newDaemonSingleThreadScheduledExecutor;
+
+/**
+ * {@link StatusUpdateBatcher}合并Executor上报的Task状态:
+ *
+ * 1: 首条状态缓存lingerMs后, 或缓存状态数达到maxUpdates、状态数据达到maxBytes时, 以{@link StatusUpdates}批量发送
+ *
+ * 2: 状态数据超过maxBytes(较大的DirectTaskResult)时先发送已缓存状态再单独发送{@link StatusUpdate}, 保证同一Task状态有序
+ *
+ * 3: 结果超过spark.task.maxDirectResultSize的Task上报IndirectTaskResult, 数据很小, 同样合并发送
+ *
+ * @author hanhan.zhang
+ * */
+public class StatusUpdateBatcher {
+
+    private final String executorId;
+    private final Consumer<Object> sender;
+
+    private final long lingerMs;
+    private final int maxUpdates;
+    private final long maxBytes;
+
+    private long[] taskIds;
+    private TaskState[] states;
+    private int[] dataOffsets;
+    private int size = 0;
+    private ByteBufferOutputStream data;
+
+    private final ScheduledExecutorService flushThread;
+    private boolean flushScheduled = false;
+
+    public StatusUpdateBatcher(SparkConf conf, String executorId, Consumer<Object> sender) {
+        this.executorId = executorId;
+        this.sender = sender;
+        this.lingerMs = conf.getTimeAsMs("spark.executor.statusUpdate.batch.linger", "5ms");
+        this.maxUpdates = Math.max(1, conf.getInt("spark.executor.statusUpdate.batch.maxUpdates", 1024));
+        this.maxBytes = conf.getSizeAsBytes("spark.executor.statusUpdate.batch.maxBytes", "1m");
+        this.flushThread = lingerMs > 0 ? newDaemonSingleThreadScheduledExecutor("executor-status-update-batcher")
+                                        : null;
+        reset();
+    }
+
+    public synchronized void statusUpdate(long taskId, TaskState state, ByteBuffer value) {
+        if (flushThread == null || flushThread.isShutdown() || value.remaining() > maxBytes) {
+            // 未开启合并(或已关闭)或状态数据较大: 先发送缓存状态, 保证同一Task状态有序
+            flush();
+            sender.accept(new StatusUpdate(executorId, taskId, state, value));
+            return;
+        }
+
+        if (size == taskIds.length) {
+            int capacity = Math.min(maxUpdates, taskIds.length * 2);
+            taskIds = Arrays.copyOf(taskIds, capacity);
+            states = Arrays.copyOf(states, capacity);
+            dataOffsets = Arrays.copyOf(dataOffsets, capacity + 1);
+        }
+        taskIds[size] = taskId;
+        states[size] = state;
+        if (value.hasArray()) {
+            data.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+        } else {
+            byte[] bytes = new byte[value.remaining()];
+            value.duplicate().get(bytes);
+            data.write(bytes, 0, bytes.length);
+        }
+        dataOffsets[++size] = data.size();
+
+        if (size >= maxUpdates || data.size() >= maxBytes) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            flushThread.schedule(this::flush, lingerMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** 发送缓存的Task状态 */
+    public synchronized void flush() {
+        flushScheduled = false;
+        if (size == 0) {
+            return;
+        }
+        if (size == 1) {
+            sender.accept(new StatusUpdate(executorId, taskIds[0], states[0], data.toByteBuffer()));
+        } else {
+            sender.accept(new StatusUpdates(executorId,
+                                            Arrays.copyOf(taskIds, size),
+                                            Arrays.copyOf(states, size),
+                                            Arrays.copyOf(dataOffsets, size + 1),
+                                            data.toByteBuffer()));
+        }
+        reset();
+    }
+
+    private void reset() {
+        int capacity = Math.min(maxUpdates, 64);
+        taskIds = new long[capacity];
+        states = new TaskState[capacity];
+        dataOffsets = new int[capacity + 1];
+        size = 0;
+        data = new ByteBufferOutputStream();
+    }
+
+    public synchronized void stop() {
+        flush();
+        if (flushThread != null) {
+            flushThread.shutdownNow();
+        }
+    }
+}
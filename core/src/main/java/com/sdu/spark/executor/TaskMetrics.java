@@ -1,5 +1,9 @@
 package com.sdu.spark.executor;
 
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
 /**
  * Metrics tracked during the execution of a task.
  *
@@ -16,13 +20,96 @@ package com.sdu.spark.executor;
  * */
 public class TaskMetrics {
 
+    /**
+     * The number of in-memory bytes spilled by this task.
+     */
+    private long memoryBytesSpilled = 0L;
+
+    /**
+     * The number of on-disk bytes spilled by this task.
+     */
+    private long diskBytesSpilled = 0L;
+
+    /**
+     * Peak memory used by internal data structures created during shuffles, aggregations and
+     * joins. The value of this accumulator should be approximately the sum of the peak sizes
+     * across all such data structures created in this task.
+     */
+    private long peakExecutionMemory = 0L;
+
     /**
      * Metrics related to shuffle write, defined only in shuffle map stages.
      */
     private ShuffleWriteMetrics shuffleWriteMetrics = new ShuffleWriteMetrics();
 
+    /**
+     * Metrics related to shuffle read aggregated across all shuffle dependencies.
+     * This is defined only if there are shuffle dependencies in this task.
+     */
+    private ShuffleReadMetrics shuffleReadMetrics = new ShuffleReadMetrics();
+
+    /**
+     * A list of [[ShuffleReadMetrics]], one per shuffle dependency.
+     *
+     * A task may have multiple shuffle readers for multiple dependencies. To avoid synchronization
+     * issues from readers in different threads, in-progress tasks use a [[ShuffleReadMetrics]]
+     * for each dependency and merge these metrics before reporting them to the driver.
+     */
+    private final List<ShuffleReadMetrics> tempShuffleReadMetrics = Lists.newArrayList();
+
+
+    public long memoryBytesSpilled() {
+        return memoryBytesSpilled;
+    }
+
+    public long diskBytesSpilled() {
+        return diskBytesSpilled;
+    }
+
+    public long peakExecutionMemory() {
+        return peakExecutionMemory;
+    }
+
+    public void incMemoryBytesSpilled(long v) {
+        memoryBytesSpilled += v;
+    }
+
+    public void incDiskBytesSpilled(long v) {
+        diskBytesSpilled += v;
+    }
+
+    public void incPeakExecutionMemory(long v) {
+        peakExecutionMemory += v;
+    }
 
     public ShuffleWriteMetrics shuffleWriteMetrics() {
         return shuffleWriteMetrics;
     }
+
+    public ShuffleReadMetrics shuffleReadMetrics() {
+        return shuffleReadMetrics;
+    }
+
+    /**
+     * Create a [[ShuffleReadMetrics]] for a particular shuffle dependency.
+     *
+     * All usages are expected to be followed by a call to [[mergeShuffleReadMetrics]], which
+     * merges the temporary values synchronously. Otherwise, all temporary data collected will
+     * be lost.
+     */
+    public synchronized ShuffleReadMetrics createTempShuffleReadMetrics() {
+        ShuffleReadMetrics readMetrics = new ShuffleReadMetrics();
+        tempShuffleReadMetrics.add(readMetrics);
+        return readMetrics;
+    }
+
+    /**
+     * Merge values across all temporary [[ShuffleReadMetrics]] into `shuffleReadMetrics`.
+     * This is expected to be called on executor heartbeat and at the end of a task.
+     */
+    public synchronized void mergeShuffleReadMetrics() {
+        if (!tempShuffleReadMetrics.isEmpty()) {
+            shuffleReadMetrics.setMergeValues(tempShuffleReadMetrics);
+        }
+    }
 }
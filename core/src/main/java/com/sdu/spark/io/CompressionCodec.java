@@ -52,6 +52,15 @@ public abstract class CompressionCodec {
         return codec;
     }
 
+    /**
+     * 压缩数据流能否直接拼接(拼接后的字节流可被一个解压流完整读取)
+     *
+     * Note: net.jpountz LZ4BlockInputStream遇到结束标识后不再读取后续数据块, 故不支持拼接
+     * */
+    public static boolean supportsConcatenationOfSerializedStreams(CompressionCodec codec) {
+        return codec instanceof SnappyCompressionCodec || codec instanceof LZFCompressionCodec;
+    }
+
     public abstract OutputStream compressedOutputStream(OutputStream s);
 
     public abstract InputStream compressedInputStream(InputStream s);
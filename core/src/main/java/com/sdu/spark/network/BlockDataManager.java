@@ -2,8 +2,11 @@ package com.sdu.spark.network;
 
 import com.sdu.spark.network.buffer.ManagedBuffer;
 import com.sdu.spark.storage.BlockId;
+import com.sdu.spark.storage.BlockId.ShuffleBlockId;
 import com.sdu.spark.storage.StorageLevel;
 
+import java.util.List;
+
 /**
  * @author hanhan.zhang
  * */
@@ -15,6 +18,12 @@ public interface BlockDataManager {
      */
     ManagedBuffer getBlockData(BlockId blockId);
 
+    /**
+     * Get local data of numBlocks shuffle blocks of the same map output with continuous reduce ids,
+     * starting from startBlockId.
+     */
+    List<ManagedBuffer> getContinuousBlocksData(ShuffleBlockId startBlockId, int numBlocks);
+
     /**
      * Put the block locally, using the given storage level.
      *
@@ -1,6 +1,5 @@
 package com.sdu.spark.network.netty;
 
-import com.google.common.collect.Lists;
 import com.sdu.spark.network.BlockDataManager;
 import com.sdu.spark.network.buffer.ManagedBuffer;
 import com.sdu.spark.network.buffer.NioManagerBuffer;
@@ -15,15 +14,24 @@ import com.sdu.spark.network.shuffle.protocol.StreamHandle;
 import com.sdu.spark.network.shuffle.protocol.UploadBlock;
 import com.sdu.spark.serializer.Serializer;
 import com.sdu.spark.storage.BlockId;
+import com.sdu.spark.storage.BlockId.ShuffleBlockId;
 import com.sdu.spark.storage.StorageLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
 /**
+ * {@link NettyBlockRpcServer}处理Block请求:
+ *
+ * 1: OpenBlocks注册Stream, Block数据在客户端请求对应Chunk时才读取
+ *
+ * 2: 同一Map输出中reduceId连续的ShuffleBlock合并读取({@link BlockDataManager#getContinuousBlocksData(ShuffleBlockId, int)})
+ *
  * @author hanhan.zhang
  * */
 public class NettyBlockRpcServer extends RpcHandler {
@@ -46,12 +54,11 @@ public class NettyBlockRpcServer extends RpcHandler {
         BlockTransferMessage msg = BlockTransferMessage.Decoder.fromByteBuffer(message);
         if (msg instanceof OpenBlocks) {
             OpenBlocks openBlocks = (OpenBlocks) msg;
-            List<ManagedBuffer> blockData = Lists.newLinkedList();
+            BlockId[] blockIds = new BlockId[openBlocks.blockIds.length];
             for (int i = 0; i < openBlocks.blockIds.length; ++i) {
-                BlockId blockId = BlockId.apply(openBlocks.blockIds[i]);
-                blockData.add(blockManager.getBlockData(blockId));
+                blockIds[i] = BlockId.apply(openBlocks.blockIds[i]);
             }
-            long streamId = streamManager.registerStream(appId, blockData.iterator());
+            long streamId = streamManager.registerStream(appId, new BlockDataIterator(blockIds));
             LOGGER.info("Registered streamId {} with {} buffers", streamId, openBlocks.blockIds.length);
             callback.onSuccess(new StreamHandle(streamId, openBlocks.blockIds.length).toByteBuffer());
         } else if (msg instanceof UploadBlock) {
@@ -87,4 +94,57 @@ public class NettyBlockRpcServer extends RpcHandler {
     public void exceptionCaught(Throwable cause, TransportClient client) {
 
     }
+
+    /**
+     * 按需读取Block数据, reduceId连续的ShuffleBlock一次读取
+     * */
+    private class BlockDataIterator implements Iterator<ManagedBuffer> {
+
+        private final BlockId[] blockIds;
+        private final LinkedList<ManagedBuffer> pending = new LinkedList<>();
+        private int nextIndex = 0;
+
+        BlockDataIterator(BlockId[] blockIds) {
+            this.blockIds = blockIds;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !pending.isEmpty() || nextIndex < blockIds.length;
+        }
+
+        @Override
+        public ManagedBuffer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (pending.isEmpty()) {
+                int numBlocks = continuousBlocks(nextIndex);
+                if (numBlocks > 1) {
+                    pending.addAll(blockManager.getContinuousBlocksData((ShuffleBlockId) blockIds[nextIndex], numBlocks));
+                } else {
+                    pending.add(blockManager.getBlockData(blockIds[nextIndex]));
+                }
+                nextIndex += numBlocks;
+            }
+            return pending.removeFirst();
+        }
+
+        private int continuousBlocks(int start) {
+            if (!(blockIds[start] instanceof ShuffleBlockId)) {
+                return 1;
+            }
+            ShuffleBlockId first = (ShuffleBlockId) blockIds[start];
+            int end = start + 1;
+            while (end < blockIds.length && blockIds[end] instanceof ShuffleBlockId) {
+                ShuffleBlockId next = (ShuffleBlockId) blockIds[end];
+                if (next.shuffleId != first.shuffleId || next.mapId != first.mapId
+                        || next.reduceId != first.reduceId + (end - start)) {
+                    break;
+                }
+                ++end;
+            }
+            return end - start;
+        }
+    }
 }
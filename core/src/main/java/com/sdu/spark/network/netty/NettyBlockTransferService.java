@@ -107,7 +107,7 @@ public class NettyBlockTransferService extends BlockTransferService {
     public void fetchBlocks(String host, int port, String execId, String[] blockIds, BlockFetchingListener listener, TempShuffleFileManager tempShuffleFileManager) {
         try {
             RetryingBlockFetcher.BlockFetchStarter blockFetchStarter = (fetchBlockIds, blockFetchingListener) -> {
-                TransportClient client = clientFactory.createClient(host, port);
+                TransportClient client = clientFactory.createClient(host, port, true);
                 new OneForOneBlockFetcher(client, appId, execId, blockIds, blockFetchingListener,
                                             transportConf, tempShuffleFileManager).start();
             };
@@ -132,7 +132,7 @@ public class NettyBlockTransferService extends BlockTransferService {
     @Override
     public Future<Boolean> uploadBlock(String hostname, int port, String execId, BlockId blockId, ManagedBuffer blockData, StorageLevel level) {
         try {
-            TransportClient client = clientFactory.createClient(hostname, port);
+            TransportClient client = clientFactory.createClient(hostname, port, true);
             byte[] metadata = JavaUtils.bufferToArray(serializer.newInstance().serialize((level)));
             byte[] blockDataBytes = JavaUtils.bufferToArray(blockData.nioByteBuffer());
 
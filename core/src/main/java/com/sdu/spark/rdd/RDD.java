@@ -150,7 +150,8 @@ public abstract class RDD<T> implements Serializable {
     }
 
     private CheckpointRDD<T> checkpointRDD() {
-        return checkpointData.checkpointRDD();
+        // 未设置检查点
+        return checkpointData == null ? null : checkpointData.checkpointRDD();
     }
 
     public void checkpoint() {}
@@ -0,0 +1,104 @@
+package com.sdu.spark.rdd;
+
+import com.google.common.collect.Lists;
+import com.sdu.spark.Dependency;
+import com.sdu.spark.NarrowDependency;
+import com.sdu.spark.Partition;
+import com.sdu.spark.TaskContext;
+import com.sdu.spark.utils.TIterator;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link SelectedPartitionsRDD}由若干父RDD中选定的分区组成(窄依赖), 第i个分区即parents[parentIds[i]]的第parentPartitions[i]个分区:
+ *
+ * 1: 只有一个父RDD时仅保留部分分区, 下游Stage只计算选中的分区(如只对倾斜分区的拆分Task再次Shuffle)
+ *
+ * 2: 多个父RDD时按指定顺序拼接各父RDD的分区
+ *
+ * @author hanhan.zhang
+ * */
+public class SelectedPartitionsRDD<T> extends RDD<T> {
+
+    private final List<RDD<T>> parents;
+    private final int[] parentIds;
+    private final int[] parentPartitions;
+
+    public SelectedPartitionsRDD(RDD<T> parent, int[] parentPartitions) {
+        this(Lists.newArrayList(parent), new int[parentPartitions.length], parentPartitions);
+    }
+
+    public SelectedPartitionsRDD(List<RDD<T>> parents, int[] parentIds, int[] parentPartitions) {
+        super(parents.get(0).context(), selectDependencies(parents, parentIds, parentPartitions));
+        checkArgument(parentIds.length == parentPartitions.length, "parentIds and parentPartitions must have the same length");
+        this.parents = parents;
+        this.parentIds = parentIds;
+        this.parentPartitions = parentPartitions;
+    }
+
+    @Override
+    public Partition[] getPartitions() {
+        Partition[] partitions = new Partition[parentPartitions.length];
+        for (int i = 0; i < partitions.length; ++i) {
+            Partition parentPartition = parents.get(parentIds[i]).partitions()[parentPartitions[i]];
+            partitions[i] = new SelectedPartition(i, parentIds[i], parentPartition);
+        }
+        return partitions;
+    }
+
+    @Override
+    public TIterator<T> compute(Partition split, TaskContext context) {
+        SelectedPartition partition = (SelectedPartition) split;
+        return parents.get(partition.parentId).iterator(partition.parentPartition, context);
+    }
+
+    private static <T> List<Dependency<?>> selectDependencies(List<RDD<T>> parents, int[] parentIds, int[] parentPartitions) {
+        List<Dependency<?>> dependencies = Lists.newArrayListWithCapacity(parents.size());
+        for (int parentId = 0; parentId < parents.size(); ++parentId) {
+            dependencies.add(new SelectDependency<>(parents.get(parentId), parentId, parentIds, parentPartitions));
+        }
+        return dependencies;
+    }
+
+    /**
+     * 子分区仅依赖一个父RDD的一个分区
+     * */
+    private static class SelectDependency<T> extends NarrowDependency<T> {
+
+        private final int parentId;
+        private final int[] parentIds;
+        private final int[] parentPartitions;
+
+        SelectDependency(RDD<T> rdd, int parentId, int[] parentIds, int[] parentPartitions) {
+            super(rdd);
+            this.parentId = parentId;
+            this.parentIds = parentIds;
+            this.parentPartitions = parentPartitions;
+        }
+
+        @Override
+        public int[] getParents(int partitionId) {
+            return parentIds[partitionId] == parentId ? new int[]{parentPartitions[partitionId]} : new int[0];
+        }
+    }
+
+    public static class SelectedPartition extends Partition {
+
+        private final int index;
+        private final int parentId;
+        public final Partition parentPartition;
+
+        SelectedPartition(int index, int parentId, Partition parentPartition) {
+            this.index = index;
+            this.parentId = parentId;
+            this.parentPartition = parentPartition;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+    }
+}
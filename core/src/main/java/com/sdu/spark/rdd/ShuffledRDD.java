@@ -0,0 +1,84 @@
+package com.sdu.spark.rdd;
+
+import com.google.common.collect.Lists;
+import com.sdu.spark.Partition;
+import com.sdu.spark.ShuffleDependency;
+import com.sdu.spark.SparkEnv;
+import com.sdu.spark.TaskContext;
+import com.sdu.spark.scheduler.ReducePartitionCoalescer;
+import com.sdu.spark.scheduler.ReducePartitionCoalescer.PartitionSpec;
+import com.sdu.spark.utils.TIterator;
+import com.sdu.spark.utils.scala.Product2;
+
+/**
+ * {@link ShuffledRDD}读取ShuffleDependency的Reduce分区:
+ *
+ * 1: partitionSpecs为null时每个分区读取一个Reduce分区
+ *
+ * 2: 否则第i个分区读取partitionSpecs[i]: 连续的Reduce分区[startPartition, endPartition), 或倾斜Reduce分区的部分Map输出
+ *
+ *    [startMapIndex, endMapIndex), 由{@link ReducePartitionCoalescer}根据Map输出统计计算
+ *
+ * @author hanhan.zhang
+ * */
+public class ShuffledRDD<K, V, C> extends RDD<Product2<K, C>> {
+
+    private final ShuffleDependency<K, V, C> dependency;
+    private final PartitionSpec[] partitionSpecs;
+
+    public ShuffledRDD(ShuffleDependency<K, V, C> dependency) {
+        this(dependency, null);
+    }
+
+    public ShuffledRDD(ShuffleDependency<K, V, C> dependency, PartitionSpec[] partitionSpecs) {
+        super(dependency.rdd().context(), Lists.newArrayList(dependency));
+        this.dependency = dependency;
+        this.partitionSpecs = partitionSpecs;
+    }
+
+    @Override
+    public Partition[] getPartitions() {
+        if (partitionSpecs == null) {
+            int numReducers = dependency.partitioner.numPartitions();
+            Partition[] partitions = new Partition[numReducers];
+            for (int i = 0; i < numReducers; ++i) {
+                partitions[i] = new ShuffledRDDPartition(i, new PartitionSpec(i, i + 1));
+            }
+            return partitions;
+        }
+
+        Partition[] partitions = new Partition[partitionSpecs.length];
+        for (int i = 0; i < partitionSpecs.length; ++i) {
+            partitions[i] = new ShuffledRDDPartition(i, partitionSpecs[i]);
+        }
+        return partitions;
+    }
+
+    @Override
+    public TIterator<Product2<K, C>> compute(Partition split, TaskContext context) {
+        PartitionSpec spec = ((ShuffledRDDPartition) split).spec;
+        return TIterator.wrap(SparkEnv.env.shuffleManager.<K, C>getReader(dependency.shuffleHandle(),
+                                                                          spec.startMapIndex,
+                                                                          spec.endMapIndex,
+                                                                          spec.startPartition,
+                                                                          spec.endPartition,
+                                                                          context).read());
+    }
+
+    public static class ShuffledRDDPartition extends Partition {
+
+        private final int index;
+        /** 读取的Map输出及Reduce分区 */
+        public final PartitionSpec spec;
+
+        public ShuffledRDDPartition(int index, PartitionSpec spec) {
+            this.index = index;
+            this.spec = spec;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+    }
+}
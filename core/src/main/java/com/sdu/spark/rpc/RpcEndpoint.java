@@ -7,12 +7,31 @@ package com.sdu.spark.rpc;
  * */
 public abstract class RpcEndpoint {
 
+    /**
+     * RpcEndpoint消息处理线程模型, 注册RpcEndpoint时确定
+     * */
+    public enum ExecutionMode {
+        // 共享Dispatcher线程池
+        SHARED,
+        // 独占单线程, 阻塞操作不影响其他RpcEndpoint
+        DEDICATED,
+        // 虚拟线程处理消息, JVM不支持虚拟线程时退化为DEDICATED
+        VIRTUAL
+    }
+
     public RpcEnv rpcEnv;
 
     public RpcEndpoint(RpcEnv rpcEnv) {
         this.rpcEnv = rpcEnv;
     }
 
+    /**
+     * 消息处理线程模型, 可由spark.rpc.netty.dispatcher.executionMode.[name]覆盖
+     * */
+    public ExecutionMode executionMode() {
+        return ExecutionMode.SHARED;
+    }
+
     // Rpc节点的引用节点
     public RpcEndpointRef self() {
         assert rpcEnv != null : "nettyEnv has not been initialized";
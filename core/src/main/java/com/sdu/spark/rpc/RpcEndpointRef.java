@@ -36,6 +36,8 @@ public abstract class RpcEndpointRef implements Serializable {
 
     // 发送双向消息[需要消息响应]
     public abstract <T> CompletableFuture<T> ask(Object message);
+    // 发送双向消息, 超过timeout(毫秒)未收到响应则Future以TimeoutException失败
+    public abstract <T> CompletableFuture<T> ask(Object message, long timeout);
     public abstract Object askSync(Object message) throws TimeoutException, InterruptedException, ExecutionException;
     public abstract Object askSync(Object message, long timeout) throws TimeoutException, InterruptedException, ExecutionException;
 }
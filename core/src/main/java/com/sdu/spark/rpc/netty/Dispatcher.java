@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * {@link Dispatcher}负责路由接收到的消息[本地消息及网络消息]给{@link RpcEndpoint}
@@ -37,19 +38,31 @@ public class Dispatcher {
         RpcEndpoint endPoint;
         RpcEndpointRef endPointRef;
         Index index;
+        // 独占线程或虚拟线程执行器, null表示使用共享线程池
+        ExecutorService executor;
+        // 信箱已排队或正被处理, 仅在空闲 -> 已调度时排队, 信箱处理完后清除
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
 
         EndPointData(String name, RpcEndpoint endPoint, RpcEndpointRef endPointRef) {
+            this(name, endPoint, endPointRef, null);
+        }
+
+        EndPointData(String name, RpcEndpoint endPoint, RpcEndpointRef endPointRef, ExecutorService executor) {
             this.name = name;
             this.endPoint = endPoint;
             this.endPointRef = endPointRef;
-            this.index = new Index(this.endPoint, this.endPointRef);
+            this.index = new Index(this.endPoint, this.endPointRef, batchSize);
+            this.executor = executor;
         }
     }
 
-    private EndPointData PoisonPill = new EndPointData(null, null, null);
-
     private NettyRpcEnv nettyRpcEnv;
 
+    /**信箱单次处理消息数上限, 处理完一批后信箱重新排队以保证RpcEndpoint间公平*/
+    private final int batchSize;
+
+    private EndPointData PoisonPill;
+
     /*****************************Spark Point-To-Point映射*******************************/
     /** key = RpcEndpoint Name, value = EndPointData*/
     private Map<String, EndPointData> endPoints = Maps.newConcurrentMap();
@@ -74,7 +87,7 @@ public class Dispatcher {
                         receivers.offer(PoisonPill);
                         return;
                     }
-                    data.index.process(Dispatcher.this);
+                    processBatch(data);
                 } catch (Exception e) {
                     LOGGER.error("thread = {} occur exception", Thread.currentThread().getName(), e);
                 }
@@ -88,6 +101,8 @@ public class Dispatcher {
      * */
     public Dispatcher(NettyRpcEnv nettyRpcEnv, int numUsableCores) {
         this.nettyRpcEnv = nettyRpcEnv;
+        this.batchSize = nettyRpcEnv.conf.getInt("spark.rpc.netty.dispatcher.batchSize", 64);
+        this.PoisonPill = new EndPointData(null, null, null);
 
         int availableCores = numUsableCores > 0 ? numUsableCores
                                                 : Runtime.getRuntime().availableProcessors();
@@ -110,21 +125,98 @@ public class Dispatcher {
             if (stopped) {
                 throw new IllegalStateException("RpcEnv has stopped");
             }
-            if (endPoints.putIfAbsent(name, new EndPointData(name, endPoint, endPointRef)) != null) {
+            if (endPoints.containsKey(name)) {
                 throw new IllegalArgumentException("There is already an RpcEndpoint called " + name);
             }
-            EndPointData data = endPoints.get(name);
+            EndPointData data = new EndPointData(name, endPoint, endPointRef, createExecutor(name, endPoint));
+            endPoints.put(name, data);
             endPointRefs.put(data.endPoint, data.endPointRef);
-            receivers.offer(data);
+            scheduleIfIdle(data);
         }
         return endPointRef;
     }
 
+    /**
+     * 根据RpcEndpoint线程模型创建消息处理执行器, 共享线程池返回null
+     * */
+    private ExecutorService createExecutor(String name, RpcEndpoint endPoint) {
+        String mode = nettyRpcEnv.conf.get("spark.rpc.netty.dispatcher.executionMode." + name,
+                                           endPoint.executionMode().name());
+        switch (RpcEndpoint.ExecutionMode.valueOf(mode.toUpperCase())) {
+            case VIRTUAL:
+                ExecutorService executor = ThreadUtils.newVirtualThreadPerTaskExecutor();
+                if (executor != null) {
+                    return executor;
+                }
+                LOGGER.warn("Virtual threads are not supported by current JVM, RpcEndpoint {} uses a dedicated thread", name);
+                return ThreadUtils.newDaemonSingleThreadExecutor("dispatcher-" + name);
+            case DEDICATED:
+                return ThreadUtils.newDaemonSingleThreadExecutor("dispatcher-" + name);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 信箱空闲时调度, 已调度的信箱由处理线程负责后续消息, 避免每条消息都排队一次
+     * */
+    private void scheduleIfIdle(EndPointData data) {
+        if (data.scheduled.compareAndSet(false, true)) {
+            schedule(data);
+        }
+    }
+
+    /**
+     * 处理信箱一批消息: 未处理完时排到队尾让其他RpcEndpoint先处理(保持调度标识), 否则清除调度标识,
+     *
+     * 清除后再次检查信箱, 避免清除前投递的消息无人处理
+     * */
+    private void processBatch(EndPointData data) {
+        boolean hasMore = false;
+        try {
+            hasMore = data.index.process(this);
+        } finally {
+            if (hasMore) {
+                schedule(data);
+            } else {
+                data.scheduled.set(false);
+                if (data.index.hasPendingMessages()) {
+                    scheduleIfIdle(data);
+                }
+            }
+        }
+    }
+
+    /**
+     * 调度信箱: 共享线程池的信箱进入receivers队列, 否则提交到RpcEndpoint专属执行器
+     * */
+    private void schedule(EndPointData data) {
+        if (data.executor == null) {
+            receivers.offer(data);
+            return;
+        }
+        try {
+            data.executor.execute(() -> {
+                try {
+                    processBatch(data);
+                } catch (Exception e) {
+                    LOGGER.error("thread = {} occur exception", Thread.currentThread().getName(), e);
+                }
+                if (data.index.isTerminated()) {
+                    data.executor.shutdown();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // RpcEndpoint已关闭
+            LOGGER.debug("RpcEndpoint {} has been stopped", data.name);
+        }
+    }
+
     public void unregisterRpcEndpoint(String name) {
         EndPointData data = endPoints.remove(name);
         if (data != null) {
             data.index.stop();
-            receivers.offer(data);
+            scheduleIfIdle(data);
         }
     }
 
@@ -146,16 +238,11 @@ public class Dispatcher {
     }
 
     /** 本地消息*/
-    public Object postLocalMessage(RequestMessage req) {
-        try {
-            CompletableFuture<Object> p = new CompletableFuture<>();
-            LocalNettyRpcCallContext callContext = new LocalNettyRpcCallContext(req.senderAddress, p);
-            RpcMessage rpcMessage = new RpcMessage(req.senderAddress, req.content, callContext);
-            postMessage(req.receiver.name(), rpcMessage, null);
-            return p.get();
-        } catch (Exception e) {
-            throw new SparkException("Got local message result failure", e);
-        }
+    public void postLocalMessage(RequestMessage req, CompletableFuture<Object> p) {
+        // 仅投递消息, 由LocalNettyRpcCallContext在Endpoint回复时完成p, 调用线程不阻塞
+        LocalNettyRpcCallContext callContext = new LocalNettyRpcCallContext(req.senderAddress, p);
+        RpcMessage rpcMessage = new RpcMessage(req.senderAddress, req.content, callContext);
+        postMessage(req.receiver.name(), rpcMessage, p::completeExceptionally);
     }
 
     /**网络消息[单向]*/
@@ -196,19 +283,21 @@ public class Dispatcher {
 
     private void postMessage(String endPointName, IndexMessage message, ThrowableCallback callback) {
         Exception error = null;
+        EndPointData data;
         synchronized (this) {
-            EndPointData data = endPoints.get(endPointName);
+            data = endPoints.get(endPointName);
             if (stopped) {
                 error = new RpcEnvStoppedException();
             } else if (data == null) {
                 error = new SparkException(String.format("Could not find %s", endPointName));
             } else {
                 data.index.post(message);
-                receivers.offer(data);
             }
         }
         if (error != null) {
             callback.callbackIfStopped(error);
+        } else {
+            scheduleIfIdle(data);
         }
     }
 
@@ -7,76 +7,128 @@ import com.sdu.spark.rpc.ThreadSafeRpcEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static com.sdu.spark.rpc.netty.IndexMessage.*;
 
 /**
  * 接收信箱
  *
+ * 1: 投递消息无锁({@link ConcurrentLinkedQueue}), 多个网络线程投递消息时不与处理线程竞争信箱锁
+ *
+ * 2: 处理线程每次加锁批量取出至多batchSize条消息, 处理完一批后让出线程, 由{@link Dispatcher}将信箱重新排队,
+ *
+ *    避免消息密集的RpcEndpoint长期占用处理线程使其他RpcEndpoint饥饿
+ *
+ * 3: 批次数组按处理线程复用, 处理每批消息不再分配数组
+ *
  * @author hanhan.zhang
  * */
 public class Index {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Index.class);
 
+    /** 处理线程复用的批次数组 */
+    private static final ThreadLocal<IndexMessage[]> BATCH_BUFFER = new ThreadLocal<>();
+
     private RpcEndpoint endPoint;
     private RpcEndpointRef endPointRef;
-    private LinkedList<IndexMessage> messageBox = new LinkedList<>();
+    private Queue<IndexMessage> messageBox = new ConcurrentLinkedQueue<>();
+    // 单次处理消息数上限
+    private final int batchSize;
 
     // 并发控制
     private boolean enableConcurrent = false;
     private int numActiveThreads = 0;
 
     private volatile boolean stopped = false;
+    // OnStop已处理
+    private volatile boolean terminated = false;
 
-    public Index(RpcEndpoint endPoint, RpcEndpointRef endPointRef) {
+    public Index(RpcEndpoint endPoint, RpcEndpointRef endPointRef, int batchSize) {
+        assert batchSize > 0 : "batchSize should be positive";
         this.endPoint = endPoint;
         this.endPointRef = endPointRef;
+        this.batchSize = batchSize;
         messageBox.add(new OnStart());
     }
 
     /** 投递消息 */
-    public synchronized void post(IndexMessage message) {
+    public void post(IndexMessage message) {
         if (stopped) {
             onDrop(message);
         } else {
-            messageBox.add(message);
+            messageBox.offer(message);
         }
     }
 
-    /** 处理消息 */
-    public void process(Dispatcher dispatcher) {
-        IndexMessage message;
+    /**
+     * 处理消息
+     *
+     * @return 信箱仍有待处理消息且需当前调用方重新调度时返回true
+     * */
+    public boolean process(Dispatcher dispatcher) {
+        IndexMessage[] batch = batchBuffer();
+        int size;
         synchronized (this) {
             // 当已有线程访问时, 退出
             if (!enableConcurrent && numActiveThreads != 0) {
-                return;
+                return false;
             }
-            message = messageBox.poll();
-            if (message != null) {
-                numActiveThreads += 1;
-            } else {
-                return;
+            size = drainTo(batch);
+            if (size == 0) {
+                return false;
             }
+            numActiveThreads += 1;
         }
 
         // 处理消息
-        while (true) {
-            safelyCall(endPoint, message, new IndexMessageHandler(dispatcher));
-            synchronized (this) {
-                // 被当前线程访问, numActiveThreads至少等于1
-                if (!enableConcurrent && numActiveThreads != 1) {
-                    numActiveThreads -=1;
-                    return;
-                }
-                message = messageBox.poll();
-                if (message == null) {
-                    numActiveThreads -=1;
-                    return;
-                }
+        IndexMessageHandler handler = new IndexMessageHandler(dispatcher);
+        for (int i = 0; i < size; ++i) {
+            safelyCall(endPoint, batch[i], handler);
+            batch[i] = null;
+        }
+
+        synchronized (this) {
+            numActiveThreads -= 1;
+            // 非并发信箱仍有其他线程处理时, 由该线程负责后续消息
+            return !messageBox.isEmpty() && (enableConcurrent || numActiveThreads == 0);
+        }
+    }
+
+    /** 信箱是否有待处理消息 */
+    public boolean hasPendingMessages() {
+        return !messageBox.isEmpty();
+    }
+
+    private IndexMessage[] batchBuffer() {
+        IndexMessage[] batch = BATCH_BUFFER.get();
+        if (batch == null || batch.length < batchSize) {
+            batch = new IndexMessage[batchSize];
+            BATCH_BUFFER.set(batch);
+        }
+        return batch;
+    }
+
+    /** 持有信箱锁时调用, OnStop作为批次最后一条消息 */
+    private int drainTo(IndexMessage[] batch) {
+        int size = 0;
+        while (size < batchSize) {
+            IndexMessage message = messageBox.poll();
+            if (message == null) {
+                break;
+            }
+            batch[size++] = message;
+            if (message instanceof OnStop) {
+                break;
             }
         }
+        return size;
+    }
+
+    public boolean isTerminated() {
+        return terminated;
     }
 
     private void onDrop(IndexMessage message) {
@@ -91,8 +143,12 @@ public class Index {
         }
     }
 
-    private synchronized boolean isEmpty() {
-       return messageBox.isEmpty();
+    /** 投递无锁, 与stop()并发投递的消息可能排在OnStop之后, 关闭时丢弃 */
+    private void dropRemaining() {
+        IndexMessage message;
+        while ((message = messageBox.poll()) != null) {
+            onDrop(message);
+        }
     }
 
     private void safelyCall(RpcEndpoint endPoint, IndexMessage message, MessageHandler action) {
@@ -121,7 +177,7 @@ public class Index {
                 endPoint.onStart();
                 // ThreadSafeRpcEndpoint线程安全, 逐条处理消息
                 if (!(endPoint instanceof ThreadSafeRpcEndpoint)) {
-                    synchronized (this) {
+                    synchronized (Index.this) {
                         if (!stopped) {
                             enableConcurrent = true;
                         }
@@ -129,17 +185,24 @@ public class Index {
                 }
             } else if (message instanceof OnStop) {                   // 信箱关闭
                 int activeThreads;
-                synchronized (this) {
+                synchronized (Index.this) {
                     activeThreads = numActiveThreads;
                 }
                 assert activeThreads == 1 :
                         String.format("There should be only a single active thread but found %d threads.", activeThreads);
                 dispatcher.removeRpcEndPointRef(endPoint);
                 endPoint.onStop();
-                assert isEmpty() : "OnStop should be the last message";
+                terminated = true;
+                dropRemaining();
             } else if (message instanceof RpcMessage) {                 // 向远端发送消息
                 RpcMessage rpcMessage = (RpcMessage) message;
-                endPoint.receiveAndReply(rpcMessage.content, rpcMessage.context);
+                try {
+                    endPoint.receiveAndReply(rpcMessage.content, rpcMessage.context);
+                } catch (Exception e) {
+                    // 回复调用方失败, 避免调用方Future永不完成
+                    rpcMessage.context.sendFailure(e);
+                    throw e;
+                }
             } else if (message instanceof RemoteProcessConnect) {       // 远端连接到RpcEnv[广播给每个RpcEndPoint]
                 endPoint.onConnected(((RemoteProcessConnect) message).address);
             } else if (message instanceof RemoteProcessDisconnected) {    // 远端关闭RpcEnv连接[广播给每个RpcEndPoint]
@@ -5,11 +5,12 @@ import com.sdu.spark.rpc.RpcAddress;
 import java.util.concurrent.CompletableFuture;
 
 /**
+ * 本地消息回复上下文, Endpoint回复时直接完成调用方Future(无需线程等待回复)
+ *
  * @author hanhan.zhang
  * */
 public class LocalNettyRpcCallContext extends NettyRpcCallContext {
 
-//    private LocalResponseCallback<Object> callback;
     CompletableFuture<Object> p;
 
     public LocalNettyRpcCallContext(RpcAddress senderAddress, CompletableFuture<Object> p) {
@@ -21,4 +22,9 @@ public class LocalNettyRpcCallContext extends NettyRpcCallContext {
     public void send(Object message) {
         p.complete(message);
     }
+
+    @Override
+    public void sendFailure(Throwable cause) {
+        p.completeExceptionally(cause);
+    }
 }
@@ -10,7 +10,6 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -63,11 +62,16 @@ public class NettyRpcEndpointRef extends RpcEndpointRef {
         nettyEnv.send(new RequestMessage(nettyEnv.address(), this, message));
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public <T> CompletableFuture<T> ask(Object message) {
+        return ask(message, defaultAskTimeout);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> CompletableFuture<T> ask(Object message, long timeout) {
         assert nettyEnv != null;
-        return (CompletableFuture<T>) nettyEnv.ask(new RequestMessage(nettyEnv.address(), this, message));
+        return (CompletableFuture<T>) nettyEnv.ask(new RequestMessage(nettyEnv.address(), this, message), timeout);
     }
 
     @Override
@@ -77,7 +81,15 @@ public class NettyRpcEndpointRef extends RpcEndpointRef {
 
     @Override
     public Object askSync(Object message, long timeout) throws TimeoutException, InterruptedException, ExecutionException {
-        return ask(message).get(timeout, TimeUnit.MILLISECONDS);
+        // 超时由NettyRpcEnv时间轮触发, 此处仅等待Future完成
+        try {
+            return ask(message, timeout).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw (TimeoutException) e.getCause();
+            }
+            throw e;
+        }
     }
 
     /***************************************自定义序列化***************************************/
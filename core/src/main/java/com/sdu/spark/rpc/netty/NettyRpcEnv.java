@@ -22,9 +22,14 @@ import com.sdu.spark.rpc.netty.OutboxMessage.OneWayOutboxMessage;
 import com.sdu.spark.rpc.netty.OutboxMessage.RpcOutboxMessage;
 import com.sdu.spark.serializer.JavaSerializerInstance;
 import com.sdu.spark.serializer.SerializationStream;
+import com.sdu.spark.utils.ByteBufferOutputStream;
+import com.sdu.spark.utils.RpcUtils;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -36,8 +41,11 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static com.sdu.spark.utils.ThreadUtils.namedThreadFactory;
 import static com.sdu.spark.utils.ThreadUtils.newDaemonCachedThreadPool;
 
 /**
@@ -81,8 +89,8 @@ public class NettyRpcEnv extends RpcEnv {
     // 接收消息路由
     private Dispatcher dispatcher;
     private NettyStreamManager streamManager;
-    // 消息分发线程
-    private ThreadPoolExecutor deliverMessageExecutor;
+    // Ask超时时间轮(所有Ask共享, 超时检测不占用线程)
+    private HashedWheelTimer askTimeoutTimer;
 
 
     /**********************************Spark RpcEnv数据传输************************************/
@@ -90,6 +98,8 @@ public class NettyRpcEnv extends RpcEnv {
     private SecurityManager securityManager;
     // 数据序列化
     private JavaSerializerInstance javaSerializerInstance;
+    // Rpc消息二进制编解码(未注册消息类型使用javaSerializerInstance)
+    private RpcMessageCodecRegistry codecRegistry;
     // RpcEnv网络数据监听
     private TransportServer server;
     private TransportConf transportConf;
@@ -111,10 +121,14 @@ public class NettyRpcEnv extends RpcEnv {
         this.host = host;
         this.securityManager = securityManager;
         this.javaSerializerInstance = serializerInstance;
+        this.codecRegistry = new RpcMessageCodecRegistry(conf);
         this.dispatcher = new Dispatcher(this, numUsableCores);
         this.streamManager = new NettyStreamManager(this);
         this.clientConnectionExecutor = newDaemonCachedThreadPool("netty-rpc-connect-%d", conf.getInt("spark.rpc.connect.threads", 64), 60);
-        this.deliverMessageExecutor = newDaemonCachedThreadPool("rpc-deliver-message-%d", conf.getInt("spark.rpc.deliver.message.threads", 64), 60);
+        this.askTimeoutTimer = new HashedWheelTimer(namedThreadFactory("netty-rpc-ask-timeout", true),
+                                                    conf.getTimeAsMs("spark.rpc.askTimeout.tick", "10ms"),
+                                                    TimeUnit.MILLISECONDS,
+                                                    conf.getInt("spark.rpc.askTimeout.ticksPerWheel", 512));
         this.transportConf = SparkTransportConf.fromSparkConf(conf, "rpc", conf.getInt("spark.rpc.io.threads", 0));
         this.transportContext = new TransportContext(transportConf, new NettyRpcHandler(streamManager, this.dispatcher, this));
         this.clientFactory = this.transportContext.createClientFactory(createClientBootstraps());
@@ -163,13 +177,20 @@ public class NettyRpcEnv extends RpcEnv {
 
     // 双向消息
     public CompletableFuture<?> ask(RequestMessage message) {
+        return ask(message, RpcUtils.getRpcAskTimeout(conf));
+    }
+
+    /**
+     * 双向消息, timeout毫秒内未收到响应则Future以{@link TimeoutException}失败, 远端请求同时移除响应回调
+     * */
+    public CompletableFuture<?> ask(RequestMessage message, long timeout) {
+        CompletableFuture<Object> p = new CompletableFuture<>();
         if (message.receiver.address().equals(address())) {
-            // 发送本地消息
-            return CompletableFuture.runAsync(() -> dispatcher.postLocalMessage(message),
-                                              deliverMessageExecutor);
+            // 发送本地消息: Endpoint回复时由LocalNettyRpcCallContext完成Future
+            scheduleAskTimeout(p, message, timeout, null);
+            dispatcher.postLocalMessage(message, p);
         } else {
             // 发送网络消息
-            CompletableFuture<Object> p = new CompletableFuture<>();
             RpcResponseCallback callback = new RpcResponseCallback() {
                 @Override
                 public void onSuccess(ByteBuffer response) {
@@ -187,9 +208,25 @@ public class NettyRpcEnv extends RpcEnv {
                 }
             };
             OutboxMessage.RpcOutboxMessage outboxMessage = new RpcOutboxMessage(message.serialize(this), callback);
+            scheduleAskTimeout(p, message, timeout, outboxMessage);
             postToOutbox(message.receiver, outboxMessage);
-            return p;
         }
+        return p;
+    }
+
+    private void scheduleAskTimeout(CompletableFuture<Object> p, RequestMessage message, long timeout, RpcOutboxMessage outboxMessage) {
+        if (timeout <= 0) {
+            return;
+        }
+        Timeout task = askTimeoutTimer.newTimeout(t -> {
+            TimeoutException e = new TimeoutException(String.format("Cannot receive any reply from %s in %d ms",
+                                                                     message.receiver.address(), timeout));
+            if (p.completeExceptionally(e) && outboxMessage != null) {
+                outboxMessage.onTimeout();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        // 提前完成时取消定时任务, 释放时间轮槽位
+        p.whenComplete((result, cause) -> task.cancel());
     }
 
     private void postToOutbox(NettyRpcEndpointRef receiver, OutboxMessage message) {
@@ -248,7 +285,16 @@ public class NettyRpcEnv extends RpcEnv {
 
     /***********************************Spark网络数据序列化***************************************/
     public ByteBuffer serialize(Object content) throws IOException {
-        return javaSerializerInstance.serialize(content);
+        ByteBufferOutputStream bos = new ByteBufferOutputStream();
+        serialize(content, new DataOutputStream(bos));
+        return bos.toByteBuffer();
+    }
+
+    /**
+     * 消息体编码: 已注册类型使用二进制编码, 否则使用Java序列化
+     * */
+    public void serialize(Object content, DataOutputStream out) throws IOException {
+        codecRegistry.write(content, out, this);
     }
 
     public SerializationStream serializeStream(OutputStream out) throws IOException {
@@ -259,7 +305,7 @@ public class NettyRpcEnv extends RpcEnv {
         NettyRpcEnv.currentClient = client;
         return deserialize(() -> {
             try {
-                return javaSerializerInstance.deserialize(buf);
+                return codecRegistry.read(buf, this);
             } catch (IOException e) {
                 LOGGER.error("deserialize buf failure", e);
                 throw new SparkException(e);
@@ -267,6 +313,14 @@ public class NettyRpcEnv extends RpcEnv {
         });
     }
 
+    <T> T javaDeserialize(ByteBuffer buf) throws IOException {
+        return javaSerializerInstance.deserialize(buf);
+    }
+
+    public RpcMessageCodecRegistry codecRegistry() {
+        return codecRegistry;
+    }
+
     @Override
     public void awaitTermination() {
         dispatcher.awaitTermination();
@@ -304,6 +358,9 @@ public class NettyRpcEnv extends RpcEnv {
             if (clientConnectionExecutor != null) {
                 clientConnectionExecutor.shutdownNow();
             }
+            if (askTimeoutTimer != null) {
+                askTimeoutTimer.stop();
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -6,12 +6,20 @@ import com.sdu.spark.network.client.TransportClient;
 import com.sdu.spark.rpc.RpcAddress;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * RpcMessage发送信箱
  *
+ * 1: 消息队列无锁({@link ConcurrentLinkedQueue}), 发送线程与drain线程互不竞争
+ *
+ * 2: drain时批量写入消息并只flush一次(每maxBatchSize条消息强制flush), 减少系统调用;
+ *
+ *    配置lingerMicros时延迟flush, 合并短时间内多次drain的消息
+ *
  * @author hanhan.zhang
  * */
 public class Outbox {
@@ -24,32 +32,36 @@ public class Outbox {
     /**远端服务客户端*/
     private TransportClient client;
 
-    private LinkedList<OutboxMessage> messages = new LinkedList<>();
+    private Queue<OutboxMessage> messages = new ConcurrentLinkedQueue<>();
 
-    private boolean stopped = false;
+    private volatile boolean stopped = false;
 
     private Future<?> connectFuture = null;
 
     /**If there is any thread draining the message queue*/
-    private boolean draining = false;
+    private AtomicBoolean draining = new AtomicBoolean(false);
+
+    /**单次flush最多写入消息数*/
+    private final int maxBatchSize;
+    /**延迟flush时间(微秒), 0表示drain结束立即flush*/
+    private final long lingerMicros;
 
     public Outbox(NettyRpcEnv nettyEnv, RpcAddress address) {
         this.nettyEnv = nettyEnv;
         this.address = address;
+        this.maxBatchSize = Math.max(1, nettyEnv.conf.getInt("spark.rpc.netty.outbox.maxBatchSize", 128));
+        this.lingerMicros = nettyEnv.conf.getLong("spark.rpc.netty.outbox.lingerMicros", 0);
     }
 
     public void send(OutboxMessage message) {
-        boolean dropped;
-        synchronized (this) {
-            if (stopped) {
-                dropped = true;
-            } else {
-                messages.add(message);
-                dropped = false;
-            }
-        }
-        if (dropped) {
+        if (stopped) {
             message.onFailure(new IllegalStateException("Message is dropped because Outbox is stopped"));
+            return;
+        }
+        messages.offer(message);
+        if (stopped) {
+            // 与stop()并发时stop()可能已清空队列, 此处保证消息不会滞留
+            failPendingMessages(new IllegalStateException("Message is dropped because Outbox is stopped"));
         } else {
             drainOutbox();
         }
@@ -61,7 +73,7 @@ public class Outbox {
      * connection.
      */
     private void drainOutbox() {
-        OutboxMessage message;
+        TransportClient _client;
         synchronized (this) {
             if (stopped) {
                 return;
@@ -76,43 +88,34 @@ public class Outbox {
                 launchConnectTask();
                 return;
             }
-
-            if (draining) {
-                // There is some thread draining, so just exit
-                return;
-            }
-
-            message = messages.poll();
-            if (message == null) {
-                return;
-            }
-            draining = true;
+            _client = client;
         }
 
-        // 消息处理
-        while (true) {
-            TransportClient _client = null;
-            synchronized (this) {
-                _client = this.client;
-            }
-            if (_client != null) {
-                message.sendWith(_client);
-            } else {
-                assert stopped;
-            }
-
-            synchronized (this) {
-                if (stopped) {
-                    return;
+        // 其他线程正在drain时直接退出; 释放draining后仍有消息则重新drain, 避免消息滞留
+        while (draining.compareAndSet(false, true)) {
+            try {
+                int written = 0;
+                OutboxMessage message;
+                while (!stopped && (message = messages.poll()) != null) {
+                    message.writeWith(_client);
+                    if (++written % maxBatchSize == 0) {
+                        _client.flush();
+                    }
                 }
-                message = messages.poll();
-                if (message == null) {
-                    draining = false;
-                    return;
+                if (written % maxBatchSize != 0) {
+                    if (lingerMicros > 0) {
+                        _client.flushLater(lingerMicros);
+                    } else {
+                        _client.flush();
+                    }
                 }
+            } finally {
+                draining.set(false);
+            }
+            if (stopped || messages.isEmpty()) {
+                return;
             }
         }
-
     }
 
     private void launchConnectTask() {
@@ -156,13 +159,14 @@ public class Outbox {
 
         // 停止向address发送Rpc消息, 并通知
         nettyEnv.removeOutbox(address);
-        OutboxMessage message = messages.poll();
-        while (message != null) {
+        failPendingMessages(e);
+    }
+
+    private void failPendingMessages(Throwable e) {
+        OutboxMessage message;
+        while ((message = messages.poll()) != null) {
             message.onFailure(e);
-            message = messages.poll();
         }
-
-        assert messages.isEmpty();
     }
 
     private void closeClient() {
@@ -181,13 +185,8 @@ public class Outbox {
             closeClient();
         }
 
-        // We always check `stopped` before updating messages, so here we can make sure no thread will
-        // update messages and it's safe to just drain the queue.
-        OutboxMessage message = messages.poll();
-        while (message != null) {
-            message.onFailure(new SparkException("Message is dropped because Outbox is stopped"));
-            message = messages.poll();
-        }
+        // send()在入队后会再次检查stopped, 并发入队的消息同样会被通知失败
+        failPendingMessages(new SparkException("Message is dropped because Outbox is stopped"));
     }
 
 }
@@ -16,6 +16,13 @@ public interface OutboxMessage extends Serializable {
 
     void sendWith(TransportClient client);
 
+    /**
+     * 写入消息但不flush, 由{@link Outbox}批量写入后统一flush
+     * */
+    default void writeWith(TransportClient client) {
+        sendWith(client);
+    }
+
     void onFailure(Throwable e);
 
     /**单向网络消息*/
@@ -34,6 +41,11 @@ public interface OutboxMessage extends Serializable {
             client.send(content);
         }
 
+        @Override
+        public void writeWith(TransportClient client) {
+            client.send(content, false);
+        }
+
         @Override
         public void onFailure(Throwable e) {
             if (e instanceof RpcEnvStoppedException) {
@@ -72,15 +84,19 @@ public interface OutboxMessage extends Serializable {
          * */
         public ByteBuffer content;
         /**
-         * 消息发送客户端
+         * 消息发送客户端, 在requestId赋值后发布, 超时线程读到client时requestId已可见
          * */
-        public TransportClient client;
+        public volatile TransportClient client;
         /**
          * 消息标识
          * */
-        public long requestId;
+        public volatile long requestId;
 
         private RpcResponseCallback callback;
+        /**
+         * 请求超时标识, 超时后不再发送且不再保留响应回调
+         * */
+        private volatile boolean timedOut = false;
 
         public RpcOutboxMessage(ByteBuffer content, RpcResponseCallback callback) {
             this.content = content;
@@ -89,8 +105,36 @@ public interface OutboxMessage extends Serializable {
 
         @Override
         public void sendWith(TransportClient client) {
+            send(client, true);
+        }
+
+        @Override
+        public void writeWith(TransportClient client) {
+            send(client, false);
+        }
+
+        private void send(TransportClient client, boolean flush) {
+            if (timedOut) {
+                return;
+            }
+            long id = client.sendRpc(content, this, flush);
+            requestId = id;
             this.client = client;
-            requestId = this.client.sendRpc(content, this);
+            if (timedOut) {
+                // 发送期间已超时, 避免回调残留在TransportResponseHandler
+                client.removeRpcRequest(id);
+            }
+        }
+
+        /**
+         * 请求超时: 移除TransportResponseHandler中的响应回调(未发送的消息在sendWith时被丢弃)
+         * */
+        public void onTimeout() {
+            timedOut = true;
+            TransportClient c = client;
+            if (c != null) {
+                c.removeRpcRequest(requestId);
+            }
         }
 
         @Override
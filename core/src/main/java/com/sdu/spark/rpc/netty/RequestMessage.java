@@ -4,7 +4,6 @@ import com.sdu.spark.network.client.TransportClient;
 import com.sdu.spark.rpc.RpcAddress;
 import com.sdu.spark.rpc.RpcEndpoint;
 import com.sdu.spark.rpc.RpcEndpointAddress;
-import com.sdu.spark.serializer.SerializationStream;
 import com.sdu.spark.utils.ByteBufferInputStream;
 import com.sdu.spark.utils.ByteBufferOutputStream;
 import org.slf4j.Logger;
@@ -59,14 +58,9 @@ public class RequestMessage {
             writeRpcAddress(out, receiver.address());
             out.writeUTF(receiver.name());
 
-            // 发送消息体
-            SerializationStream s = rpcEnv.serializeStream(out);
-            try {
-                s.writeObject(content);
-                return bos.toByteBuffer();
-            } finally {
-                s.close();
-            }
+            // 发送消息体(高频消息二进制编码, 见RpcMessageCodecRegistry)
+            rpcEnv.serialize(content, out);
+            return bos.toByteBuffer();
         } catch (IOException e) {
             LOGGER.error("serialize request message error", e);
             throw new IllegalStateException("serialize request message error", e);
@@ -0,0 +1,23 @@
+package com.sdu.spark.rpc.netty;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Rpc消息二进制编解码器, 由{@link RpcMessageCodecRegistry}按消息类型注册
+ *
+ * 编码只写消息字段, 不写类名及字段描述, 故编解码双方须注册相同的(codecId, 消息类型, 编解码器)
+ *
+ * @author hanhan.zhang
+ * */
+public interface RpcMessageCodec<T> {
+
+    void encode(T message, DataOutputStream out) throws IOException;
+
+    /**
+     * @param rpcEnv 用于还原消息中的{@link com.sdu.spark.rpc.RpcEndpointRef}
+     * */
+    T decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException;
+
+}
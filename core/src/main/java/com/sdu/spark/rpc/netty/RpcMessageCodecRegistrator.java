@@ -0,0 +1,14 @@
+package com.sdu.spark.rpc.netty;
+
+/**
+ * 用户自定义Rpc消息编解码器注册, 通过spark.rpc.codec.registrator配置(多个以逗号分隔), 需提供无参构造函数
+ *
+ * 注意: 用户codecId须大于等于{@link RpcMessageCodecRegistry#USER_CODEC_ID_START}
+ *
+ * @author hanhan.zhang
+ * */
+public interface RpcMessageCodecRegistrator {
+
+    void registerCodecs(RpcMessageCodecRegistry registry);
+
+}
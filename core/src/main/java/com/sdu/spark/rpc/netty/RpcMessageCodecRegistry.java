@@ -0,0 +1,464 @@
+package com.sdu.spark.rpc.netty;
+
+import com.google.common.collect.Maps;
+import com.sdu.spark.MapOutputTrackerMessage.GetMapOutputStatuses;
+import com.sdu.spark.MapOutputTrackerMessage.GetMapOutputStatusesSince;
+import com.sdu.spark.SparkException;
+import com.sdu.spark.deploy.DeployMessage;
+import com.sdu.spark.executor.Heartbeat;
+import com.sdu.spark.executor.HeartbeatResponse;
+import com.sdu.spark.rpc.RpcAddress;
+import com.sdu.spark.rpc.RpcEndpointAddress;
+import com.sdu.spark.rpc.RpcEndpointRef;
+import com.sdu.spark.rpc.SparkConf;
+import com.sdu.spark.scheduler.TaskState;
+import com.sdu.spark.scheduler.cluster.CoarseGrainedClusterMessage.*;
+import com.sdu.spark.serializer.SerializationStream;
+import com.sdu.spark.storage.BlockId;
+import com.sdu.spark.storage.BlockManagerId;
+import com.sdu.spark.storage.BlockManagerMessages.BlockManagerHeartbeat;
+import com.sdu.spark.storage.BlockManagerMessages.UpdateBlockInfo;
+import com.sdu.spark.storage.StorageLevel;
+import com.sdu.spark.utils.ByteBufferInputStream;
+import com.sdu.spark.utils.SerializableBuffer;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link RpcMessageCodecRegistry}维护Rpc消息类型与二进制编解码器映射, 替代高频消息的Java序列化
+ *
+ * 1: 消息体格式: [codecId(short)][payload], codecId = {@link #JAVA_CODEC_ID}时payload为Java序列化字节(未注册类型的兜底)
+ *
+ * 2: 按消息类型精确匹配(不匹配子类), 内置注册Driver/Executor/Worker/BlockManager/MapOutputTracker高频消息及常用回复类型
+ *
+ * 3: spark.rpc.codec.enabled = false时全部消息使用Java序列化(编码端), 解码端总是识别两种格式
+ *
+ * 4: spark.rpc.codec.registrator指定{@link RpcMessageCodecRegistrator}注册用户消息编解码器
+ *
+ * @author hanhan.zhang
+ * */
+public class RpcMessageCodecRegistry {
+
+    /** Java序列化兜底 */
+    public static final short JAVA_CODEC_ID = 0;
+    /** 用户编解码器codecId起始值, 小于该值的codecId为内置保留 */
+    public static final short USER_CODEC_ID_START = 1024;
+
+    private static final TaskState[] TASK_STATES = TaskState.values();
+
+    private final boolean enabled;
+    private final Map<Class<?>, Registration<?>> codecsByClass = Maps.newHashMap();
+    private final Map<Short, Registration<?>> codecsById = Maps.newHashMap();
+
+    public RpcMessageCodecRegistry(SparkConf conf) {
+        this.enabled = conf.getBoolean("spark.rpc.codec.enabled", true);
+        registerDefaultCodecs();
+
+        for (String className : StringUtils.split(conf.get("spark.rpc.codec.registrator", ""), ',')) {
+            if (className.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                RpcMessageCodecRegistrator registrator = (RpcMessageCodecRegistrator)
+                        Class.forName(className.trim(), true, loader == null ? getClass().getClassLoader() : loader).newInstance();
+                registrator.registerCodecs(this);
+            } catch (ReflectiveOperationException e) {
+                throw new SparkException("Failed to register rpc message codecs with " + className, e);
+            }
+        }
+    }
+
+    public synchronized <T> void register(short codecId, Class<T> messageClass, RpcMessageCodec<T> codec) {
+        checkArgument(codecId != JAVA_CODEC_ID, "codec id %s is reserved for java serialization", codecId);
+        checkArgument(!codecsById.containsKey(codecId), "codec id %s already registered", codecId);
+        checkArgument(!codecsByClass.containsKey(messageClass), "codec for %s already registered", messageClass.getName());
+        Registration<T> registration = new Registration<>(codecId, codec);
+        codecsByClass.put(messageClass, registration);
+        codecsById.put(codecId, registration);
+    }
+
+    /**
+     * 编码消息, 未注册类型使用Java序列化
+     * */
+    @SuppressWarnings("unchecked")
+    public void write(Object message, DataOutputStream out, NettyRpcEnv rpcEnv) throws IOException {
+        Registration<Object> registration = enabled && message != null ? (Registration<Object>) codecsByClass.get(message.getClass())
+                                                                        : null;
+        if (registration != null) {
+            out.writeShort(registration.codecId);
+            registration.codec.encode(message, out);
+        } else {
+            out.writeShort(JAVA_CODEC_ID);
+            SerializationStream s = rpcEnv.serializeStream(out);
+            s.writeObject(message);
+            s.flush();
+        }
+        out.flush();
+    }
+
+    /**
+     * 从buffer当前位置解码消息
+     * */
+    @SuppressWarnings("unchecked")
+    public <T> T read(ByteBuffer buffer, NettyRpcEnv rpcEnv) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+        short codecId = in.readShort();
+        if (codecId == JAVA_CODEC_ID) {
+            return rpcEnv.javaDeserialize(buffer);
+        }
+        Registration<?> registration = codecsById.get(codecId);
+        if (registration == null) {
+            throw new SparkException("Unknown rpc message codec id: " + codecId);
+        }
+        return (T) registration.codec.decode(in, rpcEnv);
+    }
+
+    private static class Registration<T> {
+        final short codecId;
+        final RpcMessageCodec<T> codec;
+
+        Registration(short codecId, RpcMessageCodec<T> codec) {
+            this.codecId = codecId;
+            this.codec = codec;
+        }
+    }
+
+    /*********************************内置编解码器*********************************/
+
+    private void registerDefaultCodecs() {
+        // 常用回复类型
+        register((short) 1, Boolean.class, new RpcMessageCodec<Boolean>() {
+            @Override
+            public void encode(Boolean message, DataOutputStream out) throws IOException {
+                out.writeBoolean(message);
+            }
+
+            @Override
+            public Boolean decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return in.readBoolean();
+            }
+        });
+        register((short) 2, Integer.class, new RpcMessageCodec<Integer>() {
+            @Override
+            public void encode(Integer message, DataOutputStream out) throws IOException {
+                out.writeInt(message);
+            }
+
+            @Override
+            public Integer decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return in.readInt();
+            }
+        });
+        register((short) 3, Long.class, new RpcMessageCodec<Long>() {
+            @Override
+            public void encode(Long message, DataOutputStream out) throws IOException {
+                out.writeLong(message);
+            }
+
+            @Override
+            public Long decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return in.readLong();
+            }
+        });
+        register((short) 4, String.class, new RpcMessageCodec<String>() {
+            @Override
+            public void encode(String message, DataOutputStream out) throws IOException {
+                writeString(out, message);
+            }
+
+            @Override
+            public String decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return readString(in);
+            }
+        });
+
+        // CoarseGrainedClusterMessage
+        register((short) 16, StatusUpdate.class, new RpcMessageCodec<StatusUpdate>() {
+            @Override
+            public void encode(StatusUpdate message, DataOutputStream out) throws IOException {
+                writeString(out, message.executorId);
+                out.writeLong(message.taskId);
+                out.writeByte(message.state.ordinal());
+                writeBuffer(out, message.data.buffer);
+            }
+
+            @Override
+            public StatusUpdate decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new StatusUpdate(readString(in), in.readLong(), TASK_STATES[in.readByte()], readBuffer(in));
+            }
+        });
+        register((short) 21, StatusUpdates.class, new RpcMessageCodec<StatusUpdates>() {
+            @Override
+            public void encode(StatusUpdates message, DataOutputStream out) throws IOException {
+                writeString(out, message.executorId);
+                int size = message.size();
+                out.writeInt(size);
+                for (long taskId : message.taskIds) {
+                    out.writeLong(taskId);
+                }
+                for (TaskState state : message.states) {
+                    out.writeByte(state.ordinal());
+                }
+                for (int i = 1; i <= size; ++i) {
+                    out.writeInt(message.dataOffsets[i]);
+                }
+                writeBuffer(out, message.data.buffer);
+            }
+
+            @Override
+            public StatusUpdates decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                String executorId = readString(in);
+                int size = in.readInt();
+                long[] taskIds = new long[size];
+                for (int i = 0; i < size; ++i) {
+                    taskIds[i] = in.readLong();
+                }
+                TaskState[] states = new TaskState[size];
+                for (int i = 0; i < size; ++i) {
+                    states[i] = TASK_STATES[in.readByte()];
+                }
+                int[] dataOffsets = new int[size + 1];
+                for (int i = 1; i <= size; ++i) {
+                    dataOffsets[i] = in.readInt();
+                }
+                return new StatusUpdates(executorId, taskIds, states, dataOffsets, readBuffer(in));
+            }
+        });
+        register((short) 17, LaunchTask.class, new RpcMessageCodec<LaunchTask>() {
+            @Override
+            public void encode(LaunchTask message, DataOutputStream out) throws IOException {
+                writeBuffer(out, message.taskData.buffer);
+            }
+
+            @Override
+            public LaunchTask decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new LaunchTask(new SerializableBuffer(readBuffer(in)));
+            }
+        });
+        register((short) 20, LaunchTasks.class, new RpcMessageCodec<LaunchTasks>() {
+            @Override
+            public void encode(LaunchTasks message, DataOutputStream out) throws IOException {
+                writeBuffer(out, message.taskData.buffer);
+            }
+
+            @Override
+            public LaunchTasks decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new LaunchTasks(new SerializableBuffer(readBuffer(in)));
+            }
+        });
+        register((short) 18, KillTask.class, new RpcMessageCodec<KillTask>() {
+            @Override
+            public void encode(KillTask message, DataOutputStream out) throws IOException {
+                out.writeLong(message.taskId);
+                writeString(out, message.executorId);
+                out.writeBoolean(message.interruptThread);
+                writeString(out, message.reason);
+            }
+
+            @Override
+            public KillTask decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new KillTask(in.readLong(), readString(in), in.readBoolean(), readString(in));
+            }
+        });
+        register((short) 19, ReviveOffers.class, new RpcMessageCodec<ReviveOffers>() {
+            @Override
+            public void encode(ReviveOffers message, DataOutputStream out) {}
+
+            @Override
+            public ReviveOffers decode(DataInputStream in, NettyRpcEnv rpcEnv) {
+                return new ReviveOffers();
+            }
+        });
+
+        // HeartbeatReceiver
+        register((short) 32, Heartbeat.class, new RpcMessageCodec<Heartbeat>() {
+            @Override
+            public void encode(Heartbeat message, DataOutputStream out) throws IOException {
+                writeString(out, message.executorId);
+                writeBlockManagerId(out, message.blockManagerId);
+            }
+
+            @Override
+            public Heartbeat decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new Heartbeat(readString(in), readBlockManagerId(in));
+            }
+        });
+        register((short) 33, HeartbeatResponse.class, new RpcMessageCodec<HeartbeatResponse>() {
+            @Override
+            public void encode(HeartbeatResponse message, DataOutputStream out) throws IOException {
+                out.writeBoolean(message.registerBlockManager);
+            }
+
+            @Override
+            public HeartbeatResponse decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new HeartbeatResponse(in.readBoolean());
+            }
+        });
+
+        // DeployMessage
+        register((short) 48, DeployMessage.Heartbeat.class, new RpcMessageCodec<DeployMessage.Heartbeat>() {
+            @Override
+            public void encode(DeployMessage.Heartbeat message, DataOutputStream out) throws IOException {
+                writeString(out, message.workerId);
+                writeEndpointRef(out, message.worker);
+            }
+
+            @Override
+            public DeployMessage.Heartbeat decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new DeployMessage.Heartbeat(readString(in), readEndpointRef(in, rpcEnv));
+            }
+        });
+        register((short) 49, DeployMessage.SendHeartbeat.class, new RpcMessageCodec<DeployMessage.SendHeartbeat>() {
+            @Override
+            public void encode(DeployMessage.SendHeartbeat message, DataOutputStream out) {}
+
+            @Override
+            public DeployMessage.SendHeartbeat decode(DataInputStream in, NettyRpcEnv rpcEnv) {
+                return new DeployMessage.SendHeartbeat();
+            }
+        });
+
+        // BlockManagerMessages
+        register((short) 64, BlockManagerHeartbeat.class, new RpcMessageCodec<BlockManagerHeartbeat>() {
+            @Override
+            public void encode(BlockManagerHeartbeat message, DataOutputStream out) throws IOException {
+                writeBlockManagerId(out, message.blockManagerId);
+            }
+
+            @Override
+            public BlockManagerHeartbeat decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new BlockManagerHeartbeat(readBlockManagerId(in));
+            }
+        });
+        register((short) 65, UpdateBlockInfo.class, new RpcMessageCodec<UpdateBlockInfo>() {
+            @Override
+            public void encode(UpdateBlockInfo message, DataOutputStream out) throws IOException {
+                writeBlockManagerId(out, message.blockManagerId);
+                out.writeUTF(message.blockId.name());
+                StorageLevel level = message.storageLevel;
+                int flags = (level.isUseDisk() ? 8 : 0) | (level.isUseMemory() ? 4 : 0) |
+                            (level.isUseOffHeap() ? 2 : 0) | (level.isDeserialized() ? 1 : 0);
+                out.writeByte(flags);
+                out.writeByte(level.getReplication());
+                out.writeLong(message.memSize);
+                out.writeLong(message.diskSize);
+            }
+
+            @Override
+            public UpdateBlockInfo decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                BlockManagerId blockManagerId = readBlockManagerId(in);
+                BlockId blockId = BlockId.apply(in.readUTF());
+                StorageLevel level = StorageLevel.apply(in.readByte(), in.readByte());
+                return new UpdateBlockInfo(blockManagerId, blockId, level, in.readLong(), in.readLong());
+            }
+        });
+
+        // MapOutputTrackerMessage
+        register((short) 80, GetMapOutputStatuses.class, new RpcMessageCodec<GetMapOutputStatuses>() {
+            @Override
+            public void encode(GetMapOutputStatuses message, DataOutputStream out) throws IOException {
+                out.writeInt(message.shuffleId);
+            }
+
+            @Override
+            public GetMapOutputStatuses decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new GetMapOutputStatuses(in.readInt());
+            }
+        });
+        register((short) 81, GetMapOutputStatusesSince.class, new RpcMessageCodec<GetMapOutputStatusesSince>() {
+            @Override
+            public void encode(GetMapOutputStatusesSince message, DataOutputStream out) throws IOException {
+                out.writeInt(message.shuffleId);
+                out.writeLong(message.sinceVersion);
+            }
+
+            @Override
+            public GetMapOutputStatusesSince decode(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+                return new GetMapOutputStatusesSince(in.readInt(), in.readLong());
+            }
+        });
+    }
+
+    /*********************************编码工具方法*********************************/
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    public static void writeBuffer(DataOutputStream out, ByteBuffer buffer) throws IOException {
+        ByteBuffer buf = buffer.duplicate();
+        buf.rewind();
+        out.writeInt(buf.remaining());
+        if (buf.hasArray()) {
+            out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        } else {
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    public static ByteBuffer readBuffer(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    public static void writeBlockManagerId(DataOutputStream out, BlockManagerId id) throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) {
+            out.writeUTF(id.executorId);
+            out.writeUTF(id.host);
+            out.writeInt(id.port);
+            writeString(out, id.topologyInfo);
+        }
+    }
+
+    public static BlockManagerId readBlockManagerId(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return BlockManagerId.apply(in.readUTF(), in.readUTF(), in.readInt(), readString(in));
+    }
+
+    public static void writeEndpointRef(DataOutputStream out, RpcEndpointRef ref) throws IOException {
+        out.writeBoolean(ref != null);
+        if (ref != null) {
+            RpcAddress address = ref.address();
+            out.writeBoolean(address != null);
+            if (address != null) {
+                out.writeUTF(address.host);
+                out.writeInt(address.port);
+            }
+            writeString(out, ref.name());
+        }
+    }
+
+    public static RpcEndpointRef readEndpointRef(DataInputStream in, NettyRpcEnv rpcEnv) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        RpcAddress address = in.readBoolean() ? new RpcAddress(in.readUTF(), in.readInt()) : null;
+        NettyRpcEndpointRef ref = new NettyRpcEndpointRef(new RpcEndpointAddress(readString(in), address), rpcEnv);
+        // 无监听地址的Endpoint(如Client模式Driver)通过当前连接回复
+        if (address == null) {
+            ref.client = NettyRpcEnv.currentClient;
+        }
+        return ref;
+    }
+}
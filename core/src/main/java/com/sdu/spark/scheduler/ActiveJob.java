@@ -43,7 +43,8 @@ public class ActiveJob {
         if (finalStage instanceof ResultStage) {
             this.numPartitions = ((ResultStage) finalStage).getPartitions().size();
         } else if (finalStage instanceof ShuffleMapStage) {
-           this.numPartitions = ((ShuffleMapStage) finalStage).getRdd().partitions().length;
+            // submitMapStage只有一个"任务": ShuffleMapStage全部Map输出可用
+            this.numPartitions = 1;
         }
 
         this.numFinished = 0;
@@ -248,6 +248,65 @@ public class DAGScheduler {
         return waiter;
     }
 
+    /**
+     * 提交ShuffleMapStage作业, 全部Map输出可用后以{@link MapOutputStatistics}回调resultHandler(分区0)
+     *
+     * Reduce端可根据各Reduce分区的数据量规划下游Stage的分区(参见{@link ReducePartitionCoalescer})
+     * */
+    public <K, V, C> JobWaiter<MapOutputStatistics> submitMapStage(ShuffleDependency<K, V, C> dependency,
+                                                                   PartitionResultHandler<MapOutputStatistics> resultHandler,
+                                                                   CallSite callSite,
+                                                                   Properties properties) {
+        if (dependency.rdd().partitions().length == 0) {
+            throw new SparkException("Can't run submitMapStage on RDD with 0 partitions");
+        }
+
+        int jobId = nextJobId.getAndIncrement();
+        JobWaiter<MapOutputStatistics> waiter = new JobWaiter<>(this, jobId, 1, resultHandler);
+        eventProcessLoop.post(new MapStageSubmitted(jobId, dependency, callSite, waiter, new Properties(properties)));
+        return waiter;
+    }
+
+    private void handleMapStageSubmitted(int jobId,
+                                         ShuffleDependency<?, ?, ?> dependency,
+                                         CallSite callSite,
+                                         JobListener listener,
+                                         Properties properties) {
+        ShuffleMapStage finalStage;
+        try {
+            finalStage = getOrCreateShuffleMapStage(dependency, jobId);
+        } catch (Exception e) {
+            LOGGER.error("Creating new stage failed due to exception - job: {}", jobId, e);
+            listener.jobFailed(e);
+            return;
+        }
+        // ShuffleMapStage可能已被其他Job创建
+        updateJobIdStageIdMaps(jobId, finalStage);
+
+        ActiveJob job = new ActiveJob(jobId, finalStage, callSite, listener, properties);
+        clearCacheLocs();
+        LOGGER.info("Got map stage job {} ({}) with {} combinerMerge partitions", jobId, callSite.shortForm,
+                    dependency.rdd().partitions().length);
+        LOGGER.info("Final stage: {}({})", finalStage, finalStage.getName());
+        LOGGER.info("Parents of final stage: {}", finalStage.getParents());
+        LOGGER.info("Missing parents: {}", getMissingParentStages(finalStage));
+
+        long jobSubmissionTime = clock.getTimeMillis();
+        jobIdToActiveJob.put(jobId, job);
+        activeJobs.add(job);
+        finalStage.addActiveJob(job);
+        List<StageInfo> stageInfo = jobIdToStageIds.get(jobId).stream()
+                                                   .map(id -> stageIdToStage.get(id).latestInfo())
+                                                   .collect(Collectors.toList());
+        listenerBus.post(new SparkListenerJobStart(job.jobId(), jobSubmissionTime, stageInfo, properties));
+        submitStage(finalStage);
+
+        // Map输出均可用(如被其他Job计算过)时Stage不会运行, 直接结束作业
+        if (finalStage.isAvailable()) {
+            markMapStageJobAsFinished(job, mapOutputTracker.getStatistics(dependency));
+        }
+    }
+
     private <T, U> void handleJobSubmitted(int jobId,
                                            RDD<T> finalRDD,
                                            PartitionFunction<T, U> partitionFunction,
@@ -977,7 +1036,8 @@ public class DAGScheduler {
         // Mark any map-stage jobs waiting on this stage as finished
         if (shuffleStage.isAvailable() && shuffleStage.mapStageJobs().size() > 0) {
             MapOutputStatistics stats = mapOutputTracker.getStatistics(shuffleStage.getShuffleDep());
-            for (ActiveJob job : shuffleStage.mapStageJobs()) {
+            // 作业结束时从mapStageJobs移除, 遍历其副本
+            for (ActiveJob job : Lists.newArrayList(shuffleStage.mapStageJobs())) {
                 markMapStageJobAsFinished(job, stats);
             }
         }
@@ -1244,6 +1304,13 @@ public class DAGScheduler {
                                                 js.getCallSite(),
                                                 js.getListener(),
                                                 js.getProperties());
+            } else if (event instanceof MapStageSubmitted) {
+                MapStageSubmitted ms = (MapStageSubmitted) event;
+                dagScheduler.handleMapStageSubmitted(ms.jobId,
+                                                     ms.dependency,
+                                                     ms.callSite,
+                                                     ms.listener,
+                                                     ms.properties);
             } else if (event instanceof JobCancelled) {
                 // Job取消
                 JobCancelled jobCancelled = (JobCancelled) event;
@@ -1,5 +1,6 @@
 package com.sdu.spark.scheduler;
 
+import com.sdu.spark.ShuffleDependency;
 import com.sdu.spark.executor.ExecutorExitCode.*;
 import com.sdu.spark.rdd.RDD;
 import com.sdu.spark.scheduler.action.PartitionFunction;
@@ -67,6 +68,26 @@ public interface DAGSchedulerEvent {
         }
     }
 
+    class MapStageSubmitted implements DAGSchedulerEvent {
+        public int jobId;
+        public ShuffleDependency<?, ?, ?> dependency;
+        public CallSite callSite;
+        public JobListener listener;
+        public Properties properties;
+
+        public MapStageSubmitted(int jobId,
+                                 ShuffleDependency<?, ?, ?> dependency,
+                                 CallSite callSite,
+                                 JobListener listener,
+                                 Properties properties) {
+            this.jobId = jobId;
+            this.dependency = dependency;
+            this.callSite = callSite;
+            this.listener = listener;
+            this.properties = properties;
+        }
+    }
+
     class JobCancelled implements DAGSchedulerEvent {
         public int jobId;
         public String reason;
@@ -70,6 +70,18 @@ public interface MapStatus extends Serializable {
             return loc;
         }
 
+        RoaringBitmap emptyBlocks() {
+            return emptyBlocks;
+        }
+
+        long avgSize() {
+            return avgSize;
+        }
+
+        Map<Integer, Byte> hugeBlockSizes() {
+            return hugeBlockSizes;
+        }
+
         @Override
         public long getSizeForBlock(int reduceId) {
             assert hugeBlockSizes != null;
@@ -153,6 +165,10 @@ public interface MapStatus extends Serializable {
         private BlockManagerId loc;
         private byte[] compressedSizes;
 
+        public CompressedMapStatus() {
+            this(null, (byte[]) null);
+        }
+
         public CompressedMapStatus(BlockManagerId loc, long[] uncompressedSizes) {
             byte[] compressedSizes = new byte[uncompressedSizes.length];
             for (int i = 0; i < uncompressedSizes.length; ++i) {
@@ -179,7 +195,11 @@ public interface MapStatus extends Serializable {
 
         @Override
         public long getSizeForBlock(int reduceId) {
-            return decompressSize(compressSize(reduceId));
+            return decompressSize(compressedSizes[reduceId]);
+        }
+
+        byte[] compressedSizes() {
+            return compressedSizes;
         }
 
         @Override
@@ -192,8 +212,8 @@ public interface MapStatus extends Serializable {
         @Override
         public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
             loc = BlockManagerId.apply(in);
-            long len = in.readLong();
-            compressedSizes = new byte[(int) len];
+            int len = in.readInt();
+            compressedSizes = new byte[len];
             in.readFully(compressedSizes);
         }
     }
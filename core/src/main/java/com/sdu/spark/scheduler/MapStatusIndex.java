@@ -0,0 +1,380 @@
+package com.sdu.spark.scheduler;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.sdu.spark.scheduler.MapStatus.CompressedMapStatus;
+import com.sdu.spark.scheduler.MapStatus.HighlyCompressedMapStatus;
+import com.sdu.spark.shuffle.FetchFailedException.MetadataFetchFailedException;
+import com.sdu.spark.storage.BlockId;
+import com.sdu.spark.storage.BlockId.ShuffleBlockId;
+import com.sdu.spark.storage.BlockManagerId;
+import com.sdu.spark.utils.scala.Tuple2;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * {@link MapStatusIndex}是Shuffle全部{@link MapStatus}的列式索引, 支持按Reduce分区范围查询Block大小:
+ *
+ * 1: Map输出地址只存储一次: {@link #locations}为去重后的BlockManagerId, 同一地址的Map按CSR({@link #locationOffsets},
+ *
+ *    {@link #locationMaps})连续存储, 查询结果天然按地址分组
+ *
+ * 2: {@link CompressedMapStatus}(精确大小)按Reduce分区列存储压缩大小: denseSizes[reduceId * numDenseMaps + slot]
+ *
+ * 3: {@link HighlyCompressedMapStatus}存储平均大小, 空Block按Reduce分区转置为RoaringBitmap列, 大Block按Reduce分区CSR存储
+ *
+ * 4: {@link #query(int, int, int)}返回{@link BlocksByAddress}原始类型数组, 不为每个Block创建BlockId/Tuple2/Long对象
+ *
+ * 5: {@link #query(int, int, int, int, int)}只查询Map输出[startMapIndex, endMapIndex), 用于拆分倾斜的Reduce分区
+ *
+ * Note:
+ *
+ *  索引构建后只读, 可被多个Reduce任务并发查询
+ *
+ * @author hanhan.zhang
+ * */
+public class MapStatusIndex {
+
+    /** 压缩大小 -> 字节数, 避免每个Block计算Math.pow */
+    private static final long[] DECOMPRESSED_SIZES = new long[256];
+
+    static {
+        for (int i = 0; i < DECOMPRESSED_SIZES.length; ++i) {
+            DECOMPRESSED_SIZES[i] = MapStatus.decompressSize((byte) i);
+        }
+    }
+
+    private final int numMaps;
+
+    private final BlockManagerId[] locations;
+    private final int[] locationOffsets;
+    private final int[] locationMaps;
+    /** mapId在locationMaps中的位置 */
+    private final int[] mapPositions;
+
+    private final int numReducers;
+
+    // CompressedMapStatus: 列存储压缩大小
+    private final int[] denseMaps;
+    private final byte[] denseSizes;
+
+    // HighlyCompressedMapStatus: 平均大小 + 空Block列 + 大Block列
+    private final int[] sparseMaps;
+    private final long[] sparseAvgSizes;
+    private final RoaringBitmap[] emptyColumns;
+    private final int[] hugeOffsets;
+    private final int[] hugeMaps;
+    private final byte[] hugeSizes;
+
+    private MapStatusIndex(MapStatus[] statuses) {
+        this.numMaps = statuses.length;
+
+        int reducers = 0;
+        int numDense = 0;
+        int numSparse = 0;
+        Map<BlockManagerId, Integer> locationIds = Maps.newLinkedHashMap();
+        int[] mapLocations = new int[numMaps];
+        for (int mapId = 0; mapId < numMaps; ++mapId) {
+            MapStatus status = statuses[mapId];
+            if (status == null) {
+                mapLocations[mapId] = -1;
+                continue;
+            }
+            Integer locationId = locationIds.get(status.location());
+            if (locationId == null) {
+                locationId = locationIds.size();
+                locationIds.put(status.location(), locationId);
+            }
+            mapLocations[mapId] = locationId;
+            if (status instanceof HighlyCompressedMapStatus) {
+                numSparse++;
+            } else {
+                numDense++;
+                if (status instanceof CompressedMapStatus) {
+                    reducers = Math.max(reducers, ((CompressedMapStatus) status).compressedSizes().length);
+                }
+            }
+        }
+
+        // 地址 -> Map(CSR)
+        this.locations = locationIds.keySet().toArray(new BlockManagerId[locationIds.size()]);
+        this.locationOffsets = new int[locations.length + 1];
+        for (int mapId = 0; mapId < numMaps; ++mapId) {
+            if (mapLocations[mapId] >= 0) {
+                locationOffsets[mapLocations[mapId] + 1]++;
+            }
+        }
+        for (int i = 0; i < locations.length; ++i) {
+            locationOffsets[i + 1] += locationOffsets[i];
+        }
+        this.locationMaps = new int[locationOffsets[locations.length]];
+        this.mapPositions = new int[numMaps];
+        int[] cursor = Arrays.copyOf(locationOffsets, locations.length);
+        for (int mapId = 0; mapId < numMaps; ++mapId) {
+            int locationId = mapLocations[mapId];
+            if (locationId >= 0) {
+                mapPositions[mapId] = cursor[locationId];
+                locationMaps[cursor[locationId]++] = mapId;
+            } else {
+                mapPositions[mapId] = -1;
+            }
+        }
+
+        // 稀疏Map的Reduce分区数由空Block及大Block推断, 查询时超出部分按平均大小处理
+        for (MapStatus status : statuses) {
+            if (status instanceof HighlyCompressedMapStatus) {
+                HighlyCompressedMapStatus highly = (HighlyCompressedMapStatus) status;
+                if (!highly.emptyBlocks().isEmpty()) {
+                    reducers = Math.max(reducers, highly.emptyBlocks().last() + 1);
+                }
+                for (int reduceId : highly.hugeBlockSizes().keySet()) {
+                    reducers = Math.max(reducers, reduceId + 1);
+                }
+            }
+        }
+        this.numReducers = reducers;
+
+        this.denseMaps = new int[numDense];
+        this.denseSizes = new byte[numDense * numReducers];
+        this.sparseMaps = new int[numSparse];
+        this.sparseAvgSizes = new long[numSparse];
+        this.emptyColumns = new RoaringBitmap[numSparse > 0 ? numReducers : 0];
+        for (int i = 0; i < emptyColumns.length; ++i) {
+            emptyColumns[i] = new RoaringBitmap();
+        }
+
+        int[] hugeCounts = new int[numReducers + 1];
+        int denseSlot = 0;
+        int sparseSlot = 0;
+        for (int mapId = 0; mapId < numMaps; ++mapId) {
+            MapStatus status = statuses[mapId];
+            if (status == null) {
+                continue;
+            }
+            if (status instanceof HighlyCompressedMapStatus) {
+                HighlyCompressedMapStatus highly = (HighlyCompressedMapStatus) status;
+                sparseMaps[sparseSlot] = mapId;
+                sparseAvgSizes[sparseSlot] = highly.avgSize();
+                // mapId递增, RoaringBitmap追加写入
+                IntIterator empties = highly.emptyBlocks().getIntIterator();
+                while (empties.hasNext()) {
+                    emptyColumns[empties.next()].add(mapId);
+                }
+                for (int reduceId : highly.hugeBlockSizes().keySet()) {
+                    hugeCounts[reduceId + 1]++;
+                }
+                sparseSlot++;
+            } else {
+                denseMaps[denseSlot] = mapId;
+                if (status instanceof CompressedMapStatus) {
+                    byte[] sizes = ((CompressedMapStatus) status).compressedSizes();
+                    for (int reduceId = 0; reduceId < sizes.length; ++reduceId) {
+                        denseSizes[reduceId * numDense + denseSlot] = sizes[reduceId];
+                    }
+                } else {
+                    for (int reduceId = 0; reduceId < numReducers; ++reduceId) {
+                        denseSizes[reduceId * numDense + denseSlot] = MapStatus.compressSize(status.getSizeForBlock(reduceId));
+                    }
+                }
+                denseSlot++;
+            }
+        }
+        for (RoaringBitmap column : emptyColumns) {
+            column.runOptimize();
+        }
+
+        // 大Block(CSR, 按Reduce分区)
+        this.hugeOffsets = new int[numReducers + 1];
+        for (int i = 0; i < numReducers; ++i) {
+            hugeOffsets[i + 1] = hugeOffsets[i] + hugeCounts[i + 1];
+        }
+        this.hugeMaps = new int[hugeOffsets[numReducers]];
+        this.hugeSizes = new byte[hugeOffsets[numReducers]];
+        int[] hugeCursor = Arrays.copyOf(hugeOffsets, numReducers);
+        for (int slot = 0; slot < numSparse; ++slot) {
+            HighlyCompressedMapStatus highly = (HighlyCompressedMapStatus) statuses[sparseMaps[slot]];
+            for (Map.Entry<Integer, Byte> entry : highly.hugeBlockSizes().entrySet()) {
+                int pos = hugeCursor[entry.getKey()]++;
+                hugeMaps[pos] = sparseMaps[slot];
+                hugeSizes[pos] = entry.getValue();
+            }
+        }
+    }
+
+    public static MapStatusIndex build(MapStatus[] statuses) {
+        return new MapStatusIndex(statuses);
+    }
+
+    public int numMaps() {
+        return numMaps;
+    }
+
+    /**
+     * 查询Reduce分区[startPartition, endPartition)的全部Block, 按Map输出地址分组
+     *
+     * @throws MetadataFetchFailedException 存在缺失的Map输出
+     * */
+    public BlocksByAddress query(int shuffleId, int startPartition, int endPartition) {
+        return query(shuffleId, 0, numMaps, startPartition, endPartition);
+    }
+
+    /**
+     * 查询Map输出[startMapIndex, endMapIndex)中Reduce分区[startPartition, endPartition)的Block, 按Map输出地址分组
+     *
+     * 同一地址的Map按mapId递增存储, 地址内落在Map范围的Map连续, 二分查找定位
+     *
+     * @throws MetadataFetchFailedException Map范围内存在缺失的Map输出
+     * */
+    public BlocksByAddress query(int shuffleId, int startMapIndex, int endMapIndex, int startPartition, int endPartition) {
+        int startMap = Math.max(0, startMapIndex);
+        int endMap = Math.min(numMaps, endMapIndex);
+        for (int mapId = startMap; mapId < endMap; ++mapId) {
+            if (mapPositions[mapId] == -1) {
+                throw new MetadataFetchFailedException(shuffleId, startPartition,
+                        String.format("Missing an output location for shuffle %d (map %d)", shuffleId, mapId));
+            }
+        }
+        int numPartitions = Math.max(0, endPartition - startPartition);
+
+        // Map范围内各Map在查询结果中的行号, 行号按地址分组
+        int[] rows = new int[Math.max(0, endMap - startMap)];
+        int[] offsets = new int[locations.length + 1];
+        int numRows = 0;
+        for (int i = 0; i < locations.length; ++i) {
+            int from = lowerBound(locationMaps, locationOffsets[i], locationOffsets[i + 1], startMap);
+            int to = lowerBound(locationMaps, from, locationOffsets[i + 1], endMap);
+            for (int pos = from; pos < to; ++pos) {
+                rows[locationMaps[pos] - startMap] = numRows++;
+            }
+            offsets[i + 1] = numRows * numPartitions;
+        }
+
+        int numBlocks = numRows * numPartitions;
+        int[] mapIds = new int[numBlocks];
+        int[] reduceIds = new int[numBlocks];
+        long[] sizes = new long[numBlocks];
+        for (int mapId = startMap; mapId < endMap; ++mapId) {
+            int base = rows[mapId - startMap] * numPartitions;
+            for (int j = 0; j < numPartitions; ++j) {
+                mapIds[base + j] = mapId;
+                reduceIds[base + j] = startPartition + j;
+            }
+        }
+
+        int denseFrom = lowerBound(denseMaps, 0, denseMaps.length, startMap);
+        int denseTo = lowerBound(denseMaps, denseFrom, denseMaps.length, endMap);
+        int sparseFrom = lowerBound(sparseMaps, 0, sparseMaps.length, startMap);
+        int sparseTo = lowerBound(sparseMaps, sparseFrom, sparseMaps.length, endMap);
+        for (int j = 0; j < numPartitions; ++j) {
+            int reduceId = startPartition + j;
+            boolean inRange = reduceId < numReducers;
+
+            // 精确大小
+            int numDense = denseMaps.length;
+            for (int slot = denseFrom; slot < denseTo; ++slot) {
+                long size = inRange ? DECOMPRESSED_SIZES[denseSizes[reduceId * numDense + slot] & 0xFF] : 0L;
+                sizes[rows[denseMaps[slot] - startMap] * numPartitions + j] = size;
+            }
+
+            // 平均大小, 再以空Block及大Block覆盖
+            for (int slot = sparseFrom; slot < sparseTo; ++slot) {
+                sizes[rows[sparseMaps[slot] - startMap] * numPartitions + j] = sparseAvgSizes[slot];
+            }
+            if (inRange && sparseTo > sparseFrom) {
+                IntIterator empties = emptyColumns[reduceId].getIntIterator();
+                while (empties.hasNext()) {
+                    int mapId = empties.next();
+                    if (mapId >= endMap) {
+                        break;
+                    }
+                    if (mapId >= startMap) {
+                        sizes[rows[mapId - startMap] * numPartitions + j] = 0L;
+                    }
+                }
+                for (int pos = hugeOffsets[reduceId]; pos < hugeOffsets[reduceId + 1]; ++pos) {
+                    int mapId = hugeMaps[pos];
+                    if (mapId >= startMap && mapId < endMap) {
+                        sizes[rows[mapId - startMap] * numPartitions + j] = DECOMPRESSED_SIZES[hugeSizes[pos] & 0xFF];
+                    }
+                }
+            }
+        }
+
+        return new BlocksByAddress(shuffleId, locations, offsets, mapIds, reduceIds, sizes);
+    }
+
+    /**
+     * @return Reduce分区reduceId在各Map输出的数据量, 下标为mapId
+     * */
+    public long[] mapSizesOfPartition(int shuffleId, int reduceId) {
+        BlocksByAddress blocks = query(shuffleId, reduceId, reduceId + 1);
+        long[] sizes = new long[numMaps];
+        for (int i = 0; i < blocks.numBlocks(); ++i) {
+            sizes[blocks.mapIds[i]] = blocks.sizes[i];
+        }
+        return sizes;
+    }
+
+    /** 有序数组sorted[from, to)中首个不小于key的位置 */
+    private static int lowerBound(int[] sorted, int from, int to, int key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 按BlockManagerId分组的Shuffle Block: 地址addresses[i]的Block为[offsets[i], offsets[i + 1])
+     * */
+    public static class BlocksByAddress {
+        public final int shuffleId;
+        public final BlockManagerId[] addresses;
+        public final int[] offsets;
+        public final int[] mapIds;
+        public final int[] reduceIds;
+        public final long[] sizes;
+
+        BlocksByAddress(int shuffleId, BlockManagerId[] addresses, int[] offsets,
+                        int[] mapIds, int[] reduceIds, long[] sizes) {
+            this.shuffleId = shuffleId;
+            this.addresses = addresses;
+            this.offsets = offsets;
+            this.mapIds = mapIds;
+            this.reduceIds = reduceIds;
+            this.sizes = sizes;
+        }
+
+        public static BlocksByAddress empty(int shuffleId) {
+            return new BlocksByAddress(shuffleId, new BlockManagerId[0], new int[1], new int[0], new int[0], new long[0]);
+        }
+
+        public int numBlocks() {
+            return sizes.length;
+        }
+
+        public ShuffleBlockId blockId(int index) {
+            return new ShuffleBlockId(shuffleId, mapIds[index], reduceIds[index]);
+        }
+
+        public Multimap<BlockManagerId, Tuple2<BlockId, Long>> toMultimap() {
+            Multimap<BlockManagerId, Tuple2<BlockId, Long>> splitsByAddress = LinkedHashMultimap.create();
+            for (int i = 0; i < addresses.length; ++i) {
+                for (int index = offsets[i]; index < offsets[i + 1]; ++index) {
+                    splitsByAddress.put(addresses[i], new Tuple2<>(blockId(index), sizes[index]));
+                }
+            }
+            return splitsByAddress;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.sdu.spark.scheduler;
+
+import com.google.common.collect.Lists;
+import com.sdu.spark.Aggregator;
+import com.sdu.spark.MapOutputStatistics;
+import com.sdu.spark.Partitioner;
+import com.sdu.spark.ShuffleDependency;
+import com.sdu.spark.rdd.RDD;
+import com.sdu.spark.rdd.SelectedPartitionsRDD;
+import com.sdu.spark.rdd.ShuffledRDD;
+import com.sdu.spark.rpc.SparkConf;
+import com.sdu.spark.unfase.hash.Murmur3_x86_32;
+import com.sdu.spark.utils.scala.Product2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.sdu.spark.utils.Utils.nonNegativeMod;
+
+/**
+ * {@link ReducePartitionCoalescer}根据ShuffleMapStage的{@link MapOutputStatistics}合并相邻Reduce分区:
+ *
+ * 1: 下游Task读取连续的Reduce分区[partitionStartIndices[i], partitionStartIndices[i + 1]),
+ *
+ *    每个Task读取的数据量不超过targetPostShuffleInputSize(单个Reduce分区超过目标时独占一个Task)
+ *
+ * 2: minNumPostShufflePartitions > 0时目标数据量不超过totalSize / minNumPostShufflePartitions, 保证下游并行度
+ *
+ * 3: {@link #planPartitions(MapOutputStatistics, IntFunction)}拆分倾斜的Reduce分区: 数据量超过中位数skewedPartitionFactor倍
+ *
+ *    且超过skewedPartitionThreshold的Reduce分区按Map输出范围拆分为多个Task, 每个Task读取的数据量接近目标数据量
+ *
+ * 4: 拆分Task的部分聚合值由{@link SplitMergePartitioner}按Key哈希再次划分, 倾斜分区拆成几个Task便由几个Task并行合并
+ *
+ * Note:
+ *
+ *  按分区数预估Reduce数(如2000)时大量Reduce分区很小, 调度开销超过Task本身计算开销, 合并后Task数取决于Shuffle数据量
+ *
+ * @author hanhan.zhang
+ * */
+public class ReducePartitionCoalescer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReducePartitionCoalescer.class);
+
+    private final boolean enabled;
+    private final long targetPostShuffleInputSize;
+    private final int minNumPostShufflePartitions;
+
+    private final boolean skewSplitEnabled;
+    private final double skewedPartitionFactor;
+    private final long skewedPartitionThreshold;
+
+    public ReducePartitionCoalescer(SparkConf conf) {
+        this(conf.getBoolean("spark.shuffle.adaptive.enabled", false),
+             conf.getSizeAsBytes("spark.shuffle.adaptive.targetPostShuffleInputSize", "64m"),
+             conf.getInt("spark.shuffle.adaptive.minNumPostShufflePartitions", -1),
+             conf.getBoolean("spark.shuffle.adaptive.skewSplit.enabled", true),
+             conf.getDouble("spark.shuffle.adaptive.skewedPartitionFactor", 5.0),
+             conf.getSizeAsBytes("spark.shuffle.adaptive.skewedPartitionThreshold", "256m"));
+    }
+
+    public ReducePartitionCoalescer(boolean enabled, long targetPostShuffleInputSize, int minNumPostShufflePartitions) {
+        this(enabled, targetPostShuffleInputSize, minNumPostShufflePartitions, false, 0, 0);
+    }
+
+    public ReducePartitionCoalescer(boolean enabled,
+                                    long targetPostShuffleInputSize,
+                                    int minNumPostShufflePartitions,
+                                    boolean skewSplitEnabled,
+                                    double skewedPartitionFactor,
+                                    long skewedPartitionThreshold) {
+        this.enabled = enabled;
+        this.targetPostShuffleInputSize = Math.max(1L, targetPostShuffleInputSize);
+        this.minNumPostShufflePartitions = minNumPostShufflePartitions;
+        this.skewSplitEnabled = skewSplitEnabled;
+        this.skewedPartitionFactor = skewedPartitionFactor;
+        this.skewedPartitionThreshold = skewedPartitionThreshold;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return 合并后各Task读取的起始Reduce分区, 第i个Task读取[startIndices[i], startIndices[i + 1])
+     * */
+    public int[] estimatePartitionStartIndices(MapOutputStatistics stats) {
+        PartitionSpec[] specs = planPartitions(stats, null);
+        int[] startIndices = new int[specs.length];
+        for (int i = 0; i < specs.length; ++i) {
+            startIndices[i] = specs[i].startPartition;
+        }
+        return startIndices;
+    }
+
+    /**
+     * 合并较小的相邻Reduce分区, 拆分倾斜的Reduce分区
+     *
+     * @param mapSizesOfPartition Reduce分区在各Map输出的数据量(下标为mapId), 为null时不拆分倾斜分区
+     * */
+    public PartitionSpec[] planPartitions(MapOutputStatistics stats, IntFunction<long[]> mapSizesOfPartition) {
+        long[] bytesByPartitionId = stats.bytesByPartitionId;
+        int numReducers = bytesByPartitionId.length;
+        if (numReducers == 0) {
+            return new PartitionSpec[0];
+        }
+
+        long totalSize = 0L;
+        for (long size : bytesByPartitionId) {
+            totalSize += size;
+        }
+        long targetSize = targetPostShuffleInputSize;
+        if (minNumPostShufflePartitions > 0) {
+            long maxTargetSize = (long) Math.ceil(totalSize / (double) minNumPostShufflePartitions);
+            targetSize = Math.max(1L, Math.min(targetSize, maxTargetSize));
+        }
+
+        long skewThreshold = Long.MAX_VALUE;
+        if (skewSplitEnabled && mapSizesOfPartition != null) {
+            long[] sorted = bytesByPartitionId.clone();
+            Arrays.sort(sorted);
+            long median = sorted[numReducers / 2];
+            skewThreshold = Math.max(skewedPartitionThreshold, (long) (median * skewedPartitionFactor));
+        }
+
+        List<PartitionSpec> specs = Lists.newArrayList();
+        int numSkewed = 0;
+        int start = -1;
+        long currentSize = 0L;
+        for (int i = 0; i < numReducers; ++i) {
+            long size = bytesByPartitionId[i];
+            if (size > skewThreshold) {
+                if (start != -1) {
+                    specs.add(new PartitionSpec(start, i));
+                    start = -1;
+                }
+                numSkewed++;
+                splitByMapRanges(i, mapSizesOfPartition.apply(i), targetSize, specs);
+                continue;
+            }
+            if (start == -1) {
+                start = i;
+                currentSize = size;
+            } else if (currentSize + size > targetSize) {
+                specs.add(new PartitionSpec(start, i));
+                start = i;
+                currentSize = size;
+            } else {
+                currentSize += size;
+            }
+        }
+        if (start != -1) {
+            specs.add(new PartitionSpec(start, numReducers));
+        }
+
+        LOGGER.info("Planned {} reduce partitions of shuffle {} into {} partitions ({} skewed), target size {} bytes",
+                    numReducers, stats.shuffleId, specs.size(), numSkewed, targetSize);
+        return specs.toArray(new PartitionSpec[specs.size()]);
+    }
+
+    /** 按Map输出顺序累计数据量, 达到目标数据量时拆分 */
+    private static void splitByMapRanges(int reduceId, long[] mapSizes, long targetSize, List<PartitionSpec> specs) {
+        int startMap = 0;
+        long currentSize = 0L;
+        for (int mapId = 0; mapId < mapSizes.length; ++mapId) {
+            if (mapId > startMap && currentSize + mapSizes[mapId] > targetSize) {
+                specs.add(new PartitionSpec(reduceId, reduceId + 1, startMap, mapId));
+                startMap = mapId;
+                currentSize = 0L;
+            }
+            currentSize += mapSizes[mapId];
+        }
+        specs.add(new PartitionSpec(reduceId, reduceId + 1, startMap, Integer.MAX_VALUE));
+    }
+
+    public static boolean hasSplitPartitions(PartitionSpec[] specs) {
+        for (PartitionSpec spec : specs) {
+            if (spec.isSplit()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 倾斜Reduce分区拆分后各Task输出部分聚合值, 仅对拆分Task的输出再次Shuffle合并聚合值:
+     *
+     * 1: 未拆分的分区直接读取splitRDD, 不再Shuffle
+     *
+     * 2: 拆分Task的输出由{@link SplitMergePartitioner}按Key哈希划分, 倾斜分区拆成几个Task便由几个Task并行合并,
+     *
+     *    合并后第i个分区仍对应specs[i]
+     *
+     * Note: 拆分仅限未定义keyOrdering的依赖, 合并Shuffle按Key哈希划分, 不保持Key顺序
+     * */
+    public static <K, V, C> RDD<Product2<K, C>> mergeSplitPartitions(ShuffledRDD<K, V, C> splitRDD,
+                                                                     ShuffleDependency<K, V, C> dependency,
+                                                                     PartitionSpec[] specs) {
+        int numSplits = 0;
+        for (PartitionSpec spec : specs) {
+            if (spec.isSplit()) {
+                numSplits++;
+            }
+        }
+        int[] splitPartitions = new int[numSplits];
+        // 合并后的分区: 未拆分的分区读取splitRDD(parent 0), 拆分的分区读取合并分区(parent 1)
+        int[] parentIds = new int[specs.length];
+        int[] parentPartitions = new int[specs.length];
+        for (int i = 0, split = 0; i < specs.length; ++i) {
+            if (specs[i].isSplit()) {
+                splitPartitions[split] = i;
+                parentIds[i] = 1;
+                parentPartitions[i] = split++;
+            } else {
+                parentPartitions[i] = i;
+            }
+        }
+
+        Aggregator<K, V, C> aggregator = dependency.aggregator;
+        Aggregator<K, C, C> mergeAggregator = new Aggregator<>(combiner -> combiner,
+                                                               aggregator.combinerMerge::mergeCombiners,
+                                                               aggregator.combinerMerge,
+                                                               aggregator.keyClass);
+        ShuffleDependency<K, C, C> mergeDependency = new ShuffleDependency<>(new SelectedPartitionsRDD<>(splitRDD, splitPartitions),
+                                                                             new SplitMergePartitioner(dependency.partitioner, specs),
+                                                                             dependency.serializer,
+                                                                             dependency.keyOrdering,
+                                                                             mergeAggregator,
+                                                                             true);
+        LOGGER.info("Merging {} split partitions of shuffle {} by shuffle {}", numSplits, dependency.shuffleId(),
+                    mergeDependency.shuffleId());
+        List<RDD<Product2<K, C>>> parents = Lists.newArrayList(splitRDD, new ShuffledRDD<>(mergeDependency));
+        return new SelectedPartitionsRDD<>(parents, parentIds, parentPartitions);
+    }
+
+    /**
+     * {@link SplitMergePartitioner}只对拆分Task的输出再次Shuffle: 倾斜Reduce分区r的Key按哈希值划分为numSlices[r]个合并分区
+     *
+     * (numSlices[r]为该分区拆分的Task数), 合并分区按拆分Task在specs中的顺序编号, 同一Key始终进入同一合并分区
+     *
+     * Note:
+     *
+     *  同一Reduce分区Key的hashCode对原分区数取模相同, 需Murmur3再次哈希后取模, 否则所有Key落入同一合并分区
+     * */
+    public static class SplitMergePartitioner extends Partitioner {
+
+        private static final int HASH_SEED = 42;
+
+        private final Partitioner partitioner;
+        /** 下标为Reduce分区, 未拆分的Reduce分区为-1 */
+        private final int[] sliceOffsets;
+        private final int[] numSlices;
+        private final int partitions;
+
+        public SplitMergePartitioner(Partitioner partitioner, PartitionSpec[] specs) {
+            this.partitioner = partitioner;
+            this.sliceOffsets = new int[partitioner.numPartitions()];
+            this.numSlices = new int[partitioner.numPartitions()];
+            Arrays.fill(sliceOffsets, -1);
+            int numSplits = 0;
+            for (PartitionSpec spec : specs) {
+                if (spec.isSplit()) {
+                    if (sliceOffsets[spec.startPartition] == -1) {
+                        sliceOffsets[spec.startPartition] = numSplits;
+                    }
+                    numSlices[spec.startPartition]++;
+                    numSplits++;
+                }
+            }
+            this.partitions = numSplits;
+        }
+
+        @Override
+        public int numPartitions() {
+            return partitions;
+        }
+
+        @Override
+        public int getPartition(Object key) {
+            int reduceId = partitioner.getPartition(key);
+            checkArgument(sliceOffsets[reduceId] != -1, String.format("Reduce partition %d of key %s is not split", reduceId, key));
+            int hash = key == null ? 0 : Murmur3_x86_32.hashInt(key.hashCode(), HASH_SEED);
+            return sliceOffsets[reduceId] + nonNegativeMod(hash, numSlices[reduceId]);
+        }
+    }
+
+    /**
+     * 下游Task读取Map输出[startMapIndex, endMapIndex)中Reduce分区[startPartition, endPartition)的数据
+     * */
+    public static class PartitionSpec implements Serializable {
+        public final int startPartition;
+        public final int endPartition;
+        public final int startMapIndex;
+        public final int endMapIndex;
+
+        public PartitionSpec(int startPartition, int endPartition) {
+            this(startPartition, endPartition, 0, Integer.MAX_VALUE);
+        }
+
+        public PartitionSpec(int startPartition, int endPartition, int startMapIndex, int endMapIndex) {
+            this.startPartition = startPartition;
+            this.endPartition = endPartition;
+            this.startMapIndex = startMapIndex;
+            this.endMapIndex = endMapIndex;
+        }
+
+        /** 是否只读取部分Map输出 */
+        public boolean isSplit() {
+            return startMapIndex != 0 || endMapIndex != Integer.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return isSplit() ? String.format("[%d, %d) of maps [%d, %d)", startPartition, endPartition, startMapIndex, endMapIndex)
+                             : String.format("[%d, %d)", startPartition, endPartition);
+        }
+    }
+}
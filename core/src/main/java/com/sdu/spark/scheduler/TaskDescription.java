@@ -1,5 +1,6 @@
 package com.sdu.spark.scheduler;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.sdu.spark.SparkException;
 import com.sdu.spark.utils.ByteBufferInputStream;
@@ -12,9 +13,12 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.sdu.spark.utils.Utils.writeByteBuffer;
 
 /**
@@ -70,6 +74,47 @@ public class TaskDescription {
         return map;
     }
 
+    private static void serializeProperties(Properties properties, DataOutputStream dataOut) throws IOException {
+        // stringPropertyNames()包含defaults中的属性, properties.size()不包含
+        Set<String> propertyNames = properties.stringPropertyNames();
+        dataOut.writeInt(propertyNames.size());
+        Iterator<String> iterator = propertyNames.iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            String value = properties.getProperty(key);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            dataOut.writeUTF(key);
+            dataOut.writeInt(bytes.length);
+            dataOut.write(bytes);
+        }
+    }
+
+    private static Properties deserializeProperties(DataInputStream dataIn) throws IOException {
+        Properties properties = new Properties();
+        int numProperties = dataIn.readInt();
+        for (int i = 0; i < numProperties; ++i) {
+            String key = dataIn.readUTF();
+            int valueLength = dataIn.readInt();
+            byte[] valueBytes = new byte[valueLength];
+            dataIn.readFully(valueBytes);
+            properties.setProperty(key, new String(valueBytes, StandardCharsets.UTF_8));
+        }
+        return properties;
+    }
+
+    /**
+     * 字典编码: 字典判定相同的对象仅分配一个编号, 批量编码时只序列化一次
+     * */
+    private static <T> int dictionaryIndex(Map<T, Integer> dictionary, List<T> values, T value) {
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = values.size();
+            dictionary.put(value, index);
+            values.add(value);
+        }
+        return index;
+    }
+
     public static ByteBuffer encode(TaskDescription taskDescription) throws IOException {
         ByteBufferOutputStream bytesOut = new ByteBufferOutputStream(4096);
         DataOutputStream dataOut = new DataOutputStream(bytesOut);
@@ -87,16 +132,7 @@ public class TaskDescription {
             serializeStringLongMap(taskDescription.addedJars, dataOut);
 
             // write properties
-            dataOut.writeInt(taskDescription.properties.size());
-            Iterator<String> iterator = taskDescription.properties.stringPropertyNames().iterator();
-            while (iterator.hasNext()) {
-                String key = iterator.next();
-                String value = taskDescription.properties.getProperty(key);
-                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-                dataOut.writeUTF(key);
-                dataOut.writeInt(bytes.length);
-                dataOut.write(bytes);
-            }
+            serializeProperties(taskDescription.properties, dataOut);
 
             writeByteBuffer(taskDescription.serializedTask, dataOut);
             return bytesOut.toByteBuffer();
@@ -123,15 +159,7 @@ public class TaskDescription {
             Map<String, Long> taskJars = deserializeStringLongMap(dataIn);
 
             // Read properties.
-            Properties properties = new Properties();
-            int numProperties = dataIn.readInt();
-            for (int i = 0; i < numProperties; ++i) {
-                String key = dataIn.readUTF();
-                int valueLength = dataIn.readInt();
-                byte[] valueBytes = new byte[valueLength];
-                dataIn.readFully(valueBytes);
-                properties.setProperty(key, new String(valueBytes, StandardCharsets.UTF_8));
-            }
+            Properties properties = deserializeProperties(dataIn);
 
             // Create a sub-buffer for the serialized task into its own buffer (to be deserialized later).
             ByteBuffer serializedTask = byteBuffer.slice();
@@ -142,4 +170,123 @@ public class TaskDescription {
             throw new SparkException("deserializer task failure", e);
         }
     }
+
+    /**
+     * 批量编码同一Executor的多个Task:
+     *
+     * 1: 同一TaskSet的Task共享addedFiles、addedJars、properties, 以字典形式只编码一次, Task仅记录字典编号
+     *
+     * 2: executorId在批次头部写入一次
+     *
+     * 格式: executorId | files字典 | jars字典 | properties字典 | numTasks | (taskId, attemptNumber, name, index,
+     *
+     *      filesIndex, jarsIndex, propertiesIndex, serializedTaskLength, serializedTask)*
+     * */
+    public static ByteBuffer encodeBatch(List<TaskDescription> tasks) throws IOException {
+        checkArgument(!tasks.isEmpty(), "tasks should not be empty");
+        String executorId = tasks.get(0).executorId;
+
+        Map<Map<String, Long>, Integer> fileDictionary = Maps.newHashMap();
+        List<Map<String, Long>> files = Lists.newArrayList();
+        Map<Map<String, Long>, Integer> jarDictionary = Maps.newHashMap();
+        List<Map<String, Long>> jars = Lists.newArrayList();
+        // Job属性为new Properties(defaults), Hashtable.equals()忽略defaults, 不同Job的属性会被判定相等, 故按对象引用去重
+        Map<Properties, Integer> propertiesDictionary = Maps.newIdentityHashMap();
+        List<Properties> properties = Lists.newArrayList();
+        int[] indices = new int[tasks.size() * 3];
+        int taskBytes = 0;
+        for (int i = 0; i < tasks.size(); ++i) {
+            TaskDescription task = tasks.get(i);
+            checkArgument(executorId.equals(task.executorId), "tasks should be launched on the same executor");
+            indices[3 * i] = dictionaryIndex(fileDictionary, files, task.addedFiles);
+            indices[3 * i + 1] = dictionaryIndex(jarDictionary, jars, task.addedJars);
+            indices[3 * i + 2] = dictionaryIndex(propertiesDictionary, properties, task.properties);
+            taskBytes += task.serializedTask.remaining();
+        }
+
+        ByteBufferOutputStream bytesOut = new ByteBufferOutputStream(Math.max(4096, taskBytes + 64 * tasks.size()));
+        DataOutputStream dataOut = new DataOutputStream(bytesOut);
+        try {
+            dataOut.writeUTF(executorId);
+
+            dataOut.writeInt(files.size());
+            for (Map<String, Long> map : files) {
+                serializeStringLongMap(map, dataOut);
+            }
+            dataOut.writeInt(jars.size());
+            for (Map<String, Long> map : jars) {
+                serializeStringLongMap(map, dataOut);
+            }
+            dataOut.writeInt(properties.size());
+            for (Properties props : properties) {
+                serializeProperties(props, dataOut);
+            }
+
+            dataOut.writeInt(tasks.size());
+            for (int i = 0; i < tasks.size(); ++i) {
+                TaskDescription task = tasks.get(i);
+                dataOut.writeLong(task.taskId);
+                dataOut.writeInt(task.attemptNumber);
+                dataOut.writeUTF(task.name);
+                dataOut.writeInt(task.index);
+                dataOut.writeInt(indices[3 * i]);
+                dataOut.writeInt(indices[3 * i + 1]);
+                dataOut.writeInt(indices[3 * i + 2]);
+                dataOut.writeInt(task.serializedTask.remaining());
+                writeByteBuffer(task.serializedTask, dataOut);
+            }
+            return bytesOut.toByteBuffer();
+        } finally {
+            dataOut.close();
+            bytesOut.close();
+        }
+    }
+
+    /**
+     * 解码{@link #encodeBatch(List)}, 同一字典项解码为同一对象, serializedTask为byteBuffer的切片(无拷贝)
+     * */
+    public static List<TaskDescription> decodeBatch(ByteBuffer byteBuffer) {
+        try {
+            DataInputStream dataIn = new DataInputStream(new ByteBufferInputStream(byteBuffer));
+
+            String executorId = dataIn.readUTF();
+
+            int numFiles = dataIn.readInt();
+            List<Map<String, Long>> files = Lists.newArrayListWithCapacity(numFiles);
+            for (int i = 0; i < numFiles; ++i) {
+                files.add(deserializeStringLongMap(dataIn));
+            }
+            int numJars = dataIn.readInt();
+            List<Map<String, Long>> jars = Lists.newArrayListWithCapacity(numJars);
+            for (int i = 0; i < numJars; ++i) {
+                jars.add(deserializeStringLongMap(dataIn));
+            }
+            int numProperties = dataIn.readInt();
+            List<Properties> properties = Lists.newArrayListWithCapacity(numProperties);
+            for (int i = 0; i < numProperties; ++i) {
+                properties.add(deserializeProperties(dataIn));
+            }
+
+            int numTasks = dataIn.readInt();
+            List<TaskDescription> tasks = Lists.newArrayListWithCapacity(numTasks);
+            for (int i = 0; i < numTasks; ++i) {
+                long taskId = dataIn.readLong();
+                int attemptNumber = dataIn.readInt();
+                String name = dataIn.readUTF();
+                int index = dataIn.readInt();
+                Map<String, Long> taskFiles = files.get(dataIn.readInt());
+                Map<String, Long> taskJars = jars.get(dataIn.readInt());
+                Properties taskProperties = properties.get(dataIn.readInt());
+                int taskLength = dataIn.readInt();
+                ByteBuffer serializedTask = byteBuffer.slice();
+                serializedTask.limit(taskLength);
+                dataIn.skipBytes(taskLength);
+                tasks.add(new TaskDescription(taskId, attemptNumber, executorId, name, index, taskFiles, taskJars,
+                        taskProperties, serializedTask));
+            }
+            return tasks;
+        } catch (IOException e) {
+            throw new SparkException("deserializer tasks failure", e);
+        }
+    }
 }
@@ -33,6 +33,8 @@ public class TaskSchedulerImpl implements TaskScheduler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskSchedulerImpl.class);
 
+    private static final Set<TaskState> FAILED_TASK_STATES = Sets.immutableEnumSet(TaskState.FAILED, TaskState.KILLED, TaskState.LOST);
+
     public static final String SCHEDULER_MODE_PROPERTY = "spark.scheduler.mode";
 
 
@@ -254,54 +256,66 @@ public class TaskSchedulerImpl implements TaskScheduler {
 
     /*****************************Spark Job Task运行状态变更******************************/
     public void statusUpdate(long taskId, TaskState state, ByteBuffer value) {
-        String failedExecutor = null;
-        ExecutorLossReason reason = null;
+        statusUpdates(new long[]{taskId}, new TaskState[]{state}, new ByteBuffer[]{value});
+    }
+
+    /**
+     * 批量处理Task运行状态变更, 整个批次只获取一次调度锁
+     * */
+    public void statusUpdates(long[] taskIds, TaskState[] states, ByteBuffer[] values) {
+        Map<String, ExecutorLossReason> failedExecutors = Maps.newLinkedHashMap();
         synchronized (this) {
-            try {
-                TaskSetManager taskSet = taskIdToTaskSetManager.get(taskId);
-                if (taskSet == null) {
-                    LOGGER.warn("Ignoring update with state {} for TID {} because its task set is gone (this is " +
-                                "likely the result of receiving duplicate task finished status updates) or its " +
-                                "executor has been marked as failed.", state, taskId);
-                } else {
-                    if (state == TaskState.LOST) {
-                        String execId = taskIdToExecutorId.get(taskId);
-                        if (isNullOrEmpty(execId)) {
-                            throw new IllegalStateException("taskIdToTaskSetManager.contains(tid) <=> taskIdToExecutorId.contains(tid)");
-                        }
-                        if (executorIdToRunningTaskIds.containsKey(execId)) {
-                            reason = new SlaveLost(format("Task %s was lost, so marking the executor as lost as well.", taskId));
-                            removeExecutor(execId, reason);
-                            failedExecutor = execId;
-                        }
-                    }
-                    if (TaskState.isFinished(state)) {
-                        cleanupTaskState(taskId);
-                        taskSet.removeRunningTask(taskId);
-                        if (state == TaskState.FINISHED) {
-                            taskResultGetter.enqueueSuccessfulTask(taskSet,
-                                                                   taskId,
-                                                                   value);
-                        } else if (Sets.newHashSet(TaskState.FAILED, TaskState.KILLED, TaskState.LOST).contains(state)) {
-                            taskResultGetter.enqueueFailedTask(taskSet,
-                                                               taskId,
-                                                               state,
-                                                               value);
-                        }
-                    }
+            for (int i = 0; i < taskIds.length; ++i) {
+                try {
+                    updateTaskState(taskIds[i], states[i], values[i], failedExecutors);
+                } catch (Exception e) {
+                    LOGGER.error("Exception in statusUpdate", e);
                 }
-            } catch (Exception e) {
-                LOGGER.error("Exception in statusUpdate", e);
             }
         }
 
         // Update the DAGScheduler without holding a lock on this, since that can deadlock
-        if (failedExecutor != null) {
-            dagScheduler.executorLost(failedExecutor, reason);
+        if (!failedExecutors.isEmpty()) {
+            failedExecutors.forEach((failedExecutor, reason) -> dagScheduler.executorLost(failedExecutor, reason));
             backend.reviveOffers();
         }
     }
 
+    private void updateTaskState(long taskId, TaskState state, ByteBuffer value, Map<String, ExecutorLossReason> failedExecutors) {
+        TaskSetManager taskSet = taskIdToTaskSetManager.get(taskId);
+        if (taskSet == null) {
+            LOGGER.warn("Ignoring update with state {} for TID {} because its task set is gone (this is " +
+                        "likely the result of receiving duplicate task finished status updates) or its " +
+                        "executor has been marked as failed.", state, taskId);
+            return;
+        }
+        if (state == TaskState.LOST) {
+            String execId = taskIdToExecutorId.get(taskId);
+            if (isNullOrEmpty(execId)) {
+                throw new IllegalStateException("taskIdToTaskSetManager.contains(tid) <=> taskIdToExecutorId.contains(tid)");
+            }
+            if (executorIdToRunningTaskIds.containsKey(execId)) {
+                ExecutorLossReason reason = new SlaveLost(format("Task %s was lost, so marking the executor as lost as well.", taskId));
+                removeExecutor(execId, reason);
+                failedExecutors.put(execId, reason);
+            }
+        }
+        if (TaskState.isFinished(state)) {
+            cleanupTaskState(taskId);
+            taskSet.removeRunningTask(taskId);
+            if (state == TaskState.FINISHED) {
+                taskResultGetter.enqueueSuccessfulTask(taskSet,
+                                                       taskId,
+                                                       value);
+            } else if (FAILED_TASK_STATES.contains(state)) {
+                taskResultGetter.enqueueFailedTask(taskSet,
+                                                   taskId,
+                                                   state,
+                                                   value);
+            }
+        }
+    }
+
     public synchronized void handleFailedTask(TaskSetManager taskSetManager,
                                               long tid,
                                               TaskState taskState,
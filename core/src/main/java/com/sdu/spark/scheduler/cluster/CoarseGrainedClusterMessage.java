@@ -33,6 +33,16 @@ public interface CoarseGrainedClusterMessage extends Serializable {
             this.taskData = taskData;
         }
     }
+    /**
+     * 同一Executor的一批Task, taskData由{@link com.sdu.spark.scheduler.TaskDescription#encodeBatch(java.util.List)}编码
+     * */
+    class LaunchTasks implements CoarseGrainedClusterMessage {
+        public SerializableBuffer taskData;
+
+        public LaunchTasks(SerializableBuffer taskData) {
+            this.taskData = taskData;
+        }
+    }
     class RetrieveSparkAppConfig implements CoarseGrainedClusterMessage {}
 
     class SparkAppConfig implements CoarseGrainedClusterMessage {
@@ -82,6 +92,47 @@ public interface CoarseGrainedClusterMessage extends Serializable {
         }
     }
 
+    /**
+     * Executor批量上报Task状态(列式存储):
+     *
+     * 第i个Task状态数据(DirectTaskResult或IndirectTaskResult)位于data[dataOffsets[i], dataOffsets[i + 1])
+     * */
+    class StatusUpdates implements CoarseGrainedClusterMessage {
+        public String executorId;
+        public long[] taskIds;
+        public TaskState[] states;
+        public int[] dataOffsets;
+        public SerializableBuffer data;
+
+        public StatusUpdates(String executorId, long[] taskIds, TaskState[] states, int[] dataOffsets, ByteBuffer data) {
+            assert taskIds.length == states.length && dataOffsets.length == taskIds.length + 1;
+            this.executorId = executorId;
+            this.taskIds = taskIds;
+            this.states = states;
+            this.dataOffsets = dataOffsets;
+            this.data = new SerializableBuffer(data);
+        }
+
+        public int size() {
+            return taskIds.length;
+        }
+
+        public ByteBuffer taskData(int i) {
+            ByteBuffer buffer = data.buffer.duplicate();
+            buffer.position(buffer.position() + dataOffsets[i]);
+            buffer.limit(buffer.position() + dataOffsets[i + 1] - dataOffsets[i]);
+            return buffer.slice();
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                              .add("execId", executorId)
+                              .add("numTasks", taskIds.length)
+                              .toString();
+        }
+    }
+
     class RegisterExecutor implements CoarseGrainedClusterMessage {
         public String executorId;
         public RpcEndpointRef executorRef;
@@ -176,6 +176,28 @@ public abstract class CoarseGrainedSchedulerBackend extends SchedulerBackend imp
                                     update.taskId, update.state, update.executorId);
                     }
                 }
+            } else if (msg instanceof StatusUpdates) {
+                StatusUpdates updates = (StatusUpdates) msg;
+                int size = updates.size();
+                ByteBuffer[] data = new ByteBuffer[size];
+                int finished = 0;
+                for (int i = 0; i < size; ++i) {
+                    data[i] = updates.taskData(i);
+                    if (TaskState.isFinished(updates.states[i])) {
+                        finished++;
+                    }
+                }
+                scheduler.statusUpdates(updates.taskIds, updates.states, data);
+                if (finished > 0) {
+                    ExecutorData executorData = executorDataMap.get(updates.executorId);
+                    if (executorData != null) {
+                        executorData.freeCores += scheduler.CPUS_PER_TASK * finished;
+                        makeOffers(updates.executorId);
+                    } else {
+                        LOGGER.warn("Ignored {} task status updates from unknown executor with ID {}",
+                                    size, updates.executorId);
+                    }
+                }
             } else if (msg instanceof ReviveOffers){
                 makeOffers();
             } else if (msg instanceof KillTask) {
@@ -307,28 +329,53 @@ public abstract class CoarseGrainedSchedulerBackend extends SchedulerBackend imp
                 launchTask(taskDescriptions);
             }
         }
+        /**
+         * 按Executor分组批量下发Task: 同一Executor的Task编码为一个LaunchTasks消息(共享字段只编码一次),
+         *
+         * 单批次Task数据总量不超过spark.rpc.message.maxSize
+         * */
         private void launchTask(List<TaskDescription> tasks) {
+            Map<String, List<TaskDescription>> executorTasks = Maps.newLinkedHashMap();
             for (TaskDescription task : tasks) {
-                try {
-                    ByteBuffer buffer = TaskDescription.encode(task);
-                    if (buffer.limit() >= maxRpcMessageSize) {
-                        String msg = "Serialized task %s:%d was %d bytes, which exceeds max allowed: " +
-                                "spark.rpc.message.maxSize (%d bytes). Consider increasing " +
-                                "spark.rpc.message.maxSize or using broadcast variables for large values.";
-                        msg = format(msg, task.taskId, task.index, buffer.limit(), maxRpcMessageSize);
-                        TaskSetManager tasSetMgr = scheduler.taskIdToTaskSetManager.get(task.taskId);
-                        tasSetMgr.abort(msg);
-                    } else {
-                        ExecutorData executorData = executorDataMap.get(task.executorId);
-                        executorData.freeCores -= scheduler.CPUS_PER_TASK;
-                        LOGGER.debug("Executor(execId = {}, execAddress = {})分配Spark Task(taskId = {}, taskName = {})",
-                                task.executorId, executorData.executorHost, task.taskId, task.name);
-                        executorData.executorEndpoint.send(new LaunchTask(new SerializableBuffer(buffer)));
+                if (task.serializedTask.remaining() >= maxRpcMessageSize) {
+                    String msg = "Serialized task %s:%d was %d bytes, which exceeds max allowed: " +
+                            "spark.rpc.message.maxSize (%d bytes). Consider increasing " +
+                            "spark.rpc.message.maxSize or using broadcast variables for large values.";
+                    msg = format(msg, task.taskId, task.index, task.serializedTask.remaining(), maxRpcMessageSize);
+                    TaskSetManager tasSetMgr = scheduler.taskIdToTaskSetManager.get(task.taskId);
+                    tasSetMgr.abort(msg);
+                } else {
+                    executorTasks.computeIfAbsent(task.executorId, id -> Lists.newArrayList()).add(task);
+                }
+            }
+
+            executorTasks.forEach((executorId, executorTaskList) -> {
+                List<TaskDescription> batch = Lists.newArrayList();
+                long batchBytes = 0;
+                for (TaskDescription task : executorTaskList) {
+                    int taskBytes = task.serializedTask.remaining();
+                    if (!batch.isEmpty() && batchBytes + taskBytes >= maxRpcMessageSize) {
+                        launchTaskBatch(executorId, batch);
+                        batch = Lists.newArrayList();
+                        batchBytes = 0;
                     }
-                } catch (IOException e) {
-                    LOGGER.error("Task(taskId = {})序列化异常", task.taskId, e);
+                    batch.add(task);
+                    batchBytes += taskBytes;
                 }
+                launchTaskBatch(executorId, batch);
+            });
+        }
 
+        private void launchTaskBatch(String executorId, List<TaskDescription> batch) {
+            try {
+                ByteBuffer buffer = TaskDescription.encodeBatch(batch);
+                ExecutorData executorData = executorDataMap.get(executorId);
+                executorData.freeCores -= scheduler.CPUS_PER_TASK * batch.size();
+                LOGGER.debug("Executor(execId = {}, execAddress = {})分配{}个Spark Task, 消息大小{}字节",
+                        executorId, executorData.executorHost, batch.size(), buffer.limit());
+                executorData.executorEndpoint.send(new LaunchTasks(new SerializableBuffer(buffer)));
+            } catch (IOException e) {
+                LOGGER.error("Executor(execId = {})Task批量序列化异常", executorId, e);
             }
         }
 
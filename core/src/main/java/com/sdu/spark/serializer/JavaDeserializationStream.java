@@ -1,8 +1,10 @@
 package com.sdu.spark.serializer;
 
+import com.sdu.spark.SparkException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -30,6 +32,9 @@ public class JavaDeserializationStream extends DeserializationStream {
     public <T> T readObject() {
         try {
             return (T) this.objIn.readObject();
+        } catch (EOFException e) {
+            // DeserializationStream uses the EOF exception to indicate stopping condition.
+            throw new SparkException(e);
         } catch (IOException e) {
             LOGGER.error("java stream deserialize object exception", e);
         } catch (ClassNotFoundException e) {
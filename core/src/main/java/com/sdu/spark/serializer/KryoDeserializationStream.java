@@ -0,0 +1,71 @@
+package com.sdu.spark.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.UnsafeInput;
+import com.sdu.spark.SparkException;
+
+import java.io.EOFException;
+import java.io.InputStream;
+
+/**
+ * Kryo反序列化流, 构造时借用Kryo实例, {@link #close()}时归还
+ *
+ * 注意: 流读取结束时抛出SparkException(cause: {@link EOFException}), 由调用方(如{@link #asKeyValueIterator()})结束迭代
+ *
+ * @author hanhan.zhang
+ * */
+public class KryoDeserializationStream extends DeserializationStream {
+
+    private KryoSerializerInstance serInstance;
+    private Input input;
+    private Kryo kryo;
+    private ClassLoader oldClassLoader;
+
+    KryoDeserializationStream(KryoSerializerInstance serInstance, InputStream inStream, boolean useUnsafe) {
+        this(serInstance, inStream, useUnsafe, null);
+    }
+
+    KryoDeserializationStream(KryoSerializerInstance serInstance, InputStream inStream, boolean useUnsafe, ClassLoader loader) {
+        this.serInstance = serInstance;
+        this.input = useUnsafe ? new UnsafeInput(inStream) : new Input(inStream);
+        this.kryo = serInstance.borrowKryo();
+        if (loader != null) {
+            this.oldClassLoader = kryo.getClassLoader();
+            kryo.setClassLoader(loader);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T readObject() {
+        try {
+            return (T) kryo.readClassAndObject(input);
+        } catch (KryoException e) {
+            // DeserializationStream uses the EOF exception to indicate stopping condition.
+            if (e.getMessage() != null && e.getMessage().toLowerCase().contains("buffer underflow")) {
+                throw new SparkException(new EOFException());
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (input != null) {
+            try {
+                // Kryo's Input automatically closes the input stream it is using.
+                input.close();
+            } finally {
+                if (oldClassLoader != null) {
+                    kryo.setClassLoader(oldClassLoader);
+                }
+                serInstance.releaseKryo(kryo);
+                serInstance = null;
+                kryo = null;
+                input = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.sdu.spark.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+
+/**
+ * 用户自定义Kryo类注册, 通过spark.kryo.registrator配置(多个以逗号分隔), 需提供无参构造函数
+ *
+ * @author hanhan.zhang
+ * */
+public interface KryoRegistrator {
+
+    void registerClasses(Kryo kryo);
+
+}
@@ -0,0 +1,53 @@
+package com.sdu.spark.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.io.UnsafeOutput;
+
+import java.io.OutputStream;
+
+/**
+ * Kryo序列化流, 构造时借用Kryo实例, {@link #close()}时归还
+ *
+ * @author hanhan.zhang
+ * */
+public class KryoSerializationStream extends SerializationStream {
+
+    private KryoSerializerInstance serInstance;
+    private Output output;
+    private Kryo kryo;
+
+    KryoSerializationStream(KryoSerializerInstance serInstance, OutputStream outStream, boolean useUnsafe) {
+        this.serInstance = serInstance;
+        this.output = useUnsafe ? new UnsafeOutput(outStream) : new Output(outStream);
+        this.kryo = serInstance.borrowKryo();
+    }
+
+    @Override
+    public <T> SerializationStream writeObject(T object) {
+        kryo.writeClassAndObject(output, object);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        if (output == null) {
+            throw new IllegalStateException("Stream is closed");
+        }
+        output.flush();
+    }
+
+    @Override
+    public void close() {
+        if (output != null) {
+            try {
+                output.close();
+            } finally {
+                serInstance.releaseKryo(kryo);
+                serInstance = null;
+                kryo = null;
+                output = null;
+            }
+        }
+    }
+}
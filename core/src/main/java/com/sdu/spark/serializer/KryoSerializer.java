@@ -1,13 +1,167 @@
 package com.sdu.spark.serializer;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.io.UnsafeOutput;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import com.google.common.collect.Lists;
+import com.sdu.spark.SparkException;
+import com.sdu.spark.rpc.SparkConf;
+import com.sdu.spark.utils.scala.Tuple2;
+import org.apache.commons.lang3.StringUtils;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.Serializable;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
+ * {@link KryoSerializer}基于Kryo序列化框架, 序列化结果较Java序列化更紧凑且更快
+ *
+ * 1: Kryo实例非线程安全且创建代价高(类注册、序列化器缓存), spark.kryo.pool = true时由线程安全的{@link KryoPool}
+ *
+ *    复用Kryo实例, {@link KryoSerializerInstance}/{@link KryoSerializationStream}使用期间借出, 关闭时归还
+ *
+ * 2: 类注册: 内置常用类 + spark.kryo.classesToRegister + spark.kryo.registrator({@link KryoRegistrator}),
+ *
+ *    spark.kryo.registrationRequired = true时序列化未注册类抛出异常
+ *
+ * 3: Kryo开启autoReset(默认)时, 每次writeClassAndObject结束重置引用表, 序列化流中对象的字节相互独立, 可重排(relocation),
+ *
+ *    故{@link #supportsRelocationOfSerializedObjects()}返回true, 满足{@link com.sdu.spark.shuffle.sort.SortShuffleManager}
+ *
+ *    Serialized Shuffle条件
+ *
  * @author hanhan.zhang
  * */
-public class KryoSerializer implements Serializer {
+public class KryoSerializer implements Serializer, Serializable {
+
+    private final int bufferSize;
+    private final int maxBufferSize;
+    private final boolean referenceTracking;
+    private final boolean registrationRequired;
+    private final List<String> userRegistrators;
+    private final List<String> classesToRegister;
+    private final boolean useUnsafe;
+    private final boolean usePool;
+
+    private transient volatile KryoPool pool;
+
+    public KryoSerializer(SparkConf conf) {
+        long bufferSizeKb = conf.getSizeAsKb("spark.kryoserializer.buffer", "64k");
+        checkArgument(bufferSizeKb < 2048 * 1024,
+                "spark.kryoserializer.buffer must be less than 2048 mb, got: " + bufferSizeKb / 1024 + " mb.");
+        this.bufferSize = (int) bufferSizeKb * 1024;
+
+        long maxBufferSizeMb = conf.getSizeAsMb("spark.kryoserializer.buffer.max", "64m");
+        checkArgument(maxBufferSizeMb < 2048,
+                "spark.kryoserializer.buffer.max must be less than 2048 mb, got: " + maxBufferSizeMb + " mb.");
+        this.maxBufferSize = (int) maxBufferSizeMb * 1024 * 1024;
+
+        this.referenceTracking = conf.getBoolean("spark.kryo.referenceTracking", true);
+        this.registrationRequired = conf.getBoolean("spark.kryo.registrationRequired", false);
+        this.userRegistrators = splitClassNames(conf.get("spark.kryo.registrator", ""));
+        this.classesToRegister = splitClassNames(conf.get("spark.kryo.classesToRegister", ""));
+        this.useUnsafe = conf.getBoolean("spark.kryo.unsafe", false);
+        this.usePool = conf.getBoolean("spark.kryo.pool", true);
+    }
+
+    private static List<String> splitClassNames(String value) {
+        List<String> classNames = Lists.newArrayList();
+        for (String className : StringUtils.split(value, ',')) {
+            if (!className.trim().isEmpty()) {
+                classNames.add(className.trim());
+            }
+        }
+        return classNames;
+    }
+
+    Output newKryoOutput() {
+        return useUnsafe ? new UnsafeOutput(bufferSize, Math.max(bufferSize, maxBufferSize))
+                         : new Output(bufferSize, Math.max(bufferSize, maxBufferSize));
+    }
+
+    public Kryo newKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(registrationRequired);
+        kryo.setReferences(referenceTracking);
+        // 优先使用无参构造函数, 否则由Objenesis直接分配对象(无需构造函数)
+        kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = getClass().getClassLoader();
+        }
+        kryo.setClassLoader(classLoader);
+
+        for (Class<?> cls : KRYO_CLASSES_TO_REGISTER) {
+            kryo.register(cls);
+        }
+
+        try {
+            for (String className : classesToRegister) {
+                kryo.register(Class.forName(className, true, classLoader));
+            }
+            for (String className : userRegistrators) {
+                KryoRegistrator registrator = (KryoRegistrator) Class.forName(className, true, classLoader).newInstance();
+                registrator.registerClasses(kryo);
+            }
+        } catch (Exception e) {
+            throw new SparkException("Failed to register classes with Kryo", e);
+        }
+
+        return kryo;
+    }
+
+    /**
+     * Kryo实例池, 首次使用时创建(KryoSerializer需随Task序列化, 池本身不序列化)
+     * */
+    KryoPool pool() {
+        if (pool == null) {
+            synchronized (this) {
+                if (pool == null) {
+                    pool = new KryoPool.Builder(this::newKryo).softReferences().build();
+                }
+            }
+        }
+        return pool;
+    }
+
+    boolean usePool() {
+        return usePool;
+    }
+
+    boolean useUnsafe() {
+        return useUnsafe;
+    }
 
     @Override
     public SerializerInstance newInstance() {
-        throw new UnsupportedOperationException("");
+        return new KryoSerializerInstance(this, useUnsafe, usePool);
+    }
+
+    @Override
+    public boolean supportsRelocationOfSerializedObjects() {
+        // If auto-reset is disabled, then Kryo may store references to duplicate occurrences of objects
+        // in the stream rather than writing those objects' serialized bytes, breaking relocation.
+        return ((KryoSerializerInstance) newInstance()).getAutoReset();
     }
 
+    /**
+     * 内置注册类
+     * */
+    private static final Class<?>[] KRYO_CLASSES_TO_REGISTER = new Class<?>[]{
+            Tuple2.class,
+            byte[].class,
+            short[].class,
+            int[].class,
+            long[].class,
+            float[].class,
+            double[].class,
+            char[].class,
+            boolean[].class,
+            String[].class,
+            Object[].class
+    };
 }
@@ -0,0 +1,169 @@
+package com.sdu.spark.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.io.UnsafeInput;
+import com.sdu.spark.SparkException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Kryo序列化实例, 非线程安全(与{@link JavaSerializerInstance}一致, 每个线程使用独立实例)
+ *
+ * 1: 缓存一个Kryo实例({@link #cachedKryo}), serialize/deserialize时借出, 结束后归还; 若并发打开序列化流, 流再从
+ *
+ *    {@link KryoSerializer#pool()}借用其他Kryo实例
+ *
+ * 2: {@link #output}/{@link #input}复用, 避免每次serialize分配缓冲区
+ *
+ * @author hanhan.zhang
+ * */
+public class KryoSerializerInstance implements SerializerInstance {
+
+    private final KryoSerializer ks;
+    private final boolean useUnsafe;
+    private final boolean usePool;
+
+    /**
+     * A re-used Kryo instance. Methods will borrow this instance by calling borrowKryo(), do their work,
+     * then release the serializer by calling releaseKryo(). Logically, this is a caching pool of size
+     * one where the pool is stored in the instance.
+     * */
+    private Kryo cachedKryo;
+
+    private final Output output;
+    private final Input input;
+
+    KryoSerializerInstance(KryoSerializer ks, boolean useUnsafe, boolean usePool) {
+        this.ks = ks;
+        this.useUnsafe = useUnsafe;
+        this.usePool = usePool;
+        this.cachedKryo = usePool ? null : ks.newKryo();
+        this.output = ks.newKryoOutput();
+        this.input = useUnsafe ? new UnsafeInput() : new Input();
+    }
+
+    /**
+     * Borrows a Kryo instance. If possible, this tries to re-use a cached Kryo instance;
+     * otherwise, it allocates a new instance.
+     * */
+    Kryo borrowKryo() {
+        if (usePool) {
+            Kryo kryo = ks.pool().borrow();
+            kryo.reset();
+            return kryo;
+        }
+        if (cachedKryo != null) {
+            Kryo kryo = cachedKryo;
+            // As a defensive measure, call reset() to clear any Kryo state that might have
+            // been modified by the last operation to borrow this instance
+            kryo.reset();
+            cachedKryo = null;
+            return kryo;
+        }
+        return ks.newKryo();
+    }
+
+    /**
+     * Release a borrowed Kryo instance. If this serializer instance already has a cached Kryo instance,
+     * then the given Kryo instance is discarded; otherwise, the Kryo is stored for later re-use.
+     * */
+    void releaseKryo(Kryo kryo) {
+        if (usePool) {
+            ks.pool().release(kryo);
+        } else if (cachedKryo == null) {
+            cachedKryo = kryo;
+        }
+    }
+
+    @Override
+    public <T> ByteBuffer serialize(T object) throws IOException {
+        output.clear();
+        Kryo kryo = borrowKryo();
+        try {
+            kryo.writeClassAndObject(output, object);
+        } catch (KryoException e) {
+            if (e.getMessage() != null && e.getMessage().startsWith("Buffer overflow")) {
+                throw new SparkException(String.format("Kryo serialization failed: %s. To avoid this, " +
+                        "increase spark.kryoserializer.buffer.max value.", e.getMessage()), e);
+            }
+            throw e;
+        } finally {
+            releaseKryo(kryo);
+        }
+        return ByteBuffer.wrap(output.toBytes());
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer buf) throws IOException {
+        Kryo kryo = borrowKryo();
+        try {
+            return readFrom(kryo, buf);
+        } finally {
+            releaseKryo(kryo);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer buf, ClassLoader loader) throws IOException {
+        Kryo kryo = borrowKryo();
+        ClassLoader oldClassLoader = kryo.getClassLoader();
+        try {
+            kryo.setClassLoader(loader);
+            return readFrom(kryo, buf);
+        } finally {
+            kryo.setClassLoader(oldClassLoader);
+            releaseKryo(kryo);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readFrom(Kryo kryo, ByteBuffer buf) {
+        if (buf.hasArray()) {
+            input.setBuffer(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        } else {
+            byte[] bytes = new byte[buf.remaining()];
+            buf.duplicate().get(bytes);
+            input.setBuffer(bytes);
+        }
+        return (T) kryo.readClassAndObject(input);
+    }
+
+    @Override
+    public SerializationStream serializeStream(OutputStream os) throws IOException {
+        return new KryoSerializationStream(this, os, useUnsafe);
+    }
+
+    @Override
+    public DeserializationStream deserializeStream(InputStream is) throws IOException {
+        return new KryoDeserializationStream(this, is, useUnsafe);
+    }
+
+    @Override
+    public DeserializationStream deserializeStream(InputStream is, ClassLoader loader) throws IOException {
+        return new KryoDeserializationStream(this, is, useUnsafe, loader);
+    }
+
+    /**
+     * Returns true if auto-reset is on. The only reason this would be false is if the user-supplied
+     * registrator explicitly turns auto-reset off.
+     * */
+    boolean getAutoReset() {
+        Kryo kryo = borrowKryo();
+        try {
+            Field field = Kryo.class.getDeclaredField("autoReset");
+            field.setAccessible(true);
+            return (Boolean) field.get(kryo);
+        } catch (ReflectiveOperationException e) {
+            throw new SparkException("Failed to read Kryo autoReset", e);
+        } finally {
+            releaseKryo(kryo);
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.sdu.spark.serializer;
 
 /**
- * TODO: KryoSerializer
- *
  * @author hanhan.zhang
  * */
 public interface Serializer {
@@ -65,6 +65,10 @@ public class SerializerManager {
         this.compressShuffleSpill = conf.getBoolean("spark.shuffle.spill.compress", true);
     }
 
+    public boolean encryptionEnabled() {
+        return encryptionKey != null;
+    }
+
     public InputStream wrapStream(BlockId blockId, InputStream s) {
         return wrapForCompression(blockId, s);
     }
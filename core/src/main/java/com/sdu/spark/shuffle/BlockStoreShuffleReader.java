@@ -1,8 +1,8 @@
 package com.sdu.spark.shuffle;
 
 import com.google.common.collect.Iterators;
-import com.google.common.collect.Lists;
 import com.sdu.spark.*;
+import com.sdu.spark.executor.ShuffleReadMetrics;
 import com.sdu.spark.serializer.SerializerInstance;
 import com.sdu.spark.serializer.SerializerManager;
 import com.sdu.spark.storage.BlockId;
@@ -17,7 +17,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
-import java.util.List;
 
 import static com.google.common.collect.Iterators.transform;
 import static org.apache.commons.crypto.utils.Utils.checkArgument;
@@ -32,7 +31,13 @@ import static org.apache.commons.crypto.utils.Utils.checkArgument;
  *
  *    Shuffle数据聚合; 根据{@link ShuffleDependency#keyOrdering}裁决是否对数据进行排序
  *
- * TODO: {@link ExternalSorter}待实现排序模块
+ * 3: 定义{@link ShuffleDependency#keyOrdering}时, 由{@link ExternalSorter}排序(内存不足时Spill), 返回其归并迭代器,
+ *
+ *    迭代结束时调用{@link ExternalSorter#stop()}删除Spill文件并释放内存
+ *
+ * 4: {@link #startMapIndex}~{@link #endMapIndex}限定读取的Map输出, 倾斜Reduce分区拆分为多个Task时每个Task只读取部分Map输出,
+ *
+ *    定义{@link Aggregator}时结果为部分聚合值, 需再次按Key合并
  *
  * @author hanhan.zhang
  * */
@@ -41,6 +46,8 @@ public class BlockStoreShuffleReader<K, C> implements ShuffleReader<K, C> {
     private static final Logger LOGGER = LoggerFactory.getLogger(BlockStoreShuffleReader.class);
 
     private BaseShuffleHandle<K, Object, C> handle;
+    private int startMapIndex;
+    private int endMapIndex;
     private int startPartition;
     private int endPartition;
     private TaskContext context;
@@ -55,7 +62,18 @@ public class BlockStoreShuffleReader<K, C> implements ShuffleReader<K, C> {
                                    int startPartition,
                                    int endPartition,
                                    TaskContext context) {
+        this(handle, 0, Integer.MAX_VALUE, startPartition, endPartition, context);
+    }
+
+    public BlockStoreShuffleReader(BaseShuffleHandle<K, Object, C> handle,
+                                   int startMapIndex,
+                                   int endMapIndex,
+                                   int startPartition,
+                                   int endPartition,
+                                   TaskContext context) {
         this.handle = handle;
+        this.startMapIndex = startMapIndex;
+        this.endMapIndex = endMapIndex;
         this.startPartition = startPartition;
         this.endPartition = endPartition;
         this.context = context;
@@ -75,7 +93,7 @@ public class BlockStoreShuffleReader<K, C> implements ShuffleReader<K, C> {
                 context,
                 blockManager.shuffleClient,
                 blockManager,
-                mapOutputTracker.getMapSizesByExecutorId(handle.shuffleId, startPartition, endPartition),
+                mapOutputTracker.getMapSizesByRange(handle.shuffleId, startMapIndex, endMapIndex, startPartition, endPartition),
                 (blockId, inputStream) -> serializerManager.wrapStream(blockId, inputStream),
                 SparkEnv.env.conf.getSizeAsMb("spark.reducer.maxSizeInFlight", "48m") * 1024 * 1024,
                 SparkEnv.env.conf.getInt("spark.reducer.maxReqsInFlight", Integer.MAX_VALUE),
@@ -85,25 +103,26 @@ public class BlockStoreShuffleReader<K, C> implements ShuffleReader<K, C> {
         );
 
         SerializerInstance ser = dep.serializer.newInstance();
-        // Java不支持Iterator.flatMap, 还是Scala方便
-        List<Tuple2<Object, Object>> records = Lists.newLinkedList();
-        while (wrappedStreams.hasNext()) {
+        // Create a key/value iterator for each stream. 对ShuffleBlockFetcherIterator惰性flatMap, 仅当上一个
+        // Block的记录消费完才反序列化下一个Block, Reduce端内存占用取决于拉取中的字节数而非分区数据量
+        Iterator<Tuple2<Object, Object>> recordIter = Iterators.concat(transform(wrappedStreams, blockIdAndStream -> {
             try {
-                InputStream wrappedStream = wrappedStreams.next()._2();
-                Iterator<Tuple2<Object, Object>> recIter = ser.deserializeStream(wrappedStream).asKeyValueIterator();
-                Iterators.addAll(records, recIter);
+                return ser.deserializeStream(blockIdAndStream._2()).asKeyValueIterator();
             } catch (IOException e) {
                 String msg = "deserialize failure";
                 LOGGER.error(msg, e);
                 throw new SparkException(msg, e);
             }
-        }
-        Iterator<Tuple2<Object, Object>> recordIter = records.iterator();
+        }));
 
-        // TODO: Metric
+        // Update the context task metrics for each record read.
+        ShuffleReadMetrics readMetrics = context.taskMetrics().createTempShuffleReadMetrics();
         CompletionIterator<Tuple2<Object, Object>, Iterator<Tuple2<Object, Object>>> metricIter = CompletionIterator.apply(
-                recordIter,
-                null
+                transform(recordIter, record -> {
+                    readMetrics.incRecordsRead(1);
+                    return record;
+                }),
+                () -> context.taskMetrics().mergeShuffleReadMetrics()
         );
 
         // Shuffle Block数据聚合(Merge)
@@ -127,7 +146,9 @@ public class BlockStoreShuffleReader<K, C> implements ShuffleReader<K, C> {
         }
 
         // Shuffle Block数据排序(Sort)
+        Iterator<Tuple2<K, C>> resultIter;
         if (dep.keyOrdering != null) {
+            // Create an ExternalSorter to sort the data.
             ExternalSorter<K, C, C> sorter = new ExternalSorter<>(
                     context,
                     null,
@@ -136,10 +157,17 @@ public class BlockStoreShuffleReader<K, C> implements ShuffleReader<K, C> {
                     dep.serializer
             );
             sorter.insertAll(aggregatedIter);
-            // TODO: Task Metric
+            context.taskMetrics().incMemoryBytesSpilled(sorter.memoryBytesSpilled());
+            context.taskMetrics().incDiskBytesSpilled(sorter.diskBytesSpilled());
+            context.taskMetrics().incPeakExecutionMemory(sorter.peakMemoryUsedBytes());
+            // 迭代结束释放Spill文件及内存; Task提前结束(如limit)时由TaskCompletionListener兜底
+            context.addTaskCompletionListener(taskContext -> sorter.stop());
+            resultIter = CompletionIterator.apply(sorter.iterator(), sorter::stop);
+        } else {
+            resultIter = aggregatedIter;
         }
 
-        return transform(aggregatedIter, tuple -> (Product2<K, C>) tuple);
+        return transform(resultIter, tuple -> (Product2<K, C>) tuple);
     }
 
 }
@@ -6,6 +6,7 @@ import com.sdu.spark.SparkException;
 import com.sdu.spark.io.NioBufferedFileInputStream;
 import com.sdu.spark.network.buffer.FileSegmentManagedBuffer;
 import com.sdu.spark.network.buffer.ManagedBuffer;
+import com.sdu.spark.network.buffer.NioManagerBuffer;
 import com.sdu.spark.network.netty.SparkTransportConf;
 import com.sdu.spark.network.utils.TransportConf;
 import com.sdu.spark.rpc.SparkConf;
@@ -16,13 +17,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
 
 /**
  * {@link IndexShuffleBlockResolver}负责Shuffle File创建及Shuffle数据读取
  *
  *  1: shuffle数据有两种文件: shuffle数据文件、shuffle索引文件(记录每个Block在数据文件中偏移量)
  *
+ *  2: 同一Map输出中reduceId连续的Block只读取一次索引文件, 总大小不超过spark.shuffle.io.coalescedReadMaxBytes时
+ *
+ *     一次读取数据文件区间, 各Block为其切片, 避免大量小Block逐个打开文件
+ *
  * @author hanhan.zhang
  * */
 public class IndexShuffleBlockResolver implements ShuffleBlockResolver {
@@ -38,6 +49,7 @@ public class IndexShuffleBlockResolver implements ShuffleBlockResolver {
     private BlockManager blockManager;
 
     private TransportConf transportConf;
+    private final long coalescedReadMaxBytes;
 
     public IndexShuffleBlockResolver(SparkConf conf) {
         this(conf, null);
@@ -47,6 +59,7 @@ public class IndexShuffleBlockResolver implements ShuffleBlockResolver {
         this.conf = conf;
         this.blockManager = blockManager;
         this.transportConf = SparkTransportConf.fromSparkConf(conf, "shuffle");
+        this.coalescedReadMaxBytes = conf.getSizeAsBytes("spark.shuffle.io.coalescedReadMaxBytes", "1m");
     }
 
     public File getDataFile(int shuffleId, int mapId) {
@@ -141,6 +154,53 @@ public class IndexShuffleBlockResolver implements ShuffleBlockResolver {
         }
     }
 
+    @Override
+    public List<ManagedBuffer> getContinuousBlocksData(ShuffleBlockId startBlockId, int numBlocks) {
+        File indexFile = getIndexFile(startBlockId.shuffleId, startBlockId.mapId);
+        long[] offsets = new long[numBlocks + 1];
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(indexFile.toPath()))) {
+            ByteStreams.skipFully(in, startBlockId.reduceId * 8L);
+            for (int i = 0; i <= numBlocks; ++i) {
+                offsets[i] = in.readLong();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Got shuffle block {} index({} blocks) failure", startBlockId, numBlocks, e);
+            throw new SparkException(String.format("Got shuffle block %s index(%d blocks) failure", startBlockId, numBlocks), e);
+        }
+
+        File dataFile = getDataFile(startBlockId.shuffleId, startBlockId.mapId);
+        List<ManagedBuffer> buffers = newArrayListWithCapacity(numBlocks);
+        long totalLength = offsets[numBlocks] - offsets[0];
+        if (numBlocks == 1 || totalLength > coalescedReadMaxBytes) {
+            for (int i = 0; i < numBlocks; ++i) {
+                buffers.add(new FileSegmentManagedBuffer(transportConf, dataFile, offsets[i], offsets[i + 1] - offsets[i]));
+            }
+            return buffers;
+        }
+
+        // 小Block: 一次读取数据文件区间
+        ByteBuffer data = ByteBuffer.allocate((int) totalLength);
+        try (FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+            long position = offsets[0];
+            while (data.hasRemaining()) {
+                int read = channel.read(data, position);
+                if (read < 0) {
+                    throw new EOFException(String.format("Reached EOF of %s at %d", dataFile, position));
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Got shuffle block {} data({} blocks) failure", startBlockId, numBlocks, e);
+            throw new SparkException(String.format("Got shuffle block %s data(%d blocks) failure", startBlockId, numBlocks), e);
+        }
+        for (int i = 0; i < numBlocks; ++i) {
+            data.limit((int) (offsets[i + 1] - offsets[0]));
+            data.position((int) (offsets[i] - offsets[0]));
+            buffers.add(new NioManagerBuffer(data.slice()));
+        }
+        return buffers;
+    }
+
     public void removeDataByMap(int shuffleId, int mapId) {
         File file = getDataFile(shuffleId, mapId);
         if (file.exists()) {
@@ -2,16 +2,17 @@ package com.sdu.spark.shuffle;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.sdu.spark.SparkException;
 import com.sdu.spark.TaskContext;
+import com.sdu.spark.executor.ShuffleReadMetrics;
 import com.sdu.spark.network.buffer.FileSegmentManagedBuffer;
 import com.sdu.spark.network.buffer.ManagedBuffer;
 import com.sdu.spark.network.shuffle.BlockFetchingListener;
 import com.sdu.spark.network.shuffle.OneForOneBlockFetcher;
 import com.sdu.spark.network.shuffle.ShuffleClient;
 import com.sdu.spark.network.shuffle.TempShuffleFileManager;
+import com.sdu.spark.scheduler.MapStatusIndex.BlocksByAddress;
 import com.sdu.spark.storage.BlockException;
 import com.sdu.spark.storage.BlockId;
 import com.sdu.spark.storage.BlockId.ShuffleBlockId;
@@ -89,7 +90,7 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
     private TaskContext context;
     private ShuffleClient shuffleClient;
     private BlockManager blockManager;
-    private Multimap<BlockManagerId, Tuple2<BlockId, Long>> blocksByAddress;
+    private BlocksByAddress blocksByAddress;
     private ResultWrapper wrapper;
 
     /**
@@ -137,18 +138,21 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
     private Set<File> shuffleFilesSet = Sets.newHashSet();
 
     /**Shuffle Block数据拉取结果集合, Shuffle Block遍历集合*/
-    private Queue<FetchResult> results = new LinkedBlockingQueue<>();
+    private LinkedBlockingQueue<FetchResult> results = new LinkedBlockingQueue<>();
 
     /**标识Shuffle Block拉取是否处于激活状态*/
     private boolean isZombie = false;
 
+    private ShuffleReadMetrics shuffleMetrics;
+
     /**
      * @param context [[TaskContext]], used for metrics update
      * @param shuffleClient [[ShuffleClient]] for fetching remote blocks
      * @param blockManager [[BlockManager]] for reading local blocks
      * @param blocksByAddress list of blocks to fetch grouped by the [[BlockManagerId]].
      *                        For each block we also require the size (in bytes as a long field) in
-     *                        order to throttle the memory usage.
+     *                        order to throttle the memory usage. Only non-empty blocks are turned into
+     *                        [[ShuffleBlockId]]s.
      * @param wrapper A function to wrap the returned input stream.
      * @param maxBytesInFlight max size (in bytes) of remote blocks to fetch at any given point.
      * @param maxReqsInFlight max number of remote requests to fetch blocks at any given point.
@@ -160,7 +164,7 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
     public ShuffleBlockFetcherIterator(TaskContext context,
                                        ShuffleClient shuffleClient,
                                        BlockManager blockManager,
-                                       Multimap<BlockManagerId, Tuple2<BlockId, Long>> blocksByAddress,
+                                       BlocksByAddress blocksByAddress,
                                        ResultWrapper wrapper,
                                        long maxBytesInFlight,
                                        long maxReqsInFlight,
@@ -178,6 +182,8 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
         this.maxReqSizeShuffleToMem = maxReqSizeShuffleToMem;
         this.detectCorrupt = detectCorrupt;
 
+        this.shuffleMetrics = context.taskMetrics().createTempShuffleReadMetrics();
+
         this.startTime = System.currentTimeMillis();
         this.initialize();
     }
@@ -206,31 +212,32 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
                      maxBytesInFlight, targetRequestSize, maxBlocksInFlightPerAddress);
 
         List<FetchRequest> remoteRequests = Lists.newLinkedList();
-        int totalBlocks = 0;
-        Iterator<BlockManagerId> iter = blocksByAddress.keySet().iterator();
-        while (iter.hasNext()) {
-            BlockManagerId address = iter.next();
-            Collection<Tuple2<BlockId, Long>> blockInfos = blocksByAddress.get(address);
-            totalBlocks += blockInfos.size();
+        int totalBlocks = blocksByAddress.numBlocks();
+        for (int i = 0; i < blocksByAddress.addresses.length; ++i) {
+            BlockManagerId address = blocksByAddress.addresses[i];
+            int start = blocksByAddress.offsets[i];
+            int end = blocksByAddress.offsets[i + 1];
 
             if (address.executorId.equals(blockManager.blockManagerId.executorId)) {    // 同进程请求
-                localBlocks.addAll(blockInfos.stream()
-                                          .filter(t -> t._2() != 0)
-                                          .map(Tuple2::_1).collect(Collectors.toList()));
-                numBlocksToFetch += localBlocks.size();
+                for (int index = start; index < end; ++index) {
+                    if (blocksByAddress.sizes[index] != 0) {
+                        localBlocks.add(blocksByAddress.blockId(index));
+                        numBlocksToFetch += 1;
+                    }
+                }
             } else {                                                                    // 跨进程请求
-                Iterator<Tuple2<BlockId, Long>> iterator = blockInfos.iterator();
                 long curRequestSize = 0L;
                 List<Tuple2<BlockId, Long>> curBlocks = Lists.newLinkedList();
-                while (iterator.hasNext()) {
-                    Tuple2<BlockId, Long> tuple2 = iterator.next();
-                    if (tuple2._2() > 0) {
-                        curBlocks.add(tuple2);
-                        remoteBlocks.add(tuple2._1());
+                for (int index = start; index < end; ++index) {
+                    long size = blocksByAddress.sizes[index];
+                    if (size > 0) {
+                        ShuffleBlockId blockId = blocksByAddress.blockId(index);
+                        curBlocks.add(new Tuple2<>(blockId, size));
+                        remoteBlocks.add(blockId);
                         numBlocksToFetch += 1;
-                        curRequestSize += tuple2._2();
-                    } else if (tuple2._2() < 0) {
-                        throw new BlockException("Negative block size " + tuple2._2(), tuple2._1());
+                        curRequestSize += size;
+                    } else if (size < 0) {
+                        throw new BlockException("Negative block size " + size, blocksByAddress.blockId(index));
                     }
 
                     if (curRequestSize > targetRequestSize || curBlocks.size() >= maxBlocksInFlightPerAddress) {
@@ -368,7 +375,8 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
             BlockId blockId = iterator.next();
             try {
                 ManagedBuffer buf = blockManager.getBlockData(blockId);
-                // TODO: Shuffle Metric
+                shuffleMetrics.incLocalBlocksFetched(1);
+                shuffleMetrics.incLocalBytesRead(buf.size());
                 buf.retain();
                 results.add(new SuccessFetchResult(blockId, blockManager.blockManagerId, 0, buf, false));
             } catch (Exception e) {
@@ -416,8 +424,12 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
         while (iter.hasNext()) {
             FetchResult result = iter.next();
             if (result instanceof SuccessFetchResult) {
-                // TODO: Shuffle Metric
-                ((SuccessFetchResult) result).buf.release();
+                SuccessFetchResult fetchResult = (SuccessFetchResult) result;
+                if (!fetchResult.address.equals(blockManager.blockManagerId)) {
+                    shuffleMetrics.incRemoteBytesRead(fetchResult.buf.size());
+                    shuffleMetrics.incRemoteBlocksFetched(1);
+                }
+                fetchResult.buf.release();
             }
         }
 
@@ -459,10 +471,15 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
 
         while (result == null) {
             long startFetchWait = System.currentTimeMillis();
-            result = results.poll();
+            try {
+                // 阻塞等待拉取结果, 下游消费当前Block期间后续Block仍在拉取
+                result = results.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SparkException("Interrupted while waiting for shuffle block fetch result", e);
+            }
             long stopFetchWait = System.currentTimeMillis();
-            // TODO: Shuffle Metric
-            LOGGER.debug("shuffle fetch wait cost {}ms", stopFetchWait - startFetchWait);
+            shuffleMetrics.incFetchWaitTime(stopFetchWait - startFetchWait);
 
             if (result instanceof SuccessFetchResult) {
                 SuccessFetchResult fetchResult = (SuccessFetchResult) result;
@@ -470,7 +487,8 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
                     int reqBlocks = numBlocksInFlightPerAddress.get(fetchResult.address);
                     reqBlocks -= 1;
                     numBlocksInFlightPerAddress.put(fetchResult.address, reqBlocks);
-                    // TODO: Shuffle Metric
+                    shuffleMetrics.incRemoteBytesRead(fetchResult.buf.size());
+                    shuffleMetrics.incRemoteBlocksFetched(1);
                 }
                 bytesInFlight -= fetchResult.size;
                 if (fetchResult.isNetworkReqDone) {             // BlockManagerId的Shuffle Block全部请求完成
@@ -489,6 +507,7 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
                 }
 
                 InputStream inputStream = wrapper.streamWrapper(fetchResult.blockId, in);
+                input = inputStream;
                 // Only copy the stream if it's wrapped by compression or encryption, also the size of
                 // block is small (the decompressed block is smaller than maxBytesInFlight)
                 if (detectCorrupt && !inputStream.equals(in) && fetchResult.size < maxBytesInFlight / 3) {
@@ -497,7 +516,7 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
                         // Decompress the whole block at once to detect any corruption, which could increase
                         // the memory usage tne potential increase the chance of OOM.
                         // TODO: manage the memory used here, and spill it into disk in case of OOM.
-                        Utils.copyStream(input, out, false);
+                        Utils.copyStream(inputStream, out, false);
                         out.close();
                         input = out.toChunkedByteBuffer().toInputStream(true);
                     } catch (IOException e) {
@@ -589,7 +608,7 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
                            boolean isNetworkReqDone) {
             super(blockId, address);
             assert buf != null;
-            assert size > 0;
+            assert size >= 0;
             this.size = size;
             this.buf = buf;
             this.isNetworkReqDone = isNetworkReqDone;
@@ -622,7 +641,7 @@ public class ShuffleBlockFetcherIterator implements TempShuffleFileManager, Iter
 
         @Override
         public int read() throws IOException {
-            return 0;
+            return delegate.read();
         }
 
         @Override
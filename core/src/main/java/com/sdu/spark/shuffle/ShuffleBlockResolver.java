@@ -3,6 +3,10 @@ package com.sdu.spark.shuffle;
 import com.sdu.spark.network.buffer.ManagedBuffer;
 import com.sdu.spark.storage.BlockId.*;
 
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+
 /**
  *
  * retrieve block data for a logical shuffle block identifier. This is used by the BlockStore to abstract
@@ -14,6 +18,19 @@ public interface ShuffleBlockResolver {
 
     ManagedBuffer getBlockData(ShuffleBlockId blockId);
 
+    /**
+     * 读取同一Map输出中reduceId连续的numBlocks个Block: [startBlockId.reduceId, startBlockId.reduceId + numBlocks)
+     * */
+    default List<ManagedBuffer> getContinuousBlocksData(ShuffleBlockId startBlockId, int numBlocks) {
+        List<ManagedBuffer> buffers = newArrayListWithCapacity(numBlocks);
+        for (int i = 0; i < numBlocks; ++i) {
+            buffers.add(getBlockData(new ShuffleBlockId(startBlockId.shuffleId,
+                                                        startBlockId.mapId,
+                                                        startBlockId.reduceId + i)));
+        }
+        return buffers;
+    }
+
     void stop();
 
 }
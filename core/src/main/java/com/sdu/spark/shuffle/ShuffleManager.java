@@ -30,6 +30,18 @@ public interface ShuffleManager {
                                          int endPartition,
                                          TaskContext context);
 
+    /**
+     * Get a reader for a range of reduce partitions (startPartition to endPartition-1, inclusive) that
+     * only reads the outputs of map tasks startMapIndex to endMapIndex-1. Called on executors by the
+     * reduce tasks of a split (skewed) reduce partition.
+     */
+    <K, V> ShuffleReader<K, V> getReader(ShuffleHandle handle,
+                                         int startMapIndex,
+                                         int endMapIndex,
+                                         int startPartition,
+                                         int endPartition,
+                                         TaskContext context);
+
     /**
      * Remove a shuffle's metadata from the ShuffleManager.
      * @return true if the metadata removed successfully, otherwise false.
@@ -1,38 +1,230 @@
 package com.sdu.spark.shuffle.sort;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Closeables;
+import com.sdu.spark.Partitioner;
+import com.sdu.spark.ShuffleDependency;
+import com.sdu.spark.SparkException;
 import com.sdu.spark.TaskContext;
+import com.sdu.spark.executor.ShuffleWriteMetrics;
 import com.sdu.spark.rpc.SparkConf;
 import com.sdu.spark.scheduler.MapStatus;
+import com.sdu.spark.serializer.Serializer;
+import com.sdu.spark.serializer.SerializerInstance;
 import com.sdu.spark.shuffle.BypassMergeSortShuffleHandle;
 import com.sdu.spark.shuffle.IndexShuffleBlockResolver;
 import com.sdu.spark.shuffle.ShuffleWriter;
+import com.sdu.spark.storage.BlockId.TempShuffleBlockId;
 import com.sdu.spark.storage.BlockManager;
+import com.sdu.spark.storage.DiskBlockObjectWriter;
+import com.sdu.spark.storage.FileSegment;
 import com.sdu.spark.utils.TIterator;
+import com.sdu.spark.utils.Utils;
 import com.sdu.spark.utils.scala.Product2;
+import com.sdu.spark.utils.scala.Tuple2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 /**
+ * {@link BypassMergeSortShuffleWriter}适用于分区数较少(不超过spark.shuffle.sort.bypassMergeThreshold)且无Map端
+ *
+ * 聚合的Shuffle, 写流程:
+ *
+ * 1: 每个Reduce分区对应一个{@link DiskBlockObjectWriter}, 记录按分区直接序列化写入对应的临时文件
+ *
+ * 2: 按分区顺序将临时文件拼接成一个数据文件, 开启spark.file.transferTo时使用{@link java.nio.channels.FileChannel#transferTo}
+ *
+ *    零拷贝拼接. 每个分区文件均是独立的压缩/加密流, Reduce端按分区段读取, 故字节级拼接不受压缩算法及加密限制
+ *
+ * 3: {@link IndexShuffleBlockResolver#writeIndexFileAndCommit(int, int, long[], File)}写索引文件并提交数据文件
+ *
+ * 该写方式不缓存记录也不排序, 但同时打开numPartitions个文件, 故仅适用于分区数较少的场景
+ *
  * @author hanhan.zhang
  * */
 public class BypassMergeSortShuffleWriter<K, V> implements ShuffleWriter<K, V> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(BypassMergeSortShuffleWriter.class);
+
+    private final int fileBufferSize;
+    private final boolean transferToEnabled;
+    private final int numPartitions;
+    private final BlockManager blockManager;
+    private final Partitioner partitioner;
+    private final ShuffleWriteMetrics writeMetrics;
+    private final int shuffleId;
+    private final int mapId;
+    private final Serializer serializer;
+    private final IndexShuffleBlockResolver shuffleBlockResolver;
+
+    /** Array of file writers, one for each partition */
+    private DiskBlockObjectWriter[] partitionWriters;
+    private FileSegment[] partitionWriterSegments;
+    private MapStatus mapStatus;
+    private long[] partitionLengths;
+
+    /**
+     * Are we in the process of stopping? Because map tasks can call stop() with success = true
+     * and then call stop() with success = false if they get an exception, we want to make sure
+     * we don't try deleting files, etc twice.
+     */
+    private boolean stopping = false;
+
     public BypassMergeSortShuffleWriter(BlockManager blockManager,
                                         IndexShuffleBlockResolver shuffleBlockResolver,
                                         BypassMergeSortShuffleHandle<K, V> handle,
                                         int mapId,
                                         TaskContext taskContext,
                                         SparkConf conf) {
-
+        // Use getSizeAsKb (not bytes) to maintain backwards compatibility if no units are provided
+        this.fileBufferSize = (int) conf.getSizeAsKb("spark.shuffle.file.buffer", "32k") * 1024;
+        this.transferToEnabled = conf.getBoolean("spark.file.transferTo", true);
+        this.blockManager = blockManager;
+        final ShuffleDependency<K, V, V> dep = handle.shuffleDep();
+        this.mapId = mapId;
+        this.shuffleId = dep.shuffleId();
+        this.partitioner = dep.partitioner;
+        this.numPartitions = partitioner.numPartitions();
+        this.writeMetrics = taskContext.taskMetrics().shuffleWriteMetrics();
+        this.serializer = dep.serializer;
+        this.shuffleBlockResolver = shuffleBlockResolver;
     }
 
     @Override
     public void write(TIterator<Product2<K, V>> records) {
+        assert (partitionWriters == null);
+        try {
+            if (!records.hasNext()) {
+                partitionLengths = new long[numPartitions];
+                shuffleBlockResolver.writeIndexFileAndCommit(shuffleId, mapId, partitionLengths, null);
+                mapStatus = MapStatus.apply(blockManager.shuffleServerId, partitionLengths);
+                return;
+            }
+            final SerializerInstance serInstance = serializer.newInstance();
+            final long openStartTime = System.nanoTime();
+            partitionWriters = new DiskBlockObjectWriter[numPartitions];
+            partitionWriterSegments = new FileSegment[numPartitions];
+            for (int i = 0; i < numPartitions; i++) {
+                final Tuple2<TempShuffleBlockId, File> tempShuffleBlockIdPlusFile =
+                        blockManager.diskBlockManager.createTempShuffleBlock();
+                final File file = tempShuffleBlockIdPlusFile._2();
+                final TempShuffleBlockId blockId = tempShuffleBlockIdPlusFile._1();
+                partitionWriters[i] = blockManager.getDiskWriter(blockId, file, serInstance, fileBufferSize, writeMetrics);
+            }
+            // Creating the file to write to and creating a disk writer both involve interacting with
+            // the disk, and can take a long time in aggregate when we open many files, so should be
+            // included in the shuffle write time.
+            writeMetrics.incWriteTime(System.nanoTime() - openStartTime);
+
+            while (records.hasNext()) {
+                final Product2<K, V> record = records.next();
+                final K key = record._1();
+                partitionWriters[partitioner.getPartition(key)].write(key, record._2());
+            }
+
+            for (int i = 0; i < numPartitions; i++) {
+                final DiskBlockObjectWriter writer = partitionWriters[i];
+                partitionWriterSegments[i] = writer.commitAndGet();
+                writer.close();
+            }
+
+            File output = shuffleBlockResolver.getDataFile(shuffleId, mapId);
+            File tmp = Utils.tempFileWith(output);
+            try {
+                partitionLengths = writePartitionedFile(tmp);
+                shuffleBlockResolver.writeIndexFileAndCommit(shuffleId, mapId, partitionLengths, tmp);
+            } finally {
+                if (tmp.exists() && !tmp.delete()) {
+                    LOGGER.error("Error while deleting temp file {}", tmp.getAbsolutePath());
+                }
+            }
+            mapStatus = MapStatus.apply(blockManager.shuffleServerId, partitionLengths);
+        } catch (IOException e) {
+            throw new SparkException(String.format("Shuffle %d map %d write failure", shuffleId, mapId), e);
+        }
+    }
+
+    @VisibleForTesting
+    long[] getPartitionLengths() {
+        return partitionLengths;
+    }
+
+    /**
+     * Concatenate all of the per-partition files into a single combined file.
+     *
+     * @return array of lengths, in bytes, of each partition of the file (used by map output tracker).
+     */
+    private long[] writePartitionedFile(File outputFile) throws IOException {
+        // Track location of the partition starts in the output file
+        final long[] lengths = new long[numPartitions];
+        if (partitionWriters == null) {
+            // We were passed an empty iterator
+            return lengths;
+        }
 
+        // append模式打开, 规避部分内核版本transferTo后position不更新问题(SPARK-3948)
+        final FileOutputStream out = new FileOutputStream(outputFile, true);
+        final long writeStartTime = System.nanoTime();
+        boolean threwException = true;
+        try {
+            for (int i = 0; i < numPartitions; i++) {
+                final File file = partitionWriterSegments[i].file;
+                if (file.exists()) {
+                    final FileInputStream in = new FileInputStream(file);
+                    boolean copyThrewException = true;
+                    try {
+                        lengths[i] = Utils.copyStream(in, out, false, transferToEnabled);
+                        copyThrewException = false;
+                    } finally {
+                        Closeables.close(in, copyThrewException);
+                    }
+                    if (!file.delete()) {
+                        LOGGER.error("Unable to delete file for partition {}", i);
+                    }
+                }
+            }
+            threwException = false;
+        } finally {
+            Closeables.close(out, threwException);
+            writeMetrics.incWriteTime(System.nanoTime() - writeStartTime);
+        }
+        partitionWriters = null;
+        return lengths;
     }
 
     @Override
     public MapStatus stop(boolean success) {
-        return null;
+        if (stopping) {
+            return null;
+        } else {
+            stopping = true;
+            if (success) {
+                if (mapStatus == null) {
+                    throw new IllegalStateException("Cannot call stop(true) without having called write()");
+                }
+                return mapStatus;
+            } else {
+                // The map task failed, so delete our output data.
+                if (partitionWriters != null) {
+                    try {
+                        for (DiskBlockObjectWriter writer : partitionWriters) {
+                            // This method explicitly does _not_ throw exceptions:
+                            File file = writer.revertPartialWritesAndClose();
+                            if (!file.delete()) {
+                                LOGGER.error("Error while deleting file {}", file.getAbsolutePath());
+                            }
+                        }
+                    } finally {
+                        partitionWriters = null;
+                    }
+                }
+                return null;
+            }
+        }
     }
 }
@@ -0,0 +1,77 @@
+package com.sdu.spark.shuffle.sort;
+
+import com.sdu.spark.SparkException;
+import com.sdu.spark.serializer.DeserializationStream;
+import com.sdu.spark.serializer.SerializationStream;
+import com.sdu.spark.serializer.SerializerInstance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Unfortunately, we need a serializer instance in order to construct a DiskBlockObjectWriter.
+ * Our shuffle write path doesn't actually use this serializer (since we end up calling the
+ * `write() OutputStream methods), but DiskBlockObjectWriter still calls some methods on it. To work
+ * around this, we pass a dummy no-op serializer.
+ *
+ * @author hanhan.zhang
+ * */
+final class DummySerializerInstance implements SerializerInstance {
+
+    static final DummySerializerInstance INSTANCE = new DummySerializerInstance();
+
+    private DummySerializerInstance() {}
+
+    @Override
+    public SerializationStream serializeStream(OutputStream s) {
+        return new SerializationStream() {
+            @Override
+            public <T> SerializationStream writeObject(T object) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void flush() {
+                // Need to implement this because DiskObjectWriter uses it to flush the compression stream
+                try {
+                    s.flush();
+                } catch (IOException e) {
+                    throw new SparkException(e);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                // Need to implement this because DiskObjectWriter uses it to close the compression stream
+                s.close();
+            }
+        };
+    }
+
+    @Override
+    public <T> ByteBuffer serialize(T object) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DeserializationStream deserializeStream(InputStream is) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DeserializationStream deserializeStream(InputStream is, ClassLoader loader) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer buf) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuffer buf, ClassLoader loader) {
+        throw new UnsupportedOperationException();
+    }
+}
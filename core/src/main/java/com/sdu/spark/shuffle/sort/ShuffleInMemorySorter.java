@@ -0,0 +1,191 @@
+package com.sdu.spark.shuffle.sort;
+
+import com.sdu.spark.memory.MemoryConsumer;
+import com.sdu.spark.unfase.Platform;
+import com.sdu.spark.unfase.array.LongArray;
+import com.sdu.spark.unfase.memory.MemoryBlock;
+import com.sdu.spark.utils.colleciton.RadixSort;
+import com.sdu.spark.utils.colleciton.Sorter;
+
+import java.util.Comparator;
+
+/**
+ * {@link ShuffleInMemorySorter}维护记录指针数组(每个元素为{@link PackedRecordPointer}编码的long), 按分区排序
+ *
+ * 1: 指针数组由{@link MemoryConsumer#allocateArray(long)}申请, 内存受TaskMemoryManager管理
+ *
+ * 2: 默认按分区号(PackedRecordPointer高24位, 即第5~7字节)做{@link RadixSort}, 需与数据等长的临时空间, 故指针数组
+ *
+ *    可用容量为数组长度的1/2; 关闭spark.shuffle.sort.useRadixSort时使用TimSort, 需额外1/2的临时空间, 可用容量为2/3
+ *
+ * @author hanhan.zhang
+ * */
+final class ShuffleInMemorySorter {
+
+    private static final Comparator<PackedRecordPointer> SORT_COMPARATOR =
+            (left, right) -> Integer.compare(left.getPartitionId(), right.getPartitionId());
+
+    private final MemoryConsumer consumer;
+
+    /**
+     * An array of record pointers and partition ids that have been encoded by
+     * {@link PackedRecordPointer}. The sort operates on this array instead of directly manipulating
+     * records.
+     *
+     * Only part of the array will be used to store the pointers, the rest part is preserved as
+     * temporary buffer for sorting.
+     */
+    private LongArray array;
+
+    /**
+     * The position in the pointer array where new records can be inserted.
+     */
+    private int pos = 0;
+
+    /**
+     * How many records could be inserted, because part of the array should be left for sorting.
+     */
+    private int usableCapacity = 0;
+
+    private final int initialSize;
+
+    /**
+     * Whether to use radix sort for sorting in-memory partition ids. Radix sort is much faster
+     * but requires additional memory to be reserved memory as pointers are added.
+     */
+    private final boolean useRadixSort;
+
+    ShuffleInMemorySorter(MemoryConsumer consumer, int initialSize, boolean useRadixSort) {
+        this.consumer = consumer;
+        assert (initialSize > 0);
+        this.initialSize = initialSize;
+        this.useRadixSort = useRadixSort;
+        this.array = consumer.allocateArray(initialSize);
+        this.usableCapacity = getUsableCapacity();
+    }
+
+    private int getUsableCapacity() {
+        // Radix sort requires same amount of used memory as buffer, Tim sort requires
+        // half of the used memory as buffer.
+        return (int) (array.size() / (useRadixSort ? 2 : 1.5));
+    }
+
+    public void free() {
+        if (array != null) {
+            consumer.freeArray(array);
+            array = null;
+        }
+    }
+
+    public int numRecords() {
+        return pos;
+    }
+
+    public void reset() {
+        // Reset `pos` here so that `spill` triggered by the below `allocateArray` will be no-op.
+        pos = 0;
+        if (consumer != null) {
+            consumer.freeArray(array);
+            // As `array` has been released, we should set it to  `null` to avoid accessing it before
+            // `allocateArray` returns. `usableCapacity` is also set to `0` to avoid any codes writing
+            // data to `ShuffleInMemorySorter` when `array` is `null` (e.g., in
+            // ShuffleExternalSorter.growPointerArrayIfNecessary, we may try to access
+            // `ShuffleInMemorySorter` when `allocateArray` throws OutOfMemoryError).
+            array = null;
+            usableCapacity = 0;
+            array = consumer.allocateArray(initialSize);
+            usableCapacity = getUsableCapacity();
+        }
+    }
+
+    public void expandPointerArray(LongArray newArray) {
+        assert (newArray.size() > array.size());
+        MemoryBlock src = array.memoryBlock();
+        MemoryBlock dst = newArray.memoryBlock();
+        Platform.copyMemory(
+                src.getBaseObject(),
+                src.getBaseOffset(),
+                dst.getBaseObject(),
+                dst.getBaseOffset(),
+                pos * 8L
+        );
+        consumer.freeArray(array);
+        array = newArray;
+        usableCapacity = getUsableCapacity();
+    }
+
+    public boolean hasSpaceForAnotherRecord() {
+        return pos < usableCapacity;
+    }
+
+    public long getMemoryUsage() {
+        return array.size() * 8;
+    }
+
+    /**
+     * Inserts a record to be sorted.
+     *
+     * @param recordPointer a pointer to the record, encoded by the task memory manager. Due to
+     *                      certain pointer compression techniques used by the sorter, the sort can
+     *                      only operate on pointers that point to locations in the first
+     *                      {@link PackedRecordPointer#MAXIMUM_PAGE_SIZE_BYTES} bytes of a data page.
+     * @param partitionId the partition id, which must be less than or equal to
+     *                    {@link PackedRecordPointer#MAXIMUM_PARTITION_ID}.
+     */
+    public void insertRecord(long recordPointer, int partitionId) {
+        if (!hasSpaceForAnotherRecord()) {
+            throw new IllegalStateException("There is no space for new record");
+        }
+        array.set(pos, PackedRecordPointer.packPointer(recordPointer, partitionId));
+        pos++;
+    }
+
+    /**
+     * An iterator-like class that's used instead of Java's Iterator in order to facilitate inlining.
+     */
+    public static final class ShuffleSorterIterator {
+
+        private final LongArray pointerArray;
+        private final int limit;
+        final PackedRecordPointer packedRecordPointer = new PackedRecordPointer();
+        private int position = 0;
+
+        ShuffleSorterIterator(int numRecords, LongArray pointerArray, int startingPosition) {
+            this.limit = numRecords + startingPosition;
+            this.pointerArray = pointerArray;
+            this.position = startingPosition;
+        }
+
+        public boolean hasNext() {
+            return position < limit;
+        }
+
+        public void loadNext() {
+            packedRecordPointer.set(pointerArray.get(position));
+            position++;
+        }
+    }
+
+    /**
+     * Return an iterator over record pointers in sorted order.
+     */
+    public ShuffleSorterIterator getSortedIterator() {
+        int offset = 0;
+        if (useRadixSort) {
+            // 分区号位于PackedRecordPointer第5~7字节, 分区数较少时高位字节取值相同而被跳过
+            offset = RadixSort.sort(
+                    array, pos,
+                    PackedRecordPointer.PARTITION_ID_START_BYTE_INDEX,
+                    PackedRecordPointer.PARTITION_ID_END_BYTE_INDEX, false, false);
+            return new ShuffleSorterIterator(pos, array, offset);
+        }
+        // 指针数组[pos, size)作为TimSort临时空间
+        LongArray buffer = new LongArray(new MemoryBlock(
+                array.getBaseObject(),
+                array.getBaseOffset() + pos * 8L,
+                (array.size() - pos) * 8L));
+        Sorter<PackedRecordPointer, LongArray> sorter = new Sorter<>(new ShuffleSortDataFormat(buffer));
+        sorter.sort(array, 0, pos, SORT_COMPARATOR);
+        return new ShuffleSorterIterator(pos, array, offset);
+    }
+}
@@ -0,0 +1,68 @@
+package com.sdu.spark.shuffle.sort;
+
+import com.sdu.spark.unfase.Platform;
+import com.sdu.spark.unfase.array.LongArray;
+import com.sdu.spark.utils.colleciton.SortDataFormat;
+
+/**
+ * {@link ShuffleSortDataFormat}描述{@link LongArray}中PackedRecordPointer排序格式
+ *
+ * Note: TimSort合并时所需的临时空间复用指针数组尚未使用部分({@link #buffer}), 不额外申请内存
+ *
+ * @author hanhan.zhang
+ * */
+final class ShuffleSortDataFormat extends SortDataFormat<PackedRecordPointer, LongArray> {
+
+    private final LongArray buffer;
+
+    ShuffleSortDataFormat(LongArray buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public PackedRecordPointer getKey(LongArray data, int pos) {
+        // Since we re-use keys, this method shouldn't be called.
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PackedRecordPointer newKey() {
+        return new PackedRecordPointer();
+    }
+
+    @Override
+    public PackedRecordPointer getKey(LongArray data, int pos, PackedRecordPointer reuse) {
+        reuse.set(data.get(pos));
+        return reuse;
+    }
+
+    @Override
+    public void swap(LongArray data, int pos0, int pos1) {
+        final long temp = data.get(pos0);
+        data.set(pos0, data.get(pos1));
+        data.set(pos1, temp);
+    }
+
+    @Override
+    public void copyElement(LongArray src, int srcPos, LongArray dst, int dstPos) {
+        dst.set(dstPos, src.get(srcPos));
+    }
+
+    @Override
+    public void copyRange(LongArray src, int srcPos, LongArray dst, int dstPos, int length) {
+        Platform.copyMemory(
+                src.getBaseObject(),
+                src.getBaseOffset() + srcPos * 8L,
+                dst.getBaseObject(),
+                dst.getBaseOffset() + dstPos * 8L,
+                length * 8L
+        );
+    }
+
+    @Override
+    public LongArray allocate(int length) {
+        assert length <= buffer.size() :
+                "the buffer is smaller than required: " + buffer.size() + " < " + length;
+        return buffer;
+    }
+}
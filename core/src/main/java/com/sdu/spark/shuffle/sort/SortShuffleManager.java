@@ -32,7 +32,7 @@ public class SortShuffleManager implements ShuffleManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SortShuffleManager.class);
 
-    private static final int MAX_SHUFFLE_OUTPUT_PARTITIONS_FOR_SERIALIZED_MODE = MAXIMUM_PARTITION_ID + 1;
+    static final int MAX_SHUFFLE_OUTPUT_PARTITIONS_FOR_SERIALIZED_MODE = MAXIMUM_PARTITION_ID + 1;
 
     /**
      * A mapping from shuffle ids to the number of mappers producing combinerMerge for those shuffles
@@ -89,6 +89,14 @@ public class SortShuffleManager implements ShuffleManager {
         return new BlockStoreShuffleReader<>((BaseShuffleHandle<K, Object, C>)handle, startPartition, endPartition, context);
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public <K, C> ShuffleReader<K, C> getReader(ShuffleHandle handle, int startMapIndex, int endMapIndex,
+                                                int startPartition, int endPartition, TaskContext context) {
+        return new BlockStoreShuffleReader<>((BaseShuffleHandle<K, Object, C>)handle, startMapIndex, endMapIndex,
+                                             startPartition, endPartition, context);
+    }
+
     @Override
     public boolean unregisterShuffle(int shuffleId) {
         int numMaps = numMapsForShuffle.remove(shuffleId);
@@ -64,7 +64,7 @@ public class SortShuffleWriter<K, V, C> implements ShuffleWriter<K, V>{
     @Override
     public void write(TIterator<Product2<K, V>> records) {
         if (dep.mapSideCombine) {
-            sorter = new ExternalSorter<>(context, dep.aggregator, dep.partitioner, dep.keyOrdering, dep.serializer);
+            sorter = new ExternalSorter<>(context, dep.aggregator, dep.partitioner, dep.keyOrdering, dep.serializer, dep.keyClass);
         } else {
             sorter = new ExternalSorter<>(context, null, dep.partitioner, dep.keyOrdering, dep.serializer);
         }
@@ -0,0 +1,24 @@
+package com.sdu.spark.shuffle.sort;
+
+import com.sdu.spark.storage.BlockId.TempShuffleBlockId;
+
+import java.io.File;
+
+/**
+ * Metadata for a block of data written by {@link ShuffleExternalSorter}.
+ *
+ * @author hanhan.zhang
+ * */
+final class SpillInfo {
+
+    // 每个分区在Spill文件中的数据长度
+    final long[] partitionLengths;
+    final File file;
+    final TempShuffleBlockId blockId;
+
+    SpillInfo(int numPartitions, File file, TempShuffleBlockId blockId) {
+        this.partitionLengths = new long[numPartitions];
+        this.file = file;
+        this.blockId = blockId;
+    }
+}
@@ -21,6 +21,7 @@ import com.sdu.spark.rpc.SparkConf;
 import com.sdu.spark.serializer.SerializerInstance;
 import com.sdu.spark.serializer.SerializerManager;
 import com.sdu.spark.shuffle.ShuffleManager;
+import com.sdu.spark.storage.BlockId.ShuffleBlockId;
 import com.sdu.spark.storage.BlockData.Allocator;
 import com.sdu.spark.storage.BlockData.ByteBufferBlockData;
 import com.sdu.spark.storage.memory.BlockEvictionHandler;
@@ -271,7 +272,7 @@ public class BlockManager implements BlockDataManager, BlockEvictionHandler {
     @Override
     public ManagedBuffer getBlockData(BlockId blockId) {
         if (blockId.isShuffle()) {
-            // TODO: Shuffle Manager负责Block数据请求
+            return shuffleManager.shuffleBlockResolver().getBlockData((ShuffleBlockId) blockId);
         } else {
             BlockData data = getLocalBytes(blockId);
             if (data != null) {
@@ -285,6 +286,11 @@ public class BlockManager implements BlockDataManager, BlockEvictionHandler {
         throw new BlockNotFoundException(blockId.toString());
     }
 
+    @Override
+    public List<ManagedBuffer> getContinuousBlocksData(ShuffleBlockId startBlockId, int numBlocks) {
+        return shuffleManager.shuffleBlockResolver().getContinuousBlocksData(startBlockId, numBlocks);
+    }
+
     @Override
     public boolean putBlockData(BlockId blockId, ManagedBuffer data, StorageLevel level) {
         return false;
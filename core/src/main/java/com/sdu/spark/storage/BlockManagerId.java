@@ -47,7 +47,9 @@ public class BlockManagerId implements Externalizable {
         out.writeUTF(host);
         out.writeInt(port);
         out.writeBoolean(topologyInfo != null);
-        out.writeUTF(topologyInfo);
+        if (topologyInfo != null) {
+            out.writeUTF(topologyInfo);
+        }
     }
 
     @Override
@@ -81,6 +81,12 @@ public class BlockManagerMasterEndpoint extends ThreadSafeRpcEndpoint {
         this.proactivelyReplicate = conf.getBoolean("spark.storage.replication.proactive", false);
     }
 
+    @Override
+    public ExecutionMode executionMode() {
+        // 删除Block等操作需向各BlockManager扇出请求, 独占线程避免阻塞调度相关RpcEndpoint
+        return ExecutionMode.DEDICATED;
+    }
+
     @Override
     public void receiveAndReply(Object msg, RpcCallContext context) {
         if (msg instanceof RegisterBlockManager) {
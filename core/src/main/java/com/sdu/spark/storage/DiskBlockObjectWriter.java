@@ -105,15 +105,18 @@ public class DiskBlockObjectWriter extends OutputStream {
                 streamOpen = false;
 
                 if (syncWrites) {
+                    long start = System.nanoTime();
                     fos.getFD().sync();
-                    // TODO: Shuffle Metric
+                    writeMetrics.incWriteTime(System.nanoTime() - start);
                 }
 
                 long pos = channel.position();
                 FileSegment segment = new FileSegment(file, committedPosition, pos - committedPosition);
                 committedPosition = pos;
-                // TODO: Shuffle Metric
+                // In certain compression codecs, more bytes are written after streams are closed
+                writeMetrics.incBytesWritten(committedPosition - reportedPosition);
                 reportedPosition = committedPosition;
+                numRecordsWritten = 0;
                 return segment;
             } else {
                 return new FileSegment(file, committedPosition, 0);
@@ -126,7 +129,8 @@ public class DiskBlockObjectWriter extends OutputStream {
     public File revertPartialWritesAndClose() {
         try {
             if (initialized) {
-                // TODO: Shuffle Metric
+                writeMetrics.decBytesWritten(reportedPosition - committedPosition);
+                writeMetrics.decRecordsWritten(numRecordsWritten);
                 streamOpen = true;
                 closeResources();
             }
@@ -145,9 +149,12 @@ public class DiskBlockObjectWriter extends OutputStream {
         return file;
     }
 
-    private void recordWritten() throws IOException {
+    /**
+     * Notify the writer that a record worth of bytes has been written with {@link #write(byte[], int, int)}.
+     */
+    public void recordWritten() throws IOException {
         numRecordsWritten++;
-        // TODO: Shuffle Metric
+        writeMetrics.incRecordsWritten(1);
         if (numRecordsWritten % 16384 == 0) {
             updateBytesWritten();
         }
@@ -155,7 +162,7 @@ public class DiskBlockObjectWriter extends OutputStream {
 
     private void updateBytesWritten() throws IOException {
         long pos = channel.position();
-//        writeMetrics.incBytesWritten(pos - reportedPosition)
+        writeMetrics.incBytesWritten(pos - reportedPosition);
         reportedPosition = pos;
     }
 
@@ -0,0 +1,969 @@
+package com.sdu.spark.unfase.map;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import com.sdu.spark.SparkEnv;
+import com.sdu.spark.SparkException;
+import com.sdu.spark.TaskContext;
+import com.sdu.spark.memory.MemoryConsumer;
+import com.sdu.spark.memory.TaskMemoryManager;
+import com.sdu.spark.storage.DiskBlockManager;
+import com.sdu.spark.unfase.Platform;
+import com.sdu.spark.unfase.array.ByteArrayMethods;
+import com.sdu.spark.unfase.array.LongArray;
+import com.sdu.spark.unfase.hash.Murmur3_x86_32;
+import com.sdu.spark.unfase.memory.MemoryBlock;
+import com.sdu.spark.utils.colleciton.RadixSort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * {@link BytesToBytesMap}是二进制Key/Value的哈希表, 数据存储在{@link TaskMemoryManager}分配的内存页(堆内或堆外),
+ *
+ * 内存占用可精确统计且无对象头开销, 适用于序列化Key的Map端聚合
+ *
+ * 1: 记录存储格式(按8字节对齐):
+ *
+ *    +-------------+---------------+-----+-------+
+ *    | key length  | value length  | key | value |
+ *    +-------------+---------------+-----+-------+
+ *      4 bytes         4 bytes
+ *
+ *    每个内存页以8字节页头(记录数)开始, 保证记录地址编码不为0(0标识空槽)
+ *
+ * 2: 哈希槽为{@link LongArray}, 每个槽占两个long: [记录地址(页号 + 页内偏移), Key哈希值(无符号32位)],
+ *
+ *    开放寻址(三角数步长探测), 负载因子默认0.5, 超过阈值时扩容并重新哈希
+ *
+ * 3: 作为{@link MemoryConsumer}注册到{@link TaskMemoryManager}, {@link #append}申请内存页失败返回false, 调用方应调用
+ *
+ *    {@link #spill()}: 哈希槽压缩后按Key哈希值{@link RadixSort}排序(复用负载因子预留的一半哈希槽空间), 写成有序文件后
+ *
+ *    释放全部内存页; {@link #destructiveSortedIterator()}按哈希值归并所有Spill文件及内存数据, 相同Key的记录在同一
+ *
+ *    哈希值分组内相邻输出, 由调用方完成合并
+ *
+ * 注意: 每个Key仅保存一个Value, 聚合时可直接修改{@link Location#getValueOffset()}处的定长Value
+ *
+ * @author hanhan.zhang
+ * */
+public final class BytesToBytesMap extends MemoryConsumer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BytesToBytesMap.class);
+
+    private static final int HASH_SEED = 42;
+
+    /**
+     * The maximum number of keys that BytesToBytesMap supports. The hash table has to be
+     * power-of-2-sized and its backing Java array can contain at most (1 &lt;&lt; 30) elements,
+     * since that's the largest power-of-2 that's less than Integer.MAX_VALUE. We need two long array
+     * entries per key, giving us a maximum capacity of (1 &lt;&lt; 29).
+     */
+    @VisibleForTesting
+    static final int MAX_CAPACITY = (1 << 29);
+
+    /** 内存页页头(记录数) */
+    private static final int PAGE_HEADER_SIZE = 8;
+
+    /** 记录头(key length + value length) */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final TaskMemoryManager taskMemoryManager;
+
+    private final DiskBlockManager diskBlockManager;
+
+    /**
+     * A linked list for tracking all allocated data pages so that we can free all of our memory.
+     */
+    private final LinkedList<MemoryBlock> dataPages = new LinkedList<>();
+
+    /**
+     * The data page that will be used to store keys and values for new hashtable entries. When this
+     * page becomes full, a new page will be allocated and this pointer will change to point to that
+     * new page.
+     */
+    private MemoryBlock currentPage = null;
+
+    /**
+     * Offset into `currentPage` that points to the location where new data can be inserted into
+     * the page. This does not incorporate the page's base offset.
+     */
+    private long pageCursor = 0;
+
+    /**
+     * A single array to store the key and value.
+     *
+     * Position {@code 2 * i} in the array is used to track a pointer to the key at index {@code i},
+     * while position {@code 2 * i + 1} in the array holds key's full 32-bit hashcode.
+     */
+    private LongArray longArray;
+
+    /**
+     * Whether or not the longArray can grow. We will not insert more elements if it's false.
+     */
+    private boolean canGrowArray = true;
+
+    /**
+     * Whether {@link #acquireNewPage} or {@link #growAndRehash} is requesting memory. A spill
+     * triggered by this map at that moment would reset the data pages and the hash table in the
+     * middle of the insert, so it is refused and the caller sees the allocation failure instead.
+     */
+    private boolean acquiringMemory = false;
+
+    private final double loadFactor;
+
+    private final int initialCapacity;
+
+    /**
+     * The size of the data pages that hold key and value data. Map entries cannot span multiple
+     * pages, so this limits the maximum entry size.
+     */
+    private final long pageSizeBytes;
+
+    /**
+     * Mask for truncating hashcodes so that they do not exceed the long array's size.
+     * This is a strength reduction optimization; we're essentially performing a modulus operation,
+     * but doing so with a bitmask because this is a power-of-2-sized hash map.
+     */
+    private int mask;
+
+    /**
+     * The map will be expanded once the number of keys exceeds this threshold.
+     */
+    private int growthThreshold;
+
+    /**
+     * Number of keys defined in the map.
+     */
+    private int numKeys;
+
+    private long numProbes = 0;
+
+    private long numKeyLookups = 0;
+
+    private long peakMemoryUsedBytes = 0L;
+
+    private final int fileBufferSize;
+
+    private final List<SpilledRun> spills = Lists.newLinkedList();
+
+    private final Location loc;
+
+    public BytesToBytesMap(TaskMemoryManager taskMemoryManager, int initialCapacity, long pageSizeBytes) {
+        this(taskMemoryManager,
+             SparkEnv.env.blockManager.diskBlockManager,
+             initialCapacity,
+             0.5,
+             pageSizeBytes,
+             (int) SparkEnv.env.conf.getSizeAsKb("spark.shuffle.file.buffer", "32k") * 1024);
+    }
+
+    public BytesToBytesMap(TaskMemoryManager taskMemoryManager,
+                           DiskBlockManager diskBlockManager,
+                           int initialCapacity,
+                           double loadFactor,
+                           long pageSizeBytes,
+                           int fileBufferSize) {
+        super(taskMemoryManager, pageSizeBytes, taskMemoryManager.getTungstenMemoryMode());
+        this.taskMemoryManager = taskMemoryManager;
+        this.diskBlockManager = diskBlockManager;
+        this.loadFactor = loadFactor;
+        this.pageSizeBytes = pageSizeBytes;
+        this.fileBufferSize = fileBufferSize;
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Initial capacity must be greater than 0");
+        }
+        if (initialCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Initial capacity " + initialCapacity + " exceeds maximum capacity of " + MAX_CAPACITY);
+        }
+        // 负载因子不超过0.5, 保证哈希槽数组有一半空间可作为基数排序临时空间
+        if (loadFactor <= 0 || loadFactor > 0.5) {
+            throw new IllegalArgumentException("Load factor must be in (0, 0.5], got " + loadFactor);
+        }
+        if (pageSizeBytes > TaskMemoryManager.MAXIMUM_PAGE_SIZE_BYTES) {
+            throw new IllegalArgumentException("Page size " + pageSizeBytes + " cannot exceed " +
+                                               TaskMemoryManager.MAXIMUM_PAGE_SIZE_BYTES);
+        }
+        this.initialCapacity = initialCapacity;
+        this.loc = new Location();
+        allocate(initialCapacity);
+    }
+
+    public int numKeys() {
+        return numKeys;
+    }
+
+    public int numSpills() {
+        return spills.size();
+    }
+
+    /**
+     * Returns the average number of probes per key lookup.
+     */
+    public double getAvgHashProbeBucketListIterations() {
+        return (1.0 * numProbes) / numKeyLookups;
+    }
+
+    /**
+     * Looks up a key, and return a {@link Location} handle that can be used to test existence
+     * and read/write values.
+     *
+     * This function always return the same {@link Location} instance to avoid object allocation.
+     */
+    public Location lookup(Object keyBase, long keyOffset, int keyLength) {
+        safeLookup(keyBase, keyOffset, keyLength, loc,
+                   Murmur3_x86_32.hashUnsafeBytes(keyBase, keyOffset, keyLength, HASH_SEED));
+        return loc;
+    }
+
+    /**
+     * Looks up a key, and saves the result in provided `loc`.
+     *
+     * This is a thread-safe version of `lookup`, could be used by multiple threads.
+     */
+    public void safeLookup(Object keyBase, long keyOffset, int keyLength, Location loc, int hash) {
+        assert (longArray != null);
+
+        numKeyLookups++;
+        int pos = hash & mask;
+        int step = 1;
+        while (true) {
+            numProbes++;
+            if (longArray.get(pos * 2) == 0) {
+                // This is a new key.
+                loc.with(pos, hash, false);
+                return;
+            } else {
+                long stored = longArray.get(pos * 2 + 1);
+                if ((int) stored == hash) {
+                    // Full hash code matches.  Let's compare the keys for equality.
+                    loc.with(pos, hash, true);
+                    if (loc.getKeyLength() == keyLength) {
+                        final boolean areEqual = ByteArrayMethods.arrayEquals(
+                                keyBase,
+                                keyOffset,
+                                loc.getKeyBase(),
+                                loc.getKeyOffset(),
+                                keyLength
+                        );
+                        if (areEqual) {
+                            return;
+                        }
+                    }
+                }
+            }
+            pos = (pos + step) & mask;
+            step++;
+        }
+    }
+
+    /**
+     * Iterates over the map's entries in no particular order. The iterator does not free memory
+     * and must not be used while the map is being modified.
+     */
+    public MapIterator iterator() {
+        return new MapIterator();
+    }
+
+    /**
+     * Returns an iterator over all records (spilled runs and in-memory data) merged in ascending
+     * order of key hash. Records with the same key are emitted within the same hash group, the
+     * caller is responsible for merging them. The in-memory hash table is destroyed, so the map
+     * cannot be used for lookups afterwards; memory is freed by {@link #free()}.
+     */
+    public RecordIterator destructiveSortedIterator() throws IOException {
+        RecordIterator inMemory = sortInMemoryRecords();
+        if (spills.isEmpty()) {
+            return inMemory;
+        }
+        List<RecordIterator> runs = Lists.newArrayListWithCapacity(spills.size() + 1);
+        for (SpilledRun spill : spills) {
+            runs.add(new SpillReader(spill));
+        }
+        runs.add(inMemory);
+        return new MergedRecordIterator(runs);
+    }
+
+    /**
+     * Spill the in-memory records to disk as a run sorted by key hash, and release all data pages.
+     * Only the owner spills this map, because handing out a {@link Location} while another consumer
+     * spills this map would invalidate it. The {@link TaskMemoryManager} also asks this map to spill
+     * itself when one of its own allocations cannot be satisfied; that request is refused while an
+     * insert is acquiring memory, {@link Location#append} then returns false and the caller spills
+     * via {@link #spill()} once the insert has been abandoned.
+     */
+    @Override
+    public long spill(long size, MemoryConsumer trigger) throws IOException {
+        if (trigger != this || numKeys == 0 || acquiringMemory) {
+            return 0L;
+        }
+
+        final long spillSize = getMemoryUsage();
+        final File file = diskBlockManager.createTempLocalBlock()._2();
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), fileBufferSize));
+        final int numRecords = numKeys;
+        byte[] writeBuffer = new byte[1024];
+        boolean threwException = true;
+        try {
+            RecordIterator sorted = sortInMemoryRecords();
+            while (sorted.hasNext()) {
+                sorted.loadNext();
+                int keyLength = sorted.getKeyLength();
+                int valueLength = sorted.getValueLength();
+                int recordLength = keyLength + valueLength;
+                if (writeBuffer.length < recordLength) {
+                    writeBuffer = new byte[Math.max(recordLength, writeBuffer.length * 2)];
+                }
+                Platform.copyMemory(sorted.getKeyBase(), sorted.getKeyOffset(),
+                                    writeBuffer, Platform.BYTE_ARRAY_OFFSET, keyLength);
+                Platform.copyMemory(sorted.getValueBase(), sorted.getValueOffset(),
+                                    writeBuffer, Platform.BYTE_ARRAY_OFFSET + keyLength, valueLength);
+                out.writeInt(sorted.getKeyHash());
+                out.writeInt(keyLength);
+                out.writeInt(valueLength);
+                out.write(writeBuffer, 0, recordLength);
+            }
+            threwException = false;
+        } finally {
+            Closeables.close(out, threwException);
+        }
+        spills.add(new SpilledRun(file, numRecords));
+
+        TaskContext context = TaskContext.get();
+        if (context != null) {
+            context.taskMetrics().incMemoryBytesSpilled(spillSize);
+            context.taskMetrics().incDiskBytesSpilled(file.length());
+        }
+        LOGGER.info("Thread {} spilling BytesToBytesMap of {} records ({} bytes) to disk ({} time{} so far)",
+                    Thread.currentThread().getId(), numRecords, spillSize, spills.size(), spills.size() > 1 ? "s" : "");
+
+        reset();
+        return spillSize - getMemoryUsage();
+    }
+
+    /**
+     * Free all allocated memory associated with this map, including the storage for keys and values
+     * as well as the hash map array itself, and delete all spill files.
+     */
+    public void free() {
+        updatePeakMemoryUsed();
+        if (longArray != null) {
+            freeArray(longArray);
+            longArray = null;
+        }
+        freeDataPages();
+        for (SpilledRun spill : spills) {
+            if (spill.file.exists() && !spill.file.delete()) {
+                LOGGER.error("Was unable to delete spill file {}", spill.file.getAbsolutePath());
+            }
+        }
+        spills.clear();
+    }
+
+    /**
+     * Returns the total amount of memory, in bytes, consumed by this map's managed structures.
+     */
+    public long getTotalMemoryConsumption() {
+        return getMemoryUsage();
+    }
+
+    /**
+     * Return the peak memory used so far, in bytes.
+     */
+    public long getPeakMemoryUsedBytes() {
+        updatePeakMemoryUsed();
+        return peakMemoryUsedBytes;
+    }
+
+    private long getMemoryUsage() {
+        long totalDataPagesSize = 0L;
+        for (MemoryBlock dataPage : dataPages) {
+            totalDataPagesSize += dataPage.size();
+        }
+        return totalDataPagesSize + (longArray != null ? longArray.memoryBlock().size() : 0L);
+    }
+
+    private void updatePeakMemoryUsed() {
+        long mem = getMemoryUsage();
+        if (mem > peakMemoryUsedBytes) {
+            peakMemoryUsedBytes = mem;
+        }
+    }
+
+    private void freeDataPages() {
+        while (!dataPages.isEmpty()) {
+            freePage(dataPages.removeLast());
+        }
+        currentPage = null;
+        pageCursor = 0;
+    }
+
+    /**
+     * Release all data pages and the hash table, then reallocate an empty hash table of the
+     * initial capacity.
+     */
+    private void reset() {
+        updatePeakMemoryUsed();
+        numKeys = 0;
+        canGrowArray = true;
+        freeDataPages();
+        if (longArray != null) {
+            freeArray(longArray);
+            longArray = null;
+        }
+        allocate(initialCapacity);
+    }
+
+    /**
+     * Allocate new data structures for this map. When calling this outside of the constructor,
+     * make sure to keep references to the old data structures so that you can free them.
+     *
+     * @param capacity the new map capacity
+     */
+    private void allocate(int capacity) {
+        assert (capacity >= 0);
+        capacity = Math.max((int) Math.min(MAX_CAPACITY, ByteArrayMethods.nextPowerOf2(capacity)), 64);
+        assert (capacity <= MAX_CAPACITY);
+        longArray = allocateArray(capacity * 2L);
+        longArray.zeroOut();
+
+        this.growthThreshold = (int) (capacity * loadFactor);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Acquire a new page from the memory manager.
+     *
+     * @return whether there is enough space to allocate the new page.
+     */
+    private boolean acquireNewPage(long required) {
+        acquiringMemory = true;
+        try {
+            currentPage = allocatePage(required);
+        } catch (OutOfMemoryError e) {
+            return false;
+        } finally {
+            acquiringMemory = false;
+        }
+        dataPages.add(currentPage);
+        Platform.putInt(currentPage.getBaseObject(), currentPage.getBaseOffset(), 0);
+        pageCursor = PAGE_HEADER_SIZE;
+        return true;
+    }
+
+    /**
+     * Grows the size of the hash table and re-hash everything.
+     */
+    @VisibleForTesting
+    void growAndRehash() {
+        // Store references to the old data structures to be used when we re-hash
+        final LongArray oldLongArray = longArray;
+        final int oldCapacity = (int) oldLongArray.size() / 2;
+
+        // Allocate the new data structures, the old array must survive the allocation
+        acquiringMemory = true;
+        try {
+            allocate(Math.min(growthStrategyNextCapacity(oldCapacity), MAX_CAPACITY));
+        } finally {
+            acquiringMemory = false;
+        }
+
+        // Re-mask (we don't recompute the hashcode because we stored all 32 bits of it)
+        for (int i = 0; i < oldLongArray.size(); i += 2) {
+            final long keyPointer = oldLongArray.get(i);
+            if (keyPointer == 0) {
+                continue;
+            }
+            final int hashcode = (int) oldLongArray.get(i + 1);
+            int newPos = hashcode & mask;
+            int step = 1;
+            while (longArray.get(newPos * 2) != 0) {
+                newPos = (newPos + step) & mask;
+                step++;
+            }
+            longArray.set(newPos * 2, keyPointer);
+            longArray.set(newPos * 2 + 1, oldLongArray.get(i + 1));
+        }
+        freeArray(oldLongArray);
+    }
+
+    private static int growthStrategyNextCapacity(int currentCapacity) {
+        return currentCapacity * 2;
+    }
+
+    /**
+     * 压缩哈希槽(非空槽移至数组头部)后按Key哈希值基数排序, 排序后哈希表不可再查找
+     * */
+    private RecordIterator sortInMemoryRecords() {
+        if (longArray == null) {
+            return new InMemorySortedIterator(0, 0);
+        }
+        int numRecords = 0;
+        for (int i = 0; i < longArray.size(); i += 2) {
+            long keyPointer = longArray.get(i);
+            if (keyPointer != 0) {
+                longArray.set(numRecords * 2, keyPointer);
+                longArray.set(numRecords * 2 + 1, longArray.get(i + 1));
+                numRecords++;
+            }
+        }
+        assert numRecords == numKeys;
+        // Key哈希值以无符号32位存储, 仅需排序低4字节
+        int offset = RadixSort.sortKeyPrefixArray(longArray, 0, numRecords, 0, 3, false, false);
+        // 槽位已被打乱, 禁止继续插入
+        canGrowArray = false;
+        growthThreshold = 0;
+        return new InMemorySortedIterator(offset, numRecords);
+    }
+
+    /**
+     * Handle returned by {@link BytesToBytesMap#lookup(Object, long, int)} function.
+     */
+    public final class Location {
+        /** An index into the hash map's Long array */
+        private int pos;
+        /** True if this location points to a position where a key is defined, false otherwise */
+        private boolean isDefined;
+        /**
+         * The hashcode of the most recent key passed to
+         * {@link BytesToBytesMap#lookup(Object, long, int)}. Caching this hashcode allows us to
+         * avoid re-hashing the key when storing a value for that key.
+         */
+        private int keyHashcode;
+        private Object baseObject;  // the base object for key and value
+        private long keyOffset;
+        private int keyLength;
+        private long valueOffset;
+        private int valueLength;
+
+        private void updateAddressesAndSizes(long fullKeyAddress) {
+            updateAddressesAndSizes(
+                    taskMemoryManager.getPage(fullKeyAddress),
+                    taskMemoryManager.getOffsetInPage(fullKeyAddress));
+        }
+
+        private void updateAddressesAndSizes(final Object base, long offset) {
+            baseObject = base;
+            keyLength = Platform.getInt(base, offset);
+            valueLength = Platform.getInt(base, offset + 4);
+            keyOffset = offset + RECORD_HEADER_SIZE;
+            valueOffset = keyOffset + keyLength;
+        }
+
+        private Location with(int pos, int keyHashcode, boolean isDefined) {
+            assert (longArray != null);
+            this.pos = pos;
+            this.isDefined = isDefined;
+            this.keyHashcode = keyHashcode;
+            if (isDefined) {
+                final long fullKeyAddress = longArray.get(pos * 2);
+                updateAddressesAndSizes(fullKeyAddress);
+            }
+            return this;
+        }
+
+        /**
+         * Returns true if the key is defined at this position, and false otherwise.
+         */
+        public boolean isDefined() {
+            return isDefined;
+        }
+
+        /**
+         * Returns the base object for key.
+         */
+        public Object getKeyBase() {
+            assert (isDefined);
+            return baseObject;
+        }
+
+        /**
+         * Returns the offset for key.
+         */
+        public long getKeyOffset() {
+            assert (isDefined);
+            return keyOffset;
+        }
+
+        /**
+         * Returns the base object for value.
+         */
+        public Object getValueBase() {
+            assert (isDefined);
+            return baseObject;
+        }
+
+        /**
+         * Returns the offset for value.
+         */
+        public long getValueOffset() {
+            assert (isDefined);
+            return valueOffset;
+        }
+
+        /**
+         * Returns the length of the key defined at this position.
+         * Unspecified behavior if the key is not defined.
+         */
+        public int getKeyLength() {
+            assert (isDefined);
+            return keyLength;
+        }
+
+        /**
+         * Returns the length of the value defined at this position.
+         * Unspecified behavior if the key is not defined.
+         */
+        public int getValueLength() {
+            assert (isDefined);
+            return valueLength;
+        }
+
+        /**
+         * Store a new key and value. This method may only be called once for a given key; if you want
+         * to update the value associated with a key, then you can directly manipulate the bytes stored
+         * at the value address.
+         *
+         * After calling this method, calls to `get[Key|Value]Address()` and `get[Key|Value]Length`
+         * will return information on the data stored by this `append` call.
+         *
+         * As an example usage, here's the proper way to store a new key:
+         *
+         * <pre>
+         *   Location loc = map.lookup(keyBase, keyOffset, keyLength);
+         *   if (!loc.isDefined()) {
+         *     if (!loc.append(keyBase, keyOffset, keyLength, ...)) {
+         *       // handle failure to grow map (by spilling, for example)
+         *     }
+         *   }
+         * </pre>
+         *
+         * Unspecified behavior if the key is already defined.
+         *
+         * @return true if the put() was successful and false if the put() failed because memory could
+         *         not be acquired.
+         */
+        public boolean append(Object kbase, long koff, int klen, Object vbase, long voff, int vlen) {
+            assert (!isDefined) : "Can only set value once for a key";
+            // The map could not grow (no enough memory or reach MAX_CAPACITY), then we don't insert
+            // more keys once hit the `growthThreshold`, half of the slots are kept for sorting when spill.
+            if (numKeys >= growthThreshold && (!canGrowArray || longArray.size() / 2 >= MAX_CAPACITY)) {
+                return false;
+            }
+
+            // Here, we'll copy the data into our data pages. Because we only store a relative offset from
+            // the key address instead of storing the absolute address of the value, the key and value
+            // must be stored in the same memory page.
+            // (8 byte key length + value length) (key) (value)
+            final long recordLength = RECORD_HEADER_SIZE + ByteArrayMethods.roundNumberOfBytesToNearestWord(klen + vlen);
+            if (currentPage == null || currentPage.size() - pageCursor < recordLength) {
+                if (!acquireNewPage(recordLength + PAGE_HEADER_SIZE)) {
+                    return false;
+                }
+            }
+
+            // --- Append the key and value data to the current data page --------------------------------
+            final Object base = currentPage.getBaseObject();
+            long offset = currentPage.getBaseOffset() + pageCursor;
+            final long recordOffset = offset;
+            Platform.putInt(base, offset, klen);
+            Platform.putInt(base, offset + 4, vlen);
+            offset += RECORD_HEADER_SIZE;
+            Platform.copyMemory(kbase, koff, base, offset, klen);
+            Platform.copyMemory(vbase, voff, base, offset + klen, vlen);
+
+            // --- Update bookkeeping data structures ----------------------------------------------------
+            final long pageBase = currentPage.getBaseOffset();
+            Platform.putInt(base, pageBase, Platform.getInt(base, pageBase) + 1);
+            pageCursor += recordLength;
+            final long storedKeyAddress = taskMemoryManager.encodePageNumberAndOffset(currentPage, recordOffset);
+            longArray.set(pos * 2, storedKeyAddress);
+            longArray.set(pos * 2 + 1, keyHashcode & 0xFFFFFFFFL);
+            updateAddressesAndSizes(storedKeyAddress);
+            numKeys++;
+            isDefined = true;
+
+            if (numKeys >= growthThreshold && longArray.size() / 2 < MAX_CAPACITY) {
+                try {
+                    growAndRehash();
+                } catch (OutOfMemoryError oom) {
+                    canGrowArray = false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Iterates the in-memory hash table slots in no particular order.
+     */
+    public final class MapIterator {
+
+        private int slot = 0;
+        private int numRecordsRemaining = numKeys;
+
+        public boolean hasNext() {
+            return numRecordsRemaining > 0;
+        }
+
+        public Location next() {
+            while (longArray.get(slot * 2) == 0) {
+                slot++;
+            }
+            loc.with(slot, (int) longArray.get(slot * 2 + 1), true);
+            slot++;
+            numRecordsRemaining--;
+            return loc;
+        }
+    }
+
+    /**
+     * An iterator-like class over records sorted by key hash, used instead of Java's Iterator in
+     * order to avoid object allocation per record.
+     */
+    public abstract static class RecordIterator {
+
+        public abstract boolean hasNext();
+
+        public abstract void loadNext() throws IOException;
+
+        /** Unsigned 32-bit key hash of the current record (stored as int) */
+        public abstract int getKeyHash();
+
+        public abstract Object getKeyBase();
+
+        public abstract long getKeyOffset();
+
+        public abstract int getKeyLength();
+
+        public abstract Object getValueBase();
+
+        public abstract long getValueOffset();
+
+        public abstract int getValueLength();
+    }
+
+    private final class InMemorySortedIterator extends RecordIterator {
+
+        private final int offset;
+        private final int numRecords;
+        private int position = 0;
+        private int keyHash;
+
+        InMemorySortedIterator(int offset, int numRecords) {
+            this.offset = offset;
+            this.numRecords = numRecords;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < numRecords;
+        }
+
+        @Override
+        public void loadNext() {
+            long fullKeyAddress = longArray.get(offset + position * 2);
+            keyHash = (int) longArray.get(offset + position * 2 + 1);
+            loc.updateAddressesAndSizes(fullKeyAddress);
+            position++;
+        }
+
+        @Override
+        public int getKeyHash() {
+            return keyHash;
+        }
+
+        @Override
+        public Object getKeyBase() {
+            return loc.baseObject;
+        }
+
+        @Override
+        public long getKeyOffset() {
+            return loc.keyOffset;
+        }
+
+        @Override
+        public int getKeyLength() {
+            return loc.keyLength;
+        }
+
+        @Override
+        public Object getValueBase() {
+            return loc.baseObject;
+        }
+
+        @Override
+        public long getValueOffset() {
+            return loc.valueOffset;
+        }
+
+        @Override
+        public int getValueLength() {
+            return loc.valueLength;
+        }
+    }
+
+    private static final class SpilledRun {
+        final File file;
+        final int numRecords;
+
+        SpilledRun(File file, int numRecords) {
+            this.file = file;
+            this.numRecords = numRecords;
+        }
+    }
+
+    /**
+     * Reads a run written by {@link #spill(long, MemoryConsumer)}: [hash][key length][value length][key][value]...
+     */
+    private final class SpillReader extends RecordIterator {
+
+        private final DataInputStream in;
+        private int numRecordsRemaining;
+        private byte[] buffer = new byte[1024];
+        private int keyHash;
+        private int keyLength;
+        private int valueLength;
+
+        SpillReader(SpilledRun spill) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(spill.file), fileBufferSize));
+            this.numRecordsRemaining = spill.numRecords;
+            if (numRecordsRemaining == 0) {
+                in.close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return numRecordsRemaining > 0;
+        }
+
+        @Override
+        public void loadNext() throws IOException {
+            keyHash = in.readInt();
+            keyLength = in.readInt();
+            valueLength = in.readInt();
+            int recordLength = keyLength + valueLength;
+            if (buffer.length < recordLength) {
+                buffer = new byte[Math.max(recordLength, buffer.length * 2)];
+            }
+            in.readFully(buffer, 0, recordLength);
+            numRecordsRemaining--;
+            if (numRecordsRemaining == 0) {
+                in.close();
+            }
+        }
+
+        @Override
+        public int getKeyHash() {
+            return keyHash;
+        }
+
+        @Override
+        public Object getKeyBase() {
+            return buffer;
+        }
+
+        @Override
+        public long getKeyOffset() {
+            return Platform.BYTE_ARRAY_OFFSET;
+        }
+
+        @Override
+        public int getKeyLength() {
+            return keyLength;
+        }
+
+        @Override
+        public Object getValueBase() {
+            return buffer;
+        }
+
+        @Override
+        public long getValueOffset() {
+            return Platform.BYTE_ARRAY_OFFSET + keyLength;
+        }
+
+        @Override
+        public int getValueLength() {
+            return valueLength;
+        }
+    }
+
+    /**
+     * K路归并多个按哈希值有序的记录迭代器
+     * */
+    private static final class MergedRecordIterator extends RecordIterator {
+
+        private final PriorityQueue<RecordIterator> priorityQueue;
+        private RecordIterator current;
+
+        MergedRecordIterator(List<RecordIterator> runs) throws IOException {
+            this.priorityQueue = new PriorityQueue<>(Math.max(runs.size(), 1),
+                    (left, right) -> Integer.compareUnsigned(left.getKeyHash(), right.getKeyHash()));
+            for (RecordIterator run : runs) {
+                if (run.hasNext()) {
+                    run.loadNext();
+                    priorityQueue.add(run);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !priorityQueue.isEmpty() || (current != null && current.hasNext());
+        }
+
+        @Override
+        public void loadNext() throws IOException {
+            if (current != null && current.hasNext()) {
+                current.loadNext();
+                priorityQueue.add(current);
+            }
+            current = priorityQueue.remove();
+        }
+
+        @Override
+        public int getKeyHash() {
+            return current.getKeyHash();
+        }
+
+        @Override
+        public Object getKeyBase() {
+            return current.getKeyBase();
+        }
+
+        @Override
+        public long getKeyOffset() {
+            return current.getKeyOffset();
+        }
+
+        @Override
+        public int getKeyLength() {
+            return current.getKeyLength();
+        }
+
+        @Override
+        public Object getValueBase() {
+            return current.getValueBase();
+        }
+
+        @Override
+        public long getValueOffset() {
+            return current.getValueOffset();
+        }
+
+        @Override
+        public int getValueLength() {
+            return current.getValueLength();
+        }
+    }
+}
@@ -16,14 +16,15 @@ public abstract class CompletionIterator<A, I extends Iterator<A>> implements It
 
     public CompletionIterator(I sub) {
         this.sub = sub;
-        completion();
     }
 
     @Override
     public boolean hasNext() {
         boolean r = sub.hasNext();
-        if (!r) {
+        if (!r && !completed) {
+            // 仅在遍历结束时回调一次
             completed = true;
+            completion();
         }
         return r;
     }
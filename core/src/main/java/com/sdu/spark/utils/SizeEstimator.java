@@ -1,20 +1,365 @@
 package com.sdu.spark.utils;
 
-import com.sdu.spark.utils.sizeof.IObjectProfileNode;
-import com.sdu.spark.utils.sizeof.ObjectProfiler;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * 估算Java Object内存占用量
+ * 估算Java Object内存占用量(堆内存), 用于{@link com.sdu.spark.utils.colleciton.SizeTracker}采样集合内存
+ *
+ * 1: JVM对象布局(32/64位, 是否开启压缩指针)仅在初始化时探测一次, 决定对象头及引用字段大小
+ *
+ * 2: 每个Class的浅大小(shallow size, 按字段大小分组对齐)及引用字段列表缓存在{@link #classInfos}中, 避免每次采样反射
+ *
+ * 3: 对象图遍历使用IdentityHashMap判重(处理循环引用)及显式栈, 不构建对象树节点
  *
- * Based on the following JavaWorld article:
- * http://www.javaworld.com/javaworld/javaqa/2003-12/02-qa-1226-sizeof.html
+ * 4: 引用数组长度超过{@link #ARRAY_SIZE_FOR_SAMPLING}时随机采样{@link #ARRAY_SAMPLE_NUM}个元素两次并外推,
+ *
+ *    故估算AppendOnlyMap/PartitionedPairBuffer底层大数组的代价与集合大小无关
+ *
+ * 5: ClassLoader及Class对象为全局共享对象, 不计入
+ *
+ * Based on Spark's SizeEstimator (which is in turn based on the JavaWorld article
+ * http://www.javaworld.com/javaworld/javaqa/2003-12/02-qa-1226-sizeof.html)
  *
  * @author hanhan.zhang
  * */
 public class SizeEstimator {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SizeEstimator.class);
+
+    // Sizes of primitive types
+    private static final int BYTE_SIZE = 1;
+    private static final int BOOLEAN_SIZE = 1;
+    private static final int CHAR_SIZE = 2;
+    private static final int SHORT_SIZE = 2;
+    private static final int INT_SIZE = 4;
+    private static final int LONG_SIZE = 8;
+    private static final int FLOAT_SIZE = 4;
+    private static final int DOUBLE_SIZE = 8;
+
+    /** 字段按大小降序分组排列(HotSpot字段重排规则) */
+    private static final int[] FIELD_SIZES = new int[]{8, 4, 2, 1};
+
+    /** Alignment boundary for objects */
+    private static final int ALIGN_SIZE = 8;
+
+    /** 引用数组超过该长度时采样估算 */
+    private static final int ARRAY_SIZE_FOR_SAMPLING = 400;
+    /** 每次采样元素数 */
+    private static final int ARRAY_SAMPLE_NUM = 100;
+
+    /**
+     * A cache of ClassInfo objects for each class. We use weakKeys to allow class GC.
+     * */
+    private static final ConcurrentMap<Class<?>, ClassInfo> classInfos = new MapMaker().weakKeys().makeMap();
+
+    // Object and pointer sizes are arch dependent
+    private static boolean is64bit = false;
+    // Size of an object reference; Based on https://wikis.oracle.com/display/HotSpotInternals/CompressedOops
+    private static boolean isCompressedOops = false;
+    private static int pointerSize = 4;
+    // Minimum size of a java.lang.Object
+    private static int objectSize = 8;
+
+    static {
+        initialize();
+    }
+
+    private SizeEstimator() {}
+
+    /**
+     * 探测JVM对象布局, 并清空Class缓存(测试时可修改os.arch/spark.test.useCompressedOops后重新调用)
+     * */
+    static void initialize() {
+        String arch = System.getProperty("os.arch");
+        is64bit = arch.contains("64") || arch.contains("s390x");
+        isCompressedOops = getIsCompressedOops();
+
+        objectSize = !is64bit ? 8 : (!isCompressedOops ? 16 : 12);
+        pointerSize = (is64bit && !isCompressedOops) ? 8 : 4;
+
+        classInfos.clear();
+        classInfos.put(Object.class, new ClassInfo(objectSize, Collections.emptyList()));
+    }
+
+    private static boolean getIsCompressedOops() {
+        // This is only used by tests to override the detection of compressed oops. The test
+        // actually uses a system property instead of a SparkConf, so we'll stick with that.
+        String override = System.getProperty("spark.test.useCompressedOops");
+        if (override != null) {
+            return Boolean.parseBoolean(override);
+        }
+
+        // java.vm.info provides compressed ref info for IBM JDKs
+        String vmInfo = System.getProperty("java.vm.info", "");
+        if (vmInfo.contains("IBM")) {
+            return vmInfo.contains("Compressed Ref");
+        }
+
+        try {
+            Class<?> beanClazz = Class.forName("com.sun.management.HotSpotDiagnosticMXBean");
+            Object bean = ManagementFactory.newPlatformMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                                                                   "com.sun.management:type=HotSpotDiagnostic",
+                                                                   beanClazz);
+            Method getVMMethod = beanClazz.getMethod("getVMOption", String.class);
+            Object option = getVMMethod.invoke(bean, "UseCompressedOops");
+            String value = (String) option.getClass().getMethod("getValue").invoke(option);
+            return Boolean.parseBoolean(value);
+        } catch (Exception e) {
+            // Guess whether they've enabled UseCompressedOops based on whether maxMemory < 32 GB
+            boolean guess = Runtime.getRuntime().maxMemory() < (32L * 1024 * 1024 * 1024);
+            LOGGER.warn("Failed to check whether UseCompressedOops is set; assuming {}", guess ? "yes" : "not");
+            return guess;
+        }
+    }
+
+    /**
+     * Estimate the number of bytes that the given object takes up on the JVM heap. The estimate
+     * includes space taken up by objects referenced by the given object, their references, and so on
+     * and so forth.
+     * */
     public static long estimate(Object obj) {
-        IObjectProfileNode profile = ObjectProfiler.profile (obj);
-        return profile.size();
+        return estimate(obj, new IdentityHashMap<>());
+    }
+
+    private static long estimate(Object obj, IdentityHashMap<Object, Object> visited) {
+        SearchState state = new SearchState(visited);
+        state.enqueue(obj);
+        while (!state.isFinished()) {
+            visitSingleObject(state.dequeue(), state);
+        }
+        return state.size;
+    }
+
+    private static void visitSingleObject(Object obj, SearchState state) {
+        Class<?> cls = obj.getClass();
+        if (cls.isArray()) {
+            visitArray(obj, cls, state);
+        } else if (obj instanceof ClassLoader || obj instanceof Class) {
+            // Hadoop JobConfs created in the interpreter have a ClassLoader, which greatly confuses
+            // the size estimator since it references the whole REPL. Do nothing in this case. In
+            // general all ClassLoaders and Classes will be shared between objects anyway.
+        } else {
+            ClassInfo classInfo = getClassInfo(cls);
+            state.size += alignSize(classInfo.shallowSize);
+            for (Field field : classInfo.pointerFields) {
+                try {
+                    state.enqueue(field.get(obj));
+                } catch (IllegalAccessException e) {
+                    // setAccessible已调用, 不会发生
+                }
+            }
+        }
+    }
+
+    private static void visitArray(Object array, Class<?> arrayClass, SearchState state) {
+        int length = Array.getLength(array);
+        Class<?> elementClass = arrayClass.getComponentType();
+
+        // Arrays have object header and length field which is an integer
+        long arrSize = alignSize(objectSize + INT_SIZE);
+
+        if (elementClass.isPrimitive()) {
+            arrSize += alignSize((long) length * primitiveSize(elementClass));
+            state.size += arrSize;
+        } else {
+            arrSize += alignSize((long) length * pointerSize);
+            state.size += arrSize;
+
+            Object[] objects = (Object[]) array;
+            if (length <= ARRAY_SIZE_FOR_SAMPLING) {
+                for (Object element : objects) {
+                    state.enqueue(element);
+                }
+            } else {
+                // Estimate the size of a large array by sampling elements without replacement.
+                // To exclude the shared objects that the array elements may link, sample twice
+                // and use the min one to calculate array size.
+                Random rand = new Random(42);
+                Set<Integer> drawn = new HashSet<>(2 * ARRAY_SAMPLE_NUM);
+                long s1 = sampleArray(objects, state, rand, drawn, length);
+                long s2 = sampleArray(objects, state, rand, drawn, length);
+                long size = Math.min(s1, s2);
+                state.size += Math.max(s1, s2) + (size * ((length - ARRAY_SAMPLE_NUM) / ARRAY_SAMPLE_NUM));
+            }
+        }
+    }
+
+    private static long sampleArray(Object[] array, SearchState state, Random rand, Set<Integer> drawn, int length) {
+        long size = 0L;
+        for (int i = 0; i < ARRAY_SAMPLE_NUM; ++i) {
+            int index;
+            do {
+                index = rand.nextInt(length);
+            } while (drawn.contains(index));
+            drawn.add(index);
+            Object element = array[index];
+            if (element != null) {
+                size += estimate(element, state.visited);
+            }
+        }
+        return size;
+    }
+
+    private static int primitiveSize(Class<?> cls) {
+        if (cls == byte.class) {
+            return BYTE_SIZE;
+        } else if (cls == boolean.class) {
+            return BOOLEAN_SIZE;
+        } else if (cls == char.class) {
+            return CHAR_SIZE;
+        } else if (cls == short.class) {
+            return SHORT_SIZE;
+        } else if (cls == int.class) {
+            return INT_SIZE;
+        } else if (cls == long.class) {
+            return LONG_SIZE;
+        } else if (cls == float.class) {
+            return FLOAT_SIZE;
+        } else if (cls == double.class) {
+            return DOUBLE_SIZE;
+        }
+        throw new IllegalArgumentException("Non-primitive class " + cls + " passed to primitiveSize()");
+    }
+
+    /**
+     * Get or compute the ClassInfo for a given class.
+     * */
+    private static ClassInfo getClassInfo(Class<?> cls) {
+        // Check whether we've already cached a ClassInfo for this class
+        ClassInfo info = classInfos.get(cls);
+        if (info != null) {
+            return info;
+        }
+
+        ClassInfo parent = getClassInfo(cls.getSuperclass());
+        long shallowSize = parent.shallowSize;
+        List<Field> pointerFields = Lists.newArrayList(parent.pointerFields);
+        int[] sizeCount = new int[LONG_SIZE + 1];
+
+        // iterate through the fields of this class and gather information.
+        for (Field field : cls.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Class<?> fieldClass = field.getType();
+            if (fieldClass.isPrimitive()) {
+                sizeCount[primitiveSize(fieldClass)] += 1;
+            } else {
+                // Note: in Java 9+ this would be better with trySetAccessible and canAccess
+                try {
+                    field.setAccessible(true); // Enable future get()'s on this field
+                    pointerFields.add(field);
+                } catch (RuntimeException e) {
+                    // 无法访问的字段(如模块封装), 仅计入引用大小
+                }
+                sizeCount[pointerSize] += 1;
+            }
+        }
+
+        // Based on the simulated field layout code in Aleksey Shipilev's report:
+        // http://cr.openjdk.java.net/~shade/papers/2013-shipilev-fieldlayout-latest.pdf
+        // The code is in Figure 9.
+        // The simplified idea of field layout consists of 4 parts (see more details in the report):
+        //
+        // 1. field alignment: HotSpot lays out the fields aligned by their size.
+        // 2. object alignment: HotSpot rounds instance size up to 8 bytes
+        // 3. consistent fields layouts throughout the hierarchy: This means we should layout
+        // superclass first. And we can use superclass's shallowSize as a starting point to layout
+        // the other fields in this class.
+        // 4. class alignment: HotSpot rounds field blocks up to HeapOopSize not 4 bytes, confirmed
+        // with Aleksey. see https://bugs.openjdk.java.net/browse/CODETOOLS-7901322
+        //
+        // The real world field layout is much more complicated. There are three kinds of fields
+        // order in Java 8. And we don't consider the @contended annotation introduced by Java 8.
+        // see the HotSpot classloader code, layout_fields method for more details.
+        // hg.openjdk.java.net/jdk8/jdk8/hotspot/file/tip/src/share/vm/classfile/classFileParser.cpp
+        long alignedSize = shallowSize;
+        for (int size : FIELD_SIZES) {
+            if (sizeCount[size] > 0) {
+                long count = sizeCount[size];
+                // If there are internal gaps, smaller field can fit in.
+                alignedSize = Math.max(alignedSize, alignSizeUp(shallowSize, size) + size * count);
+                shallowSize += size * count;
+            }
+        }
+
+        // Should choose a larger size to be new shallowSize and clearly alignedSize >= shallowSize, so
+        // round up the instance filed blocks
+        shallowSize = alignSizeUp(alignedSize, pointerSize);
+
+        ClassInfo newInfo = new ClassInfo(shallowSize, pointerFields);
+        classInfos.put(cls, newInfo);
+        return newInfo;
+    }
+
+    private static long alignSize(long size) {
+        return alignSizeUp(size, ALIGN_SIZE);
+    }
+
+    /**
+     * Compute aligned size. The alignSize must be 2^n, otherwise the result will be wrong.
+     * When alignSize = 2^n, alignSize - 1 = 2^n - 1. The binary representation of (alignSize - 1)
+     * will only have n trailing 1s(0b00...001..1). ~(alignSize - 1) will be 0b11..110..0. Hence,
+     * (size + alignSize - 1) & ~(alignSize - 1) will set the last n bits to zeros, which leads to
+     * multiple of alignSize.
+     * */
+    private static long alignSizeUp(long size, int alignSize) {
+        return (size + alignSize - 1) & ~(alignSize - 1);
+    }
+
+    /**
+     * Cached information about each class. We remember two things: the "shallow size" of the class
+     * (size of all its fields, which are either primitive or pointers), and the list of pointer
+     * fields that are non-static.
+     * */
+    private static class ClassInfo {
+        final long shallowSize;
+        final List<Field> pointerFields;
+
+        ClassInfo(long shallowSize, List<Field> pointerFields) {
+            this.shallowSize = shallowSize;
+            this.pointerFields = pointerFields;
+        }
+    }
+
+    /**
+     * The state of an ongoing size estimation. Contains a stack of objects to visit as well as an
+     * IdentityHashMap of visited objects, and provides utility methods for enqueueing new objects
+     * to visit.
+     * */
+    private static class SearchState {
+        final IdentityHashMap<Object, Object> visited;
+        final ArrayList<Object> stack = new ArrayList<>();
+        long size = 0L;
+
+        SearchState(IdentityHashMap<Object, Object> visited) {
+            this.visited = visited;
+        }
+
+        void enqueue(Object obj) {
+            if (obj != null && !visited.containsKey(obj)) {
+                visited.put(obj, null);
+                stack.add(obj);
+            }
+        }
+
+        boolean isFinished() {
+            return stack.isEmpty();
+        }
+
+        Object dequeue() {
+            return stack.remove(stack.size() - 1);
+        }
     }
 }
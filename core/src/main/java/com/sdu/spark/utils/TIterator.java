@@ -1,5 +1,7 @@
 package com.sdu.spark.utils;
 
+import com.google.common.collect.Iterators;
+
 import java.io.Serializable;
 import java.util.Iterator;
 
@@ -12,6 +14,31 @@ public abstract class TIterator<T> implements Iterator<T>, Serializable {
 
     public abstract TIterator<T> filter(FilterFunction<T> func);
 
+    /** 将Iterator包装为TIterator, map/filter惰性计算 */
+    public static <T> TIterator<T> wrap(Iterator<T> iterator) {
+        return new TIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public <B> TIterator<B> map(MapFunction<T, B> func) {
+                return wrap(Iterators.transform(iterator, func::map));
+            }
+
+            @Override
+            public TIterator<T> filter(FilterFunction<T> func) {
+                return wrap(Iterators.filter(iterator, func::filter));
+            }
+        };
+    }
+
     public interface MapFunction<A, B> {
         B map(A data);
     }
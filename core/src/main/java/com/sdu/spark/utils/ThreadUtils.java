@@ -31,6 +31,21 @@ public class ThreadUtils {
         return (ThreadPoolExecutor) Executors.newCachedThreadPool(threadFactory);
     }
 
+    public static ThreadPoolExecutor newDaemonSingleThreadExecutor(String threadName) {
+        return newDaemonFixedThreadPool(1, threadName);
+    }
+
+    /**
+     * JVM支持虚拟线程(JDK 21+)时返回每任务一个虚拟线程的ExecutorService, 否则返回null
+     * */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     public static ScheduledExecutorService newDaemonSingleThreadScheduledExecutor(String threadName) {
         ThreadFactory threadFactory = namedThreadFactory(threadName, true);
         ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
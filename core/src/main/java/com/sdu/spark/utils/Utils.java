@@ -203,6 +203,13 @@ public class Utils {
     }
 
     public static long copyStream(InputStream input, OutputStream out, boolean transferToEnabled) throws IOException {
+        return copyStream(input, out, true, transferToEnabled);
+    }
+
+    /**
+     * @param closeStreams 拷贝结束后是否关闭输入/输出流(多个文件拼接到同一输出流时不能关闭输出流)
+     * */
+    public static long copyStream(InputStream input, OutputStream out, boolean closeStreams, boolean transferToEnabled) throws IOException {
         long count = 0;
         try {
             if (input instanceof FileInputStream && out instanceof FileOutputStream && transferToEnabled) {
@@ -222,11 +229,13 @@ public class Utils {
                 }
             }
         } finally {
-            if (input != null) {
-                input.close();
-            }
-            if (out != null) {
-                out.close();
+            if (closeStreams) {
+                if (input != null) {
+                    input.close();
+                }
+                if (out != null) {
+                    out.close();
+                }
             }
         }
         return count;
@@ -244,7 +253,7 @@ public class Utils {
         }
     }
 
-    private static void copyFileStreamNIO(FileChannel input, FileChannel out, int startPosition, long bytesToCopy) throws IOException {
+    public static void copyFileStreamNIO(FileChannel input, FileChannel out, long startPosition, long bytesToCopy) throws IOException {
         long initialPos = out.position();
         long count = 0L;
         while (count < bytesToCopy) {
@@ -45,7 +45,7 @@ import java.util.*;
  *
  * @author hanhan.zhang
  * */
-public class ExternalAppendOnlyMap<K, V, C> extends Spillable<AppendOnlyMap<K, C>> implements Serializable, Iterable<Tuple2<K, C>> {
+public class ExternalAppendOnlyMap<K, V, C> extends Spillable<SizeTrackingPairCollection<K, C>> implements Serializable, Iterable<Tuple2<K, C>> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ExternalAppendOnlyMap.class);
 
@@ -59,7 +59,9 @@ public class ExternalAppendOnlyMap<K, V, C> extends Spillable<AppendOnlyMap<K, C
     private SerializerManager serializerManager;
     private SerializerInstance ser;
 
-    private volatile SizeTrackingAppendOnlyMap<K, C> currentMap;
+    private volatile SizeTrackingPairCollection<K, C> currentMap;
+    /** 声明的Key类型, long/int时使用原始类型Key的内存聚合集合 */
+    private Class<?> keyClass;
     private List<DiskMapIterator> spilledMaps;
     private SparkConf sparkConf;
     private DiskBlockManager diskBlockManager;
@@ -77,6 +79,13 @@ public class ExternalAppendOnlyMap<K, V, C> extends Spillable<AppendOnlyMap<K, C
     public ExternalAppendOnlyMap(CombinerCreator<V, C> initial,
                                  CombinerAdd<V, C> merge,
                                  Aggregator.CombinerMerge<C> output) {
+        this(initial, merge, output, null);
+    }
+
+    public ExternalAppendOnlyMap(CombinerCreator<V, C> initial,
+                                 CombinerAdd<V, C> merge,
+                                 Aggregator.CombinerMerge<C> output,
+                                 Class<?> keyClass) {
         super(TaskContext.get().taskMemoryManager());
 
         this.initial = initial;
@@ -88,7 +97,8 @@ public class ExternalAppendOnlyMap<K, V, C> extends Spillable<AppendOnlyMap<K, C
         this.context = TaskContext.get();
         this.serializerManager = SparkEnv.env.serializerManager;
 
-        this.currentMap = new SizeTrackingAppendOnlyMap<>();
+        this.keyClass = keyClass;
+        this.currentMap = SizeTrackingPairCollection.create(keyClass);
         this.spilledMaps = Lists.newArrayList();
         this.sparkConf = SparkEnv.env.conf;
         this.diskBlockManager = blockManager.diskBlockManager;
@@ -96,7 +106,7 @@ public class ExternalAppendOnlyMap<K, V, C> extends Spillable<AppendOnlyMap<K, C
 
         this.serializerBatchSize = sparkConf.getLong("spark.shuffle.spill.batchSize", 10000);
         this.fileBufferSize = (int) sparkConf.getSizeAsKb("spark.shuffle.file.buffer", "32k") * 1024;
-        this.keyComparator = new HashComparator();
+        this.keyComparator = HashComparator.get();
         this.writeMetrics = new ShuffleWriteMetrics();
     }
 
@@ -129,15 +139,15 @@ public class ExternalAppendOnlyMap<K, V, C> extends Spillable<AppendOnlyMap<K, C
             return true;
         } else if (currentMap.size() > 0) {
             spill(currentMap);
-            currentMap = new SizeTrackingAppendOnlyMap<>();
+            currentMap = SizeTrackingPairCollection.create(keyClass);
             return true;
         }
         return false;
     }
 
     @Override
-    public void spill(AppendOnlyMap<K, C> collection) {
-        Iterator<Tuple2<K, C>> inMemoryIterator = currentMap.destructiveSortedIterator(keyComparator);
+    public void spill(SizeTrackingPairCollection<K, C> collection) {
+        Iterator<Tuple2<K, C>> inMemoryIterator = collection.destructiveSortedIterator(keyComparator);
         DiskMapIterator diskMapIterator = spillMemoryIteratorToDisk(inMemoryIterator);
         spilledMaps.add(diskMapIterator);
     }
@@ -224,7 +234,7 @@ public class ExternalAppendOnlyMap<K, V, C> extends Spillable<AppendOnlyMap<K, C
             }
             if (maybeSpill(currentMap, estimatedSize)) {
                 // currentMap中数据Spill到Disk中
-                currentMap = new SizeTrackingAppendOnlyMap<>();
+                currentMap = SizeTrackingPairCollection.create(keyClass);
             }
             Updater updater = new Updater(curEntry);
             currentMap.changeValue(curEntry._1(), updater);
@@ -486,20 +496,6 @@ public class ExternalAppendOnlyMap<K, V, C> extends Spillable<AppendOnlyMap<K, C
         }
     }
 
-    private class HashComparator implements Comparator<K> {
-
-        private int hash(Object obj) {
-            return obj == null ? 0 : obj.hashCode();
-        }
-
-        @Override
-        public int compare(K o1, K o2) {
-            int hash1 = hash(o1);
-            int hash2 = hash(o2);
-            return hash1 < hash2 ? -1 : hash1 == hash2 ? 0 : 1;
-        }
-    }
-
     private class Updater implements AppendOnlyMap.Updater<C> {
 
         private Product2<K, V> curEntry;
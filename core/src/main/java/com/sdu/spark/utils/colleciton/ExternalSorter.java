@@ -67,7 +67,7 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
     // Merge SpillFile过程中, 分Batch将磁盘数据读入内存
     private long serializerBatchSize;
 
-    private volatile PartitionedAppendOnlyMap<K, C> map;
+    private volatile PartitionedPairMap<K, C> map;
     private volatile PartitionedPairBuffer<K, C> buffer;
 
     private long diskBytesSpilled = 0L;
@@ -81,12 +81,19 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
     private volatile SpillableIterator readingIterator = null;
 
     private Comparator<K> keyComparator;
+    /** 声明的Key类型, long/int时Map端聚合使用{@link PartitionedPrimitiveKeyAppendOnlyMap} */
+    private Class<?> keyClass;
 
     public ExternalSorter(TaskContext context, Aggregator<K, V, C> aggregator, Partitioner partitioner, Comparator<K> ordering) {
         this(context, aggregator, partitioner, ordering, SparkEnv.env.serializer);
     }
 
     public ExternalSorter(TaskContext context, Aggregator<K, V, C> aggregator, Partitioner partitioner, Comparator<K> ordering, Serializer serializer) {
+        this(context, aggregator, partitioner, ordering, serializer, aggregator == null ? null : aggregator.keyClass);
+    }
+
+    public ExternalSorter(TaskContext context, Aggregator<K, V, C> aggregator, Partitioner partitioner, Comparator<K> ordering,
+                          Serializer serializer, Class<?> keyClass) {
         super(context.taskMemoryManager());
         this.context = context;
         this.aggregator = aggregator;
@@ -97,7 +104,8 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
         this.conf = new SparkConf();
 
         this.conf = SparkEnv.env.conf;
-        this.numPartitions = this.partitioner.numPartitions();
+        // Reduce端排序不需要分区(partitioner == null), 全部数据归属分区0
+        this.numPartitions = this.partitioner == null ? 1 : this.partitioner.numPartitions();
         this.shouldPartitions = this.numPartitions > 1;
 
         this.blockManager = SparkEnv.env.blockManager;
@@ -108,18 +116,15 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
         this.fileBufferSize = (int) conf.getSizeAsKb("spark.shuffle.file.buffer", "32K") * 1024;
         this.serializerBatchSize = conf.getLong("spark.shuffle.spill.batchSize", 10000);
 
-        this.map = new PartitionedAppendOnlyMap<>();
+        this.keyClass = keyClass;
+        this.map = PartitionedPairMap.create(keyClass);
         this.buffer = new PartitionedPairBuffer<>();
 
-        this.keyComparator = ordering != null ? ordering : (a, b) -> {
-            int h1 = a == null ? 0 : a.hashCode();
-            int h2 = b == null ? 0 : b.hashCode();
-            return h1 < h2 ? -1 : h1 == h2 ? 0 : 1;
-        };
+        this.keyComparator = ordering != null ? ordering : HashComparator.get();
     }
 
     private Comparator<K> comparator() {
-        return ordering == null || aggregator != null ? keyComparator : null;
+        return ordering != null || aggregator != null ? keyComparator : null;
     }
 
     @SuppressWarnings("unchecked")
@@ -130,11 +135,11 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
                 addElementsRead();
                 Product2<K, V> kv = records.next();
                 int partition = getPartition(kv._1());
-                // PartitionedAppendOnlyMap
-                //  存储KEY: Tuple<Partition, Key>
+                // PartitionedPairMap
+                //  存储KEY: (Partition, Key)
                 //  存储VALUE: Collection
                 // 注意: 按照(Partition, Key)聚合Value
-                map.changeValue(new Tuple2<>(partition, kv._1()), (hadValue, value) -> {
+                map.changeValue(partition, kv._1(), (hadValue, value) -> {
                     if (hadValue) {
                         return aggregator.combinerAdd.mergeValue(kv._2(), value);
                     } else {
@@ -161,7 +166,7 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
         if (usingMap) {
             estimatedSize = map.estimateSize();
             if (maybeSpill(map, estimatedSize)) {
-                map = new PartitionedAppendOnlyMap<>();
+                map = PartitionedPairMap.create(keyClass);
             }
         } else {
             estimatedSize = buffer.estimateSize();
@@ -230,6 +235,14 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
         return lengths;
     }
 
+    public long diskBytesSpilled() {
+        return diskBytesSpilled;
+    }
+
+    public long peakMemoryUsedBytes() {
+        return peakMemoryUsedBytes;
+    }
+
     public void stop() {
         spills.forEach(spilledFile -> spilledFile.file.delete());
         spills.clear();
@@ -412,7 +425,8 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
                                                                           .filter(Iterator::hasNext)
                                                                           .map(BufferedIterator::new)
                                                                           .collect(Collectors.toList());
-        PriorityQueue<BufferedIterator<Tuple2<K, C>>> heap = new PriorityQueue<>((x, y) -> -comparator.compare(x.head()._1(), y.head()._1()));
+        // java.util.PriorityQueue为小顶堆, 堆顶即为当前最小Key
+        PriorityQueue<BufferedIterator<Tuple2<K, C>>> heap = new PriorityQueue<>((x, y) -> comparator.compare(x.head()._1(), y.head()._1()));
         bufferedIterators.forEach(heap::add);
         return new Iterator<Tuple2<K, C>>() {
             @Override
@@ -561,14 +575,8 @@ public class ExternalSorter<K, V, C> extends Spillable<WritablePartitionedPairCo
     /**Return an iterator over all the data written to this object, aggregated by our aggregator.*/
     public Iterator<Tuple2<K, C>> iterator() {
         isShuffleSort = false;
-        Iterator<Tuple2<Integer, Iterator<Tuple2<K, C>>>> partitionedIterator = partitionedIterator();
-        // 相同Key分在同一个分区
-        List<Tuple2<K, C>> kvList = Lists.newLinkedList();
-        while (partitionedIterator.hasNext()) {
-            Iterator<Tuple2<K, C>> partitionData = partitionedIterator.next()._2();
-            Iterators.addAll(kvList, partitionData);
-        }
-        return kvList.iterator();
+        // 按分区顺序惰性拼接(分区迭代器须按序消费), 不再缓存全部数据
+        return Iterators.concat(Iterators.transform(partitionedIterator(), Tuple2::_2));
     }
 
     private class IteratorForPartition implements Iterator<Tuple2<K, C>> {
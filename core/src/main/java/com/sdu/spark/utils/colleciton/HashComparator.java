@@ -0,0 +1,38 @@
+package com.sdu.spark.utils.colleciton;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * {@link HashComparator}按Key的hashCode()排序, 未定义排序规则时聚合集合按哈希值排序使相同Key相邻
+ *
+ * 单例: {@link PrimitiveKeyAppendOnlyMap}及{@link PartitionedPrimitiveKeyAppendOnlyMap}据此识别哈希排序,
+ *
+ * 直接比较原始类型Key的哈希值, 无需装箱
+ *
+ * @author hanhan.zhang
+ * */
+public final class HashComparator<K> implements Comparator<K>, Serializable {
+
+    private static final HashComparator<Object> INSTANCE = new HashComparator<>();
+
+    private HashComparator() {}
+
+    @SuppressWarnings("unchecked")
+    public static <K> Comparator<K> get() {
+        return (Comparator<K>) INSTANCE;
+    }
+
+    private static int hash(Object obj) {
+        return obj == null ? 0 : obj.hashCode();
+    }
+
+    @Override
+    public int compare(K o1, K o2) {
+        return Integer.compare(hash(o1), hash(o2));
+    }
+
+    private Object readResolve() {
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,71 @@
+package com.sdu.spark.utils.colleciton;
+
+import com.sdu.spark.utils.colleciton.AppendOnlyMap.Updater;
+
+/**
+ * {@link IntKeyAppendOnlyMap}是Key为int的{@link AppendOnlyMap}特化实现, 仅支持(k, v)键值对添加, 不支持删除操作
+ *
+ *  1: Key放宽为long存储在{@link PrimitiveKeyAppendOnlyMap}的long[]中, 每个Key节省Integer对象头及引用开销,
+ *
+ *     且探测时直接比较原始类型值, 无需equals()及hashCode()虚调用
+ *
+ *  2: Hash仍按int计算(fmix32), 探测、扩容及排序逻辑由{@link PrimitiveKeyAppendOnlyMap}实现
+ *
+ * @author hanhan.zhang
+ * */
+public class IntKeyAppendOnlyMap<V> extends PrimitiveKeyAppendOnlyMap<Integer, V> {
+
+    public IntKeyAppendOnlyMap() {
+        this(64);
+    }
+
+    public IntKeyAppendOnlyMap(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    /** Get the value for a given key */
+    public V apply(int key) {
+        return getValue(key);
+    }
+
+    /** Set the value for a key */
+    public void update(int key, V value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Set the value for key to valueUpdate(hadValue, oldValue), where oldValue will be the old value
+     * for key, if any, or null otherwise. Returns the newly updated value.
+     */
+    public V changeValue(int key, Updater<V> updater) {
+        return changeValueOf(key, updater);
+    }
+
+    @Override
+    protected int hash(long key) {
+        return rehash((int) key);
+    }
+
+    @Override
+    protected Integer boxKey(long key) {
+        return (int) key;
+    }
+
+    @Override
+    protected int keyHash(long key) {
+        return Integer.hashCode((int) key);
+    }
+
+    /**
+     * MurmurHash3 fmix32, 避免Guava Hashing为每次探测创建HashCode对象
+     * */
+    static int rehash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,71 @@
+package com.sdu.spark.utils.colleciton;
+
+import com.sdu.spark.utils.colleciton.AppendOnlyMap.Updater;
+
+/**
+ * {@link LongKeyAppendOnlyMap}是Key为long的{@link AppendOnlyMap}特化实现, 仅支持(k, v)键值对添加, 不支持删除操作
+ *
+ *  1: Key存储在long[]中, Value存储在与之平行的Object[]中, 每个Key节省Long对象头及引用开销(约20字节),
+ *
+ *     且探测时直接比较long值, 无需equals()及hashCode()虚调用
+ *
+ *  2: 探测、扩容及排序逻辑由{@link PrimitiveKeyAppendOnlyMap}实现
+ *
+ * @author hanhan.zhang
+ * */
+public class LongKeyAppendOnlyMap<V> extends PrimitiveKeyAppendOnlyMap<Long, V> {
+
+    public LongKeyAppendOnlyMap() {
+        this(64);
+    }
+
+    public LongKeyAppendOnlyMap(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    /** Get the value for a given key */
+    public V apply(long key) {
+        return getValue(key);
+    }
+
+    /** Set the value for a key */
+    public void update(long key, V value) {
+        putValue(key, value);
+    }
+
+    /**
+     * Set the value for key to valueUpdate(hadValue, oldValue), where oldValue will be the old value
+     * for key, if any, or null otherwise. Returns the newly updated value.
+     */
+    public V changeValue(long key, Updater<V> updater) {
+        return changeValueOf(key, updater);
+    }
+
+    @Override
+    protected int hash(long key) {
+        return rehash(key);
+    }
+
+    @Override
+    protected Long boxKey(long key) {
+        return key;
+    }
+
+    @Override
+    protected int keyHash(long key) {
+        return Long.hashCode(key);
+    }
+
+    /**
+     * MurmurHash3 fmix64, 避免Guava Hashing为每次探测创建HashCode对象
+     * */
+    static int rehash(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -12,13 +12,18 @@ import static com.sdu.spark.utils.colleciton.WritablePartitionedPairCollections.
  *
  * @author hanhan.zhang
  * */
-public class PartitionedAppendOnlyMap<K, V> extends SizeTrackingAppendOnlyMap<Tuple2<Integer, K>, V> implements WritablePartitionedPairCollection<K, V>{
+public class PartitionedAppendOnlyMap<K, V> extends SizeTrackingAppendOnlyMap<Tuple2<Integer, K>, V> implements PartitionedPairMap<K, V> {
 
     @Override
     public void insert(int partition, K key, V value) {
         update(new Tuple2<>(partition, key), value);
     }
 
+    @Override
+    public V changeValue(int partition, K key, Updater<V> updater) {
+        return changeValue(new Tuple2<>(partition, key), updater);
+    }
+
     @Override
     public Iterator<Tuple2<Tuple2<Integer, K>, V>> partitionedDestructiveSortedIterator(Comparator<K> keyComparator) {
         Comparator<Tuple2<Integer, K>> comparator = keyComparator != null ? partitionKeyComparator(keyComparator)
@@ -51,6 +51,8 @@ public class PartitionedPairBuffer<K, V> extends SizeTracker implements Writable
         assert initialCapacity >= 1 : "Invalid initial capacity";
         this.capacity = initialCapacity;
         this.data = new Object[2 * initialCapacity];
+        // 字段初始化后再采样, 否则estimateSize()无采样数据
+        resetSamples();
     }
 
     @Override
@@ -0,0 +1,32 @@
+package com.sdu.spark.utils.colleciton;
+
+import com.sdu.spark.utils.colleciton.AppendOnlyMap.Updater;
+
+/**
+ * {@link ExternalSorter}Map端聚合集合的抽象, 按照(Partition, Key)聚合Value, 实现:
+ *
+ * 1: {@link PartitionedAppendOnlyMap}: 任意Key类型
+ *
+ * 2: {@link PartitionedPrimitiveKeyAppendOnlyMap}: Key为long/int的特化实现
+ *
+ * @author hanhan.zhang
+ * */
+public interface PartitionedPairMap<K, V> extends WritablePartitionedPairCollection<K, V> {
+
+    V changeValue(int partition, K key, Updater<V> updater);
+
+    long estimateSize();
+
+    /**
+     * 根据声明的Key类型选择Map端聚合集合, keyClass为null或非long/int时使用{@link PartitionedAppendOnlyMap}
+     * */
+    @SuppressWarnings("unchecked")
+    static <K, V> PartitionedPairMap<K, V> create(Class<?> keyClass) {
+        if (PrimitiveKeys.isLongKey(keyClass)) {
+            return (PartitionedPairMap<K, V>) PartitionedPrimitiveKeyAppendOnlyMap.<V>forLongKeys();
+        } else if (PrimitiveKeys.isIntKey(keyClass)) {
+            return (PartitionedPairMap<K, V>) PartitionedPrimitiveKeyAppendOnlyMap.<V>forIntKeys();
+        }
+        return new PartitionedAppendOnlyMap<>();
+    }
+}
@@ -0,0 +1,297 @@
+package com.sdu.spark.utils.colleciton;
+
+import com.sdu.spark.utils.colleciton.AppendOnlyMap.Updater;
+import com.sdu.spark.utils.colleciton.PrimitiveKeys.LongKeyComparator;
+import com.sdu.spark.utils.scala.Tuple2;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.LongFunction;
+import java.util.function.LongToIntFunction;
+import java.util.function.ToLongFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+/**
+ * {@link PartitionedPrimitiveKeyAppendOnlyMap}是Key为long/int的{@link PartitionedAppendOnlyMap}特化实现
+ *
+ * 1: (Partition, Key, Value)分别存储在int[]、long[]、Object[]平行数组中, 无需为每条记录创建Tuple2<Integer, K>作为Key,
+ *
+ *    int Key放宽为long存储
+ *
+ * 2: partitions[pos]存储partition + 1, 0表示空槽位, 故Key = 0无需特殊处理
+ *
+ * 3: 排序时复用{@link PartitionKey}, Partition相同时再比较Key: keyComparator为自然序或{@link HashComparator}时直接比较long值,
+ *
+ *    否则才装箱Key交由keyComparator比较
+ *
+ * @author hanhan.zhang
+ * */
+public class PartitionedPrimitiveKeyAppendOnlyMap<K, V> implements PartitionedPairMap<K, V> {
+
+    private static final int MAXIMUM_CAPACITY = 1 << 29;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private final LongFunction<K> boxKey;
+    private final ToLongFunction<K> unboxKey;
+    /** 与boxKey.apply(key).hashCode()一致 */
+    private final LongToIntFunction keyHash;
+
+    private int capacity;
+    private int mask;
+    private int curSize;
+    private int growThreshold;
+    private int[] partitions;
+    private long[] keys;
+    private Object[] values;
+
+    private boolean destroyed = false;
+    private String destructionMessage = "Map state is invalid from destructive sorting!";
+
+    private SizeTracker sizeTracker;
+
+    private PartitionedPrimitiveKeyAppendOnlyMap(LongFunction<K> boxKey, ToLongFunction<K> unboxKey,
+                                                 LongToIntFunction keyHash, int initialCapacity) {
+        checkArgument(initialCapacity <= MAXIMUM_CAPACITY, format("Can't make capacity bigger than %d elements", MAXIMUM_CAPACITY));
+        checkArgument(initialCapacity >= 1, "Invalid initial capacity");
+
+        this.boxKey = boxKey;
+        this.unboxKey = unboxKey;
+        this.keyHash = keyHash;
+        this.capacity = PrimitiveKeyAppendOnlyMap.nextPowerOf2(initialCapacity);
+        this.mask = capacity - 1;
+        this.curSize = 0;
+        this.growThreshold = (int) (this.capacity * LOAD_FACTOR);
+        this.partitions = new int[this.capacity];
+        this.keys = new long[this.capacity];
+        this.values = new Object[this.capacity];
+        this.sizeTracker = new SizeTracker(this);
+    }
+
+    public static <V> PartitionedPrimitiveKeyAppendOnlyMap<Long, V> forLongKeys() {
+        return new PartitionedPrimitiveKeyAppendOnlyMap<>(Long::valueOf, Long::longValue, key -> Long.hashCode(key), 64);
+    }
+
+    public static <V> PartitionedPrimitiveKeyAppendOnlyMap<Integer, V> forIntKeys() {
+        return new PartitionedPrimitiveKeyAppendOnlyMap<>(key -> (int) key, Integer::longValue,
+                                                          key -> Integer.hashCode((int) key), 64);
+    }
+
+    @Override
+    public void insert(int partition, K key, V value) {
+        changeValue(partition, key, (hadValue, oldValue) -> value);
+    }
+
+    /**
+     * Set the value for (partition, key) to valueUpdate(hadValue, oldValue), where oldValue will be
+     * the old value for (partition, key), if any, or null otherwise. Returns the newly updated value.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V changeValue(int partition, K key, Updater<V> updater) {
+        checkArgument(!destroyed, destructionMessage);
+        long k = unboxKey.applyAsLong(key);
+        int p = partition + 1;
+
+        int pos = rehash(p, k) & mask;
+        int i = 1;
+        V newValue;
+        while (true) {
+            int curPartition = partitions[pos];
+            if (curPartition == 0) {
+                newValue = updater.valueUpdate(false, null);
+                partitions[pos] = p;
+                keys[pos] = k;
+                values[pos] = newValue;
+                incrementSize();
+                break;
+            } else if (curPartition == p && keys[pos] == k) {
+                newValue = updater.valueUpdate(true, (V) values[pos]);
+                values[pos] = newValue;
+                break;
+            } else {
+                pos = (pos + i) & mask;
+                i += 1;
+            }
+        }
+        sizeTracker.afterUpdate();
+        return newValue;
+    }
+
+    private void incrementSize() {
+        curSize++;
+        if (curSize > growThreshold) {
+            growTable();
+        }
+    }
+
+    private static int rehash(int partition, long key) {
+        return LongKeyAppendOnlyMap.rehash(key * 31 + partition);
+    }
+
+    private void growTable() {
+        int newCapacity = capacity * 2;
+        checkArgument(newCapacity <= MAXIMUM_CAPACITY, "Can't contain more than " + MAXIMUM_CAPACITY + " elements");
+
+        int[] newPartitions = new int[newCapacity];
+        long[] newKeys = new long[newCapacity];
+        Object[] newValues = new Object[newCapacity];
+        int newMask = newCapacity - 1;
+        for (int oldPos = 0; oldPos < capacity; ++oldPos) {
+            int p = partitions[oldPos];
+            if (p != 0) {
+                long k = keys[oldPos];
+                int newPos = rehash(p, k) & newMask;
+                int i = 1;
+                while (newPartitions[newPos] != 0) {
+                    newPos = (newPos + i) & newMask;
+                    i += 1;
+                }
+                newPartitions[newPos] = p;
+                newKeys[newPos] = k;
+                newValues[newPos] = values[oldPos];
+            }
+        }
+
+        partitions = newPartitions;
+        keys = newKeys;
+        values = newValues;
+        capacity = newCapacity;
+        mask = newMask;
+        growThreshold = (int) (LOAD_FACTOR * newCapacity);
+        sizeTracker.resetSamples();
+    }
+
+    @Override
+    public Iterator<Tuple2<Tuple2<Integer, K>, V>> partitionedDestructiveSortedIterator(Comparator<K> keyComparator) {
+        destroyed = true;
+
+        // 数组压缩
+        int newIndex = 0;
+        for (int index = 0; index < capacity; ++index) {
+            if (partitions[index] != 0) {
+                partitions[newIndex] = partitions[index];
+                keys[newIndex] = keys[index];
+                values[newIndex] = values[index];
+                ++newIndex;
+            }
+        }
+
+        assert curSize == newIndex;
+
+        final int maxIndex = newIndex;
+        LongKeyComparator longKeyComparator = keyComparator == null ? null
+                                                                    : PrimitiveKeys.longKeyComparator(keyComparator, boxKey, keyHash);
+        Comparator<PartitionKey> comparator = (a, b) -> {
+            int partitionDiff = Integer.compare(a.partition, b.partition);
+            if (partitionDiff != 0 || longKeyComparator == null) {
+                return partitionDiff;
+            }
+            return longKeyComparator.compare(a.key, b.key);
+        };
+        new Sorter<>(new PKVBufferSortDataFormat()).sort(new PKVBuffer(partitions, keys, values), 0, maxIndex, comparator);
+
+        return new Iterator<Tuple2<Tuple2<Integer, K>, V>>() {
+            int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < maxIndex;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public Tuple2<Tuple2<Integer, K>, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("End of iterator");
+                }
+                Tuple2<Tuple2<Integer, K>, V> item = new Tuple2<>(new Tuple2<>(partitions[i] - 1, boxKey.apply(keys[i])), (V) values[i]);
+                ++i;
+                return item;
+            }
+        };
+    }
+
+    @Override
+    public long estimateSize() {
+        return sizeTracker.estimateSize();
+    }
+
+    public int size() {
+        return curSize;
+    }
+
+    /**
+     * 排序Key, 由{@link PKVBufferSortDataFormat#getKey(PKVBuffer, int, PartitionKey)}复用
+     * */
+    private static class PartitionKey {
+        int partition;
+        long key;
+    }
+
+    private static class PKVBuffer {
+        final int[] partitions;
+        final long[] keys;
+        final Object[] values;
+
+        PKVBuffer(int[] partitions, long[] keys, Object[] values) {
+            this.partitions = partitions;
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    private static class PKVBufferSortDataFormat extends SortDataFormat<PartitionKey, PKVBuffer> {
+
+        @Override
+        public PartitionKey newKey() {
+            return new PartitionKey();
+        }
+
+        @Override
+        public PartitionKey getKey(PKVBuffer data, int pos) {
+            return getKey(data, pos, newKey());
+        }
+
+        @Override
+        public PartitionKey getKey(PKVBuffer data, int pos, PartitionKey reuse) {
+            reuse.partition = data.partitions[pos];
+            reuse.key = data.keys[pos];
+            return reuse;
+        }
+
+        @Override
+        public void swap(PKVBuffer data, int pos0, int pos1) {
+            int tmpPartition = data.partitions[pos0];
+            long tmpKey = data.keys[pos0];
+            Object tmpValue = data.values[pos0];
+            data.partitions[pos0] = data.partitions[pos1];
+            data.keys[pos0] = data.keys[pos1];
+            data.values[pos0] = data.values[pos1];
+            data.partitions[pos1] = tmpPartition;
+            data.keys[pos1] = tmpKey;
+            data.values[pos1] = tmpValue;
+        }
+
+        @Override
+        public void copyElement(PKVBuffer src, int srcPos, PKVBuffer dst, int dstPos) {
+            dst.partitions[dstPos] = src.partitions[srcPos];
+            dst.keys[dstPos] = src.keys[srcPos];
+            dst.values[dstPos] = src.values[srcPos];
+        }
+
+        @Override
+        public void copyRange(PKVBuffer src, int srcPos, PKVBuffer dst, int dstPos, int length) {
+            System.arraycopy(src.partitions, srcPos, dst.partitions, dstPos, length);
+            System.arraycopy(src.keys, srcPos, dst.keys, dstPos, length);
+            System.arraycopy(src.values, srcPos, dst.values, dstPos, length);
+        }
+
+        @Override
+        public PKVBuffer allocate(int length) {
+            return new PKVBuffer(new int[length], new long[length], new Object[length]);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.sdu.spark.utils.colleciton;
+
+import com.sdu.spark.utils.colleciton.AppendOnlyMap.Updater;
+import com.sdu.spark.utils.colleciton.PrimitiveKeys.LongKeyComparator;
+import com.sdu.spark.utils.scala.Tuple2;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+/**
+ * {@link PrimitiveKeyAppendOnlyMap}是{@link LongKeyAppendOnlyMap}与{@link IntKeyAppendOnlyMap}的公共实现, 仅支持(k, v)键值对添加, 不支持删除操作
+ *
+ *  1: Key存储在long[]中(int Key放宽为long存储), Value存储在与之平行的Object[]中, 子类仅需提供{@link #hash(long)}、{@link #boxKey(long)}及{@link #keyHash(long)}
+ *
+ *  2: long[]中0表示空槽位, Key = 0单独存储({@link #haveZeroKey}), 类似{@link AppendOnlyMap}对null Key的处理
+ *
+ *  3: 扩容阈值、最大容量、{@link #changeValueOf(long, Updater)}及{@link #destructiveSortedIterator(Comparator)}语义与
+ *
+ *     {@link AppendOnlyMap}一致
+ *
+ *  4: 排序时复用{@link LongKey}, keyComparator为自然序或{@link HashComparator}时直接比较long值, 否则才装箱Key
+ *
+ * @author hanhan.zhang
+ * */
+public abstract class PrimitiveKeyAppendOnlyMap<K, V> implements Iterable<Tuple2<K, V>>, Serializable {
+
+    private static final int MAXIMUM_CAPACITY = 1 << 29;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private int capacity;
+    private int mask;
+    private int curSize;
+    private int growThreshold;
+    /** keys[pos]与values[pos]组成键值对, keys[pos] == 0表示空槽位 */
+    private long[] keys;
+    private Object[] values;
+
+    private boolean haveZeroKey = false;
+    private V zeroValue = null;
+
+    private boolean destroyed = false;
+    private String destructionMessage = "Map state is invalid from destructive sorting!";
+
+    protected PrimitiveKeyAppendOnlyMap(int initialCapacity) {
+        checkArgument(initialCapacity <= MAXIMUM_CAPACITY, format("Can't make capacity bigger than %d elements", MAXIMUM_CAPACITY));
+        checkArgument(initialCapacity >= 1, "Invalid initial capacity");
+
+        this.capacity = nextPowerOf2(initialCapacity);
+        this.mask = capacity - 1;
+        this.curSize = 0;
+        this.growThreshold = (int) (this.capacity * LOAD_FACTOR);
+        this.keys = new long[this.capacity];
+        this.values = new Object[this.capacity];
+    }
+
+    /** 探测起始位置的Hash值 */
+    protected abstract int hash(long key);
+
+    /** 将long槽位中的Key装箱为对外暴露的Key类型 */
+    protected abstract K boxKey(long key);
+
+    /** 与boxKey(key).hashCode()一致, 按{@link HashComparator}排序时无需装箱 */
+    protected abstract int keyHash(long key);
+
+    /** Get the value for a given key */
+    @SuppressWarnings("unchecked")
+    protected V getValue(long key) {
+        checkArgument(!destroyed, destructionMessage);
+        if (key == 0L) {
+            return zeroValue;
+        }
+
+        int pos = hash(key) & mask;
+        int i = 1;
+        while (true) {
+            long curKey = keys[pos];
+            if (curKey == key) {
+                return (V) values[pos];
+            } else if (curKey == 0L) {
+                return null;
+            } else {
+                pos = (pos + i) & mask;
+                i += 1;
+            }
+        }
+    }
+
+    /** Set the value for a key */
+    protected void putValue(long key, V value) {
+        checkArgument(!destroyed, destructionMessage);
+        if (key == 0L) {
+            if (!haveZeroKey) {
+                incrementSize();
+            }
+            zeroValue = value;
+            haveZeroKey = true;
+            return;
+        }
+
+        int pos = hash(key) & mask;
+        int i = 1;
+        while (true) {
+            long curKey = keys[pos];
+            if (curKey == 0L) {
+                keys[pos] = key;
+                values[pos] = value;
+                incrementSize();
+                return;
+            } else if (curKey == key) {
+                values[pos] = value;
+                return;
+            } else {
+                pos = (pos + i) & mask;
+                i += 1;
+            }
+        }
+    }
+
+    /**
+     * Set the value for key to valueUpdate(hadValue, oldValue), where oldValue will be the old value
+     * for key, if any, or null otherwise. Returns the newly updated value.
+     */
+    @SuppressWarnings("unchecked")
+    protected V changeValueOf(long key, Updater<V> updater) {
+        checkArgument(!destroyed, destructionMessage);
+        if (key == 0L) {
+            if (!haveZeroKey) {
+                incrementSize();
+            }
+            zeroValue = updater.valueUpdate(haveZeroKey, zeroValue);
+            haveZeroKey = true;
+            return zeroValue;
+        }
+
+        int pos = hash(key) & mask;
+        int i = 1;
+        while (true) {
+            long curKey = keys[pos];
+            if (curKey == 0L) {
+                V newValue = updater.valueUpdate(false, null);
+                keys[pos] = key;
+                values[pos] = newValue;
+                incrementSize();
+                return newValue;
+            } else if (curKey == key) {
+                V newValue = updater.valueUpdate(true, (V) values[pos]);
+                values[pos] = newValue;
+                return newValue;
+            } else {
+                pos = (pos + i) & mask;
+                i += 1;
+            }
+        }
+    }
+
+    private void incrementSize() {
+        curSize++;
+        if (curSize > growThreshold) {
+            growTable();
+        }
+    }
+
+    void growTable() {
+        int newCapacity = capacity * 2;
+        checkArgument(newCapacity <= MAXIMUM_CAPACITY, "Can't contain more than " + MAXIMUM_CAPACITY + " elements");
+
+        long[] newKeys = new long[newCapacity];
+        Object[] newValues = new Object[newCapacity];
+        int newMask = newCapacity - 1;
+        // Insert all our old values into the new array. Note that because our old keys are
+        // unique, there's no need to check for equality here when we insert.
+        for (int oldPos = 0; oldPos < capacity; ++oldPos) {
+            long key = keys[oldPos];
+            if (key != 0L) {
+                int newPos = hash(key) & newMask;
+                int i = 1;
+                while (newKeys[newPos] != 0L) {
+                    newPos = (newPos + i) & newMask;
+                    i += 1;
+                }
+                newKeys[newPos] = key;
+                newValues[newPos] = values[oldPos];
+            }
+        }
+
+        keys = newKeys;
+        values = newValues;
+        capacity = newCapacity;
+        mask = newMask;
+        growThreshold = (int) (LOAD_FACTOR * newCapacity);
+    }
+
+    @Override
+    public Iterator<Tuple2<K, V>> iterator() {
+        checkArgument(!destroyed, destructionMessage);
+        return new Iterator<Tuple2<K, V>>() {
+            int pos = -1;
+
+            private void advance() {
+                if (pos == -1) {
+                    if (haveZeroKey) {
+                        return;
+                    }
+                    pos += 1;
+                }
+                while (pos < capacity && keys[pos] == 0L) {
+                    ++pos;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                advance();
+                return pos < capacity;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public Tuple2<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("End of iterator");
+                }
+                Tuple2<K, V> item = pos == -1 ? new Tuple2<>(boxKey(0L), zeroValue)
+                                              : new Tuple2<>(boxKey(keys[pos]), (V) values[pos]);
+                pos += 1;
+                return item;
+            }
+        };
+    }
+
+    /**
+     * Return an iterator of the map in sorted order. This provides a way to sort the map without
+     * using additional memory, at the expense of destroying the validity of the map.
+     *
+     * Key = 0与其他Key一同参与排序, 保证输出严格按照keyComparator有序
+     */
+    public Iterator<Tuple2<K, V>> destructiveSortedIterator(Comparator<K> keyComparator) {
+        destroyed = true;
+
+        // 数组压缩: curSize <= capacity * LOAD_FACTOR, 压缩后尾部必有空位存放Key = 0
+        int newIndex = 0;
+        for (int index = 0; index < capacity; ++index) {
+            if (keys[index] != 0L) {
+                keys[newIndex] = keys[index];
+                values[newIndex] = values[index];
+                ++newIndex;
+            }
+        }
+        if (haveZeroKey) {
+            keys[newIndex] = 0L;
+            values[newIndex] = zeroValue;
+            ++newIndex;
+        }
+
+        assert curSize == newIndex;
+
+        final int maxIndex = newIndex;
+        KVBuffer buffer = new KVBuffer(keys, values);
+        LongKeyComparator comparator = PrimitiveKeys.longKeyComparator(keyComparator, this::boxKey, this::keyHash);
+        new Sorter<>(new KVBufferSortDataFormat()).sort(buffer, 0, maxIndex, (a, b) -> comparator.compare(a.key, b.key));
+
+        return new Iterator<Tuple2<K, V>>() {
+            int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < maxIndex;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public Tuple2<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("End of iterator");
+                }
+                Tuple2<K, V> item = new Tuple2<>(boxKey(keys[i]), (V) values[i]);
+                ++i;
+                return item;
+            }
+        };
+    }
+
+    // for test
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return curSize;
+    }
+
+    static int nextPowerOf2(int n) {
+        int highBit = Integer.highestOneBit(n);
+        return n == highBit ? n : highBit << 1;
+    }
+
+    /**
+     * 排序Key, 由{@link KVBufferSortDataFormat#getKey(KVBuffer, int, LongKey)}复用
+     * */
+    private static class LongKey {
+        long key;
+    }
+
+    /**
+     * 排序缓冲区: keys与values平行数组
+     * */
+    private static class KVBuffer {
+        final long[] keys;
+        final Object[] values;
+
+        KVBuffer(long[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    private static class KVBufferSortDataFormat extends SortDataFormat<LongKey, KVBuffer> {
+
+        @Override
+        public LongKey newKey() {
+            return new LongKey();
+        }
+
+        @Override
+        public LongKey getKey(KVBuffer data, int pos) {
+            return getKey(data, pos, newKey());
+        }
+
+        @Override
+        public LongKey getKey(KVBuffer data, int pos, LongKey reuse) {
+            reuse.key = data.keys[pos];
+            return reuse;
+        }
+
+        @Override
+        public void swap(KVBuffer data, int pos0, int pos1) {
+            long tmpKey = data.keys[pos0];
+            Object tmpValue = data.values[pos0];
+            data.keys[pos0] = data.keys[pos1];
+            data.values[pos0] = data.values[pos1];
+            data.keys[pos1] = tmpKey;
+            data.values[pos1] = tmpValue;
+        }
+
+        @Override
+        public void copyElement(KVBuffer src, int srcPos, KVBuffer dst, int dstPos) {
+            dst.keys[dstPos] = src.keys[srcPos];
+            dst.values[dstPos] = src.values[srcPos];
+        }
+
+        @Override
+        public void copyRange(KVBuffer src, int srcPos, KVBuffer dst, int dstPos, int length) {
+            System.arraycopy(src.keys, srcPos, dst.keys, dstPos, length);
+            System.arraycopy(src.values, srcPos, dst.values, dstPos, length);
+        }
+
+        @Override
+        public KVBuffer allocate(int length) {
+            return new KVBuffer(new long[length], new Object[length]);
+        }
+    }
+}
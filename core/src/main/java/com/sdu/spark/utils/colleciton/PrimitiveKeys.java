@@ -0,0 +1,56 @@
+package com.sdu.spark.utils.colleciton;
+
+import java.util.Comparator;
+import java.util.function.LongFunction;
+import java.util.function.LongToIntFunction;
+
+/**
+ * {@link com.sdu.spark.Aggregator}/{@link com.sdu.spark.ShuffleDependency}声明Key类型时, 判断是否可使用原始类型Key的
+ *
+ * 聚合集合({@link LongKeyAppendOnlyMap}, {@link IntKeyAppendOnlyMap}, {@link PartitionedPrimitiveKeyAppendOnlyMap})
+ *
+ * 注意: 声明原始类型Key后, Key不允许为null
+ *
+ * @author hanhan.zhang
+ * */
+public class PrimitiveKeys {
+
+    private PrimitiveKeys() {}
+
+    public static boolean isLongKey(Class<?> keyClass) {
+        return keyClass == Long.class || keyClass == long.class;
+    }
+
+    public static boolean isIntKey(Class<?> keyClass) {
+        return keyClass == Integer.class || keyClass == int.class;
+    }
+
+    public static boolean isPrimitiveKey(Class<?> keyClass) {
+        return isLongKey(keyClass) || isIntKey(keyClass);
+    }
+
+    /**
+     * 排序时比较long槽位中的Key:
+     *
+     *  1: keyComparator为自然序时直接比较long值(int Key符号扩展存储, 顺序不变)
+     *
+     *  2: keyComparator为{@link HashComparator}时比较keyHash计算的哈希值(与装箱Key的hashCode()一致)
+     *
+     *  3: 其他keyComparator装箱后比较
+     * */
+    static <K> LongKeyComparator longKeyComparator(Comparator<K> keyComparator,
+                                                   LongFunction<K> boxKey,
+                                                   LongToIntFunction keyHash) {
+        if (keyComparator == Comparator.<Long>naturalOrder()) {
+            return Long::compare;
+        }
+        if (keyComparator == HashComparator.get()) {
+            return (k1, k2) -> Integer.compare(keyHash.applyAsInt(k1), keyHash.applyAsInt(k2));
+        }
+        return (k1, k2) -> keyComparator.compare(boxKey.apply(k1), boxKey.apply(k2));
+    }
+
+    interface LongKeyComparator {
+        int compare(long k1, long k2);
+    }
+}
@@ -5,7 +5,7 @@ package com.sdu.spark.utils.colleciton;
  *
  * @author hanhan.zhang
  * */
-public class SizeTrackingAppendOnlyMap<K, V> extends AppendOnlyMap<K, V> {
+public class SizeTrackingAppendOnlyMap<K, V> extends AppendOnlyMap<K, V> implements SizeTrackingPairCollection<K, V> {
 
     private SizeTracker sizeTracker = new SizeTracker(this);
 
@@ -28,6 +28,7 @@ public class SizeTrackingAppendOnlyMap<K, V> extends AppendOnlyMap<K, V> {
         sizeTracker.resetSamples();
     }
 
+    @Override
     public long estimateSize() {
         return sizeTracker.estimateSize();
     }
@@ -0,0 +1,45 @@
+package com.sdu.spark.utils.colleciton;
+
+/**
+ * 添加数据估算内存增长量, Key为int的{@link SizeTrackingAppendOnlyMap}特化实现
+ *
+ * @author hanhan.zhang
+ * */
+public class SizeTrackingIntKeyAppendOnlyMap<V> extends IntKeyAppendOnlyMap<V> implements SizeTrackingPairCollection<Integer, V> {
+
+    private SizeTracker sizeTracker = new SizeTracker(this);
+
+    @Override
+    public void update(int key, V value) {
+        super.update(key, value);
+        sizeTracker.afterUpdate();
+    }
+
+    @Override
+    public V changeValue(int key, AppendOnlyMap.Updater<V> updater) {
+        V newValue = super.changeValue(key, updater);
+        sizeTracker.afterUpdate();
+        return newValue;
+    }
+
+    @Override
+    public void update(Integer key, V value) {
+        update(key.intValue(), value);
+    }
+
+    @Override
+    public V changeValue(Integer key, AppendOnlyMap.Updater<V> updater) {
+        return changeValue(key.intValue(), updater);
+    }
+
+    @Override
+    void growTable() {
+        super.growTable();
+        sizeTracker.resetSamples();
+    }
+
+    @Override
+    public long estimateSize() {
+        return sizeTracker.estimateSize();
+    }
+}
@@ -0,0 +1,45 @@
+package com.sdu.spark.utils.colleciton;
+
+/**
+ * 添加数据估算内存增长量, Key为long的{@link SizeTrackingAppendOnlyMap}特化实现
+ *
+ * @author hanhan.zhang
+ * */
+public class SizeTrackingLongKeyAppendOnlyMap<V> extends LongKeyAppendOnlyMap<V> implements SizeTrackingPairCollection<Long, V> {
+
+    private SizeTracker sizeTracker = new SizeTracker(this);
+
+    @Override
+    public void update(long key, V value) {
+        super.update(key, value);
+        sizeTracker.afterUpdate();
+    }
+
+    @Override
+    public V changeValue(long key, AppendOnlyMap.Updater<V> updater) {
+        V newValue = super.changeValue(key, updater);
+        sizeTracker.afterUpdate();
+        return newValue;
+    }
+
+    @Override
+    public void update(Long key, V value) {
+        update(key.longValue(), value);
+    }
+
+    @Override
+    public V changeValue(Long key, AppendOnlyMap.Updater<V> updater) {
+        return changeValue(key.longValue(), updater);
+    }
+
+    @Override
+    void growTable() {
+        super.growTable();
+        sizeTracker.resetSamples();
+    }
+
+    @Override
+    public long estimateSize() {
+        return sizeTracker.estimateSize();
+    }
+}
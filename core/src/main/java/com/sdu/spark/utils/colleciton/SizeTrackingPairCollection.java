@@ -0,0 +1,42 @@
+package com.sdu.spark.utils.colleciton;
+
+import com.sdu.spark.utils.colleciton.AppendOnlyMap.Updater;
+import com.sdu.spark.utils.scala.Tuple2;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * {@link ExternalAppendOnlyMap}内存聚合集合的抽象, 实现:
+ *
+ * 1: {@link SizeTrackingAppendOnlyMap}: 任意Key类型
+ *
+ * 2: {@link SizeTrackingLongKeyAppendOnlyMap}/{@link SizeTrackingIntKeyAppendOnlyMap}: Key为long/int的特化实现
+ *
+ * @author hanhan.zhang
+ * */
+public interface SizeTrackingPairCollection<K, V> extends Iterable<Tuple2<K, V>> {
+
+    void update(K key, V value);
+
+    V changeValue(K key, Updater<V> updater);
+
+    Iterator<Tuple2<K, V>> destructiveSortedIterator(Comparator<K> keyComparator);
+
+    int size();
+
+    long estimateSize();
+
+    /**
+     * 根据声明的Key类型选择内存聚合集合, keyClass为null或非long/int时使用{@link SizeTrackingAppendOnlyMap}
+     * */
+    @SuppressWarnings("unchecked")
+    static <K, V> SizeTrackingPairCollection<K, V> create(Class<?> keyClass) {
+        if (PrimitiveKeys.isLongKey(keyClass)) {
+            return (SizeTrackingPairCollection<K, V>) new SizeTrackingLongKeyAppendOnlyMap<V>();
+        } else if (PrimitiveKeys.isIntKey(keyClass)) {
+            return (SizeTrackingPairCollection<K, V>) new SizeTrackingIntKeyAppendOnlyMap<V>();
+        }
+        return new SizeTrackingAppendOnlyMap<>();
+    }
+}
@@ -46,6 +46,10 @@ public abstract class Spillable<C> extends MemoryConsumer {
         this.myMemoryThreshold = initialMemoryThreshold;
     }
 
+    public long memoryBytesSpilled() {
+        return memoryBytesSpilled;
+    }
+
     protected void addElementsRead() {
         elementsRead += 1;
     }
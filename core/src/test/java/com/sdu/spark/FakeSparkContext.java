@@ -0,0 +1,39 @@
+package com.sdu.spark;
+
+import com.sdu.spark.utils.CallSite;
+import org.objenesis.ObjenesisStd;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 仅用于构造RDD及ShuffleDependency的SparkContext, 由Objenesis直接分配对象, 不启动调度及Executor环境
+ *
+ * @author hanhan.zhang
+ * */
+public class FakeSparkContext extends SparkContext {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(0);
+
+    private FakeSparkContext() {
+        super(null);
+    }
+
+    public static SparkContext create() {
+        return new ObjenesisStd().newInstance(FakeSparkContext.class);
+    }
+
+    @Override
+    public int newShuffleId() {
+        return NEXT_ID.getAndIncrement();
+    }
+
+    @Override
+    public int newRddId() {
+        return NEXT_ID.getAndIncrement();
+    }
+
+    @Override
+    public CallSite getCallSite() {
+        return CallSite.empty;
+    }
+}
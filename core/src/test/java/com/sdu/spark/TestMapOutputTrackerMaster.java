@@ -0,0 +1,152 @@
+package com.sdu.spark;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.sdu.spark.rpc.RpcAddress;
+import com.sdu.spark.rpc.RpcCallContext;
+import com.sdu.spark.scheduler.MapStatus;
+import com.sdu.spark.storage.BlockManagerId;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验{@link MapOutputTrackerMaster}按shuffleId分片处理Map输出请求, 失败请求回复失败且不影响后续请求
+ *
+ * @author hanhan.zhang
+ * */
+public class TestMapOutputTrackerMaster extends SparkTestUnit {
+
+    private static final int NUM_THREADS = 4;
+    private static final int NUM_SHUFFLES = 8;
+    private static final int NUM_REQUESTS_PER_SHUFFLE = 5;
+
+    private MapOutputTrackerMaster tracker;
+
+    @Override
+    public void beforeEach() {
+        conf.set("spark.shuffle.mapOutput.dispatcher.numThreads", String.valueOf(NUM_THREADS));
+        tracker = new MapOutputTrackerMaster(conf, null, true);
+    }
+
+    @Test
+    public void testShardedDispatch() throws Exception {
+        for (int shuffleId = 0; shuffleId < NUM_SHUFFLES; ++shuffleId) {
+            registerShuffle(shuffleId, 10);
+        }
+
+        CountDownLatch latch = new CountDownLatch(NUM_SHUFFLES * NUM_REQUESTS_PER_SHUFFLE);
+        Map<Integer, Set<String>> threadsByShuffle = Maps.newConcurrentMap();
+        for (int i = 0; i < NUM_REQUESTS_PER_SHUFFLE; ++i) {
+            for (int shuffleId = 0; shuffleId < NUM_SHUFFLES; ++shuffleId) {
+                int id = shuffleId;
+                tracker.post(new GetMapOutputMessage(shuffleId, new TestCallContext(latch) {
+                    @Override
+                    public void reply(Object response) {
+                        assert response instanceof byte[];
+                        threadsByShuffle.computeIfAbsent(id, k -> Sets.newConcurrentHashSet())
+                                        .add(Thread.currentThread().getName());
+                        super.reply(response);
+                    }
+                }));
+            }
+        }
+        assert latch.await(10, TimeUnit.SECONDS);
+
+        // 同一Shuffle的请求由同一线程处理, shuffleId % NUM_THREADS相同的Shuffle共用一个线程
+        Set<String> threads = Sets.newHashSet();
+        for (int shuffleId = 0; shuffleId < NUM_SHUFFLES; ++shuffleId) {
+            Set<String> shuffleThreads = threadsByShuffle.get(shuffleId);
+            assert shuffleThreads.size() == 1;
+            assert shuffleThreads.equals(threadsByShuffle.get(shuffleId % NUM_THREADS));
+            threads.addAll(shuffleThreads);
+        }
+        assert threads.size() == NUM_THREADS;
+
+        // 串行处理, 每个Shuffle只序列化一次, 其余请求复用缓存
+        awaitServedRequests(NUM_SHUFFLES * NUM_REQUESTS_PER_SHUFFLE);
+        Map<String, Long> metrics = tracker.mapOutputServingMetrics();
+        assert metrics.get("numSerializations") == NUM_SHUFFLES;
+        assert metrics.get("queueDepth") == 0;
+    }
+
+    @Test
+    public void testFailureReply() throws Exception {
+        registerShuffle(0, 10);
+
+        // 未注册的Shuffle
+        CountDownLatch latch = new CountDownLatch(3);
+        TestCallContext unregistered = new TestCallContext(latch);
+        tracker.post(new GetMapOutputMessage(NUM_THREADS, unregistered));
+        // 处理请求时抛出异常
+        TestCallContext failed = new TestCallContext(latch) {
+            @Override
+            public RpcAddress senderAddress() {
+                throw new IllegalStateException("sender gone");
+            }
+        };
+        tracker.post(new GetMapOutputMessage(0, failed));
+        // 同一分片的后续请求仍被处理
+        TestCallContext succeeded = new TestCallContext(latch);
+        tracker.post(new GetMapOutputMessage(0, succeeded));
+        assert latch.await(10, TimeUnit.SECONDS);
+
+        assert unregistered.response == null && unregistered.failure instanceof SparkException;
+        assert failed.response == null && failed.failure instanceof IllegalStateException;
+        assert succeeded.failure == null && succeeded.response instanceof byte[];
+        awaitServedRequests(1);
+        assert tracker.mapOutputServingMetrics().get("numServedRequests") == 1;
+    }
+
+    /**
+     * 回复后才累加numServedRequests, 等待计数完成
+     * */
+    private void awaitServedRequests(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (tracker.mapOutputServingMetrics().get("numServedRequests") < expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assert tracker.mapOutputServingMetrics().get("numServedRequests") == expected;
+    }
+
+    private void registerShuffle(int shuffleId, int numMaps) {
+        tracker.registerShuffle(shuffleId, numMaps);
+        for (int mapId = 0; mapId < numMaps; ++mapId) {
+            BlockManagerId bmId = BlockManagerId.apply("exec-" + mapId, "localhost", 7000, null);
+            tracker.registerMapOutput(shuffleId, mapId, MapStatus.apply(bmId, new long[]{1L, 2L, 3L}));
+        }
+    }
+
+    private static class TestCallContext extends RpcCallContext {
+
+        private final CountDownLatch latch;
+        volatile Object response;
+        volatile Throwable failure;
+
+        TestCallContext(CountDownLatch latch) {
+            super(new RpcAddress("localhost", 8000));
+            this.latch = latch;
+        }
+
+        @Override
+        public void reply(Object response) {
+            this.response = response;
+            latch.countDown();
+        }
+
+        @Override
+        public void sendFailure(Throwable cause) {
+            this.failure = cause;
+            latch.countDown();
+        }
+    }
+
+    @Override
+    public void afterEach() {
+        tracker.stop();
+    }
+}
@@ -0,0 +1,82 @@
+package com.sdu.spark;
+
+import com.sdu.spark.MapOutputTrackerMessage.MapOutputStatusesUpdate;
+import com.sdu.spark.scheduler.MapStatus;
+import com.sdu.spark.storage.BlockManagerId;
+import org.junit.Test;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestShuffleStatus extends SparkTestUnit {
+
+    private ShuffleStatus shuffleStatus;
+
+    @Override
+    public void beforeEach() {
+        shuffleStatus = new ShuffleStatus(100, 8);
+        for (int mapId = 0; mapId < 100; ++mapId) {
+            shuffleStatus.addMapOutput(mapId, mapStatus("exec-" + (mapId % 4)));
+        }
+    }
+
+    private static MapStatus mapStatus(String execId) {
+        return MapStatus.apply(BlockManagerId.apply(execId, "localhost", 7000, null), new long[]{1L, 2L, 3L});
+    }
+
+    @Test
+    public void testDeltaFromChangeLog() {
+        long version = shuffleStatus.version();
+        assert version == 100;
+
+        shuffleStatus.removeMapOutput(3, BlockManagerId.apply("exec-3", "localhost", 7000, null));
+        shuffleStatus.addMapOutput(3, mapStatus("exec-5"));
+        shuffleStatus.addMapOutput(7, mapStatus("exec-6"));
+
+        MapOutputStatusesUpdate update = shuffleStatus.mapStatusUpdate(version, null, true, Integer.MAX_VALUE, null);
+        assert !update.isFull();
+        assert update.version == version + 3;
+        // mapId = 3变化两次, 只回复最近一次
+        assert update.mapIds.length == 2;
+        assert update.mapIds[0] == 3 && update.statuses[0].location().executorId.equals("exec-5");
+        assert update.mapIds[1] == 7 && update.statuses[1].location().executorId.equals("exec-6");
+
+        MapOutputStatusesUpdate unchanged = shuffleStatus.mapStatusUpdate(update.version, null, true, Integer.MAX_VALUE, null);
+        assert !unchanged.isFull() && unchanged.mapIds.length == 0;
+    }
+
+    @Test
+    public void testDeltaBeyondChangeLog() {
+        long version = shuffleStatus.version();
+        // 超过changeLog容量(8), 扫描mapVersions计算变化
+        shuffleStatus.removeOutputsOnExecutor("exec-1");
+
+        MapOutputStatusesUpdate update = shuffleStatus.mapStatusUpdate(version, null, true, Integer.MAX_VALUE, null);
+        assert !update.isFull();
+        assert update.mapIds.length == 25;
+        for (int i = 0; i < update.mapIds.length; ++i) {
+            assert update.mapIds[i] % 4 == 1;
+            assert update.statuses[i] == null;
+        }
+    }
+
+    @Test
+    public void testFullUpdate() {
+        MapOutputStatusesUpdate update = shuffleStatus.mapStatusUpdate(-1, null, true, Integer.MAX_VALUE, null);
+        assert update.isFull();
+        assert update.version == shuffleStatus.version();
+
+        MapStatus[] statuses = MapOutputTracker.deserializeMapStatuses(update.serializedStatuses);
+        assert statuses != null && statuses.length == 100;
+
+        // 变化超过Map数一半时回复全量
+        long version = shuffleStatus.version();
+        shuffleStatus.removeOutputsOnHost("localhost");
+        assert shuffleStatus.mapStatusUpdate(version, null, true, Integer.MAX_VALUE, null).isFull();
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
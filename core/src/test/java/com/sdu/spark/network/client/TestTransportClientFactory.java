@@ -0,0 +1,110 @@
+package com.sdu.spark.network.client;
+
+import com.google.common.collect.Maps;
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.network.buffer.ManagedBuffer;
+import com.sdu.spark.network.buffer.NioManagerBuffer;
+import com.sdu.spark.network.protocol.ChunkFetchSuccess;
+import com.sdu.spark.network.protocol.StreamChunkId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * 校验{@link TransportClientFactory#selectClient(TransportClient[], int)}选择负载最低的连接
+ *
+ * @author hanhan.zhang
+ * */
+public class TestTransportClientFactory extends SparkTestUnit {
+
+    private static final ChunkReceivedCallback NOOP_CALLBACK = new ChunkReceivedCallback() {
+        @Override
+        public void onSuccess(int chunkIndex, ManagedBuffer buffer) {
+
+        }
+
+        @Override
+        public void onFailure(int chunkIndex, Throwable e) {
+
+        }
+    };
+
+    private long nextStreamId;
+    private Map<TransportClient, TransportResponseHandler> handlers;
+
+    @Override
+    public void beforeEach() {
+        nextStreamId = 0;
+        handlers = Maps.newIdentityHashMap();
+    }
+
+    @Test
+    public void testSelectLeastOutstanding() {
+        TransportClient[] clients = new TransportClient[]{client(2), client(1), client(3)};
+        for (int start = 0; start < clients.length; ++start) {
+            assert TransportClientFactory.selectClient(clients, start) == 1;
+        }
+    }
+
+    @Test
+    public void testSelectLeastBulkBytesOnTie() throws Exception {
+        TransportClient[] clients = new TransportClient[]{client(1), client(1), client(1)};
+        receiveChunk(clients[0], 4096);
+        receiveChunk(clients[1], 16);
+        receiveChunk(clients[2], 1024);
+        assert clients[0].bulkBytesReceived() == 4096;
+        for (int start = 0; start < clients.length; ++start) {
+            assert TransportClientFactory.selectClient(clients, start) == 1;
+        }
+    }
+
+    @Test
+    public void testBulkBytesResetWhenIdle() throws Exception {
+        TransportClient client = client(0);
+        receiveChunk(client, 4096);
+        // 无其他未完成请求, 连接进入空闲
+        assert client.numOutstandingRequests() == 0;
+        assert client.bulkBytesReceived() == 0;
+    }
+
+    @Test
+    public void testSelectEmptySlotWhenAllBusy() {
+        TransportClient[] clients = new TransportClient[]{client(1), null, client(2)};
+        assert TransportClientFactory.selectClient(clients, 0) == 1;
+
+        // 存在空闲连接时不创建新连接
+        clients[2] = client(0);
+        assert TransportClientFactory.selectClient(clients, 0) == 2;
+    }
+
+    /**
+     * 创建有numOutstanding个未完成ChunkFetch请求的连接
+     * */
+    private TransportClient client(int numOutstanding) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        TransportResponseHandler handler = new TransportResponseHandler(channel);
+        for (int i = 0; i < numOutstanding; ++i) {
+            handler.addFetchRequest(new StreamChunkId(nextStreamId++, 0), NOOP_CALLBACK);
+        }
+        TransportClient client = new TransportClient(channel, handler);
+        handlers.put(client, handler);
+        return client;
+    }
+
+    /**
+     * 连接发送一个ChunkFetch请求并接收bytes字节响应
+     * */
+    private void receiveChunk(TransportClient client, int bytes) throws Exception {
+        StreamChunkId streamChunkId = new StreamChunkId(nextStreamId++, 0);
+        TransportResponseHandler handler = handlers.get(client);
+        handler.addFetchRequest(streamChunkId, NOOP_CALLBACK);
+        handler.handle(new ChunkFetchSuccess(streamChunkId, new NioManagerBuffer(ByteBuffer.allocate(bytes))));
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
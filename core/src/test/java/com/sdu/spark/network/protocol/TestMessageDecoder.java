@@ -0,0 +1,171 @@
+package com.sdu.spark.network.protocol;
+
+import com.google.common.collect.Lists;
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.network.buffer.NettyManagedBuffer;
+import com.sdu.spark.network.utils.TransportFrameDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * 校验{@link TransportFrameDecoder}拷贝/组合两种路径下, ChunkFetch/Stream消息处理完后ByteBuf均被释放(refCnt == 0)
+ *
+ * @author hanhan.zhang
+ * */
+public class TestMessageDecoder extends SparkTestUnit {
+
+    private static final int BODY_SIZE = 256;
+    /** 跨ByteBuf的Frame均拷贝 */
+    private static final int COPY_THRESHOLD = 64 * 1024;
+    /** 跨ByteBuf的Frame均组合为CompositeByteBuf */
+    private static final int COMPOSITE_THRESHOLD = 1;
+
+    /** 交给MessageDecoder的Frame */
+    private List<ByteBuf> frames;
+    /** 写入Channel的数据包 */
+    private List<ByteBuf> inputs;
+
+    @Override
+    public void beforeEach() {
+        frames = Lists.newArrayList();
+        inputs = Lists.newArrayList();
+    }
+
+    @Test
+    public void testChunkFetchSuccessCopyPath() throws Exception {
+        checkChunkFetchSuccess(COPY_THRESHOLD, false);
+    }
+
+    @Test
+    public void testChunkFetchSuccessCompositePath() throws Exception {
+        checkChunkFetchSuccess(COMPOSITE_THRESHOLD, true);
+    }
+
+    @Test
+    public void testStreamResponseCopyPath() throws Exception {
+        checkStreamResponse(COPY_THRESHOLD, false);
+    }
+
+    @Test
+    public void testStreamResponseCompositePath() throws Exception {
+        checkStreamResponse(COMPOSITE_THRESHOLD, true);
+    }
+
+    private void checkChunkFetchSuccess(int copyThreshold, boolean composite) throws Exception {
+        StreamChunkId chunkId = new StreamChunkId(1L, 2);
+        byte[] body = new byte[BODY_SIZE];
+        for (int i = 0; i < BODY_SIZE; ++i) {
+            body[i] = (byte) i;
+        }
+        ByteBuf frame = encodeFrame(new ChunkFetchSuccess(chunkId, null), body);
+
+        EmbeddedChannel channel = createChannel(copyThreshold);
+        // FrameLength及Body均跨越多个ByteBuf
+        writeInPieces(channel, frame, 5, 30, 150);
+
+        ChunkFetchSuccess msg = (ChunkFetchSuccess) channel.readInbound();
+        assert msg.streamChunkId.equals(chunkId);
+        assert frames.size() == 1;
+        assert (frames.get(0) instanceof CompositeByteBuf) == composite;
+
+        ByteBuf data = (ByteBuf) msg.body().convertToNetty();
+        byte[] received = new byte[BODY_SIZE];
+        data.readBytes(received);
+        data.release();
+        for (int i = 0; i < BODY_SIZE; ++i) {
+            assert received[i] == body[i];
+        }
+
+        // 消息体仍持有Frame引用, 释放后Frame及数据包均被回收
+        assert frames.get(0).refCnt() > 0;
+        msg.body().release();
+        assertReleased();
+        assert !channel.finish();
+    }
+
+    private void checkStreamResponse(int copyThreshold, boolean composite) throws Exception {
+        ByteBuf frame = encodeFrame(new StreamResponse("stream-0", BODY_SIZE, null), null);
+
+        EmbeddedChannel channel = createChannel(copyThreshold);
+        writeInPieces(channel, frame, 10, 15);
+
+        StreamResponse msg = (StreamResponse) channel.readInbound();
+        assert msg.streamId.equals("stream-0");
+        assert msg.byteCount == BODY_SIZE;
+        assert msg.body() == null;
+        assert frames.size() == 1;
+        assert (frames.get(0) instanceof CompositeByteBuf) == composite;
+
+        // StreamResponse不持有Frame, 解码后即释放
+        assertReleased();
+        assert !channel.finish();
+    }
+
+    private EmbeddedChannel createChannel(int copyThreshold) {
+        return new EmbeddedChannel(new TransportFrameDecoder(copyThreshold),
+                                   new ChannelInboundHandlerAdapter() {
+                                       @Override
+                                       public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                                           frames.add((ByteBuf) msg);
+                                           ctx.fireChannelRead(msg);
+                                       }
+                                   },
+                                   MessageDecoder.INSTANCE);
+    }
+
+    /**
+     * 按MessageEncoder格式编码: FrameLength + Type + MessageHeader + MessageBody
+     * */
+    private static ByteBuf encodeFrame(Message msg, byte[] body) {
+        int bodyLength = body == null ? 0 : body.length;
+        int headerLength = 8 + msg.type().encodedLength() + msg.encodedLength();
+        ByteBuf frame = Unpooled.buffer(headerLength + bodyLength);
+        frame.writeLong(headerLength + bodyLength);
+        msg.type().encode(frame);
+        msg.encode(frame);
+        if (body != null) {
+            frame.writeBytes(body);
+        }
+        return frame;
+    }
+
+    /**
+     * 按切分点将Frame拆为多个独立ByteBuf写入Channel
+     * */
+    private void writeInPieces(EmbeddedChannel channel, ByteBuf frame, int ... splits) {
+        int start = 0;
+        for (int i = 0; i <= splits.length; ++i) {
+            int end = i < splits.length ? splits[i] : frame.writerIndex();
+            ByteBuf piece = Unpooled.buffer(end - start);
+            piece.writeBytes(frame, start, end - start);
+            inputs.add(piece);
+            start = end;
+        }
+        frame.release();
+
+        for (ByteBuf piece : inputs) {
+            channel.writeInbound(piece);
+        }
+    }
+
+    private void assertReleased() {
+        for (ByteBuf frame : frames) {
+            assert frame.refCnt() == 0;
+        }
+        for (ByteBuf input : inputs) {
+            assert input.refCnt() == 0;
+        }
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
@@ -0,0 +1,98 @@
+package com.sdu.spark.network.shuffle;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.network.buffer.ManagedBuffer;
+import com.sdu.spark.network.buffer.NioManagerBuffer;
+import com.sdu.spark.network.client.ChunkReceivedCallback;
+import com.sdu.spark.network.client.RpcResponseCallback;
+import com.sdu.spark.network.client.TransportClient;
+import com.sdu.spark.network.netty.SparkTransportConf;
+import com.sdu.spark.network.shuffle.protocol.StreamHandle;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestOneForOneBlockFetcher extends SparkTestUnit {
+
+    private static final int NUM_BLOCKS = 6;
+
+    private String[] blockIds;
+    /** 按chunkIndex记录在途Chunk请求的回调 */
+    private Map<Integer, ChunkReceivedCallback> inFlight;
+    private List<String> succeeded;
+    private List<String> failed;
+
+    @Override
+    public void beforeEach() {
+        blockIds = new String[NUM_BLOCKS];
+        for (int i = 0; i < NUM_BLOCKS; ++i) {
+            blockIds[i] = "shuffle_0_" + i + "_0";
+        }
+        inFlight = Maps.newHashMap();
+        succeeded = Lists.newArrayList();
+        failed = Lists.newArrayList();
+    }
+
+    @Test
+    public void testOutOfOrderChunkFailures() {
+        TransportClient client = new TransportClient(null, null) {
+            @Override
+            public long sendRpc(ByteBuffer message, RpcResponseCallback callback) {
+                callback.onSuccess(new StreamHandle(1L, NUM_BLOCKS).toByteBuffer());
+                return 0L;
+            }
+
+            @Override
+            public void fetchChunk(long streamId, int chunkIndex, ChunkReceivedCallback callback) {
+                inFlight.put(chunkIndex, callback);
+            }
+        };
+        BlockFetchingListener listener = new BlockFetchingListener() {
+            @Override
+            public void onBlockFetchSuccess(String blockId, ManagedBuffer data) {
+                succeeded.add(blockId);
+            }
+
+            @Override
+            public void onBlockFetchFailure(String blockId, Throwable exception) {
+                failed.add(blockId);
+            }
+        };
+
+        // 默认初始窗口为8, 全部Chunk同时在途
+        new OneForOneBlockFetcher(client, "app", "exec-0", blockIds, listener,
+                                  SparkTransportConf.fromSparkConf(conf, "shuffle")).start();
+        assert inFlight.size() == NUM_BLOCKS;
+
+        inFlight.get(2).onSuccess(2, buffer());
+        inFlight.get(4).onFailure(4, new RuntimeException("chunk 4 failed"));
+        // 先于失败Chunk的Block同样置为失败, 且从最小下标开始
+        assert failed.equals(Lists.newArrayList(blockIds[0], blockIds[1], blockIds[3], blockIds[4], blockIds[5]));
+
+        // 之后乱序到达的失败及成功响应均不再回调
+        inFlight.get(1).onFailure(1, new RuntimeException("chunk 1 failed"));
+        inFlight.get(0).onSuccess(0, buffer());
+        inFlight.get(5).onSuccess(5, buffer());
+        inFlight.get(3).onFailure(3, new RuntimeException("chunk 3 failed"));
+
+        assert succeeded.equals(Lists.newArrayList(blockIds[2]));
+        assert failed.size() == NUM_BLOCKS - 1;
+        assert inFlight.size() == NUM_BLOCKS;
+    }
+
+    private static ManagedBuffer buffer() {
+        return new NioManagerBuffer(ByteBuffer.wrap(new byte[16]));
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
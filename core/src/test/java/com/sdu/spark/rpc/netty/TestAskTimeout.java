@@ -0,0 +1,72 @@
+package com.sdu.spark.rpc.netty;
+
+import com.sdu.spark.SecurityManager;
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.network.client.RpcResponseCallback;
+import com.sdu.spark.network.client.TransportClient;
+import com.sdu.spark.network.client.TransportResponseHandler;
+import com.sdu.spark.rpc.RpcAddress;
+import com.sdu.spark.rpc.RpcEndpointAddress;
+import com.sdu.spark.serializer.JavaSerializerInstance;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestAskTimeout extends SparkTestUnit {
+
+    private NettyRpcEnv rpcEnv;
+    private TransportResponseHandler responseHandler;
+
+    @Override
+    public void beforeEach() {
+        rpcEnv = new NettyRpcEnv(conf,
+                                 "localhost",
+                                 new JavaSerializerInstance(1, Thread.currentThread().getContextClassLoader()),
+                                 new SecurityManager(conf),
+                                 1);
+        responseHandler = new TransportResponseHandler(null);
+    }
+
+    @Test
+    public void testAskTimeoutRemovesOutstandingRequest() throws Exception {
+        // 远端从不响应, 请求停留在TransportResponseHandler中
+        TransportClient client = new TransportClient(null, responseHandler) {
+            @Override
+            public long sendRpc(ByteBuffer message, RpcResponseCallback callback, boolean flush) {
+                responseHandler.addRpcRequest(1L, callback);
+                return 1L;
+            }
+        };
+        NettyRpcEndpointRef receiver = new NettyRpcEndpointRef(
+                new RpcEndpointAddress("remote", new RpcAddress("localhost", 7077)), rpcEnv);
+        receiver.client = client;
+
+        CompletableFuture<?> future = rpcEnv.ask(new RequestMessage(null, receiver, "ping"), 100);
+        assert responseHandler.numOutstandingRequests() == 1;
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            assert false : "ask should time out";
+        } catch (ExecutionException e) {
+            assert e.getCause() instanceof TimeoutException;
+        }
+
+        // Future失败后超时任务移除响应回调
+        long deadline = System.currentTimeMillis() + 10000;
+        while (responseHandler.numOutstandingRequests() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assert responseHandler.numOutstandingRequests() == 0;
+    }
+
+    @Override
+    public void afterEach() {
+        rpcEnv.shutdown();
+    }
+}
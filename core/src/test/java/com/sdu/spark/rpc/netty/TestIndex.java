@@ -0,0 +1,69 @@
+package com.sdu.spark.rpc.netty;
+
+import com.google.common.collect.Lists;
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.rpc.RpcEndpoint;
+import com.sdu.spark.rpc.netty.IndexMessage.OneWayMessage;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestIndex extends SparkTestUnit {
+
+    private static final int BATCH_SIZE = 4;
+
+    private List<Object> received;
+    private Index index;
+
+    @Override
+    public void beforeEach() {
+        received = Lists.newArrayList();
+        index = new Index(new RpcEndpoint(null) {
+            @Override
+            public void onStart() {
+                received.add("start");
+            }
+
+            @Override
+            public void receive(Object msg) {
+                received.add(msg);
+            }
+        }, null, BATCH_SIZE);
+    }
+
+    @Test
+    public void testDrainInBatchesInOrder() {
+        int numMessages = 10;
+        for (int i = 0; i < numMessages; ++i) {
+            index.post(new OneWayMessage(null, i));
+        }
+
+        // OnStart + 10条消息, 每批至多4条: 4 + 4 + 3
+        assert index.process(null);
+        assert received.size() == BATCH_SIZE;
+        assert index.process(null);
+        assert received.size() == 2 * BATCH_SIZE;
+        assert !index.process(null);
+        assert !index.hasPendingMessages();
+
+        assert received.get(0).equals("start");
+        for (int i = 0; i < numMessages; ++i) {
+            assert received.get(i + 1).equals(i);
+        }
+
+        // 信箱处理完后投递的消息由下一次调度处理
+        index.post(new OneWayMessage(null, numMessages));
+        assert index.hasPendingMessages();
+        assert !index.process(null);
+        assert received.get(received.size() - 1).equals(numMessages);
+        assert !index.process(null);
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
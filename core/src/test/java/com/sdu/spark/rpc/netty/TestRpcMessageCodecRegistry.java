@@ -0,0 +1,83 @@
+package com.sdu.spark.rpc.netty;
+
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.executor.Heartbeat;
+import com.sdu.spark.scheduler.TaskState;
+import com.sdu.spark.scheduler.cluster.CoarseGrainedClusterMessage.StatusUpdate;
+import com.sdu.spark.scheduler.cluster.CoarseGrainedClusterMessage.StatusUpdates;
+import com.sdu.spark.storage.BlockManagerId;
+import com.sdu.spark.utils.ByteBufferOutputStream;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestRpcMessageCodecRegistry extends SparkTestUnit {
+
+    private RpcMessageCodecRegistry registry;
+
+    @Override
+    public void beforeEach() {
+        registry = new RpcMessageCodecRegistry(conf);
+    }
+
+    private ByteBuffer encode(Object message) throws Exception {
+        ByteBufferOutputStream bos = new ByteBufferOutputStream();
+        // 已注册类型编码不依赖RpcEnv
+        registry.write(message, new DataOutputStream(bos), null);
+        return bos.toByteBuffer();
+    }
+
+    @Test
+    public void testStatusUpdate() throws Exception {
+        StatusUpdate message = new StatusUpdate("exec-1", 12L, TaskState.FINISHED, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        ByteBuffer buffer = encode(message);
+        // codecId(2) + executorId(1 + 2 + 6) + taskId(8) + state(1) + data(4 + 3)
+        assert buffer.remaining() == 27;
+
+        StatusUpdate result = registry.read(buffer, null);
+        assert result.executorId.equals("exec-1");
+        assert result.taskId == 12L;
+        assert result.state == TaskState.FINISHED;
+        assert result.data.buffer.remaining() == 3 && result.data.buffer.get(2) == 3;
+    }
+
+    @Test
+    public void testStatusUpdates() throws Exception {
+        StatusUpdates message = new StatusUpdates("exec-1",
+                                                  new long[]{1L, 2L, 3L},
+                                                  new TaskState[]{TaskState.RUNNING, TaskState.FINISHED, TaskState.FAILED},
+                                                  new int[]{0, 0, 2, 5},
+                                                  ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}));
+        StatusUpdates result = registry.read(encode(message), null);
+        assert result.executorId.equals("exec-1");
+        assert result.size() == 3 && result.taskIds[2] == 3L;
+        assert result.states[1] == TaskState.FINISHED;
+        assert result.taskData(0).remaining() == 0;
+        assert result.taskData(1).remaining() == 2 && result.taskData(1).get(1) == 2;
+        assert result.taskData(2).remaining() == 3 && result.taskData(2).get(0) == 3;
+    }
+
+    @Test
+    public void testHeartbeat() throws Exception {
+        Heartbeat message = new Heartbeat("exec-2", BlockManagerId.apply("exec-2", "localhost", 7077, null));
+        Heartbeat result = registry.read(encode(message), null);
+        assert result.executorId.equals("exec-2");
+        assert result.blockManagerId.equals(message.blockManagerId);
+        assert result.blockManagerId.topologyInfo == null;
+    }
+
+    @Test
+    public void testBooleanReply() throws Exception {
+        Boolean result = registry.read(encode(Boolean.TRUE), null);
+        assert result;
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
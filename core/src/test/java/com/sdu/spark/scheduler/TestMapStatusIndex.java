@@ -0,0 +1,93 @@
+package com.sdu.spark.scheduler;
+
+import com.google.common.collect.Maps;
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.scheduler.MapStatus.CompressedMapStatus;
+import com.sdu.spark.scheduler.MapStatus.HighlyCompressedMapStatus;
+import com.sdu.spark.scheduler.MapStatusIndex.BlocksByAddress;
+import com.sdu.spark.shuffle.FetchFailedException.MetadataFetchFailedException;
+import com.sdu.spark.storage.BlockManagerId;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Map;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestMapStatusIndex extends SparkTestUnit {
+
+    private static final int NUM_REDUCERS = 10;
+
+    private MapStatus[] statuses;
+
+    @Override
+    public void beforeEach() {
+        statuses = new MapStatus[8];
+        for (int mapId = 0; mapId < statuses.length; ++mapId) {
+            BlockManagerId loc = BlockManagerId.apply("exec-" + (mapId % 3), "localhost", 7000, null);
+            if (mapId % 2 == 0) {
+                long[] sizes = new long[NUM_REDUCERS];
+                for (int reduceId = 0; reduceId < NUM_REDUCERS; ++reduceId) {
+                    sizes[reduceId] = reduceId % 3 == 0 ? 0L : (mapId + 1) * 1000L + reduceId;
+                }
+                statuses[mapId] = new CompressedMapStatus(loc, sizes);
+            } else {
+                RoaringBitmap emptyBlocks = new RoaringBitmap();
+                emptyBlocks.add(mapId % NUM_REDUCERS);
+                Map<Integer, Byte> hugeBlockSizes = Maps.newHashMap();
+                hugeBlockSizes.put(NUM_REDUCERS - 1, MapStatus.compressSize(1L << 30));
+                statuses[mapId] = new HighlyCompressedMapStatus(loc, NUM_REDUCERS - 1, emptyBlocks, 2048L, hugeBlockSizes);
+            }
+        }
+    }
+
+    @Test
+    public void testRangeQuery() {
+        BlocksByAddress blocks = MapStatusIndex.build(statuses).query(0, 2, NUM_REDUCERS);
+        assert blocks.addresses.length == 3;
+        assert blocks.numBlocks() == statuses.length * (NUM_REDUCERS - 2);
+
+        int checked = 0;
+        for (int i = 0; i < blocks.addresses.length; ++i) {
+            for (int index = blocks.offsets[i]; index < blocks.offsets[i + 1]; ++index) {
+                MapStatus status = statuses[blocks.mapIds[index]];
+                assert status.location().equals(blocks.addresses[i]);
+                assert blocks.reduceIds[index] >= 2 && blocks.reduceIds[index] < NUM_REDUCERS;
+                assert blocks.sizes[index] == status.getSizeForBlock(blocks.reduceIds[index]);
+                checked++;
+            }
+        }
+        assert checked == blocks.numBlocks();
+    }
+
+    @Test
+    public void testMapRangeQuery() {
+        MapStatusIndex statusIndex = MapStatusIndex.build(statuses);
+        BlocksByAddress blocks = statusIndex.query(0, 3, 6, 0, NUM_REDUCERS);
+        assert blocks.numBlocks() == 3 * NUM_REDUCERS;
+        for (int i = 0; i < blocks.addresses.length; ++i) {
+            for (int index = blocks.offsets[i]; index < blocks.offsets[i + 1]; ++index) {
+                MapStatus status = statuses[blocks.mapIds[index]];
+                assert blocks.mapIds[index] >= 3 && blocks.mapIds[index] < 6;
+                assert status.location().equals(blocks.addresses[i]);
+                assert blocks.sizes[index] == status.getSizeForBlock(blocks.reduceIds[index]);
+            }
+        }
+
+        // Map范围外缺失的Map输出不影响查询
+        statuses[7] = null;
+        assert MapStatusIndex.build(statuses).query(0, 0, 7, 0, NUM_REDUCERS).numBlocks() == 7 * NUM_REDUCERS;
+    }
+
+    @Test(expected = MetadataFetchFailedException.class)
+    public void testMissingMapOutput() {
+        statuses[5] = null;
+        MapStatusIndex.build(statuses).query(0, 0, NUM_REDUCERS);
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
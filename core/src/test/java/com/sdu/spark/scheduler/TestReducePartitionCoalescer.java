@@ -0,0 +1,245 @@
+package com.sdu.spark.scheduler;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sdu.spark.*;
+import com.sdu.spark.Partitioner.HashPartitioner;
+import com.sdu.spark.rdd.RDD;
+import com.sdu.spark.rdd.SelectedPartitionsRDD;
+import com.sdu.spark.rdd.SelectedPartitionsRDD.SelectedPartition;
+import com.sdu.spark.rdd.ShuffledRDD;
+import com.sdu.spark.rdd.ShuffledRDD.ShuffledRDDPartition;
+import com.sdu.spark.scheduler.ReducePartitionCoalescer.PartitionSpec;
+import com.sdu.spark.scheduler.ReducePartitionCoalescer.SplitMergePartitioner;
+import com.sdu.spark.utils.TIterator;
+import com.sdu.spark.utils.scala.Product2;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestReducePartitionCoalescer extends SparkTestUnit {
+
+    private MapOutputStatistics stats;
+
+    @Override
+    public void beforeEach() {
+        stats = new MapOutputStatistics(0, new long[]{10, 10, 0, 90, 200, 20, 30, 40});
+    }
+
+    @Test
+    public void testCoalesceToTargetSize() {
+        ReducePartitionCoalescer coalescer = new ReducePartitionCoalescer(true, 100, -1);
+        int[] startIndices = coalescer.estimatePartitionStartIndices(stats);
+        // [10, 10, 0], [90], [200], [20, 30, 40]
+        assert Arrays.equals(startIndices, new int[]{0, 3, 4, 5});
+    }
+
+    @Test
+    public void testMinNumPartitions() {
+        ReducePartitionCoalescer coalescer = new ReducePartitionCoalescer(true, 1000, 4);
+        int[] startIndices = coalescer.estimatePartitionStartIndices(stats);
+        // 目标数据量: ceil(400 / 4) = 100
+        assert Arrays.equals(startIndices, new int[]{0, 3, 4, 5});
+
+        coalescer = new ReducePartitionCoalescer(true, 1000, -1);
+        assert Arrays.equals(coalescer.estimatePartitionStartIndices(stats), new int[]{0});
+    }
+
+    @Test
+    public void testSplitSkewedPartition() {
+        // 分区4数据量200, 中位数20
+        ReducePartitionCoalescer coalescer = new ReducePartitionCoalescer(true, 100, -1, true, 5.0, 50);
+        PartitionSpec[] specs = coalescer.planPartitions(stats, reduceId -> new long[]{60, 50, 40, 50});
+        assert specs.length == 6;
+        assert specs[1].startPartition == 3 && !specs[1].isSplit();
+        // 分区4按Map输出拆分: [0, 1), [1, 3), [3, ...)
+        assert specs[2].startPartition == 4 && specs[2].startMapIndex == 0 && specs[2].endMapIndex == 1;
+        assert specs[3].startPartition == 4 && specs[3].startMapIndex == 1 && specs[3].endMapIndex == 3;
+        assert specs[4].startPartition == 4 && specs[4].startMapIndex == 3 && specs[4].endMapIndex == Integer.MAX_VALUE;
+        assert specs[5].startPartition == 5 && specs[5].endPartition == 8;
+        assert ReducePartitionCoalescer.hasSplitPartitions(specs);
+    }
+
+    @Test
+    public void testSplitPartialAggregateAndMerge() {
+        int numMaps = 6;
+        int numKeys = 200;
+        Partitioner partitioner = new HashPartitioner(4);
+        Aggregator<Integer, Long, Long> aggregator = new Aggregator<>(v -> v, (v, c) -> c + v, (c1, c2) -> c1 + c2);
+
+        // Reduce分区1的Key在每个Map输出中各出现5次, 其余Key各出现1次, 每条记录10字节
+        long[][] mapSizes = new long[4][numMaps];
+        for (int mapId = 0; mapId < numMaps; ++mapId) {
+            for (int key = 0; key < numKeys; ++key) {
+                mapSizes[partitioner.getPartition(key)][mapId] += occurrences(key) * 10L;
+            }
+        }
+        long[] bytesByPartitionId = new long[4];
+        for (int reduceId = 0; reduceId < 4; ++reduceId) {
+            bytesByPartitionId[reduceId] = Arrays.stream(mapSizes[reduceId]).sum();
+        }
+
+        ReducePartitionCoalescer coalescer = new ReducePartitionCoalescer(true, 5000, -1, true, 2.0, 1000);
+        PartitionSpec[] specs = coalescer.planPartitions(new MapOutputStatistics(0, bytesByPartitionId),
+                                                         reduceId -> mapSizes[reduceId]);
+        SplitMergePartitioner mergePartitioner = new SplitMergePartitioner(partitioner, specs);
+        assert mergePartitioner.numPartitions() == 3;
+
+        // 拆分Task只聚合部分Map输出, 其输出按Key哈希进入合并分区
+        Map<Integer, Map<Integer, Long>> merged = Maps.newHashMap();
+        for (PartitionSpec spec : specs) {
+            if (!spec.isSplit()) {
+                assert spec.startPartition > 1 || spec.endPartition <= 1;
+                continue;
+            }
+            assert spec.startPartition == 1;
+            Map<Integer, Long> partial = Maps.newHashMap();
+            for (int mapId = spec.startMapIndex; mapId < Math.min(spec.endMapIndex, numMaps); ++mapId) {
+                for (int key = 0; key < numKeys; ++key) {
+                    if (partitioner.getPartition(key) != 1) {
+                        continue;
+                    }
+                    for (int i = 0; i < occurrences(key); ++i) {
+                        Long combiner = partial.get(key);
+                        partial.put(key, combiner == null ? aggregator.combinerCreator.createCombiner(1L)
+                                                          : aggregator.combinerAdd.mergeValue(1L, combiner));
+                    }
+                }
+            }
+            partial.forEach((key, combiner) ->
+                merged.computeIfAbsent(mergePartitioner.getPartition(key), p -> Maps.newHashMap())
+                      .merge(key, combiner, aggregator.combinerMerge::mergeCombiners));
+        }
+
+        // 倾斜分区由多个合并分区并行合并, 每个Key只进入一个合并分区且聚合值完整
+        assert merged.size() > 1;
+        int numMergedKeys = 0;
+        for (Map<Integer, Long> partition : merged.values()) {
+            for (Map.Entry<Integer, Long> entry : partition.entrySet()) {
+                assert entry.getValue() == occurrences(entry.getKey()) * numMaps;
+            }
+            numMergedKeys += partition.size();
+        }
+        assert numMergedKeys == numKeys / 4;
+    }
+
+    @Test
+    public void testSelectedPartitionsOfMixedSpecs() {
+        RDD<Integer> first = parallelize(3);
+        RDD<Integer> second = parallelize(2);
+        // 分区依次为: first[2], second[0], first[0], second[1]
+        int[] parentIds = new int[]{0, 1, 0, 1};
+        int[] parentPartitions = new int[]{2, 0, 0, 1};
+        SelectedPartitionsRDD<Integer> rdd = new SelectedPartitionsRDD<>(Lists.newArrayList(first, second),
+                                                                         parentIds, parentPartitions);
+
+        Partition[] partitions = rdd.partitions();
+        assert partitions.length == parentIds.length;
+        List<RDD<Integer>> parents = Lists.newArrayList(first, second);
+        for (int i = 0; i < partitions.length; ++i) {
+            assert partitions[i].index() == i;
+            Partition parentPartition = ((SelectedPartition) partitions[i]).parentPartition;
+            assert parentPartition == parents.get(parentIds[i]).partitions()[parentPartitions[i]];
+        }
+
+        List<Dependency<?>> dependencies = rdd.dependencies();
+        assert dependencies.size() == 2;
+        for (int parentId = 0; parentId < dependencies.size(); ++parentId) {
+            NarrowDependency<?> dependency = (NarrowDependency<?>) dependencies.get(parentId);
+            assert dependency.rdd() == parents.get(parentId);
+            for (int i = 0; i < partitions.length; ++i) {
+                int[] expected = parentIds[i] == parentId ? new int[]{parentPartitions[i]} : new int[0];
+                assert Arrays.equals(dependency.getParents(i), expected);
+            }
+        }
+    }
+
+    @Test
+    public void testMergeSplitPartitions() {
+        ReducePartitionCoalescer coalescer = new ReducePartitionCoalescer(true, 100, -1, true, 5.0, 50);
+        // [10, 10, 0], [90], 分区4拆分为3个Task, [20, 30, 40]
+        PartitionSpec[] specs = coalescer.planPartitions(stats, reduceId -> new long[]{60, 50, 40, 50});
+        Aggregator<Integer, Integer, Integer> aggregator = new Aggregator<>(v -> v, (v, c) -> c + v, (c1, c2) -> c1 + c2);
+        RDD<Product2<Integer, Integer>> parent = parallelize(4);
+        ShuffleDependency<Integer, Integer, Integer> dependency = new ShuffleDependency<>(parent,
+                                                                                           new HashPartitioner(8),
+                                                                                           null, null, aggregator, true);
+        ShuffledRDD<Integer, Integer, Integer> splitRDD = new ShuffledRDD<>(dependency, specs);
+
+        RDD<Product2<Integer, Integer>> rdd = ReducePartitionCoalescer.mergeSplitPartitions(splitRDD, dependency, specs);
+        List<Dependency<?>> dependencies = rdd.dependencies();
+        assert dependencies.size() == 2;
+        NarrowDependency<?> splitDependency = (NarrowDependency<?>) dependencies.get(0);
+        NarrowDependency<?> mergeDependency = (NarrowDependency<?>) dependencies.get(1);
+        assert splitDependency.rdd() == splitRDD;
+
+        // 合并Shuffle只读取拆分Task的输出, 按SplitMergePartitioner划分为3个合并分区
+        RDD<?> mergeRDD = mergeDependency.rdd();
+        ShuffleDependency<?, ?, ?> mergeShuffle = (ShuffleDependency<?, ?, ?>) mergeRDD.dependencies().get(0);
+        assert mergeShuffle.partitioner instanceof SplitMergePartitioner;
+        assert mergeShuffle.partitioner.numPartitions() == 3;
+        assert mergeShuffle.aggregator != null && mergeShuffle.keyOrdering == null;
+        NarrowDependency<?> selectSplits = (NarrowDependency<?>) mergeShuffle.rdd().dependencies().get(0);
+        assert selectSplits.rdd() == splitRDD;
+        assert Arrays.equals(selectSplits.getParents(0), new int[]{2});
+        assert Arrays.equals(selectSplits.getParents(1), new int[]{3});
+        assert Arrays.equals(selectSplits.getParents(2), new int[]{4});
+
+        // 第i个分区仍对应specs[i]: 未拆分的分区读取splitRDD, 拆分的分区读取合并分区
+        Partition[] partitions = rdd.partitions();
+        assert partitions.length == specs.length;
+        for (int i = 0, split = 0; i < specs.length; ++i) {
+            Partition parentPartition = ((SelectedPartition) partitions[i]).parentPartition;
+            if (specs[i].isSplit()) {
+                assert parentPartition == mergeRDD.partitions()[split];
+                assert Arrays.equals(splitDependency.getParents(i), new int[0]);
+                assert Arrays.equals(mergeDependency.getParents(i), new int[]{split});
+                split++;
+            } else {
+                assert parentPartition == splitRDD.partitions()[i];
+                assert ((ShuffledRDDPartition) parentPartition).spec == specs[i];
+                assert Arrays.equals(splitDependency.getParents(i), new int[]{i});
+                assert Arrays.equals(mergeDependency.getParents(i), new int[0]);
+            }
+        }
+    }
+
+    private static <T> RDD<T> parallelize(int numPartitions) {
+        Partition[] partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; ++i) {
+            int index = i;
+            partitions[i] = new Partition() {
+                @Override
+                public int index() {
+                    return index;
+                }
+            };
+        }
+        return new RDD<T>(FakeSparkContext.create(), Collections.emptyList()) {
+            @Override
+            public TIterator<T> compute(Partition split, TaskContext context) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Partition[] getPartitions() {
+                return partitions;
+            }
+        };
+    }
+
+    private static int occurrences(int key) {
+        return key % 4 == 1 ? 5 : 1;
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
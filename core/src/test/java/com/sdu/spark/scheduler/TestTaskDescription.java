@@ -0,0 +1,93 @@
+package com.sdu.spark.scheduler;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sdu.spark.SparkTestUnit;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestTaskDescription extends SparkTestUnit {
+
+    @Override
+    public void beforeEach() {
+
+    }
+
+    private TaskDescription task(long taskId, Map<String, Long> jars, Properties properties, byte[] data) {
+        return new TaskDescription(taskId, 0, "exec-1", "task " + taskId, (int) taskId, Maps.newHashMap(),
+                                   jars, properties, ByteBuffer.wrap(data));
+    }
+
+    @Test
+    public void testEncodeBatch() throws Exception {
+        Map<String, Long> jars = Maps.newHashMap();
+        jars.put("app.jar", 10L);
+        Properties properties = new Properties();
+        properties.setProperty("spark.job.description", "test");
+
+        List<TaskDescription> tasks = Lists.newArrayList();
+        for (int i = 0; i < 100; ++i) {
+            tasks.add(task(i, jars, properties, new byte[]{(byte) i, 1, 2}));
+        }
+        tasks.add(task(100, Maps.newHashMap(), new Properties(), new byte[]{100}));
+
+        ByteBuffer single = TaskDescription.encode(tasks.get(0));
+        ByteBuffer batch = TaskDescription.encodeBatch(tasks);
+        // 共享字段只编码一次
+        assert batch.remaining() < single.remaining() * tasks.size() / 2;
+
+        List<TaskDescription> result = TaskDescription.decodeBatch(batch);
+        assert result.size() == tasks.size();
+        for (int i = 0; i < 100; ++i) {
+            TaskDescription desc = result.get(i);
+            assert desc.taskId == i && desc.index == i && desc.executorId.equals("exec-1");
+            assert desc.name.equals("task " + i);
+            assert desc.addedJars.equals(jars);
+            assert desc.properties.getProperty("spark.job.description").equals("test");
+            assert desc.serializedTask.remaining() == 3 && desc.serializedTask.get(0) == (byte) i;
+            // 同一字典项解码为同一对象
+            assert desc.properties == result.get(0).properties;
+        }
+        TaskDescription last = result.get(100);
+        assert last.addedJars.isEmpty() && last.properties.isEmpty();
+        assert last.serializedTask.remaining() == 1 && last.serializedTask.get(0) == 100;
+    }
+
+    @Test
+    public void testEncodeBatchWithDefaultsProperties() throws Exception {
+        // 与DAGScheduler提交Job相同, 属性保存在defaults中, Hashtable.equals()判定二者相等
+        Properties jobProperties1 = new Properties();
+        jobProperties1.setProperty("spark.job.description", "job-1");
+        Properties jobProperties2 = new Properties();
+        jobProperties2.setProperty("spark.job.description", "job-2");
+        Properties properties1 = new Properties(jobProperties1);
+        Properties properties2 = new Properties(jobProperties2);
+        assert properties1.equals(properties2);
+
+        List<TaskDescription> tasks = Lists.newArrayList(
+                task(0, Maps.newHashMap(), properties1, new byte[]{0}),
+                task(1, Maps.newHashMap(), properties2, new byte[]{1}),
+                task(2, Maps.newHashMap(), properties1, new byte[]{2}));
+
+        List<TaskDescription> result = TaskDescription.decodeBatch(TaskDescription.encodeBatch(tasks));
+        assert result.size() == tasks.size();
+        assert result.get(0).properties.getProperty("spark.job.description").equals("job-1");
+        assert result.get(1).properties.getProperty("spark.job.description").equals("job-2");
+        assert result.get(2).properties == result.get(0).properties;
+
+        TaskDescription single = TaskDescription.decode(TaskDescription.encode(tasks.get(1)));
+        assert single.properties.getProperty("spark.job.description").equals("job-2");
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
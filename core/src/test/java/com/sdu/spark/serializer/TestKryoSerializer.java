@@ -0,0 +1,67 @@
+package com.sdu.spark.serializer;
+
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.rpc.SparkConf;
+import com.sdu.spark.utils.scala.Tuple2;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestKryoSerializer extends SparkTestUnit {
+
+    private KryoSerializer serializer;
+
+    @Override
+    public void beforeEach() {
+        serializer = new KryoSerializer(new SparkConf());
+    }
+
+    @Test
+    public void testSerializeRoundTrip() throws Exception {
+        SerializerInstance instance = serializer.newInstance();
+        Tuple2<String, long[]> value = new Tuple2<>("key", new long[]{1L, 2L, 3L});
+        ByteBuffer buffer = instance.serialize(value);
+        Tuple2<String, long[]> result = instance.deserialize(buffer);
+        assert result._1().equals("key");
+        assert result._2().length == 3 && result._2()[2] == 3L;
+    }
+
+    @Test
+    public void testSerializationStream() throws Exception {
+        SerializerInstance instance = serializer.newInstance();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        SerializationStream out = instance.serializeStream(bos);
+        for (int i = 0; i < 100; ++i) {
+            out.writeKey(i);
+            out.writeValue("value-" + i);
+        }
+        out.close();
+
+        DeserializationStream in = instance.deserializeStream(new ByteArrayInputStream(bos.toByteArray()));
+        Iterator<Tuple2<Object, Object>> iterator = in.asKeyValueIterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Tuple2<Object, Object> kv = iterator.next();
+            assert kv._1().equals(count);
+            assert kv._2().equals("value-" + count);
+            count++;
+        }
+        assert count == 100;
+    }
+
+    @Test
+    public void testSupportsRelocationOfSerializedObjects() {
+        assert serializer.supportsRelocationOfSerializedObjects();
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
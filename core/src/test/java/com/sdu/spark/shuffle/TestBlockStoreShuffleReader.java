@@ -0,0 +1,156 @@
+package com.sdu.spark.shuffle;
+
+import com.sdu.spark.*;
+import com.sdu.spark.Partitioner.HashPartitioner;
+import com.sdu.spark.executor.ShuffleReadMetrics;
+import com.sdu.spark.executor.TaskMetrics;
+import com.sdu.spark.memory.TaskMemoryManager;
+import com.sdu.spark.rdd.RDD;
+import com.sdu.spark.scheduler.LiveListenerBus;
+import com.sdu.spark.scheduler.MapStatus.CompressedMapStatus;
+import com.sdu.spark.serializer.SerializationStream;
+import com.sdu.spark.storage.BlockId.ShuffleBlockId;
+import com.sdu.spark.storage.BlockManagerId;
+import com.sdu.spark.utils.TIterator;
+import com.sdu.spark.utils.Utils;
+import com.sdu.spark.utils.scala.Product2;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Properties;
+
+/**
+ * 读取本地Shuffle Block, 校验读取及排序Spill指标记录在Task的{@link TaskMetrics}中
+ *
+ * @author hanhan.zhang
+ * */
+public class TestBlockStoreShuffleReader extends SparkTestUnit {
+
+    private static final int NUM_MAPS = 2;
+    private static final int NUM_REDUCES = 2;
+    private static final int RECORDS_PER_BLOCK = 5;
+
+    private SparkEnv env;
+    private TaskContextImpl context;
+
+    @Override
+    public void beforeEach() {
+        // 仅校验读取指标, 不经ChunkedByteBufferOutputStream校验Block完整性
+        conf.set("spark.shuffle.detectCorrupt", "false");
+        env = SparkEnv.createDriverEnv(conf, true, new LiveListenerBus(conf), 1, null);
+        SparkEnv.env = env;
+        // BlockManager未initialize(), 直接指定本地BlockManagerId
+        env.blockManager.blockManagerId = BlockManagerId.apply(SparkContext.DRIVER_IDENTIFIER, "localhost", 7000, null);
+        context = new TaskContextImpl(0, 0, 0, 0, new TaskMemoryManager(env.memoryManager, 0), new Properties());
+    }
+
+    @Test
+    public void testReadMetrics() throws IOException {
+        ShuffleDependency<Integer, Object, Integer> dep = createDependency(null);
+        long totalBytes = writeMapOutputs(dep.shuffleId());
+
+        int numRecords = 0;
+        Iterator<Product2<Integer, Integer>> iter = reader(dep).read();
+        while (iter.hasNext()) {
+            iter.next();
+            numRecords++;
+        }
+        assert numRecords == NUM_MAPS * NUM_REDUCES * RECORDS_PER_BLOCK;
+
+        ShuffleReadMetrics readMetrics = context.taskMetrics().shuffleReadMetrics();
+        assert readMetrics.recordsRead() == numRecords;
+        assert readMetrics.localBlocksFetched() == NUM_MAPS * NUM_REDUCES;
+        assert readMetrics.localBytesRead() == totalBytes;
+    }
+
+    @Test
+    public void testSortSpillMetrics() throws IOException {
+        ShuffleDependency<Integer, Object, Integer> dep = createDependency(Comparator.naturalOrder());
+        writeMapOutputs(dep.shuffleId());
+
+        int numRecords = 0;
+        int lastKey = Integer.MIN_VALUE;
+        Iterator<Product2<Integer, Integer>> iter = reader(dep).read();
+        while (iter.hasNext()) {
+            int key = iter.next()._1();
+            assert key >= lastKey;
+            lastKey = key;
+            numRecords++;
+        }
+        assert numRecords == NUM_MAPS * NUM_REDUCES * RECORDS_PER_BLOCK;
+
+        // spark.shuffle.spill.numElementsForceSpillThreshold = 3, 排序必然Spill
+        TaskMetrics metrics = context.taskMetrics();
+        assert metrics.memoryBytesSpilled() > 0;
+        assert metrics.diskBytesSpilled() > 0;
+        assert metrics.peakExecutionMemory() > 0;
+        assert metrics.shuffleReadMetrics().recordsRead() == numRecords;
+    }
+
+    private ShuffleDependency<Integer, Object, Integer> createDependency(Comparator<Integer> keyOrdering) {
+        RDD<Product2<Integer, Object>> parent = new RDD<Product2<Integer, Object>>(FakeSparkContext.create(), Collections.emptyList()) {
+            @Override
+            public TIterator<Product2<Integer, Object>> compute(Partition split, TaskContext context) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Partition[] getPartitions() {
+                return new Partition[0];
+            }
+        };
+        return new ShuffleDependency<>(parent, new HashPartitioner(NUM_REDUCES), env.serializer, keyOrdering, null, true);
+    }
+
+    private BlockStoreShuffleReader<Integer, Integer> reader(ShuffleDependency<Integer, Object, Integer> dep) {
+        return new BlockStoreShuffleReader<>(new BaseShuffleHandle<>(dep.shuffleId(), NUM_MAPS, dep), 0, NUM_REDUCES, context);
+    }
+
+    /**
+     * 每个Map输出写入NUM_REDUCES个Block并注册MapStatus, 返回Block总字节数
+     * */
+    private long writeMapOutputs(int shuffleId) throws IOException {
+        IndexShuffleBlockResolver resolver = (IndexShuffleBlockResolver) env.shuffleManager.shuffleBlockResolver();
+        MapOutputTrackerMaster tracker = (MapOutputTrackerMaster) env.mapOutputTracker;
+        tracker.registerShuffle(shuffleId, NUM_MAPS);
+
+        long totalBytes = 0;
+        for (int mapId = 0; mapId < NUM_MAPS; ++mapId) {
+            File dataTmp = Utils.tempFileWith(resolver.getDataFile(shuffleId, mapId));
+            long[] lengths = new long[NUM_REDUCES];
+            try (FileOutputStream out = new FileOutputStream(dataTmp)) {
+                for (int reduceId = 0; reduceId < NUM_REDUCES; ++reduceId) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    SerializationStream stream = env.serializer.newInstance().serializeStream(
+                            env.serializerManager.wrapStream(new ShuffleBlockId(shuffleId, mapId, reduceId), bytes));
+                    for (int i = 0; i < RECORDS_PER_BLOCK; ++i) {
+                        // 逆序写入, 排序结果可校验
+                        int key = (RECORDS_PER_BLOCK - i) * NUM_REDUCES + reduceId;
+                        stream.writeKey(key);
+                        stream.writeValue(mapId);
+                    }
+                    stream.close();
+                    lengths[reduceId] = bytes.size();
+                    totalBytes += bytes.size();
+                    out.write(bytes.toByteArray());
+                }
+            }
+            resolver.writeIndexFileAndCommit(shuffleId, mapId, lengths, dataTmp);
+            tracker.registerMapOutput(shuffleId, mapId, new CompressedMapStatus(env.blockManager.blockManagerId, lengths));
+        }
+        return totalBytes;
+    }
+
+    @Override
+    public void afterEach() {
+        context.markTaskCompleted();
+        env.rpcEnv.shutdown();
+        SparkEnv.env = null;
+    }
+}
@@ -0,0 +1,164 @@
+package com.sdu.spark.unfase.map;
+
+import com.google.common.collect.Maps;
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.memory.StaticMemoryManager;
+import com.sdu.spark.memory.TaskMemoryManager;
+import com.sdu.spark.storage.DiskBlockManager;
+import com.sdu.spark.unfase.Platform;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestBytesToBytesMap extends SparkTestUnit {
+
+    private TaskMemoryManager taskMemoryManager;
+    private DiskBlockManager diskBlockManager;
+
+    @Before
+    @Override
+    public void beforeEach() {
+        taskMemoryManager = new TaskMemoryManager(
+                new StaticMemoryManager(
+                        conf,
+                        Runtime.getRuntime().availableProcessors(),
+                        Long.MAX_VALUE,
+                        Long.MAX_VALUE
+                ),
+                0
+        );
+        diskBlockManager = new DiskBlockManager(conf, true);
+    }
+
+    @Test
+    public void testAppendAndLookup() {
+        BytesToBytesMap map = new BytesToBytesMap(taskMemoryManager, diskBlockManager, 64, 0.5, 4096, 4096);
+        int numKeys = 1000;
+        for (int i = 0; i < numKeys; ++i) {
+            byte[] key = ("key-" + i).getBytes();
+            BytesToBytesMap.Location loc = map.lookup(key, Platform.BYTE_ARRAY_OFFSET, key.length);
+            assert !loc.isDefined();
+            long[] value = new long[]{i};
+            assert loc.append(key, Platform.BYTE_ARRAY_OFFSET, key.length, value, Platform.LONG_ARRAY_OFFSET, 8);
+        }
+        assert map.numKeys() == numKeys;
+
+        // 原地更新定长Value
+        for (int i = 0; i < numKeys; ++i) {
+            byte[] key = ("key-" + i).getBytes();
+            BytesToBytesMap.Location loc = map.lookup(key, Platform.BYTE_ARRAY_OFFSET, key.length);
+            assert loc.isDefined();
+            assert loc.getValueLength() == 8;
+            long value = Platform.getLong(loc.getValueBase(), loc.getValueOffset());
+            assert value == i;
+            Platform.putLong(loc.getValueBase(), loc.getValueOffset(), value + 1);
+        }
+
+        int count = 0;
+        BytesToBytesMap.MapIterator iterator = map.iterator();
+        while (iterator.hasNext()) {
+            BytesToBytesMap.Location loc = iterator.next();
+            byte[] key = new byte[loc.getKeyLength()];
+            Platform.copyMemory(loc.getKeyBase(), loc.getKeyOffset(), key, Platform.BYTE_ARRAY_OFFSET, key.length);
+            int i = Integer.parseInt(new String(key).substring(4));
+            assert Platform.getLong(loc.getValueBase(), loc.getValueOffset()) == i + 1;
+            count++;
+        }
+        assert count == numKeys;
+
+        map.free();
+        assert taskMemoryManager.cleanUpAllAllocatedMemory() == 0;
+    }
+
+    @Test
+    public void testSpillAndMergeSortedRuns() throws IOException {
+        BytesToBytesMap map = new BytesToBytesMap(taskMemoryManager, diskBlockManager, 64, 0.5, 4096, 4096);
+        int numKeys = 300;
+        int rounds = 3;
+        for (int r = 0; r < rounds; ++r) {
+            for (int i = 0; i < numKeys; ++i) {
+                byte[] key = ("key-" + i).getBytes();
+                BytesToBytesMap.Location loc = map.lookup(key, Platform.BYTE_ARRAY_OFFSET, key.length);
+                long[] value = new long[]{1};
+                assert loc.append(key, Platform.BYTE_ARRAY_OFFSET, key.length, value, Platform.LONG_ARRAY_OFFSET, 8);
+            }
+            if (r < rounds - 1) {
+                map.spill();
+                assert map.numKeys() == 0;
+            }
+        }
+        assert map.numSpills() == rounds - 1;
+
+        // 按哈希值有序归并, 合并相同Key的Value
+        Map<String, Long> result = Maps.newHashMap();
+        BytesToBytesMap.RecordIterator sorted = map.destructiveSortedIterator();
+        long prevHash = -1;
+        while (sorted.hasNext()) {
+            sorted.loadNext();
+            long hash = sorted.getKeyHash() & 0xFFFFFFFFL;
+            assert hash >= prevHash;
+            prevHash = hash;
+            byte[] key = new byte[sorted.getKeyLength()];
+            Platform.copyMemory(sorted.getKeyBase(), sorted.getKeyOffset(), key, Platform.BYTE_ARRAY_OFFSET, key.length);
+            long value = Platform.getLong(sorted.getValueBase(), sorted.getValueOffset());
+            result.merge(new String(key), value, Long::sum);
+        }
+        assert result.size() == numKeys;
+        result.values().forEach(v -> {
+            assert v == rounds;
+        });
+
+        map.free();
+        assert taskMemoryManager.cleanUpAllAllocatedMemory() == 0;
+    }
+
+    @Test
+    public void testInsertUnderSmallMemoryBudget() throws IOException {
+        // Execution内存仅40KB: 申请内存页及哈希槽扩容时触发自身Spill, 插入过程中不能重置哈希表
+        taskMemoryManager = new TaskMemoryManager(
+                new StaticMemoryManager(conf, 1, Long.MAX_VALUE, 40 * 1024L),
+                0
+        );
+        BytesToBytesMap map = new BytesToBytesMap(taskMemoryManager, diskBlockManager, 64, 0.5, 4096, 4096);
+        int numKeys = 5000;
+        for (int i = 0; i < numKeys; ++i) {
+            byte[] key = ("key-" + i).getBytes();
+            long[] value = new long[]{i};
+            BytesToBytesMap.Location loc = map.lookup(key, Platform.BYTE_ARRAY_OFFSET, key.length);
+            if (!loc.append(key, Platform.BYTE_ARRAY_OFFSET, key.length, value, Platform.LONG_ARRAY_OFFSET, 8)) {
+                map.spill();
+                loc = map.lookup(key, Platform.BYTE_ARRAY_OFFSET, key.length);
+                assert loc.append(key, Platform.BYTE_ARRAY_OFFSET, key.length, value, Platform.LONG_ARRAY_OFFSET, 8);
+            }
+        }
+        assert map.numSpills() > 0;
+
+        Map<String, Long> result = Maps.newHashMap();
+        BytesToBytesMap.RecordIterator sorted = map.destructiveSortedIterator();
+        while (sorted.hasNext()) {
+            sorted.loadNext();
+            byte[] key = new byte[sorted.getKeyLength()];
+            Platform.copyMemory(sorted.getKeyBase(), sorted.getKeyOffset(), key, Platform.BYTE_ARRAY_OFFSET, key.length);
+            assert result.put(new String(key), Platform.getLong(sorted.getValueBase(), sorted.getValueOffset())) == null;
+        }
+        assert result.size() == numKeys;
+        for (int i = 0; i < numKeys; ++i) {
+            assert result.get("key-" + i) == i;
+        }
+
+        map.free();
+        assert taskMemoryManager.cleanUpAllAllocatedMemory() == 0;
+    }
+
+    @After
+    @Override
+    public void afterEach() {
+        diskBlockManager.stop();
+    }
+}
@@ -0,0 +1,132 @@
+package com.sdu.spark.utils.collection;
+
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.utils.colleciton.AppendOnlyMap;
+import com.sdu.spark.utils.colleciton.HashComparator;
+import com.sdu.spark.utils.colleciton.IntKeyAppendOnlyMap;
+import com.sdu.spark.utils.colleciton.LongKeyAppendOnlyMap;
+import com.sdu.spark.utils.colleciton.PartitionedPrimitiveKeyAppendOnlyMap;
+import com.sdu.spark.utils.scala.Tuple2;
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestPrimitiveKeyAppendOnlyMap extends SparkTestUnit {
+
+    private AppendOnlyMap.Updater<Integer> updater = (hadValue, value) -> hadValue ? value + 1 : 1;
+
+    @Override
+    public void beforeEach() {
+
+    }
+
+    @Test
+    public void testLongKeyChangeValue() {
+        LongKeyAppendOnlyMap<Integer> map = new LongKeyAppendOnlyMap<>(4);
+        for (long i = 0; i < 100; ++i) {
+            map.changeValue(i % 10, updater);
+        }
+        assert map.size() == 10;
+        assert map.apply(0L) == 10;
+        assert map.apply(9L) == 10;
+        assert map.apply(10L) == null;
+
+        int count = 0;
+        Iterator<Tuple2<Long, Integer>> iterator = map.iterator();
+        while (iterator.hasNext()) {
+            assert iterator.next()._2() == 10;
+            count++;
+        }
+        assert count == 10;
+    }
+
+    @Test
+    public void testIntKeyDestructiveSortedIterator() {
+        IntKeyAppendOnlyMap<Integer> map = new IntKeyAppendOnlyMap<>();
+        for (int i = 50; i >= -50; --i) {
+            map.update(i, i);
+        }
+        Iterator<Tuple2<Integer, Integer>> iterator = map.destructiveSortedIterator(Comparator.naturalOrder());
+        int expected = -50;
+        while (iterator.hasNext()) {
+            Tuple2<Integer, Integer> kv = iterator.next();
+            assert kv._1() == expected && kv._2() == expected;
+            expected++;
+        }
+        assert expected == 51;
+    }
+
+    @Test
+    public void testPartitionedDestructiveSortedIterator() {
+        PartitionedPrimitiveKeyAppendOnlyMap<Long, Integer> map = PartitionedPrimitiveKeyAppendOnlyMap.forLongKeys();
+        for (long i = 0; i < 200; ++i) {
+            map.changeValue((int) (i % 3), i % 20, updater);
+        }
+        assert map.size() == 60;
+
+        Iterator<Tuple2<Tuple2<Integer, Long>, Integer>> iterator =
+                map.partitionedDestructiveSortedIterator(Comparator.reverseOrder());
+        Tuple2<Integer, Long> prev = null;
+        int total = 0;
+        while (iterator.hasNext()) {
+            Tuple2<Tuple2<Integer, Long>, Integer> kv = iterator.next();
+            if (prev != null) {
+                assert prev._1() < kv._1()._1() || (prev._1().equals(kv._1()._1()) && prev._2() > kv._1()._2());
+            }
+            prev = kv._1();
+            total += kv._2();
+        }
+        assert total == 200;
+    }
+
+    @Test
+    public void testLongKeyHashOrderedSort() {
+        LongKeyAppendOnlyMap<Integer> map = new LongKeyAppendOnlyMap<>();
+        // 高32位非0的Key, Long.hashCode()与低32位不同
+        for (long i = -100; i <= 100; ++i) {
+            map.update(i * 0x100000001L, 1);
+        }
+        Iterator<Tuple2<Long, Integer>> iterator = map.destructiveSortedIterator(HashComparator.get());
+        int count = 0;
+        Long prev = null;
+        while (iterator.hasNext()) {
+            Long key = iterator.next()._1();
+            if (prev != null) {
+                assert prev.hashCode() <= key.hashCode();
+            }
+            prev = key;
+            count++;
+        }
+        assert count == 201;
+    }
+
+    @Test
+    public void testPartitionedIntKeyHashOrderedSort() {
+        PartitionedPrimitiveKeyAppendOnlyMap<Integer, Integer> map = PartitionedPrimitiveKeyAppendOnlyMap.forIntKeys();
+        for (int i = -100; i <= 100; ++i) {
+            map.changeValue(Math.abs(i) % 2, i * 7919, updater);
+        }
+        Iterator<Tuple2<Tuple2<Integer, Integer>, Integer>> iterator =
+                map.partitionedDestructiveSortedIterator(HashComparator.get());
+        Tuple2<Integer, Integer> prev = null;
+        int count = 0;
+        while (iterator.hasNext()) {
+            Tuple2<Integer, Integer> key = iterator.next()._1();
+            if (prev != null) {
+                assert prev._1() < key._1() || (prev._1().equals(key._1()) && prev._2().hashCode() <= key._2().hashCode());
+            }
+            prev = key;
+            count++;
+        }
+        assert count == 201;
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
@@ -0,0 +1,114 @@
+package com.sdu.spark.utils.collection;
+
+import com.sdu.spark.SparkTestUnit;
+import com.sdu.spark.unfase.array.LongArray;
+import com.sdu.spark.unfase.memory.MemoryBlock;
+import com.sdu.spark.utils.colleciton.RadixSort;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author hanhan.zhang
+ * */
+public class TestRadixSort extends SparkTestUnit {
+
+    private Random random;
+
+    @Override
+    public void beforeEach() {
+        random = new Random(47);
+    }
+
+    @Test
+    public void testSortAscending() {
+        int numRecords = 10000;
+        long[] expected = new long[numRecords];
+        // 后半部分为排序临时空间
+        LongArray array = new LongArray(MemoryBlock.fromLongArray(new long[numRecords * 2]));
+        for (int i = 0; i < numRecords; ++i) {
+            long value = random.nextLong() & 0x7FFFFFFFFFFFFFFFL;
+            expected[i] = value;
+            array.set(i, value);
+        }
+        Arrays.sort(expected);
+
+        int offset = RadixSort.sort(array, numRecords, 0, 7, false, false);
+        for (int i = 0; i < numRecords; ++i) {
+            assert array.get(offset + i) == expected[i];
+        }
+    }
+
+    @Test
+    public void testSortSignedDescending() {
+        int numRecords = 1000;
+        long[] expected = new long[numRecords];
+        LongArray array = new LongArray(MemoryBlock.fromLongArray(new long[numRecords * 2]));
+        for (int i = 0; i < numRecords; ++i) {
+            long value = random.nextLong();
+            expected[i] = value;
+            array.set(i, value);
+        }
+        Arrays.sort(expected);
+
+        int offset = RadixSort.sort(array, numRecords, 0, 7, true, true);
+        for (int i = 0; i < numRecords; ++i) {
+            assert array.get(offset + i) == expected[numRecords - 1 - i];
+        }
+    }
+
+    @Test
+    public void testSortPartialBytes() {
+        // 仅按高3字节(类似PackedRecordPointer分区号)排序, 排序须稳定
+        int numRecords = 1000;
+        LongArray array = new LongArray(MemoryBlock.fromLongArray(new long[numRecords * 2]));
+        for (int i = 0; i < numRecords; ++i) {
+            long partitionId = random.nextInt(16);
+            array.set(i, (partitionId << 40) | i);
+        }
+
+        int offset = RadixSort.sort(array, numRecords, 5, 7, false, false);
+        long prev = array.get(offset);
+        for (int i = 1; i < numRecords; ++i) {
+            long cur = array.get(offset + i);
+            assert (prev >>> 40) < (cur >>> 40) ||
+                    ((prev >>> 40) == (cur >>> 40) && (prev & 0xFFFFFFFFFFL) < (cur & 0xFFFFFFFFFFL));
+            prev = cur;
+        }
+    }
+
+    @Test
+    public void testSortConstantKeys() {
+        // 所有字节位取值相同, 跳过排序, 数据位置不变
+        int numRecords = 100;
+        LongArray array = new LongArray(MemoryBlock.fromLongArray(new long[numRecords * 2]));
+        for (int i = 0; i < numRecords; ++i) {
+            array.set(i, 42L);
+        }
+        int offset = RadixSort.sort(array, numRecords, 0, 7, false, false);
+        assert offset == 0;
+    }
+
+    @Test
+    public void testSortKeyPrefixArray() {
+        int numRecords = 1000;
+        LongArray array = new LongArray(MemoryBlock.fromLongArray(new long[numRecords * 4]));
+        for (int i = 0; i < numRecords; ++i) {
+            array.set(i * 2, i);
+            array.set(i * 2 + 1, random.nextInt(1 << 20));
+        }
+
+        int offset = RadixSort.sortKeyPrefixArray(array, 0, numRecords, 0, 7, false, false);
+        for (int i = 1; i < numRecords; ++i) {
+            long prevPrefix = array.get(offset + (i - 1) * 2 + 1);
+            long prefix = array.get(offset + i * 2 + 1);
+            assert prevPrefix <= prefix;
+        }
+    }
+
+    @Override
+    public void afterEach() {
+
+    }
+}
@@ -24,8 +24,27 @@ public class TestSizeEstimator extends SparkTestUnit {
         long size = SizeEstimator.estimate(new DummyClass1());
         assert size == 16;
 
-        // 16 + 4 + 8
+        // 12 + 4 + 8 = 24
         size = SizeEstimator.estimate(new DummyClass2());
+        assert size == 24;
+    }
+
+    @Test
+    public void testPrimitiveArrays() {
+        // 16(对象头 + 长度) + 10 * 8
+        assert SizeEstimator.estimate(new long[10]) == 96;
+        // 16 + align(10 * 4)
+        assert SizeEstimator.estimate(new int[10]) == 56;
+    }
+
+    @Test
+    public void testLargeObjectArrays() {
+        // 引用数组超过400个元素时采样估算, 元素相同时估算值精确: 16 + 1000 * 4 + 1000 * 16
+        Object[] array = new Object[1000];
+        for (int i = 0; i < array.length; ++i) {
+            array[i] = new DummyClass1();
+        }
+        assert SizeEstimator.estimate(array) == 16 + 1000 * 4 + 1000 * 16;
     }
 
     @Override